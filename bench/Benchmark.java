@@ -0,0 +1,33 @@
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A benchmark run by {@code Benchmarks}. Each call to {@code run} is one operation, and reports how many rows it
+ * processed so the results can be compared per row.
+ */
+interface Benchmark {
+    /**
+     * Returns the name of the benchmark, including its parameters, e.g. {@code reader.read width=5 depth=0}.
+     * @return the name of the benchmark.
+     */
+    String getName();
+
+    /**
+     * Prepares the benchmark. Not measured.
+     * @throws Exception
+     */
+    void setUp() throws Exception;
+
+    /**
+     * Runs one operation.
+     * @return the number of rows processed.
+     * @throws Exception
+     */
+    long run() throws Exception;
+
+    /**
+     * Releases what {@code setUp} created. Should be called in a finally block after {@code setUp}.
+     * @throws Exception
+     */
+    void tearDown() throws Exception;
+}
@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Runs the benchmarks of the reader, binder, block hand-off and import executor hot paths, and prints the throughput
+ * and the bytes allocated per row of each.
+ * <p>
+ * Each benchmark is warmed up, then measured over several iterations of at least one second each. The allocated
+ * bytes are read from the JVM's per-thread allocation counters, summed over all the live threads, so allocations of
+ * the executor threads are included. They are reported as n/a on JVMs without these counters.
+ * <pre>
+ * usage: java -cp lib/*:out/production/JsonImport:out/bench Benchmarks [name filter]
+ * </pre>
+ */
+public class Benchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 1000000000L;
+
+    /**
+     * Runs the benchmarks whose name contains the first argument, or all of them.
+     * @param args an optional name filter.
+     */
+    public static void main(String args[]) throws Exception {
+        String filter = (args.length > 0) ? args[0] : "";
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (int width: new int[] {5, 20}) {
+            for (int depth: new int[] {0, 2}) {
+                benchmarks.add(new ReaderBenchmark(width, depth, false));
+                benchmarks.add(new ReaderBenchmark(width, depth, true));
+            }
+        }
+        benchmarks.add(new BinderBenchmark(1, false));
+        benchmarks.add(new BinderBenchmark(100, false));
+        benchmarks.add(new BinderBenchmark(100, true));
+        benchmarks.add(new HandoffBenchmark(1, 2));
+        benchmarks.add(new HandoffBenchmark(4, 8));
+        for (int connections: new int[] {8, 64}) {
+            for (boolean holdsMonitor: new boolean[] {false, true}) {
+                benchmarks.add(new ExecutorBenchmark(false, connections, 5, holdsMonitor));
+                benchmarks.add(new ExecutorBenchmark(true, connections, 5, holdsMonitor));
+            }
+        }
+
+        System.out.println(String.format("%-52s %12s %14s %12s", "benchmark", "ops/s", "rows/s", "bytes/row"));
+        for (Benchmark b: benchmarks) {
+            if (b.getName().contains(filter)) {
+                System.out.println(measure(b));
+            }
+        }
+    }
+
+    /**
+     * Runs {@code b}, and returns its result line.
+     */
+    static String measure(Benchmark b) throws Exception {
+        b.setUp();
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                iterate(b);
+            }
+
+            long allocatedBefore = getAllocatedBytes();
+            long ops = 0;
+            long rows = 0;
+            long nanos = 0;
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                long[] result = iterate(b);
+                ops += result[0];
+                rows += result[1];
+                nanos += result[2];
+            }
+            long allocatedAfter = getAllocatedBytes();
+
+            double seconds = nanos / 1e9;
+            String bytesPerRow = (allocatedBefore < 0 || allocatedAfter < 0 || rows == 0) ? "n/a"
+                    : String.format("%.1f", (allocatedAfter - allocatedBefore) / (double) rows);
+            return String.format("%-52s %12.1f %14.0f %12s", b.getName(), ops / seconds, rows / seconds, bytesPerRow);
+        } finally {
+            b.tearDown();
+        }
+    }
+
+    /**
+     * Runs {@code b} for at least one iteration time, and returns the number of operations, rows and nanoseconds.
+     */
+    private static long[] iterate(Benchmark b) throws Exception {
+        long ops = 0;
+        long rows = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            rows += b.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        return new long[] {ops, rows, elapsed};
+    }
+
+    /**
+     * Returns the bytes allocated by all the live threads, or -1 if the JVM does not count them.
+     */
+    static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes: threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
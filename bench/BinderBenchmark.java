@@ -0,0 +1,97 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Measures how fast {@code JsonArrayImporter.doImport} projects a block of auctions and binds their values to the
+ * insert statements, against the statements of {@code StubDriver}, which cost next to nothing.
+ */
+class BinderBenchmark implements Benchmark {
+    private static final int BLOCK_SIZE = 500;
+
+    private final int batchSize;
+    private final boolean multiRowValues;
+    private StubDriver driver;
+    private JsonArrayImporter importer;
+    private List<Field> fields;
+    private List<JsonNode> block;
+
+    /**
+     * Creates a new {@code BinderBenchmark}.
+     * @param batchSize number of statements per JDBC batch.
+     * @param multiRowValues if true, each statement inserts as many rows as SQL Server allows.
+     */
+    BinderBenchmark(int batchSize, boolean multiRowValues) {
+        this.batchSize = batchSize;
+        this.multiRowValues = multiRowValues;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("binder.doImport batchSize=%d multiRow=%b", batchSize, multiRowValues);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        driver = new StubDriver();
+        DriverManager.registerDriver(driver);
+        ConnectionProperties p = new ConnectionProperties("stub", 1433, "Auction", null, "robo", "hunter13");
+        ConnectionPool.getPool(p, 1);
+        importer = new JsonArrayImporter(p, batchSize, multiRowValues);
+
+        fields = new ArrayList<Field>();
+        fields.add(new Field("auc", Types.INTEGER, "int"));
+        fields.add(new Field("item", Types.INTEGER, "int"));
+        fields.add(new Field("owner", Types.NVARCHAR, "nvarchar"));
+        fields.add(new Field("ownerRealm", Types.NVARCHAR, "nvarchar"));
+        fields.add(new Field("bid", Types.BIGINT, "bigint"));
+        fields.add(new Field("buyout", Types.BIGINT, "bigint"));
+        fields.add(new Field("quantity", Types.INTEGER, "int"));
+
+        StringWriter writer = new StringWriter();
+        ReaderBenchmark.writeAuctions(writer, BLOCK_SIZE, 7, 0);
+        JsonArrayReader rd = new JsonArrayReader(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")));
+        try {
+            block = new ArrayList<JsonNode>();
+            JsonNode n = rd.read();
+            while (n != null) {
+                block.add(n);
+                n = rd.read();
+            }
+        } finally {
+            rd.close();
+        }
+
+        //every value of every row must reach the statement, otherwise the benchmark measures the wrong thing
+        run();
+        long bound = 0;
+        for (Map.Entry<String, Long> entry: driver.getCalls().entrySet()) {
+            if (entry.getKey().startsWith("set")) {
+                bound += entry.getValue();
+            }
+        }
+        if (bound != (long) BLOCK_SIZE * fields.size()) {
+            throw new IllegalStateException(String.format("%d values bound instead of %d.", bound,
+                    BLOCK_SIZE * fields.size()));
+        }
+    }
+
+    @Override
+    public long run() throws Exception {
+        int[] updateCounts = importer.doImport("Auctions", fields, block);
+        return updateCounts.length;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        ConnectionPool.closeAll();
+        if (driver != null) {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Measures the rows per second imported through {@code BoundedExecutor} and the import executor, the same way
+ * {@code FileImporter} does, against a {@code StubDriver} that takes a few milliseconds per execute, i.e. a slow link
+ * to the server. The fixed pool needs one thread per connection, virtual threads one per block in flight.
+ * <p>
+ * The runs named monitor wait for the stub server holding a monitor of the connection, as jTDS does. The virtual
+ * threads are used even where the import executor would not use them because the monitor pins them, i.e. on Java 21
+ * to 23, to measure what the pinning costs. On JVMs without virtual threads, the virtual thread runs use the fixed
+ * pool, and are named so.
+ */
+class ExecutorBenchmark implements Benchmark {
+    private static final int BLOCK_COUNT = 200;
+    private static final int BLOCK_SIZE = 100;
+    private static final int BATCH_SIZE = 50;
+
+    private final boolean virtualThreads;
+    private final int connections;
+    private final long latencyMillis;
+    private final boolean holdsMonitor;
+    private StubDriver driver;
+    private ExecutorService executor;
+    private BoundedExecutor blockExecutor;
+    private JsonArrayImporter importer;
+    private List<Field> fields;
+    private RowBlock block;
+
+    /**
+     * Creates a new {@code ExecutorBenchmark}.
+     * @param virtualThreads if true, each block runs on a virtual thread.
+     * @param connections number of connections, and threads of the fixed pool.
+     * @param latencyMillis milliseconds each execute takes.
+     * @param holdsMonitor if true, each execute takes them holding a monitor of its connection.
+     */
+    ExecutorBenchmark(boolean virtualThreads, int connections, long latencyMillis, boolean holdsMonitor) {
+        this.virtualThreads = virtualThreads;
+        this.connections = connections;
+        this.latencyMillis = latencyMillis;
+        this.holdsMonitor = holdsMonitor;
+    }
+
+    @Override
+    public String getName() {
+        String threads = !virtualThreads ? "fixed" : ImportExecutors.isVirtualThreadsSupported() ? "virtual"
+                : "virtual(fixed)";
+        return String.format("executor.import %s connections=%d%s", threads, connections,
+                holdsMonitor ? " monitor" : "");
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        driver = new StubDriver(latencyMillis, holdsMonitor);
+        DriverManager.registerDriver(driver);
+        ConnectionProperties p = new ConnectionProperties("stub", 1433, "Auction", null, "robo", "hunter13");
+        ConnectionPool.getPool(p, connections);
+        importer = new JsonArrayImporter(p, BATCH_SIZE, false);
+        executor = virtualThreads ? ImportExecutors.newVirtualThreadExecutor() : null;
+        if (executor == null) {
+            executor = ImportExecutors.newImportExecutor(connections, false);
+        }
+        //the default of -M, twice the connections
+        blockExecutor = new BoundedExecutor(executor, connections * 2);
+
+        fields = new ArrayList<Field>();
+        fields.add(new Field("auc", Types.INTEGER, "int"));
+        block = new RowBlock(BLOCK_SIZE, 0);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block.add(new JsonRow(new JsonNode[] {JsonNodeFactory.instance.numberNode(i)}));
+        }
+    }
+
+    @Override
+    public long run() throws Exception {
+        final CountDownLatch done = new CountDownLatch(BLOCK_COUNT);
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            blockExecutor.execute(new ImportTask(importer, "Auctions", fields, block) {
+                @Override
+                public void run() {
+                    super.run();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return BLOCK_COUNT * BLOCK_SIZE;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ConnectionPool.closeAll();
+        if (driver != null) {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Measures the cost of passing blocks of rows from the reader to the import threads through {@code BoundedExecutor},
+ * the same way {@code FileImporter} does, with tasks that only walk their rows.
+ */
+class HandoffBenchmark implements Benchmark {
+    private static final int BLOCK_COUNT = 100;
+    private static final int BLOCK_SIZE = 500;
+
+    private final int threadCount;
+    private final int maxBlocks;
+    private final AtomicLong rowCount = new AtomicLong();
+    private ExecutorService executor;
+    private BoundedExecutor blockExecutor;
+    private RowBlock block;
+
+    /**
+     * Creates a new {@code HandoffBenchmark}.
+     * @param threadCount number of import threads.
+     * @param maxBlocks maximum number of blocks in flight.
+     */
+    HandoffBenchmark(int threadCount, int maxBlocks) {
+        this.threadCount = threadCount;
+        this.maxBlocks = maxBlocks;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("handoff.execute threads=%d maxBlocks=%d", threadCount, maxBlocks);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(threadCount);
+        blockExecutor = new BoundedExecutor(executor, maxBlocks);
+        block = new RowBlock(BLOCK_SIZE, 0);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block.add(new JsonRow(new JsonNode[] {JsonNodeFactory.instance.numberNode(i)}));
+        }
+        block.setEndOffset(BLOCK_SIZE * 20);
+    }
+
+    @Override
+    public long run() throws Exception {
+        final CountDownLatch done = new CountDownLatch(BLOCK_COUNT);
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            blockExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long sum = 0;
+                    for (JsonRow row: block) {
+                        sum += row.get(0).asLong();
+                    }
+                    rowCount.addAndGet(sum > 0 ? block.size() : 0);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return BLOCK_COUNT * BLOCK_SIZE;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.*;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Measures how fast {@code JsonArrayReader} reads a generated auctions array. The objects have {@code width} fields,
+ * and each one contains {@code depth} levels of nested objects and arrays. With {@code readRow}, only 3 fields are
+ * kept and the others, including the nested values, are skipped.
+ */
+class ReaderBenchmark implements Benchmark {
+    private static final int ROW_COUNT = 20000;
+    private static final String[] OWNERS = {"Keely", "Facepwnded", "Tephelie", "\u00c6lfwine", "Robo"};
+
+    private final int width;
+    private final int depth;
+    private final boolean readRow;
+    private File file;
+    private FieldProjection projection;
+
+    /**
+     * Creates a new {@code ReaderBenchmark}.
+     * @param width number of fields per object, at least 7.
+     * @param depth number of levels of nested values in each object.
+     * @param readRow if true, the array is read with {@code readRow} instead of {@code read}.
+     */
+    ReaderBenchmark(int width, int depth, boolean readRow) {
+        this.width = width;
+        this.depth = depth;
+        this.readRow = readRow;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("reader.%s width=%d depth=%d", readRow ? "readRow" : "read", width, depth);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        file = File.createTempFile("ReaderBenchmark", ".json");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeAuctions(writer, ROW_COUNT, width, depth);
+        } finally {
+            writer.close();
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("auc", Types.INTEGER, "int"));
+        fields.add(new Field("owner", Types.NVARCHAR, "nvarchar"));
+        fields.add(new Field("bid", Types.BIGINT, "bigint"));
+        projection = new FieldProjection(fields);
+    }
+
+    /**
+     * Writes an auctions array shaped like the Auction House snapshots the tool was written for.
+     */
+    static void writeAuctions(Writer writer, int rowCount, int width, int depth) throws IOException {
+        Random random = new Random(42);
+        writer.write("{\"realm\":{\"name\":\"Aegwynn\",\"slug\":\"aegwynn\"},\"auctions\":[\n");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                writer.write(",\n");
+            }
+            long bid = 1000 + random.nextInt(10000000);
+            writer.write(String.format("{\"auc\":%d,\"item\":%d,\"owner\":\"%s\",\"ownerRealm\":\"Aegwynn\","
+                    + "\"bid\":%d,\"buyout\":%d,\"quantity\":%d", 2073382230 + i, random.nextInt(120000),
+                    OWNERS[i % OWNERS.length], bid, bid * 2, 1 + random.nextInt(20)));
+            for (int f = 7; f < width; f++) {
+                writer.write(String.format(",\"field%d\":%s", f,
+                        (f % 2 == 0) ? Integer.toString(random.nextInt()) : "\"VERY_LONG\""));
+            }
+            for (int d = 0; d < depth; d++) {
+                writer.write(",\"bonusLists\":[{\"bonusListId\":" + random.nextInt(1000)
+                        + ",\"modifiers\":{\"type\":9");
+            }
+            for (int d = 0; d < depth; d++) {
+                writer.write("}}]");
+            }
+            writer.write("}");
+        }
+        writer.write("]}\n");
+    }
+
+    @Override
+    public long run() throws Exception {
+        JsonArrayReader rd = new JsonArrayReader(file.getPath());
+        long rows = 0;
+        try {
+            if (readRow) {
+                while (rd.readRow(projection) != null) {
+                    rows++;
+                }
+            } else {
+                while (rd.read() != null) {
+                    rows++;
+                }
+            }
+        } finally {
+            rd.close();
+        }
+        return rows;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (file != null) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * An in-process JDBC driver that accepts any URL, so the importer can be benchmarked without a database. Its
+ * connections return statements that only count the calls made to them, e.g. {@code setLong} or
+ * {@code executeBatch}, and report every row as inserted. A latency can be added to each execute, to stand in for a
+ * slow link to the server. The latency can be spent holding a monitor of the connection, the way jTDS holds one of
+ * its socket while it waits for the server, so the cost of virtual threads pinned by it can be measured.
+ * <p>
+ * The driver is registered before the jTDS driver is loaded, so {@code DriverManager} picks it first.
+ */
+class StubDriver implements Driver {
+    private final ConcurrentHashMap<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+    private final long latencyMillis;
+    private final boolean holdsMonitor;
+
+    /**
+     * Creates a new {@code StubDriver} whose executes return at once.
+     */
+    StubDriver() {
+        this(0, false);
+    }
+
+    /**
+     * Creates a new {@code StubDriver} whose executes wait before they return, as a server across a slow link would.
+     * @param latencyMillis milliseconds each execute takes.
+     * @param holdsMonitor if true, the executes wait holding a monitor of their connection, as jTDS does.
+     */
+    StubDriver(long latencyMillis, boolean holdsMonitor) {
+        this.latencyMillis = latencyMillis;
+        this.holdsMonitor = holdsMonitor;
+    }
+
+    /**
+     * Returns the number of calls made to the statements, by method name.
+     * @return the number of calls of each method.
+     */
+    Map<String, Long> getCalls() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry: calls.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private void count(String method) {
+        AtomicLong count = calls.get(method);
+        if (count == null) {
+            calls.putIfAbsent(method, new AtomicLong());
+            count = calls.get(method);
+        }
+        count.incrementAndGet();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        //stands in for the socket of a jTDS connection
+        final Object socket = new Object();
+        return (Connection) proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("prepareStatement")) {
+                    return createStatement((String) args[0], socket);
+                } else if (name.equals("isValid")) {
+                    return true;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Creates a statement that reports the rows of each execute as inserted.
+     */
+    private PreparedStatement createStatement(String sql, final Object socket) {
+        //one row per group of parameters in the VALUES clause
+        final int rowsPerStatement = Math.max(1, sql.split("\\(\\?").length - 1);
+        return (PreparedStatement) proxy(PreparedStatement.class, new InvocationHandler() {
+            private int batchCount = 0;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws InterruptedException {
+                String name = method.getName();
+                count(name);
+                if (latencyMillis > 0 && name.startsWith("execute")) {
+                    if (holdsMonitor) {
+                        synchronized (socket) {
+                            Thread.sleep(latencyMillis);
+                        }
+                    } else {
+                        Thread.sleep(latencyMillis);
+                    }
+                }
+                if (name.equals("addBatch")) {
+                    batchCount++;
+                } else if (name.equals("executeBatch")) {
+                    int[] counts = new int[batchCount];
+                    Arrays.fill(counts, rowsPerStatement);
+                    batchCount = 0;
+                    return counts;
+                } else if (name.equals("executeUpdate")) {
+                    return rowsPerStatement;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return true;
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    //not part of Driver before Java 7, so it has no @Override
+    public Logger getParentLogger() {
+        return Logger.getLogger(StubDriver.class.getName());
+    }
+}
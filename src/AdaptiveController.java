@@ -0,0 +1,236 @@
+import java.util.concurrent.locks.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tunes the block size and the number of active import workers while the import runs, from the rows per second
+ * imported and the time each block takes to import. At the end of each window of a few seconds, the last change is
+ * judged by comparing the blocks imported during the window with those of the previous window, then one of the two
+ * values is changed, in turns:
+ * <ul>
+ * <li>The workers are tuned by additive increase, multiplicative decrease: one more worker as long as the rows per
+ * second do not drop, half of them when the rows per second drop after a worker was added, or when a block takes
+ * longer than the latency limit to import, i.e. when the server is overloaded.</li>
+ * <li>The block size is tuned by hill climbing: it grows or shrinks by a quarter in the same direction as long as the
+ * rows per second do not drop, and turns back when they do or when it reaches a bound. Blocks that take longer than
+ * the latency limit are halved.</li>
+ * </ul>
+ * Each decision is logged. The number of threads of the import executor is the most workers there can be, the
+ * others wait in {@code runTask} until the limit is raised. They wait on a lock rather than a monitor, so a waiting
+ * virtual thread does not hold on to its carrier thread.
+ * <p>
+ * This class is thread safe.
+ */
+class AdaptiveController implements BlockSizer {
+    //the value changed by the last decision, judged by the next one
+    private enum Change {NONE, WORKERS, BLOCK_SIZE}
+
+    //the rows per second must change by more than this fraction to count as better or worse
+    private static final double TOLERANCE = 0.05;
+    private static final double BLOCK_SIZE_STEP = 1.25;
+    private static final int MIN_WINDOW_BLOCKS = 4;
+
+    private final int minBlockSize;
+    private final int maxBlockSize;
+    private final int maxWorkers;
+    private final long maxLatencyNanos;
+    private final long windowNanos;
+    private final Lock lock = new ReentrantLock();
+    private final Condition workerFree = lock.newCondition();
+    private volatile int blockSize;
+    private int workerLimit;
+    private int activeWorkers;
+
+    private boolean tuneWorkers = true;
+    private Change lastChange = Change.NONE;
+    private int blockSizeDirection = 1;
+    private double lastRate = -1;
+
+    private boolean started;
+    private long windowStart;
+    private long windowRows;
+    private long windowLatency;
+    private int windowBlocks;
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code AdaptiveController}.
+     * @param blockSize the block size to start with.
+     * @param minBlockSize the smallest block size.
+     * @param maxBlockSize the largest block size.
+     * @param maxWorkers the most workers that import at the same time, i.e. the number of import threads. The
+     *                   controller starts with all of them.
+     * @param maxLatency the longest time in milliseconds a block should take to import.
+     * @param window the time in milliseconds the blocks are measured for between two decisions.
+     */
+    AdaptiveController(int blockSize, int minBlockSize, int maxBlockSize, int maxWorkers, long maxLatency,
+                       long window) {
+        this.minBlockSize = Math.max(1, minBlockSize);
+        this.maxBlockSize = Math.max(this.minBlockSize, maxBlockSize);
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.maxLatencyNanos = maxLatency * 1000000L;
+        this.windowNanos = window * 1000000L;
+        this.blockSize = clamp(blockSize, this.minBlockSize, this.maxBlockSize);
+        this.workerLimit = this.maxWorkers;
+    }
+
+    /**
+     * Returns the number of rows of the next block.
+     * @return number of rows per block.
+     */
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of workers allowed to import at the same time.
+     * @return the worker limit.
+     */
+    int getWorkerLimit() {
+        lock.lock();
+        try {
+            return workerLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code task} once fewer workers than the limit are importing, and measures it. Does not run the task if
+     * the thread is interrupted while waiting.
+     * @param task the import task.
+     * @param rows number of rows the task imports.
+     */
+    void runTask(Runnable task, int rows) {
+        lock.lock();
+        try {
+            while (activeWorkers >= workerLimit) {
+                workerFree.await();
+            }
+            activeWorkers++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            lock.unlock();
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            long endTime = System.nanoTime();
+            lock.lock();
+            try {
+                activeWorkers--;
+                workerFree.signal();
+                addBlock(rows, endTime - startTime, endTime);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds an imported block to the current window, and makes a decision once the window is complete.
+     * @param rows number of rows of the block.
+     * @param latency the time in nanoseconds the block took to import.
+     * @param now the value of {@code System.nanoTime} when the block finished.
+     */
+    void blockImported(int rows, long latency, long now) {
+        lock.lock();
+        try {
+            addBlock(rows, latency, now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addBlock(int rows, long latency, long now) {
+        if (!started) {
+            started = true;
+            windowStart = now - latency;
+        }
+        windowRows += rows;
+        windowLatency += latency;
+        windowBlocks++;
+        if (now - windowStart < windowNanos || windowBlocks < MIN_WINDOW_BLOCKS) {
+            return;
+        }
+
+        double rate = windowRows * 1000000000.0 / Math.max(1, now - windowStart);
+        long meanLatency = windowLatency / windowBlocks;
+        decide(rate, meanLatency);
+        lastRate = rate;
+        windowStart = now;
+        windowRows = 0;
+        windowLatency = 0;
+        windowBlocks = 0;
+    }
+
+    /**
+     * Judges the last change from the rows per second and mean block latency of a window, then makes the next one.
+     */
+    private void decide(double rate, long meanLatency) {
+        boolean overloaded = meanLatency > maxLatencyNanos;
+        boolean worse = lastRate > 0 && rate < lastRate * (1 - TOLERANCE);
+        int oldWorkers = workerLimit;
+        int oldBlockSize = blockSize;
+        String reason;
+
+        if (overloaded) {
+            //back off both, the server cannot keep up
+            workerLimit = Math.max(1, workerLimit / 2);
+            blockSize = clamp(blockSize / 2, minBlockSize, maxBlockSize);
+            blockSizeDirection = -1;
+            lastChange = Change.NONE;
+            reason = "latency above the limit";
+        } else if (worse && lastChange == Change.WORKERS) {
+            workerLimit = Math.max(1, workerLimit / 2);
+            lastChange = Change.NONE;
+            reason = "rows/s dropped after adding a worker";
+        } else if (worse && lastChange == Change.BLOCK_SIZE) {
+            blockSizeDirection = -blockSizeDirection;
+            stepBlockSize();
+            lastChange = Change.NONE;
+            reason = "rows/s dropped after changing the block size, turning back";
+        } else if (tuneWorkers && workerLimit < maxWorkers) {
+            workerLimit++;
+            lastChange = Change.WORKERS;
+            tuneWorkers = false;
+            reason = worse ? "adding a worker" : "rows/s held, adding a worker";
+        } else {
+            stepBlockSize();
+            lastChange = (blockSize != oldBlockSize) ? Change.BLOCK_SIZE : Change.NONE;
+            tuneWorkers = true;
+            reason = worse ? "trying another block size" : "rows/s held, trying another block size";
+        }
+        if (workerLimit > oldWorkers) {
+            workerFree.signalAll();
+        }
+
+        log.info(String.format("Adaptive: %.0f rows/s, %.1f ms per block, %s. Block size %d -> %d, workers %d -> %d.",
+                rate, meanLatency / 1000000.0, reason, oldBlockSize, blockSize, oldWorkers, workerLimit));
+    }
+
+    /**
+     * Grows or shrinks the block size by a step in the current direction, turning back at the bounds.
+     */
+    private void stepBlockSize() {
+        int next = blockSizeDirection > 0 ? (int) Math.ceil(blockSize * BLOCK_SIZE_STEP)
+                : (int) (blockSize / BLOCK_SIZE_STEP);
+        blockSize = clamp(next, minBlockSize, maxBlockSize);
+        if (blockSize == minBlockSize) {
+            blockSizeDirection = 1;
+        } else if (blockSize == maxBlockSize) {
+            blockSizeDirection = -1;
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * An array of the JSON files and the table its elements are imported into, as given to {@code --array}, e.g.
+ * {@code horde.auctions=auctions_horde}. The columns of the table are those of {@code -f}, or the ones in brackets
+ * after the table name, mapped the same way, e.g. {@code alliance.auctions=auctions_alliance(auc,owner)}.
+ * <p>
+ * The path is matched from the top of the document, a segment that is a whole number matching the element at that
+ * position of an array.
+ * <p>
+ * This object is immutable. When it is shared for concurrent use, no synchronization is necessary.
+ */
+final class ArrayTable {
+    private final List<String> arrayPath;
+    private final String tableName;
+    private final List<FieldMapping> mappings;
+
+    private ArrayTable(List<String> arrayPath, String tableName, List<FieldMapping> mappings) {
+        this.arrayPath = arrayPath;
+        this.tableName = tableName;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Parses an array table, e.g. {@code alliance.auctions=auctions_alliance} or
+     * {@code /horde/auctions=auctions_horde(auc,item,owner)}.
+     * @param spec the path of the array, then {@code =}, the table name and optionally the columns in brackets.
+     * @param defaultMappings the columns of the table when none are given, i.e. those of {@code -f}.
+     * @return the array table.
+     * @throws IllegalArgumentException if the path or the table is missing, or a column is not valid.
+     */
+    static ArrayTable parse(String spec, List<FieldMapping> defaultMappings) {
+        int equals = spec.indexOf('=');
+        if (equals <= 0) {
+            throw new IllegalArgumentException("An array must be given as path=table: " + spec);
+        }
+        List<String> arrayPath = FieldMapping.parsePath(spec.substring(0, equals));
+        String table = spec.substring(equals + 1).trim();
+        List<FieldMapping> mappings = defaultMappings;
+        int open = table.indexOf('(');
+        if (open >= 0) {
+            if (!table.endsWith(")")) {
+                throw new IllegalArgumentException("The columns of an array must be given in brackets: " + spec);
+            }
+            mappings = FieldMapping.parseAll(table.substring(open + 1, table.length() - 1));
+            table = table.substring(0, open).trim();
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("The table of an array is missing: " + spec);
+        }
+        return new ArrayTable(arrayPath, table, mappings);
+    }
+
+    /**
+     * Returns the path of the array in the JSON files.
+     * @return the segments of the path of the array.
+     */
+    List<String> getArrayPath() {
+        return arrayPath;
+    }
+
+    /**
+     * Returns the name of the table.
+     * @return the name of the table.
+     */
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the columns of the table, and the paths of their values in the elements of the array.
+     * @return the mappings of the columns.
+     */
+    List<FieldMapping> getMappings() {
+        return mappings;
+    }
+}
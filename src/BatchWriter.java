@@ -0,0 +1,218 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Buffers rows per table, and passes them to a sink in batches on writers of its own, e.g. the rows of a shard or of
+ * a child table. The rows are added by the import tasks, which only wait once too many batches are waiting to be
+ * written, so the writers run alongside the import while the memory they hold stays bounded. Several writers can share
+ * their threads and their limit of batches waiting, e.g. those of the child tables, so neither grows with the number
+ * of writers.
+ * <p>
+ * The rows written and failed are counted in a summary, see {@code toString}.
+ * <p>
+ * This class is thread safe.
+ */
+final class BatchWriter {
+    private final String name;
+    private final ImportSink sink;
+    private final String tableName;
+    private final int batchRows;
+    private final ExecutorService writers;
+    //one permit per batch waiting for or being written
+    private final Semaphore pending;
+    private final ImportSummary summary;
+    private final Map<String, List<JsonRow>> buffers = new HashMap<String, List<JsonRow>>();
+    private final Map<String, List<Field>> bufferFields = new HashMap<String, List<Field>>();
+    private long firstStart = -1;
+    private long lastEnd;
+
+    /**
+     * Creates a new {@code BatchWriter}.
+     * @param name the name of the writer in its summary, e.g. the server or table name.
+     * @param sink writes the batches.
+     * @param tableName the table the rows are written to, or null for the table they are added for.
+     * @param batchRows number of rows written at a time.
+     * @param writerThreads number of threads writing.
+     * @param maxPendingBatches most batches waiting for or being written, before {@code add} waits.
+     */
+    BatchWriter(String name, ImportSink sink, String tableName, int batchRows, int writerThreads,
+                int maxPendingBatches) {
+        this(name, sink, tableName, batchRows, newWriters(writerThreads),
+                newPendingBatches(writerThreads, maxPendingBatches));
+    }
+
+    /**
+     * Creates a new {@code BatchWriter} that writes on the given threads, e.g. shared with other writers.
+     * @param name the name of the writer in its summary, e.g. the server or table name.
+     * @param sink writes the batches.
+     * @param tableName the table the rows are written to, or null for the table they are added for.
+     * @param batchRows number of rows written at a time.
+     * @param writers the threads writing, see {@code newWriters}.
+     * @param pending one permit per batch waiting for or being written, see {@code newPendingBatches}.
+     */
+    BatchWriter(String name, ImportSink sink, String tableName, int batchRows, ExecutorService writers,
+                Semaphore pending) {
+        this.name = name;
+        this.sink = sink;
+        this.tableName = tableName;
+        this.batchRows = Math.max(1, batchRows);
+        this.writers = writers;
+        this.pending = pending;
+        this.summary = new ImportSummary(name);
+    }
+
+    /**
+     * Creates the threads of one or more writers.
+     * @param writerThreads number of threads writing.
+     * @return the threads.
+     */
+    static ExecutorService newWriters(int writerThreads) {
+        return Executors.newFixedThreadPool(Math.max(1, writerThreads));
+    }
+
+    /**
+     * Creates the limit of the batches of one or more writers waiting for or being written. It is at least one per
+     * thread, so all the threads can write.
+     * @param writerThreads number of threads writing.
+     * @param maxPendingBatches most batches waiting for or being written, before {@code add} waits.
+     * @return one permit per batch.
+     */
+    static Semaphore newPendingBatches(int writerThreads, int maxPendingBatches) {
+        return new Semaphore(Math.max(Math.max(1, writerThreads), maxPendingBatches));
+    }
+
+    /**
+     * Returns the name of the writer.
+     * @return the name of the writer.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the rows written and failed so far.
+     * @return the summary of the writes.
+     */
+    ImportSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Adds rows to the buffer of {@code table}, passing every full batch to the writers. Waits while too many batches
+     * are waiting to be written.
+     * @param table the table the rows are imported into.
+     * @param fields the fields of the rows.
+     * @param rows the rows to add.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void add(String table, List<Field> fields, Collection<JsonRow> rows) throws InterruptedException {
+        List<List<JsonRow>> batches = new ArrayList<List<JsonRow>>();
+        synchronized (this) {
+            List<JsonRow> buffer = getBuffer(table, fields);
+            for (JsonRow row: rows) {
+                buffer.add(row);
+                if (buffer.size() >= batchRows) {
+                    batches.add(buffer);
+                    buffer = new ArrayList<JsonRow>(batchRows);
+                    buffers.put(table, buffer);
+                }
+            }
+        }
+        for (List<JsonRow> batch: batches) {
+            write(table, fields, batch);
+        }
+    }
+
+    /**
+     * Passes the rows left in the buffers to the writers.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void flush() throws InterruptedException {
+        Map<String, List<JsonRow>> remaining;
+        Map<String, List<Field>> remainingFields;
+        synchronized (this) {
+            remaining = new HashMap<String, List<JsonRow>>(buffers);
+            remainingFields = new HashMap<String, List<Field>>(bufferFields);
+            buffers.clear();
+        }
+        for (Map.Entry<String, List<JsonRow>> entry: remaining.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                write(entry.getKey(), remainingFields.get(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops the writers once the batches passed to them are written. No rows can be added after, to this writer or
+     * another one sharing its threads.
+     */
+    void shutdown() {
+        writers.shutdown();
+    }
+
+    /**
+     * Waits for the writers to finish, after {@code shutdown}.
+     * @param timeout the most time to wait.
+     * @param unit the unit of {@code timeout}.
+     * @return true if the writers have finished, false if the timeout elapsed before.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return writers.awaitTermination(timeout, unit);
+    }
+
+    private List<JsonRow> getBuffer(String table, List<Field> fields) {
+        List<JsonRow> buffer = buffers.get(table);
+        if (buffer == null) {
+            buffer = new ArrayList<JsonRow>(batchRows);
+            buffers.put(table, buffer);
+            bufferFields.put(table, fields);
+        }
+        return buffer;
+    }
+
+    /**
+     * Passes a batch to the writers, waiting while too many batches are waiting.
+     */
+    private void write(String table, List<Field> fields, List<JsonRow> batch) throws InterruptedException {
+        final ImportTask task = new ImportTask(sink, tableName == null ? table : tableName, fields, batch, summary);
+        pending.acquire();
+        try {
+            writers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startTime = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        pending.release();
+                        synchronized (BatchWriter.this) {
+                            if (firstStart < 0) {
+                                firstStart = startTime;
+                            }
+                            lastEnd = Math.max(lastEnd, System.nanoTime());
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the rows written and failed, and the rows per second, e.g.
+     * {@code Listings_1: 1000 rows written, 0 failed, 5000 rows/s.}
+     */
+    @Override
+    public synchronized String toString() {
+        double seconds = (firstStart < 0) ? 0 : (lastEnd - firstStart) / 1000000000.0;
+        return String.format("%s: %d rows written, %d failed, %.0f rows/s.", name,
+                summary.getImportedCount(), summary.getFailedCount(),
+                seconds > 0 ? summary.getImportedCount() / seconds : 0.0);
+    }
+}
@@ -0,0 +1,54 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * The binders of the verified fields of a table, compiled once and shared by all the blocks imported into the table.
+ * Binding a row is then a loop over the columns, without checking the type of each field.
+ */
+final class BinderPlan {
+    private final List<Field> fields;
+    private final ColumnBinder[] binders;
+
+    /**
+     * Creates a new {@code BinderPlan} for {@code fields}.
+     * @param fields list of verified fields.
+     */
+    BinderPlan(List<Field> fields) {
+        this.fields = fields;
+        this.binders = ColumnBinder.compile(fields);
+    }
+
+    /**
+     * Returns true if this plan was compiled from {@code fields}. The lists are compared by identity, as the same
+     * list of verified fields is passed with every block.
+     * @param fields list of verified fields.
+     * @return true if this plan was compiled from {@code fields}.
+     */
+    boolean isFor(List<Field> fields) {
+        return this.fields == fields;
+    }
+
+    /**
+     * Returns the number of columns bound per row.
+     * @return the number of columns.
+     */
+    int size() {
+        return binders.length;
+    }
+
+    /**
+     * Sets the parameters of one row, starting after parameter {@code offset}.
+     * @param st the statement.
+     * @param row the row, projected with the fields of this plan.
+     * @param offset number of parameters before the row, i.e. of the rows before it in a multi-row statement.
+     * @throws SQLException
+     */
+    void bindRow(PreparedStatement st, JsonRow row, int offset) throws SQLException {
+        for (int col = 0; col < binders.length; col++) {
+            binders[col].bind(st, offset + col + 1, row, col);
+        }
+    }
+}
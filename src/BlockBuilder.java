@@ -0,0 +1,145 @@
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Collects rows read from the JSON array into blocks, and passes each full block to a {@code BlockListener}. The size
+ * of each block is decided by a {@code BlockSizer} when the block is started. Rows that are not objects are skipped,
+ * and counted in the block they were found in.
+ * <p>
+ * Each block records the part of the file it was read from: a block ends just after its last row, and the next block
+ * starts there.
+ * <p>
+ * When an import is resumed, the ranges of the blocks that were imported after the checkpoint can be skipped, see
+ * {@code setImportedRanges}. A block then ends where such a range starts, its rows are dropped, and the next block
+ * starts where the range ends, so the blocks and the skipped ranges still follow each other without gaps.
+ * <p>
+ * This class is NOT thread safe. Each reading thread should use its own {@code BlockBuilder}.
+ */
+class BlockBuilder {
+    /**
+     * The same number of rows for every block.
+     */
+    private static final class FixedSize implements BlockSizer {
+        private final int blockSize;
+
+        FixedSize(int blockSize) {
+            this.blockSize = Math.max(1, blockSize);
+        }
+
+        @Override
+        public int getBlockSize() {
+            return blockSize;
+        }
+    }
+
+    private final BlockSizer sizer;
+    private final BlockListener listener;
+    private int blockSize;
+    private RowBlock block;
+    private long blockStartTime = System.nanoTime();
+    //start offset -> end offset of the ranges already imported
+    private NavigableMap<Long, Long> importedRanges;
+
+    /**
+     * Creates a new {@code BlockBuilder}.
+     * @param blockSize number of rows per block.
+     * @param listener receives each block once it is full.
+     * @param startOffset the position in the file the first block starts at, or -1 if it is not known.
+     */
+    BlockBuilder(int blockSize, BlockListener listener, long startOffset) {
+        this(fixedSize(blockSize), listener, startOffset);
+    }
+
+    /**
+     * Creates a new {@code BlockBuilder} that asks {@code sizer} for the size of each block.
+     * @param sizer decides the number of rows per block.
+     * @param listener receives each block once it is full.
+     * @param startOffset the position in the file the first block starts at, or -1 if it is not known.
+     */
+    BlockBuilder(BlockSizer sizer, BlockListener listener, long startOffset) {
+        this.sizer = sizer;
+        this.listener = listener;
+        this.blockSize = Math.max(1, sizer.getBlockSize());
+        this.block = new RowBlock(blockSize, startOffset);
+    }
+
+    /**
+     * Returns a {@code BlockSizer} with the same number of rows for every block.
+     * @param blockSize number of rows per block.
+     * @return the block sizer.
+     */
+    static BlockSizer fixedSize(int blockSize) {
+        return new FixedSize(blockSize);
+    }
+
+    /**
+     * Drops the rows that end in one of {@code ranges}, e.g. the blocks recorded by a checkpoint as imported after
+     * the position it resumes from. Must be called before the first row is added.
+     * @param ranges the end of each range, by the position it starts at. Can be null.
+     */
+    void setImportedRanges(NavigableMap<Long, Long> ranges) {
+        this.importedRanges = (ranges == null || ranges.isEmpty()) ? null : ranges;
+    }
+
+    /**
+     * Adds a row to the current block, passing the block to the listener when it is full.
+     * @param row the row to add. If it is not an object, it is skipped.
+     * @param endOffset the position in the file just after the row.
+     */
+    void add(JsonRow row, long endOffset) {
+        if (importedRanges != null) {
+            Map.Entry<Long, Long> range = importedRanges.lowerEntry(endOffset);
+            if (range != null && endOffset <= range.getValue()) {
+                skipRange(range.getKey(), range.getValue());
+                return;
+            }
+        }
+        if (!row.isObject()) {
+            block.addSkipped();
+            return;
+        }
+
+        block.add(row);
+        if (block.size() >= blockSize) {
+            emit(endOffset);
+        }
+    }
+
+    /**
+     * Passes the rows that have not filled a whole block to the listener. Should be called after the last row has
+     * been added. The block is passed on even if it is empty, as long as it covers a part of the file.
+     * @param endOffset the position in the file where the rows end.
+     */
+    void flush(long endOffset) {
+        boolean covered = block.getStartOffset() >= 0 && endOffset > block.getStartOffset();
+        if (block.size() > 0 || covered) {
+            emit(endOffset);
+        }
+    }
+
+    /**
+     * Ends the current block where an imported range starts, and starts the next one where it ends.
+     */
+    private void skipRange(long start, long end) {
+        if (block.getStartOffset() == end) {
+            return;
+        }
+        if (block.size() > 0 || block.getStartOffset() < start) {
+            emit(start);
+        }
+        block = new RowBlock(blockSize, end);
+        blockStartTime = System.nanoTime();
+    }
+
+    private void emit(long endOffset) {
+        block.setEndOffset(endOffset);
+        block.setParseTime(System.nanoTime() - blockStartTime);
+        listener.blockRead(block);
+        //the time the listener takes, e.g. waiting for room in the executor, is not part of the next block
+        blockSize = Math.max(1, sizer.getBlockSize());
+        block = new RowBlock(blockSize, endOffset);
+        blockStartTime = System.nanoTime();
+    }
+}
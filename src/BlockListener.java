@@ -0,0 +1,15 @@
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Receives blocks of rows as they are read from the JSON file. With a parallel reader, {@code blockRead} is called
+ * from several threads at the same time, so implementations must be thread safe.
+ */
+interface BlockListener {
+    /**
+     * Called when a block of rows has been read. The block is not modified by the reader once it has been passed on.
+     * The last block of a range can be empty, so that the offsets of the blocks cover the whole array.
+     * @param block the rows read from the file, and the part of the file they were read from.
+     */
+    void blockRead(RowBlock block);
+}
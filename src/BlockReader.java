@@ -0,0 +1,56 @@
+import java.io.IOException;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Reads the elements of a JSON array and passes them on in blocks of rows.
+ */
+interface BlockReader {
+    /**
+     * Locates the beginning of the array. This is done by {@code readBlocks}, but can be called beforehand to find
+     * out the name of the array.
+     * @throws IOException
+     */
+    void moveToArray() throws IOException;
+
+    /**
+     * Returns the name of the array found.
+     * @return the name of the array found.
+     */
+    String getArrayName();
+
+    /**
+     * Returns the position in the file where the first block starts, i.e. just after the bracket that opens the
+     * array, or where the reader resumed. Only known once the array has been found.
+     * @return the position in the file of the first block, or -1 if no array has been found.
+     */
+    long getStartOffset();
+
+    /**
+     * Reads every element of the array, and passes them to {@code listener} in blocks of {@code blockSize} rows.
+     * Returns when the whole array has been read. Elements that are not objects are skipped.
+     * @param projection the fields to keep from each object.
+     * @param blockSize number of rows per block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     */
+    void readBlocks(FieldProjection projection, int blockSize, BlockListener listener) throws IOException;
+
+    /**
+     * Reads every element of the array, and passes them to {@code listener} in blocks of the size decided by
+     * {@code sizer} when each block is started.
+     * @param projection the fields to keep from each object.
+     * @param sizer decides the number of rows per block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     * @see #readBlocks(FieldProjection, int, BlockListener)
+     */
+    void readBlocks(FieldProjection projection, BlockSizer sizer, BlockListener listener) throws IOException;
+
+    /**
+     * Close file handle. Should be called in a finally block after creating the reader.
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,15 @@
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Decides the number of rows of each block read from the JSON file, e.g. a fixed number, or a number that
+ * {@code AdaptiveController} tunes while the import runs. With a parallel reader, {@code getBlockSize} is called from
+ * several threads at the same time, so implementations must be thread safe.
+ */
+interface BlockSizer {
+    /**
+     * Returns the number of rows of the next block. Called each time a block is started.
+     * @return number of rows per block, at least 1.
+     */
+    int getBlockSize();
+}
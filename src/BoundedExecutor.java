@@ -0,0 +1,76 @@
+import java.util.concurrent.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Limits the number of tasks that have been passed to an executor but have not finished yet. When the limit is
+ * reached, {@code execute} blocks until a task finishes. This stops the JSON reader from running ahead of the import
+ * threads and filling the heap with blocks that are waiting in the executor's queue.
+ * <p>
+ * This class is thread safe.
+ */
+class BoundedExecutor implements Executor {
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int maxInFlight;
+
+    /**
+     * Creates a new {@code BoundedExecutor}.
+     * @param executor the executor that runs the tasks.
+     * @param maxInFlight maximum number of tasks that are queued or running at the same time.
+     */
+    BoundedExecutor(Executor executor, int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.permits = new Semaphore(this.maxInFlight);
+    }
+
+    /**
+     * Passes {@code command} to the executor, waiting until there is room if the maximum number of tasks are already
+     * in flight.
+     * @param command the task to run.
+     * @throws RejectedExecutionException if the thread is interrupted while waiting, or the executor rejects the task.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to pass a task to the executor.", e);
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of tasks that are queued or running.
+     * @return the number of tasks in flight.
+     */
+    int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Returns the maximum number of tasks that can be queued or running at the same time.
+     * @return the maximum number of tasks in flight.
+     */
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
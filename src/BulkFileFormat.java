@@ -0,0 +1,269 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Formats of the bulk-load files written by {@code BulkFileWriter}. Each format knows how to encode a row, and how to
+ * describe its fields in a SQL Server non-XML format file, so the files can be loaded with {@code BULK INSERT} or
+ * {@code bcp}.
+ * <p>
+ * Values are encoded from the {@code Field} types gathered by {@code DatabaseConnection.verifyTable}, the same way
+ * {@code ColumnBinder} binds them. Fields with an unsupported type are written as null.
+ */
+enum BulkFileFormat {
+    /**
+     * SQL Server native format. Every value has a length prefix, a prefix of all 1 bits means null. Numbers are
+     * written as little endian binary, text as UTF-16LE, and decimals and dates as text so no precision is lost.
+     */
+    NATIVE("dat") {
+        @Override
+        void writeValue(Field f, JsonNode val, OutputStream out) throws IOException {
+            boolean isNull = (val == null || val.isNull());
+            if (f.isDateTime()) {
+                if (isNull) {
+                    writeLittleEndian(out, -1L, 2);
+                } else {
+                    byte[] b = formatDateTime(val).getBytes(UTF_8);
+                    writeLittleEndian(out, b.length, 2);
+                    out.write(b);
+                }
+
+            } else if (f.isTextual()) {
+                if (isNull) {
+                    writeLittleEndian(out, -1L, 8);
+                } else {
+                    byte[] b = val.asText().getBytes(UTF_16LE);
+                    writeLittleEndian(out, b.length, 8);
+                    out.write(b);
+                }
+
+            } else if (f.isInt()) {
+                writeFixed(out, isNull, isNull ? 0 : val.asInt(), 4);
+
+            } else if (f.isLong()) {
+                writeFixed(out, isNull, isNull ? 0 : val.longValue(), 8);
+
+            } else if (f.isBoolean()) {
+                writeFixed(out, isNull, (!isNull && val.asBoolean()) ? 1 : 0, 1);
+
+            } else if (f.isFloatingPoint()) {
+                writeFixed(out, isNull, isNull ? 0 : Double.doubleToLongBits(val.doubleValue()), 8);
+
+            } else if (f.isDecimal()) {
+                if (isNull) {
+                    writeLittleEndian(out, -1L, 2);
+                } else {
+                    byte[] b = val.decimalValue().toPlainString().getBytes(US_ASCII);
+                    writeLittleEndian(out, b.length, 2);
+                    out.write(b);
+                }
+
+            } else {
+                //unrecognised field type, write null
+                writeLittleEndian(out, -1L, 8);
+            }
+        }
+
+        @Override
+        void writeRowEnd(OutputStream out) {
+        }
+
+        @Override
+        String getHostField(Field f, boolean last) {
+            if (f.isInt()) {
+                return "SQLINT 1 4 \"\"";
+            } else if (f.isLong()) {
+                return "SQLBIGINT 1 8 \"\"";
+            } else if (f.isBoolean()) {
+                return "SQLBIT 1 1 \"\"";
+            } else if (f.isFloatingPoint()) {
+                return "SQLFLT8 1 8 \"\"";
+            } else if (f.isDecimal() || f.isDateTime()) {
+                return "SQLCHAR 2 100 \"\"";
+            }
+            //text and unsupported fields, an 8 byte prefix allows values of any length
+            return "SQLNCHAR 8 0 \"\"";
+        }
+
+        @Override
+        String getBulkInsertOptions() {
+            return "";
+        }
+    },
+
+    /**
+     * RFC 4180 comma separated values in UTF-8. Null values are empty fields, empty strings are written as
+     * {@code ""}, and booleans as 1 or 0.
+     */
+    CSV("csv") {
+        @Override
+        void writeValue(Field f, JsonNode val, OutputStream out) throws IOException {
+            if (val == null || val.isNull()) {
+                return;
+            }
+
+            String text;
+            if (f.isDateTime()) {
+                text = formatDateTime(val);
+                if (needsQuotes(text)) {
+                    text = "\"" + text.replace("\"", "\"\"") + "\"";
+                }
+            } else if (f.isTextual()) {
+                text = val.asText();
+                if (text.isEmpty() || needsQuotes(text)) {
+                    text = "\"" + text.replace("\"", "\"\"") + "\"";
+                }
+            } else if (f.isInt()) {
+                text = Integer.toString(val.asInt());
+            } else if (f.isLong()) {
+                text = Long.toString(val.longValue());
+            } else if (f.isBoolean()) {
+                text = val.asBoolean() ? "1" : "0";
+            } else if (f.isFloatingPoint()) {
+                text = Double.toString(val.doubleValue());
+            } else if (f.isDecimal()) {
+                text = val.decimalValue().toPlainString();
+            } else {
+                //unrecognised field type, write null
+                return;
+            }
+            out.write(text.getBytes(UTF_8));
+        }
+
+        @Override
+        void writeSeparator(OutputStream out) throws IOException {
+            out.write(',');
+        }
+
+        @Override
+        void writeRowEnd(OutputStream out) throws IOException {
+            out.write('\r');
+            out.write('\n');
+        }
+
+        @Override
+        String getHostField(Field f, boolean last) {
+            return last ? "SQLCHAR 0 8000 \"\\r\\n\"" : "SQLCHAR 0 8000 \",\"";
+        }
+
+        @Override
+        String getBulkInsertOptions() {
+            return "FORMAT = 'CSV', CODEPAGE = '65001', ";
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final String fileExtension;
+
+    BulkFileFormat(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    /**
+     * Returns the extension of the data files, without the dot.
+     * @return the extension of the data files.
+     */
+    String getFileExtension() {
+        return fileExtension;
+    }
+
+    /**
+     * Writes one row. The values must be in the same order as {@code fields}.
+     * @param fields the fields of the row.
+     * @param row the row to write.
+     * @param out the data file.
+     * @throws IOException
+     */
+    void writeRow(Field[] fields, JsonRow row, OutputStream out) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writeSeparator(out);
+            }
+            writeValue(fields[i], row.get(i), out);
+        }
+        writeRowEnd(out);
+    }
+
+    /**
+     * Returns the non-XML format file describing the data files of this format.
+     * @param fields the fields of each row.
+     * @param columnOrdinals the position of each field among the columns of the table, starting at 1.
+     * @return the content of the format file.
+     */
+    String getFormatFile(Field[] fields, int[] columnOrdinals) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("10.0\r\n");
+        sb.append(fields.length).append("\r\n");
+        for (int i = 0; i < fields.length; i++) {
+            //host field order, host type, prefix length, host length, terminator, column order, column name, collation
+            sb.append(String.format("%d %s %d %s \"\"\r\n", i + 1, getHostField(fields[i], i == fields.length - 1),
+                    columnOrdinals[i], fields[i].getFieldName()));
+        }
+        return sb.toString();
+    }
+
+    abstract void writeValue(Field f, JsonNode val, OutputStream out) throws IOException;
+
+    void writeSeparator(OutputStream out) throws IOException {
+    }
+
+    abstract void writeRowEnd(OutputStream out) throws IOException;
+
+    /**
+     * Returns the host data type, prefix length, host data length and terminator of a field in the format file.
+     */
+    abstract String getHostField(Field f, boolean last);
+
+    /**
+     * Returns the options of the {@code BULK INSERT} WITH clause that are specific to the format, each followed by a
+     * comma.
+     */
+    abstract String getBulkInsertOptions();
+
+    /**
+     * Returns a date field as text. .NET dates and numbers are converted to UTC, other strings are left for the server
+     * to convert, the same way {@code ColumnBinder} binds them.
+     */
+    private static String formatDateTime(JsonNode val) {
+        Long millis = ColumnBinder.parseDateMillis(val);
+        return millis != null ? ColumnBinder.formatDate(millis) : val.asText();
+    }
+
+    /**
+     * Returns true if a CSV field must be quoted.
+     */
+    private static boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a fixed length value with a 1 byte length prefix.
+     */
+    private static void writeFixed(OutputStream out, boolean isNull, long value, int length) throws IOException {
+        if (isNull) {
+            out.write(0xff);
+        } else {
+            out.write(length);
+            writeLittleEndian(out, value, length);
+        }
+    }
+
+    private static void writeLittleEndian(OutputStream out, long value, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Streams rows to bulk-load data files, as an alternative to inserting them row by row. The rows are split into
+ * chunks of a fixed number of rows, each chunk in its own data file, and a format file describing the data files is
+ * written next to them. When a chunk is complete, it is passed to the {@code ChunkListener}, e.g. to load it while
+ * the next chunk is being written.
+ * <p>
+ * This class is thread safe. Blocks written by several threads at the same time are written one after another.
+ */
+class BulkFileWriter implements BlockListener {
+    /**
+     * Receives the data files once they have been completely written.
+     */
+    interface ChunkListener {
+        /**
+         * Called when a data file has been closed.
+         * @param chunkFile the data file.
+         * @param formatFile the format file describing the data file.
+         * @throws IOException
+         */
+        void chunkWritten(File chunkFile, File formatFile) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final String baseName;
+    private final Field[] fields;
+    private final BulkFileFormat format;
+    private final int chunkRows;
+    private final ChunkListener listener;
+    private final File formatFile;
+
+    private OutputStream out;
+    private File chunkFile;
+    private int chunkRowCount = 0;
+    private int chunkCount = 0;
+    private long rowCount = 0;
+    private IOException error;
+
+    /**
+     * Creates a new {@code BulkFileWriter}, and writes the format file to {@code directory}.
+     * @param directory the directory to write the files to. It is created if it does not exist.
+     * @param tableName the table the files will be loaded into. It is used to name the files.
+     * @param fields list of verified fields to write.
+     * @param columnOrdinals the position of each field among the columns of the table, starting at 1.
+     * @param format the format of the data files.
+     * @param chunkRows number of rows per data file.
+     * @param listener receives each data file once it is complete. Can be null.
+     * @throws IOException
+     */
+    BulkFileWriter(File directory, String tableName, List<Field> fields, int[] columnOrdinals, BulkFileFormat format,
+                   int chunkRows, ChunkListener listener) throws IOException {
+        this.directory = directory;
+        //table names can contain schemas and brackets, keep the file names simple
+        this.baseName = tableName.replaceAll("[^A-Za-z0-9_.-]", "_");
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.format = format;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.listener = listener;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        formatFile = new File(directory, baseName + ".fmt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(formatFile), "US-ASCII");
+        try {
+            writer.write(format.getFormatFile(this.fields, columnOrdinals));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the rows to the current data file, starting a new data file every {@code chunkRows} rows.
+     * @param rows rows projected with the fields of the writer.
+     * @throws IOException
+     */
+    synchronized void writeRows(Collection<JsonRow> rows) throws IOException {
+        for (JsonRow row: rows) {
+            if (out == null) {
+                chunkFile = new File(directory, String.format("%s-%06d.%s", baseName, chunkCount + 1,
+                        format.getFileExtension()));
+                out = new BufferedOutputStream(new FileOutputStream(chunkFile), BUFFER_SIZE);
+            }
+
+            format.writeRow(fields, row, out);
+            rowCount++;
+            if (++chunkRowCount == chunkRows) {
+                finishChunk();
+            }
+        }
+    }
+
+    /**
+     * Writes a block read from the JSON file. As the reader cannot handle errors, the first error is kept and thrown
+     * by {@code close}, and the following blocks are ignored.
+     * @param block the rows read from the file.
+     */
+    @Override
+    public void blockRead(RowBlock block) {
+        writeBlock(block);
+    }
+
+    /**
+     * Writes a block read from the JSON file, the same way as {@code blockRead}.
+     * @param block the rows read from the file.
+     * @return the number of rows written, 0 once a block could not be written.
+     */
+    synchronized int writeBlock(RowBlock block) {
+        if (error != null) {
+            return 0;
+        }
+        long before = rowCount;
+        try {
+            writeRows(block);
+        } catch (IOException e) {
+            error = e;
+        }
+        return (int) (rowCount - before);
+    }
+
+    /**
+     * Completes the last data file. Should be called in a finally block after creating a {@code BulkFileWriter}.
+     * @throws IOException if the last data file could not be written, or a block could not be written.
+     */
+    synchronized void close() throws IOException {
+        try {
+            if (out != null) {
+                if (error == null) {
+                    finishChunk();
+                } else {
+                    out.close();
+                    out = null;
+                }
+            }
+        } finally {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Returns the format file describing the data files.
+     * @return the format file.
+     */
+    File getFormatFile() {
+        return formatFile;
+    }
+
+    /**
+     * Returns the number of data files written.
+     * @return the number of data files written.
+     */
+    synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the number of rows written.
+     * @return the number of rows written.
+     */
+    synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    private void finishChunk() throws IOException {
+        out.close();
+        out = null;
+        chunkRowCount = 0;
+        chunkCount++;
+        if (listener != null) {
+            listener.chunkWritten(chunkFile, formatFile);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Loads the data files written by {@code BulkFileWriter} into a table with {@code BULK INSERT}. Each data file is
+ * loaded on a background thread while the writer continues with the next one. A data file is deleted once it has
+ * been loaded, files that fail to load are kept.
+ * <p>
+ * {@code BULK INSERT} is run by the SQL Server service, so the files must be written to a path the server can read,
+ * e.g. a local drive of the server or a network share.
+ */
+class BulkLoader implements BulkFileWriter.ChunkListener {
+    private final ConnectionProperties p;
+    private final String tableName;
+    private final BulkFileFormat format;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    //one file loading and one waiting, after that the writer waits
+    private final Executor loadExecutor = new BoundedExecutor(executor, 2);
+    private final AtomicInteger loadedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private Logger log = Logger.getLogger(BulkLoader.class.getName());
+
+    /**
+     * Creates a new {@code BulkLoader}.
+     * @param p connection properties to the database.
+     * @param tableName the table to load the data files into.
+     * @param format the format of the data files.
+     */
+    BulkLoader(ConnectionProperties p, String tableName, BulkFileFormat format) {
+        this.p = p;
+        this.tableName = tableName;
+        this.format = format;
+    }
+
+    /**
+     * Queues {@code chunkFile} to be loaded. Waits if a file is already waiting to be loaded.
+     * @param chunkFile the data file.
+     * @param formatFile the format file describing the data file.
+     */
+    @Override
+    public void chunkWritten(final File chunkFile, final File formatFile) {
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(chunkFile, formatFile);
+            }
+        });
+    }
+
+    /**
+     * Waits for the queued data files to be loaded.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                ;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info(String.format("Loaded %d bulk-load files, %d failed.", loadedCount.get(), failedCount.get()));
+    }
+
+    /**
+     * Returns the number of data files that failed to load.
+     * @return the number of data files that failed to load.
+     */
+    int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Builds the {@code BULK INSERT} statement that loads {@code chunkFile}.
+     * @param tableName the table to load the data file into.
+     * @param chunkFile the data file.
+     * @param format the format of the data file.
+     * @param formatFile the format file describing the data file.
+     * @return the SQL of the statement.
+     */
+    static String buildBulkInsert(String tableName, File chunkFile, BulkFileFormat format, File formatFile) {
+        return String.format("BULK INSERT %s FROM %s WITH (%sFORMATFILE = %s, KEEPNULLS, TABLOCK)", tableName,
+                quote(chunkFile.getAbsolutePath()), format.getBulkInsertOptions(),
+                quote(formatFile.getAbsolutePath()));
+    }
+
+    private void load(File chunkFile, File formatFile) {
+        long startTime = System.currentTimeMillis();
+        try {
+            ConnectionPool pool = ConnectionPool.getPool(p);
+            Connection cn = pool.getConnection();
+            try {
+                Statement st = cn.createStatement();
+                try {
+                    st.execute(buildBulkInsert(tableName, chunkFile, format, formatFile));
+                } finally {
+                    st.close();
+                }
+            } finally {
+                pool.release(cn);
+            }
+            loadedCount.incrementAndGet();
+            log.info(String.format("Loaded %s in %f sec.", chunkFile.getName(),
+                    (System.currentTimeMillis() - startTime) / 1000f));
+            if (!chunkFile.delete()) {
+                log.warning("Could not delete " + chunkFile);
+            }
+        } catch (SQLException e) {
+            failedCount.incrementAndGet();
+            System.err.println("An error occurred when loading " + chunkFile + ": " + e.getMessage());
+        } catch (ClassNotFoundException e) {
+            failedCount.incrementAndGet();
+            System.err.println("An error occurred when connecting to database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns {@code s} as a SQL string literal.
+     */
+    private static String quote(String s) {
+        return "'" + s.replace("'", "''") + "'";
+    }
+}
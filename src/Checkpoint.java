@@ -0,0 +1,246 @@
+import java.io.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Records how far a JSON file has been imported, so that an import that failed or was killed can be resumed without
+ * reading the file again from its beginning. The checkpoint is saved next to the file, e.g.
+ * {@code auctions.json.checkpoint}, and deleted once the whole file has been imported.
+ * <p>
+ * The blocks of a file are imported out of order, so a block that has been imported cannot always be recorded at
+ * once. The ranges of the imported blocks are kept until the blocks before them have been imported as well, and the
+ * checkpoint only moves forward over blocks that are all imported. The ranges after the checkpoint are saved with it,
+ * e.g. those after a block that failed, so that the rows in them are skipped when resuming, see
+ * {@code getImportedRanges}.
+ * <p>
+ * The checkpoint is saved at most once per second while the file is imported, by writing a new file and renaming it
+ * over the old one, so a saved checkpoint is never partly written. This class is thread safe.
+ */
+final class Checkpoint {
+    static final String EXTENSION = ".checkpoint";
+
+    //minimum time between two saves while the file is imported
+    private static final long SAVE_INTERVAL = 1000;
+
+    private final File file;
+    private final String inputName;
+    private final long inputSize;
+    private final String arrayName;
+    //start offset of the imported blocks after the checkpoint -> {end offset, number of rows}
+    private final TreeMap<Long, long[]> imported = new TreeMap<Long, long[]>();
+
+    private long offset;
+    private long rowCount;
+    private int pendingCount = 0;
+    private boolean changed = false;
+    private boolean saveFailed = false;
+    private long saveTime = System.currentTimeMillis();
+    private Logger log = Logger.getLogger(Checkpoint.class.getName());
+
+    /**
+     * Creates a new {@code Checkpoint} for {@code inputFile}. Nothing is saved until a block has been imported.
+     * @param inputFile the imported JSON file.
+     * @param arrayName the name of the array read from the file.
+     * @param offset the position in the file of the first block that is not imported yet.
+     * @param rowCount number of rows before {@code offset}.
+     */
+    Checkpoint(String inputFile, String arrayName, long offset, long rowCount) {
+        this.file = getFile(inputFile);
+        this.inputName = inputFile;
+        this.inputSize = new File(inputFile).length();
+        this.arrayName = arrayName;
+        this.offset = offset;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Returns the file the checkpoint of {@code inputFile} is saved to.
+     * @param inputFile the imported JSON file.
+     * @return the checkpoint file.
+     */
+    static File getFile(String inputFile) {
+        return new File(inputFile + EXTENSION);
+    }
+
+    /**
+     * Reads the checkpoint saved for {@code inputFile}.
+     * @param inputFile the imported JSON file.
+     * @return the checkpoint, or null if none has been saved.
+     * @throws IOException if the checkpoint cannot be read, or the file has changed since it was saved.
+     */
+    static Checkpoint load(String inputFile) throws IOException {
+        File file = getFile(inputFile);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        try {
+            long size = Long.parseLong(properties.getProperty("size"));
+            if (size != new File(inputFile).length()) {
+                throw new IOException(inputFile + " has changed since " + file + " was saved.");
+            }
+            Checkpoint checkpoint = new Checkpoint(inputFile, properties.getProperty("array", ""),
+                    Long.parseLong(properties.getProperty("offset")), Long.parseLong(properties.getProperty("rows")));
+            for (int i = 0; properties.getProperty("range." + i) != null; i++) {
+                String[] range = properties.getProperty("range." + i).split("-");
+                checkpoint.imported.put(Long.parseLong(range[0]), new long[] {Long.parseLong(range[1]),
+                        Long.parseLong(properties.getProperty("range." + i + ".rows"))});
+            }
+            return checkpoint;
+        } catch (NumberFormatException e) {
+            throw new IOException(file + " is not a valid checkpoint.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException(file + " is not a valid checkpoint.");
+        }
+    }
+
+    /**
+     * Returns the name of the array read from the file.
+     * @return the name of the array.
+     */
+    String getArrayName() {
+        return arrayName;
+    }
+
+    /**
+     * Returns the position in the file of the first block that is not imported yet.
+     * @return the position in the file.
+     */
+    synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of rows imported before {@code getOffset}.
+     * @return the number of rows.
+     */
+    synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the ranges of the file after {@code getOffset} whose blocks have been imported, i.e. the rows to skip
+     * when resuming.
+     * @return the end of each range, by the position it starts at.
+     */
+    synchronized NavigableMap<Long, Long> getImportedRanges() {
+        TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+        for (Map.Entry<Long, long[]> entry: imported.entrySet()) {
+            ranges.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns the number of bytes in the ranges of {@code getImportedRanges}.
+     * @return the number of bytes imported after {@code getOffset}.
+     */
+    synchronized long getImportedBytes() {
+        long bytes = 0;
+        for (Map.Entry<Long, long[]> entry: imported.entrySet()) {
+            bytes += entry.getValue()[0] - entry.getKey();
+        }
+        return bytes;
+    }
+
+    /**
+     * Records that a block has been passed to an import task.
+     */
+    synchronized void blockStarted() {
+        pendingCount++;
+    }
+
+    /**
+     * Records that the rows of a block have been imported, moving the checkpoint forward if the blocks before it have
+     * been imported as well. Should be called once for each block passed to {@code blockStarted}. Empty blocks can
+     * be recorded without being started.
+     * @param block the imported block.
+     */
+    synchronized void blockImported(RowBlock block) {
+        if (!block.isEmpty()) {
+            pendingCount--;
+        }
+        imported.put(block.getStartOffset(), new long[] {block.getEndOffset(), block.size()});
+        changed = true;
+        long[] next = imported.remove(offset);
+        while (next != null) {
+            offset = next[0];
+            rowCount += next[1];
+            next = imported.remove(offset);
+        }
+
+        if (changed && !saveFailed && System.currentTimeMillis() - saveTime >= SAVE_INTERVAL) {
+            try {
+                save();
+            } catch (IOException e) {
+                //the import goes on, it just cannot be resumed
+                saveFailed = true;
+                log.warning("Could not save the checkpoint of " + inputName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns true if every block passed to {@code blockStarted} has been imported.
+     * @return true if no block is missing.
+     */
+    synchronized boolean isComplete() {
+        return pendingCount == 0;
+    }
+
+    /**
+     * Saves the checkpoint, replacing the one saved before.
+     * @throws IOException if the checkpoint could not be written.
+     */
+    synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("array", arrayName == null ? "" : arrayName);
+        properties.setProperty("offset", Long.toString(offset));
+        properties.setProperty("rows", Long.toString(rowCount));
+        properties.setProperty("size", Long.toString(inputSize));
+        int i = 0;
+        for (Map.Entry<Long, long[]> entry: imported.entrySet()) {
+            properties.setProperty("range." + i, entry.getKey() + "-" + entry.getValue()[0]);
+            properties.setProperty("range." + i + ".rows", Long.toString(entry.getValue()[1]));
+            i++;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "JsonImport checkpoint of " + new File(inputName).getName());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            //renaming over an existing file fails on Windows
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file + ".");
+            }
+        }
+        changed = false;
+        saveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Deletes the saved checkpoint, once the whole file has been imported.
+     */
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            log.warning("Could not delete " + file + ".");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A table the elements of a nested array are imported into, one row per element, as given to {@code --child}, e.g.
+ * {@code auction_items(auc,item)}. The first column is the key of the parent row, which must be one of the imported
+ * fields. The other columns are mapped the same way as {@code -f}, from the members of the elements, e.g.
+ * {@code auction_bids(auc,bidder,amount=bid.amount)=bids}. A column without a path takes the element itself when the
+ * element is not an object, e.g. the item ids of {@code "item":[1, 2, 3]}.
+ * <p>
+ * The array is at the path after the columns, or at the member named after the first column of the element when the
+ * path is left out.
+ * <p>
+ * This object is immutable. When it is shared for concurrent use, no synchronization is necessary.
+ */
+final class ChildTable {
+    private final String tableName;
+    private final String keyColumn;
+    private final List<FieldMapping> elementMappings;
+    private final List<String> arrayPath;
+
+    private ChildTable(String tableName, String keyColumn, List<FieldMapping> elementMappings,
+                       List<String> arrayPath) {
+        this.tableName = tableName;
+        this.keyColumn = keyColumn;
+        this.elementMappings = elementMappings;
+        this.arrayPath = arrayPath;
+    }
+
+    /**
+     * Parses a child table, e.g. {@code auction_items(auc,item)} or {@code auction_bids(auc,bidder,amount)=bids}.
+     * @param spec the table name, the key column and element columns in brackets, then optionally {@code =} and the
+     *             path of the array.
+     * @return the child table.
+     * @throws IllegalArgumentException if the table, the key or the element columns are missing, or a path is not
+     *                                  valid.
+     */
+    static ChildTable parse(String spec) {
+        int open = spec.indexOf('(');
+        int close = spec.lastIndexOf(')');
+        if (open <= 0 || close < open) {
+            throw new IllegalArgumentException("A child table must be given as table(key,columns): " + spec);
+        }
+        String tableName = spec.substring(0, open).trim();
+        String[] columns = spec.substring(open + 1, close).split(",");
+        if (tableName.isEmpty() || columns.length < 2) {
+            throw new IllegalArgumentException("A child table needs a name, a key and at least one column: " + spec);
+        }
+        String keyColumn = columns[0].trim();
+        if (keyColumn.isEmpty() || keyColumn.contains("=")) {
+            throw new IllegalArgumentException("The key of a child table is a column of -f, without a path: " + spec);
+        }
+        List<FieldMapping> elementMappings = new ArrayList<FieldMapping>();
+        for (int i = 1; i < columns.length; i++) {
+            elementMappings.add(FieldMapping.parse(columns[i]));
+        }
+
+        String rest = spec.substring(close + 1).trim();
+        List<String> arrayPath;
+        if (rest.isEmpty()) {
+            arrayPath = Collections.singletonList(elementMappings.get(0).getColumnName());
+        } else if (rest.startsWith("=")) {
+            arrayPath = FieldMapping.parsePath(rest.substring(1));
+        } else {
+            throw new IllegalArgumentException("The path of the array must follow = after the columns: " + spec);
+        }
+        return new ChildTable(tableName, keyColumn, Collections.unmodifiableList(elementMappings), arrayPath);
+    }
+
+    /**
+     * Returns the name of the table.
+     * @return the name of the table.
+     */
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the column holding the key of the parent row. It is also the name of the imported field it is taken
+     * from.
+     * @return the name of the key column.
+     */
+    String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Returns the mappings of the columns taken from each element.
+     * @return the mappings of the element columns.
+     */
+    List<FieldMapping> getElementMappings() {
+        return elementMappings;
+    }
+
+    /**
+     * Returns the path of the array in the parent objects.
+     * @return the segments of the path of the array.
+     */
+    List<String> getArrayPath() {
+        return arrayPath;
+    }
+
+    /**
+     * Returns the columns of the table, the key column first, e.g. to verify the table.
+     * @return the column names.
+     */
+    String[] getColumnNames() {
+        String[] result = new String[elementMappings.size() + 1];
+        result[0] = keyColumn;
+        for (int i = 0; i < elementMappings.size(); i++) {
+            result[i + 1] = elementMappings.get(i).getColumnName();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,289 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Sets the value of one column of an insert statement from a JSON value. A binder is chosen once for each verified
+ * field by {@code forField}, so the type of the field does not need to be checked again for every value.
+ * <p>
+ * Missing values and JSON nulls are inserted as null. Binders are immutable, and can be shared between threads.
+ * <p>
+ * Rows are bound straight from their encoded values, so numbers and text do not need a node. The binders of other
+ * types, and values that need converting, e.g. a number bound to a bit column, go through the node.
+ */
+abstract class ColumnBinder {
+    //dates serialized by .NET, e.g. /Date(1376517722977)/ or /Date(1376517722977+1200)/
+    private static final Pattern DATE_PATTERN = Pattern.compile("^/Date\\((-?\\d+)([+-]\\d{4})?\\)/$");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final ThreadLocal<Calendar> utcCalendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return Calendar.getInstance(UTC);
+        }
+    };
+
+    private static final ThreadLocal<SimpleDateFormat> utcFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            format.setTimeZone(UTC);
+            return format;
+        }
+    };
+
+    private final int sqlType;
+
+    private ColumnBinder(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Returns the binder for the type of {@code f}. Fields with an unsupported type get a binder that always sets
+     * null.
+     * @param f the verified field.
+     * @return the binder for the field.
+     */
+    static ColumnBinder forField(Field f) {
+        int type = f.getFieldType();
+        //checked before text, as some drivers report date types as text
+        if (f.isDateTime()) {
+            return new DateTimeBinder(type);
+        } else if (f.isTextual()) {
+            return new TextBinder(type);
+        } else if (f.isInt()) {
+            return new IntBinder(type);
+        } else if (f.isBoolean()) {
+            return new BooleanBinder(type);
+        } else if (f.isDecimal()) {
+            return new DecimalBinder(type);
+        } else if (f.isFloatingPoint()) {
+            return new DoubleBinder(type);
+        } else if (f.isLong()) {
+            return new LongBinder(type);
+        }
+        return new NullBinder(type);
+    }
+
+    /**
+     * Returns the binders of {@code fields}, in the same order.
+     * @param fields list of verified fields.
+     * @return the binder of each field.
+     */
+    static ColumnBinder[] compile(List<Field> fields) {
+        ColumnBinder[] binders = new ColumnBinder[fields.size()];
+        for (int i = 0; i < binders.length; i++) {
+            binders[i] = forField(fields.get(i));
+        }
+        return binders;
+    }
+
+    /**
+     * Sets parameter {@code index} of {@code st} to {@code val}.
+     * @param st the statement.
+     * @param index the parameter index, starting at 1.
+     * @param val the JSON value. If null, or a JSON null, the parameter is set to null.
+     * @throws SQLException
+     */
+    void bind(PreparedStatement st, int index, JsonNode val) throws SQLException {
+        if (val == null || val.isNull()) {
+            st.setNull(index, sqlType);
+        } else {
+            bindValue(st, index, val);
+        }
+    }
+
+    /**
+     * Sets parameter {@code index} of {@code st} to the value of column {@code col} of {@code row}.
+     * @param st the statement.
+     * @param index the parameter index, starting at 1.
+     * @param row the row. If the value is missing, or a JSON null, the parameter is set to null.
+     * @param col the position of the value in the row.
+     * @throws SQLException
+     */
+    void bind(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+        if (row.isNull(col)) {
+            st.setNull(index, sqlType);
+        } else {
+            bindValue(st, index, row, col);
+        }
+    }
+
+    abstract void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException;
+
+    //binders that can read their values without a node override this
+    void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+        bindValue(st, index, row.get(col));
+    }
+
+    /**
+     * Returns the time in milliseconds since 1970 of a JSON date, i.e. a number, or a string in the .NET format
+     * {@code /Date(ms)/}. The time zone offset of a .NET date is ignored, as the milliseconds are always UTC.
+     * @param val the JSON value.
+     * @return the time in milliseconds, or null if the value is not in one of these formats.
+     */
+    static Long parseDateMillis(JsonNode val) {
+        if (val.isIntegralNumber()) {
+            return val.longValue();
+        }
+        if (val.isTextual()) {
+            Matcher m = DATE_PATTERN.matcher(val.textValue());
+            if (m.matches()) {
+                try {
+                    return Long.parseLong(m.group(1));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the UTC date and time of {@code millis} in a format SQL Server can convert to all its date types,
+     * e.g. {@code 2013-08-14 22:02:02.977}.
+     * @param millis the time in milliseconds since 1970.
+     * @return the formatted date and time.
+     */
+    static String formatDate(long millis) {
+        return utcFormat.get().format(new java.util.Date(millis));
+    }
+
+    private static final class TextBinder extends ColumnBinder {
+        TextBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setString(index, val.asText());
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+            st.setString(index, row.asText(col));
+        }
+    }
+
+    private static final class IntBinder extends ColumnBinder {
+        IntBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setLong(index, val.asInt());
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+            if (row.isIntegral(col)) {
+                st.setLong(index, (int) row.getLong(col));
+            } else {
+                bindValue(st, index, row.get(col));
+            }
+        }
+    }
+
+    private static final class LongBinder extends ColumnBinder {
+        LongBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setLong(index, val.longValue());
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+            st.setLong(index, row.getLong(col));
+        }
+    }
+
+    private static final class BooleanBinder extends ColumnBinder {
+        BooleanBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setBoolean(index, val.asBoolean());
+        }
+    }
+
+    private static final class DecimalBinder extends ColumnBinder {
+        DecimalBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setBigDecimal(index, val.decimalValue());
+        }
+    }
+
+    private static final class DoubleBinder extends ColumnBinder {
+        DoubleBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            st.setDouble(index, val.doubleValue());
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+            st.setDouble(index, row.getDouble(col));
+        }
+    }
+
+    /**
+     * Binds .NET dates and numbers as UTC timestamps. Other strings are passed on for the server to convert.
+     */
+    private static final class DateTimeBinder extends ColumnBinder {
+        DateTimeBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            Long millis = parseDateMillis(val);
+            if (millis != null) {
+                st.setTimestamp(index, new Timestamp(millis), utcCalendar.get());
+            } else {
+                st.setString(index, val.asText());
+            }
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonRow row, int col) throws SQLException {
+            if (row.isIntegral(col)) {
+                st.setTimestamp(index, new Timestamp(row.getLong(col)), utcCalendar.get());
+            } else {
+                bindValue(st, index, row.get(col));
+            }
+        }
+    }
+
+    /**
+     * Binds null for fields with an unsupported type.
+     */
+    private static final class NullBinder extends ColumnBinder {
+        NullBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        void bindValue(PreparedStatement st, int index, JsonNode val) throws SQLException {
+            bind(st, index, null);
+        }
+    }
+}
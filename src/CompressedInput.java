@@ -0,0 +1,247 @@
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Opens JSON files that may be compressed. The compression is detected from the first bytes of the file, not its
+ * name, and compressed files are decompressed while they are read, on a read-ahead thread so decompression overlaps
+ * with parsing.
+ * <p>
+ * gzip files, including files of several gzip members, are supported. Only BGZF files, i.e. files written by
+ * {@code bgzip}, are decompressed by several threads at the same time, since their blocks give their own sizes. Other
+ * gzip files, including files of several members, are decompressed sequentially on the read-ahead thread. bzip2 and
+ * zstd files are detected, but have to be decompressed before they can be imported.
+ */
+final class CompressedInput {
+    //number of decompressed bytes per chunk of a gzip stream
+    private static final int CHUNK_SIZE = 256 * 1024;
+    //number of chunks decompressed ahead of the parser
+    private static final int READ_AHEAD_CHUNKS = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private enum Compression {NONE, GZIP, BGZF, BZIP2, ZSTD}
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Opens {@code fileName}, decompressing it if it is compressed.
+     * @param fileName the JSON file.
+     * @return the content of the file.
+     * @throws IOException if the file cannot be read, or is compressed with an unsupported format.
+     */
+    static InputStream open(String fileName) throws IOException {
+        switch (detect(fileName)) {
+            case GZIP:
+                return new ReadAheadInputStream(new GzipSource(fileName), READ_AHEAD_CHUNKS);
+            case BGZF:
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                //blocks are at most 64KB, keep a few per thread ahead of the parser
+                return new ReadAheadInputStream(new BgzfSource(fileName, threadCount), threadCount * 4);
+            case BZIP2:
+                throw new IOException("bzip2 compressed files are not supported, decompress the file first.");
+            case ZSTD:
+                throw new IOException("zstd compressed files are not supported, decompress the file first.");
+            default:
+                return new FileInputStream(fileName);
+        }
+    }
+
+    /**
+     * Returns true if {@code fileName} is compressed, i.e. its content is not at the same position in the file as in
+     * the stream returned by {@code open}.
+     * @param fileName the JSON file.
+     * @return true if the file is compressed.
+     * @throws IOException
+     */
+    static boolean isCompressed(String fileName) throws IOException {
+        return detect(fileName) != Compression.NONE;
+    }
+
+    private static Compression detect(String fileName) throws IOException {
+        byte[] head = new byte[16];
+        int length = 0;
+        InputStream in = new FileInputStream(fileName);
+        try {
+            int n;
+            while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {
+                length += n;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) {
+            //a BGZF block has an extra field with a BC subfield holding the size of the block
+            boolean bgzf = length >= 16 && (head[3] & 0x04) != 0 && head[12] == 'B' && head[13] == 'C'
+                    && head[14] == 2 && head[15] == 0;
+            return bgzf ? Compression.BGZF : Compression.GZIP;
+        } else if (length >= 3 && head[0] == 'B' && head[1] == 'Z' && head[2] == 'h') {
+            return Compression.BZIP2;
+        } else if (length >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5
+                && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd) {
+            return Compression.ZSTD;
+        }
+        return Compression.NONE;
+    }
+
+    /**
+     * Decompresses a gzip file sequentially on the read-ahead thread. {@code GZIPInputStream} reads all the members of
+     * the file one after the other, since a plain gzip member does not give its compressed size.
+     */
+    private static final class GzipSource implements ReadAheadInputStream.ChunkSource {
+        private final InputStream in;
+
+        GzipSource(String fileName) throws IOException {
+            InputStream file = new FileInputStream(fileName);
+            try {
+                in = new GZIPInputStream(file, BUFFER_SIZE);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Future<byte[]> next() throws IOException {
+            byte[] b = new byte[CHUNK_SIZE];
+            int length = 0;
+            int n = in.read(b);
+            while (n > 0) {
+                length += n;
+                if (length == b.length) {
+                    break;
+                }
+                n = in.read(b, length, b.length - length);
+            }
+            if (length == 0) {
+                return null;
+            }
+            if (length < b.length) {
+                byte[] last = new byte[length];
+                System.arraycopy(b, 0, last, 0, length);
+                b = last;
+            }
+            return ReadAheadInputStream.completed(b);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the blocks of a BGZF file on the read-ahead thread, and inflates them on a thread pool. Each block is a
+     * complete gzip member that gives its own size, so the blocks can be found without decompressing the file.
+     */
+    private static final class BgzfSource implements ReadAheadInputStream.ChunkSource {
+        private final DataInputStream in;
+        private final ExecutorService executor;
+        private long position = 0;
+
+        BgzfSource(String fileName, int threadCount) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE));
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "inflate");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        @Override
+        public Future<byte[]> next() throws IOException {
+            byte[] header = new byte[12];
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            header[0] = (byte) first;
+            in.readFully(header, 1, header.length - 1);
+            if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8
+                    || (header[3] & 0x04) == 0) {
+                throw new ZipException("Invalid BGZF block at byte " + position + ".");
+            }
+
+            int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+            byte[] extra = new byte[extraLength];
+            in.readFully(extra);
+            int blockSize = -1;
+            for (int i = 0; i + 4 <= extraLength; ) {
+                int subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+                if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extraLength) {
+                    blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+                }
+                i += 4 + subfieldLength;
+            }
+            if (blockSize < header.length + extraLength + 8) {
+                throw new ZipException("Invalid BGZF block size at byte " + position + ".");
+            }
+
+            //the compressed data, followed by the CRC and the size of the decompressed data
+            final byte[] data = new byte[blockSize - header.length - extraLength];
+            in.readFully(data);
+            final long blockPosition = position;
+            position += blockSize;
+
+            return executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return inflate(data, blockPosition);
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            //the blocks already submitted may still be waiting to be read
+            executor.shutdown();
+            in.close();
+        }
+
+        private static byte[] inflate(byte[] data, long blockPosition) throws IOException {
+            int trailer = data.length - 8;
+            long crc = readUnsignedInt(data, trailer);
+            int size = (int) readUnsignedInt(data, trailer + 4);
+
+            byte[] b = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data, 0, trailer);
+                int length = 0;
+                while (length < size && !inflater.finished()) {
+                    int n = inflater.inflate(b, length, size - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != size) {
+                    throw new ZipException("Corrupt BGZF block at byte " + blockPosition + ".");
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt BGZF block at byte " + blockPosition + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            CRC32 check = new CRC32();
+            check.update(b);
+            if (check.getValue() != crc) {
+                throw new ZipException("CRC error in BGZF block at byte " + blockPosition + ".");
+            }
+            return b;
+        }
+
+        private static long readUnsignedInt(byte[] b, int offset) {
+            return (b[offset] & 0xffL) | (b[offset + 1] & 0xffL) << 8 | (b[offset + 2] & 0xffL) << 16
+                    | (b[offset + 3] & 0xffL) << 24;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A bounded pool of connections to a SQL Server database. There is one pool per {@code ConnectionProperties}, and
+ * connections are kept open between uses, so each thread does not need to log in to the database for every block it
+ * imports.
+ * <p>
+ * A connection that has been idle for a while is validated before it is handed out again. Broken connections are
+ * closed and replaced with a new connection.
+ * <p>
+ * This class is thread safe.
+ */
+final class ConnectionPool {
+    private static final ConcurrentMap<ConnectionProperties, ConnectionPool> pools =
+            new ConcurrentHashMap<ConnectionProperties, ConnectionPool>();
+
+    //connections idle for longer than this are validated before reuse
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30000;
+
+    private final ConnectionProperties p;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final BlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+    private volatile boolean closed = false;
+
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong openCount = new AtomicLong();
+
+    private ConnectionPool(ConnectionProperties p, int maxSize) {
+        this.p = p;
+        this.maxSize = Math.max(1, maxSize);
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * Returns the pool for {@code p}, creating it with one connection per available processor if it does not exist.
+     * @param p connection parameters to a SQL Server database.
+     * @return the pool for {@code p}.
+     */
+    static ConnectionPool getPool(ConnectionProperties p) {
+        return getPool(p, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the pool for {@code p}, creating it if it does not exist. {@code maxSize} is only used when the pool is
+     * created, so the first caller decides the size of the pool.
+     * @param p connection parameters to a SQL Server database.
+     * @param maxSize maximum number of connections that can be borrowed from the pool at the same time.
+     * @return the pool for {@code p}.
+     */
+    static ConnectionPool getPool(ConnectionProperties p, int maxSize) {
+        ConnectionPool pool = pools.get(p);
+        if (pool == null) {
+            ConnectionPool created = new ConnectionPool(p, maxSize);
+            pool = pools.putIfAbsent(p, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Closes the connections of every pool, and removes the pools. Should be called once the import has finished.
+     */
+    static void closeAll() {
+        for (ConnectionPool pool: pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if there is no idle connection. Blocks if all connections
+     * are in use. The connection must be given back with {@code release}, usually in a finally block.
+     * @return a connection to the database.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    Connection getConnection() throws SQLException, ClassNotFoundException {
+        long startTime = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.");
+        }
+        waitNanos.addAndGet(System.nanoTime() - startTime);
+        borrowCount.incrementAndGet();
+
+        try {
+            IdleConnection c = idle.pollFirst();
+            while (c != null) {
+                if (isUsable(c)) {
+                    reuseCount.incrementAndGet();
+                    return c.cn;
+                }
+                closeQuietly(c.cn);
+                c = idle.pollFirst();
+            }
+
+            Connection cn = DatabaseConnection.getConnection(p);
+            openCount.incrementAndGet();
+            return cn;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (ClassNotFoundException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection borrowed with {@code getConnection} back to the pool.
+     * @param cn the connection to give back. If null, the call is ignored.
+     */
+    void release(Connection cn) {
+        if (cn == null) {
+            return;
+        }
+        try {
+            if (closed) {
+                closeQuietly(cn);
+            } else if (!cn.isClosed()) {
+                //the most recently used connection is handed out first, so the others can go idle
+                idle.offerFirst(new IdleConnection(cn, System.currentTimeMillis()));
+            }
+        } catch (SQLException e) {
+            closeQuietly(cn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens connections until the pool has {@code count} idle connections, so the first blocks do not have to wait
+     * for a login. Never opens more than the size of the pool.
+     * @param count number of connections to open.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    void warmUp(int count) throws SQLException, ClassNotFoundException {
+        int target = Math.min(count, maxSize);
+        while (idle.size() < target) {
+            idle.offerLast(new IdleConnection(DatabaseConnection.getConnection(p), System.currentTimeMillis()));
+            openCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are borrowed at the time are closed when they are released.
+     */
+    void close() {
+        closed = true;
+        IdleConnection c = idle.pollFirst();
+        while (c != null) {
+            closeQuietly(c.cn);
+            c = idle.pollFirst();
+        }
+    }
+
+    /**
+     * Returns the maximum number of connections that can be borrowed at the same time.
+     * @return the size of the pool.
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the total time threads spent waiting for a connection to become available, in nanoseconds.
+     * @return the total wait time in nanoseconds.
+     */
+    long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * Returns the number of times a connection was borrowed from the pool.
+     * @return the number of borrowed connections.
+     */
+    long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the number of times an idle connection was reused instead of opening a new connection.
+     * @return the number of reused connections.
+     */
+    long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * Returns the number of connections the pool has opened.
+     * @return the number of opened connections.
+     */
+    long getOpenCount() {
+        return openCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Connection pool for %s/%s: %d borrowed, %d reused, %d opened, %f sec waiting.",
+                p.server, p.database, getBorrowCount(), getReuseCount(), getOpenCount(),
+                getWaitNanos() / 1000000000f);
+    }
+
+    /**
+     * Returns true if the connection can be handed out again. Connections that have been idle for a while are
+     * validated with a round trip to the database.
+     */
+    private static boolean isUsable(IdleConnection c) {
+        try {
+            if (c.cn.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - c.lastUsed < VALIDATE_AFTER_IDLE_MILLIS) {
+                return true;
+            }
+            Statement st = c.cn.createStatement();
+            try {
+                st.execute("SELECT 1");
+            } finally {
+                st.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection cn) {
+        try {
+            cn.close();
+        } catch (SQLException e) {
+            ;
+        }
+    }
+
+    /**
+     * An idle connection, and the time it was given back to the pool.
+     */
+    private static final class IdleConnection {
+        final Connection cn;
+        final long lastUsed;
+
+        IdleConnection(Connection cn, long lastUsed) {
+            this.cn = cn;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -33,4 +33,32 @@ final class ConnectionProperties {
         this.password = (password == null) ? "" : password;
         this.port = (port == 0) ? 1433 : port;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConnectionProperties)) {
+            return false;
+        }
+        ConnectionProperties other = (ConnectionProperties) o;
+        return server.equals(other.server)
+                && port == other.port
+                && database.equals(other.database)
+                && instance.equals(other.instance)
+                && user.equals(other.user)
+                && password.equals(other.password);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = server.hashCode();
+        result = 31 * result + port;
+        result = 31 * result + database.hashCode();
+        result = 31 * result + instance.hashCode();
+        result = 31 * result + user.hashCode();
+        result = 31 * result + password.hashCode();
+        return result;
+    }
 }
@@ -37,7 +37,8 @@ class DatabaseConnection {
      */
     static void verifyTable(ConnectionProperties p, String table, String[] fields, List<Field> verifiedFields)
             throws SQLException, ClassNotFoundException {
-        Connection cn = getConnection(p);
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
         try {
             StringBuilder fieldsClause = new StringBuilder();
             for (String s: fields) {
@@ -49,28 +50,215 @@ class DatabaseConnection {
 
             String sql = String.format("SELECT TOP 1 %s FROM %s", fieldsClause, table);
             Statement st = cn.createStatement();
-            ResultSetMetaData md = st.executeQuery(sql).getMetaData();
+            ResultSet rs = st.executeQuery(sql);
+            ResultSetMetaData md = rs.getMetaData();
             int count = md.getColumnCount();
             verifiedFields.clear();
             for (int i = 1; i <= count; i++) {
                 Field f = new Field(
                         md.getColumnName(i),
                         md.getColumnType(i),
-                        md.getColumnTypeName(i));
+                        md.getColumnTypeName(i),
+                        md.getPrecision(i),
+                        md.getScale(i));
                 if (!isSupportedType(f)) {
                     System.out.format("Field %s is a non supported field type %s%n",
                             f.getFieldName(), f.getFieldTypeName());
                 }
                 verifiedFields.add(f);
             }
+            rs.close();
+            st.close();
         } finally {
-            cn.close();
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Returns the position of each field in {@code fields} among all the columns of {@code table}, starting at 1.
+     * Bulk-load format files refer to table columns by position.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of the table.
+     * @param fields list of verified fields.
+     * @return the position of each field in the table, in the same order as {@code fields}.
+     * @throws SQLException if a field does not exist in the table.
+     * @throws ClassNotFoundException
+     */
+    static int[] getColumnOrdinals(ConnectionProperties p, String table, List<Field> fields)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            Statement st = cn.createStatement();
+            ResultSet rs = st.executeQuery(String.format("SELECT TOP 0 * FROM %s", table));
+            ResultSetMetaData md = rs.getMetaData();
+            //column names are not case sensitive in SQL Server by default
+            Map<String, Integer> ordinals = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                ordinals.put(md.getColumnName(i), i);
+            }
+            rs.close();
+            st.close();
+
+            int[] result = new int[fields.size()];
+            for (int i = 0; i < result.length; i++) {
+                Integer ordinal = ordinals.get(fields.get(i).getFieldName());
+                if (ordinal == null) {
+                    throw new SQLException(String.format("Field %s does not exist in table %s.",
+                            fields.get(i).getFieldName(), table));
+                }
+                result[i] = ordinal;
+            }
+            return result;
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Adds the values of column {@code key} of every row of {@code table} to {@code keys}, reading them with one
+     * {@code SELECT} that is streamed, so the rows are not held in memory. Null values and values that are not whole
+     * numbers are left out.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of the table.
+     * @param key name of the key column.
+     * @param keys the set to add the keys to.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    static void readKeys(ConnectionProperties p, String table, String key, LongBitmap keys)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            Statement st = cn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(10000);
+            ResultSet rs = st.executeQuery(String.format("SELECT %s FROM %s", key, table));
+            while (rs.next()) {
+                try {
+                    long value = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        keys.add(value);
+                    }
+                } catch (SQLException e) {
+                    //not a number, it cannot be a duplicate either
+                }
+            }
+            rs.close();
+            st.close();
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Returns true if {@code table} has no rows.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of the table.
+     * @return true if the table is empty.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    static boolean isEmpty(ConnectionProperties p, String table) throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            Statement st = cn.createStatement();
+            ResultSet rs = st.executeQuery(String.format("SELECT TOP 1 1 FROM %s", table));
+            boolean empty = !rs.next();
+            rs.close();
+            st.close();
+            return empty;
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Returns the names of the nonclustered indexes of {@code table} that are not unique, whether they are enabled or
+     * not. Unique indexes, including primary keys, are left out, as disabling them would let duplicates in.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of the table.
+     * @return the names of the indexes.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    static List<String> getNonclusteredIndexes(ConnectionProperties p, String table)
+            throws SQLException, ClassNotFoundException {
+        return getIndexes(p, table, "");
+    }
+
+    /**
+     * Returns the names of the nonclustered indexes of {@code table} that are not unique, and are disabled, e.g. by a
+     * reload that did not finish.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of the table.
+     * @return the names of the disabled indexes.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    static List<String> getDisabledIndexes(ConnectionProperties p, String table)
+            throws SQLException, ClassNotFoundException {
+        return getIndexes(p, table, " AND is_disabled = 1");
+    }
+
+    private static List<String> getIndexes(ConnectionProperties p, String table, String condition)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            //type 2 is a nonclustered rowstore index
+            PreparedStatement st = cn.prepareStatement("SELECT name FROM sys.indexes WHERE object_id = OBJECT_ID(?) "
+                    + "AND type = 2 AND is_unique = 0" + condition + " ORDER BY index_id");
+            st.setString(1, table);
+            ResultSet rs = st.executeQuery();
+            List<String> indexes = new ArrayList<String>();
+            while (rs.next()) {
+                indexes.add(rs.getString(1));
+            }
+            rs.close();
+            st.close();
+            return indexes;
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Returns the names of the tables in the schema of {@code table} whose names match {@code pattern}.
+     * @param p connection parameters to a SQL Server database.
+     * @param table name of a table, which gives the schema.
+     * @param pattern {@code LIKE} pattern of the names, escaped with a backslash.
+     * @return the names of the tables without their schema, or an empty list if {@code table} does not exist.
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     */
+    static List<String> getTables(ConnectionProperties p, String table, String pattern)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            PreparedStatement st = cn.prepareStatement("SELECT name FROM sys.tables "
+                    + "WHERE schema_id = SCHEMA_ID(OBJECT_SCHEMA_NAME(OBJECT_ID(?))) AND name LIKE ? ESCAPE '\\' "
+                    + "ORDER BY name");
+            st.setString(1, table);
+            st.setString(2, pattern);
+            ResultSet rs = st.executeQuery();
+            List<String> tables = new ArrayList<String>();
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+            rs.close();
+            st.close();
+            return tables;
+        } finally {
+            pool.release(cn);
         }
     }
 
     /**
      * returns true if {@code f} is supported for import. Return true if {@code isBoolean}, {@code isTextual},
-     * {@code isInt}, {@code isLong}, {@code isDecimal}, or {@code isFloatingPoint} is true.
+     * {@code isInt}, {@code isLong}, {@code isDecimal}, {@code isFloatingPoint}, or {@code isDateTime} is true.
      * @return true if field is supported for import.
      */
     private static boolean isSupportedType(Field f) {
@@ -79,6 +267,7 @@ class DatabaseConnection {
                 || f.isInt()
                 || f.isLong()
                 || f.isDecimal()
-                || f.isFloatingPoint();
+                || f.isFloatingPoint()
+                || f.isDateTime();
     }
 }
@@ -0,0 +1,181 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Drops the rows whose key has already been imported, then passes the others on to another sink, e.g. a
+ * {@code JsonArrayImporter}. The duplicates are dropped before they are bound, so they neither fail on a primary key
+ * nor are inserted twice. The keys seen are kept in a {@code LongBitmap} per table, which can first be filled with the
+ * keys already in the table.
+ * <p>
+ * The key must be a whole number, or a string holding one, e.g. {@code ListingId}. Rows without a key, or with a key
+ * that is not a number, are always passed on. A key is recorded when its row is passed on, so a row whose insert
+ * fails is not retried by a later duplicate.
+ * <p>
+ * This class is thread safe.
+ */
+class DedupingSink implements ImportSink {
+    /**
+     * The update count of a row dropped as a duplicate. It is not a JDBC value, so it is neither a success nor a
+     * failure.
+     */
+    static final int DUPLICATE = -4;
+
+    private final ImportSink sink;
+    private final String keyField;
+    private final ConnectionProperties p;
+    private final Map<String, LongBitmap> keys = new HashMap<String, LongBitmap>();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code DedupingSink}.
+     * @param sink the sink the rows that are not duplicates are passed to.
+     * @param keyField the field holding the key. It must be one of the imported fields.
+     * @param p connection properties to read the keys already in each table from, or null to start each table with
+     *          no keys.
+     */
+    DedupingSink(ImportSink sink, String keyField, ConnectionProperties p) {
+        this.sink = sink;
+        this.keyField = keyField.trim();
+        this.p = p;
+    }
+
+    /**
+     * Returns the number of rows in {@code updateCounts} that were dropped as duplicates.
+     * @param updateCounts update counts returned by {@code importRows}.
+     * @return the number of duplicates.
+     */
+    static int countDuplicates(int[] updateCounts) {
+        int duplicates = 0;
+        for (int count: updateCounts) {
+            if (count == DUPLICATE) {
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Passes the rows whose key has not been seen yet to the sink.
+     * @return the update counts of the sink, with {@code DUPLICATE} for the rows that were dropped.
+     * @throws SQLException if the key is not one of {@code fields}, or the rows could not be imported.
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException, ClassNotFoundException {
+        int keyIndex = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getFieldName().equalsIgnoreCase(keyField)) {
+                keyIndex = i;
+            }
+        }
+        if (keyIndex < 0) {
+            throw new SQLException(String.format("The key %s is not one of the fields imported into %s.", keyField,
+                    tableName));
+        }
+
+        LongBitmap tableKeys = getKeys(tableName);
+        boolean[] duplicate = new boolean[importRows.size()];
+        List<JsonRow> rows = new ArrayList<JsonRow>(importRows.size());
+        int i = 0;
+        synchronized (tableKeys) {
+            for (JsonRow row: importRows) {
+                boolean isDuplicate;
+                if (row.isIntegral(keyIndex)) {
+                    //whole numbers are read without creating a node
+                    isDuplicate = !tableKeys.add(row.getLong(keyIndex));
+                } else {
+                    JsonNode key = row.get(keyIndex);
+                    isDuplicate = isNumber(key) && !tableKeys.add(toLong(key));
+                }
+                if (isDuplicate) {
+                    duplicate[i] = true;
+                } else {
+                    rows.add(row);
+                }
+                i++;
+            }
+        }
+
+        int[] counts = rows.isEmpty() ? new int[0] : sink.importRows(tableName, fields, rows);
+        int[] updateCounts = new int[duplicate.length];
+        int next = 0;
+        for (i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = duplicate[i] ? DUPLICATE : counts[next++];
+        }
+        duplicateCount.addAndGet(updateCounts.length - rows.size());
+        return updateCounts;
+    }
+
+    /**
+     * Returns the number of rows dropped as duplicates so far.
+     * @return the number of duplicates.
+     */
+    long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Returns the number of keys seen so far, and the memory they take, e.g. {@code 1000000 keys in 0.2 MB}.
+     */
+    @Override
+    public synchronized String toString() {
+        long count = 0;
+        long bytes = 0;
+        for (LongBitmap tableKeys: keys.values()) {
+            synchronized (tableKeys) {
+                count += tableKeys.size();
+                bytes += tableKeys.getMemoryBytes();
+            }
+        }
+        return String.format("%d keys in %.1f MB", count, bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Returns the keys of {@code tableName}, reading the keys already in the table the first time.
+     */
+    private synchronized LongBitmap getKeys(String tableName) throws SQLException, ClassNotFoundException {
+        LongBitmap tableKeys = keys.get(tableName);
+        if (tableKeys == null) {
+            tableKeys = new LongBitmap();
+            if (p != null) {
+                long startTime = System.currentTimeMillis();
+                DatabaseConnection.readKeys(p, tableName, keyField, tableKeys);
+                log.info(String.format("Read %d keys of %s in %f sec.", tableKeys.size(), tableName,
+                        (System.currentTimeMillis() - startTime) / 1000f));
+            }
+            keys.put(tableName, tableKeys);
+        }
+        return tableKeys;
+    }
+
+    private static boolean isNumber(JsonNode key) {
+        if (key == null || key.isNull()) {
+            return false;
+        }
+        if (key.isIntegralNumber()) {
+            return key.canConvertToLong();
+        }
+        if (key.isTextual()) {
+            try {
+                Long.parseLong(key.textValue().trim());
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static long toLong(JsonNode key) {
+        return key.isTextual() ? Long.parseLong(key.textValue().trim()) : key.longValue();
+    }
+}
@@ -4,7 +4,7 @@ import java.sql.Types;
  * Created with IntelliJ IDEA.
  * User: Robo
  *
- * Immutable object for storing the field name and field type of a table field.
+ * Immutable object for storing the field name, field type and precision of a table field.
  * <p>
  * When this object is shared for concurrent use, no synchronization is necessary.
  */
@@ -16,16 +16,34 @@ final class Field {
 
     private final String fieldTypeName;
 
+    //the length of text fields, or the digits of decimal fields. 0 if unknown
+    private final int precision;
+    private final int scale;
+
     /**
-     * Creates a {@code Field} to represent the metadata of a table field.
+     * Creates a {@code Field} to represent the metadata of a table field, without its precision.
      * @param fieldName name of the field.
      * @param fieldType data type of the field. One of the values in java.sql.Types.
      * @param fieldTypeName string representation of {@code fieldType}.
      */
     Field(String fieldName, int fieldType, String fieldTypeName) {
+        this(fieldName, fieldType, fieldTypeName, 0, 0);
+    }
+
+    /**
+     * Creates a {@code Field} to represent the metadata of a table field.
+     * @param fieldName name of the field.
+     * @param fieldType data type of the field. One of the values in java.sql.Types.
+     * @param fieldTypeName string representation of {@code fieldType}.
+     * @param precision the maximum length of a text field, or the number of digits of a decimal field. 0 if unknown.
+     * @param scale the number of digits after the decimal point of a decimal field.
+     */
+    Field(String fieldName, int fieldType, String fieldTypeName, int precision, int scale) {
         this.fieldName = fieldName;
         this.fieldType = fieldType;
         this.fieldTypeName = fieldTypeName;
+        this.precision = precision;
+        this.scale = scale;
     }
 
     /**
@@ -52,6 +70,22 @@ final class Field {
         return fieldTypeName;
     }
 
+    /**
+     * Return the maximum length of a text field, or the number of digits of a decimal field.
+     * @return the precision of the field, or 0 if unknown.
+     */
+    int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Return the number of digits after the decimal point of a decimal field.
+     * @return the scale of the field.
+     */
+    int getScale() {
+        return scale;
+    }
+
     /**
      * Return true if {@code fieldType} is {@code NCHAR}, {@code NVARCHAR}, {@code CHAR}, {@code LONGNVARCHAR},
      * {@code LONGVARCHAR}, or {@code VARCHAR},
@@ -110,4 +144,21 @@ final class Field {
         return (fieldType == Types.NUMERIC)
                 || (fieldType == Types.DECIMAL);
     }
+
+    /**
+     * Return true if {@code fieldType} is {@code TIMESTAMP}, {@code DATE}, or {@code TIME}, or {@code fieldTypeName}
+     * is one of the SQL Server date and time types. Some drivers report the newer types, e.g. {@code datetime2},
+     * as text, so the type name is checked as well.
+     * @return true if {@code fieldType} is a date or time.
+     */
+    boolean isDateTime() {
+        return (fieldType == Types.TIMESTAMP)
+                || (fieldType == Types.DATE)
+                || (fieldType == Types.TIME)
+                || "datetime".equalsIgnoreCase(fieldTypeName)
+                || "datetime2".equalsIgnoreCase(fieldTypeName)
+                || "smalldatetime".equalsIgnoreCase(fieldTypeName)
+                || "date".equalsIgnoreCase(fieldTypeName)
+                || "time".equalsIgnoreCase(fieldTypeName);
+    }
 }
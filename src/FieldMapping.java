@@ -0,0 +1,120 @@
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A column to import, and the path of its value in the JSON objects, as given to {@code -f}. A column without a path,
+ * e.g. {@code ListingId}, is imported from the field of the same name. A path is either dotted, e.g.
+ * {@code Name=realm.name} or {@code FirstItem=item[0]}, or a JSON Pointer, e.g. {@code FirstItem=/item/0}. A segment
+ * that is a whole number also matches the element at that position of an array.
+ * <p>
+ * This object is immutable. When it is shared for concurrent use, no synchronization is necessary.
+ */
+final class FieldMapping {
+    private final String columnName;
+    //null when the value is the field named after the column
+    private final List<String> path;
+
+    private FieldMapping(String columnName, List<String> path) {
+        this.columnName = columnName;
+        this.path = path;
+    }
+
+    /**
+     * Parses one mapping, e.g. {@code ListingId} or {@code Name=realm.name}.
+     * @param mapping the column name, optionally followed by {@code =} and the path of its value.
+     * @return the mapping.
+     * @throws IllegalArgumentException if the column name or a segment of the path is empty.
+     */
+    static FieldMapping parse(String mapping) {
+        int equals = mapping.indexOf('=');
+        String columnName = (equals < 0 ? mapping : mapping.substring(0, equals)).trim();
+        if (columnName.isEmpty()) {
+            throw new IllegalArgumentException("A column name is missing: " + mapping);
+        }
+        if (equals < 0) {
+            return new FieldMapping(columnName, null);
+        }
+        return new FieldMapping(columnName, parsePath(mapping.substring(equals + 1)));
+    }
+
+    /**
+     * Parses a path, either dotted, e.g. {@code realm.name} or {@code item[0]}, or a JSON Pointer, e.g.
+     * {@code /item/0}.
+     * @param path the path.
+     * @return the segments of the path.
+     * @throws IllegalArgumentException if a segment of a dotted path is empty.
+     */
+    static List<String> parsePath(String path) {
+        path = path.trim();
+        List<String> segments = path.startsWith("/") ? parsePointer(path) : parseDotted(path);
+        for (String s: segments) {
+            if (s.isEmpty() && !path.startsWith("/")) {
+                throw new IllegalArgumentException("The path has an empty segment: " + path);
+            }
+        }
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Parses a comma separated list of mappings, e.g. {@code ListingId, Name=realm.name}.
+     * @param mappings the value of {@code -f}.
+     * @return the mappings, in the same order.
+     * @throws IllegalArgumentException if a mapping is not valid.
+     */
+    static List<FieldMapping> parseAll(String mappings) {
+        List<FieldMapping> result = new ArrayList<FieldMapping>();
+        for (String s: mappings.split(",")) {
+            result.add(parse(s));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the column names of {@code mappings}, e.g. to verify the table.
+     * @param mappings list of mappings.
+     * @return the column names, in the same order.
+     */
+    static String[] getColumnNames(List<FieldMapping> mappings) {
+        String[] result = new String[mappings.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = mappings.get(i).getColumnName();
+        }
+        return result;
+    }
+
+    private static List<String> parsePointer(String pointer) {
+        //RFC 6901: ~1 is a slash and ~0 a tilde, in that order
+        List<String> segments = new ArrayList<String>();
+        for (String s: pointer.substring(1).split("/", -1)) {
+            segments.add(s.replace("~1", "/").replace("~0", "~"));
+        }
+        return segments;
+    }
+
+    private static List<String> parseDotted(String path) {
+        //item[0] is the same as item.0
+        List<String> segments = new ArrayList<String>();
+        for (String s: path.replace("[", ".").replace("]", "").split("\\.", -1)) {
+            segments.add(s.trim());
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the name of the column.
+     * @return the name of the column.
+     */
+    String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Returns the segments of the path of the value, or null if the value is the field named after the column.
+     * @return the segments of the path, or null.
+     */
+    List<String> getPath() {
+        return path;
+    }
+}
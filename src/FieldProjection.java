@@ -0,0 +1,355 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Maps the paths of the verified table fields to their position in a {@code JsonRow}. The projection is used by
+ * {@code JsonArrayReader} to only keep the values of the fields that are imported.
+ * <p>
+ * The paths of all the fields are compiled into one trie of {@code PathNode}, starting at {@code getRoot}, so the
+ * values of a row are found in a single pass over an object: a member whose name has no node in the trie is skipped,
+ * and the paths sharing a prefix, e.g. {@code realm.name} and {@code realm.slug}, share its nodes.
+ * <p>
+ * The arrays imported into child tables, see {@code ChildTable}, are nodes of the same trie. Each element of such an
+ * array becomes a row of its child table, with the key of the parent row first, which is only set once the whole
+ * parent object has been read, see {@code newRow}.
+ * <p>
+ * This object is immutable. When it is shared for concurrent use, no synchronization is necessary.
+ */
+final class FieldProjection {
+    /**
+     * A node of the trie of paths: the fields whose value is at this node, the child tables its elements are imported
+     * into, and the nodes of the members and elements below it.
+     */
+    static final class PathNode {
+        private final Map<String, PathNode> children = new HashMap<String, PathNode>();
+        private PathNode[] elements = new PathNode[0];
+        private int[] indexes = new int[0];
+        private ChildArray[] arrays = new ChildArray[0];
+
+        private PathNode add(String segment) {
+            PathNode child = children.get(segment);
+            if (child == null) {
+                child = new PathNode();
+                children.put(segment, child);
+                int element = parseIndex(segment);
+                if (element >= 0) {
+                    if (element >= elements.length) {
+                        elements = Arrays.copyOf(elements, element + 1);
+                    }
+                    elements[element] = child;
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Returns the node of the member {@code name} of an object at this node, or null if no path goes through it.
+         * @param name name of a member of the object.
+         * @return the node of the member, or null.
+         */
+        PathNode getChild(String name) {
+            return children.get(name);
+        }
+
+        /**
+         * Returns the node of the element at {@code index} of an array at this node, or null if no path goes through
+         * it.
+         * @param index position of the element in the array.
+         * @return the node of the element, or null.
+         */
+        PathNode getElement(int index) {
+            return (index < elements.length) ? elements[index] : null;
+        }
+
+        /**
+         * Returns true if the value at this node is a field of the row. The value is then read whole.
+         * @return true if the value at this node is imported.
+         */
+        boolean isValue() {
+            return indexes.length > 0;
+        }
+
+        /**
+         * Returns the child tables the elements of an array at this node are imported into.
+         * @return the child arrays, empty if the elements are not imported into a child table.
+         */
+        ChildArray[] getArrays() {
+            return arrays;
+        }
+
+        /**
+         * Stores {@code n}, the value at this node, into {@code values}, and the values below it that are imported.
+         * @param n the value at this node.
+         * @param values the values of the row.
+         * @param childValues the values of the rows of each child table, see {@code newChildValues}.
+         */
+        void setValues(JsonNode n, JsonNode[] values, List<List<JsonNode[]>> childValues) {
+            for (int index: indexes) {
+                values[index] = n;
+            }
+            if (n.isObject()) {
+                for (Map.Entry<String, PathNode> e: children.entrySet()) {
+                    JsonNode member = n.get(e.getKey());
+                    if (member != null) {
+                        e.getValue().setValues(member, values, childValues);
+                    }
+                }
+            } else if (n.isArray()) {
+                for (int i = 0; i < elements.length && i < n.size(); i++) {
+                    if (elements[i] != null) {
+                        elements[i].setValues(n.get(i), values, childValues);
+                    }
+                }
+                for (ChildArray array: arrays) {
+                    for (JsonNode element: n) {
+                        JsonNode[] elementValues = array.newValues();
+                        array.setElement(element, elementValues);
+                        childValues.get(array.getChild()).add(elementValues);
+                    }
+                }
+            }
+        }
+
+        private void addPath(List<String> path, int index) {
+            PathNode node = this;
+            for (String segment: path) {
+                node = node.add(segment);
+            }
+            node.indexes = Arrays.copyOf(node.indexes, node.indexes.length + 1);
+            node.indexes[node.indexes.length - 1] = index;
+        }
+
+        private static int parseIndex(String segment) {
+            if (segment.isEmpty() || segment.length() > 9) {
+                return -1;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (!Character.isDigit(segment.charAt(i))) {
+                    return -1;
+                }
+            }
+            return Integer.parseInt(segment);
+        }
+    }
+
+    /**
+     * An array whose elements are imported into a child table. The values of an element are stored after the key of
+     * the parent row.
+     */
+    static final class ChildArray {
+        private final int child;
+        private final PathNode root = new PathNode();
+        private final int size;
+        //the columns without a path, which take the element itself when it is not an object
+        private final int[] scalarIndexes;
+
+        private ChildArray(int child, List<FieldMapping> mappings) {
+            this.child = child;
+            this.size = mappings.size() + 1;
+            List<Integer> scalars = new ArrayList<Integer>();
+            for (int i = 0; i < mappings.size(); i++) {
+                List<String> path = mappings.get(i).getPath();
+                if (path == null) {
+                    path = Collections.singletonList(mappings.get(i).getColumnName());
+                    scalars.add(i + 1);
+                }
+                root.addPath(path, i + 1);
+            }
+            this.scalarIndexes = new int[scalars.size()];
+            for (int i = 0; i < scalarIndexes.length; i++) {
+                scalarIndexes[i] = scalars.get(i);
+            }
+        }
+
+        /**
+         * Returns the position of the child table in the list of child tables of the projection.
+         * @return the position of the child table.
+         */
+        int getChild() {
+            return child;
+        }
+
+        /**
+         * Returns the root of the trie of paths of the element columns, i.e. the node of an element that is an object.
+         * @return the root of the trie of paths.
+         */
+        PathNode getRoot() {
+            return root;
+        }
+
+        /**
+         * Returns new values for a row of the child table, the key of the parent row first.
+         * @return the values, all null.
+         */
+        JsonNode[] newValues() {
+            return new JsonNode[size];
+        }
+
+        /**
+         * Stores an element that is not an object into the columns without a path.
+         * @param element the element.
+         * @param values the values of the row of the child table.
+         */
+        void setScalar(JsonNode element, JsonNode[] values) {
+            for (int index: scalarIndexes) {
+                values[index] = element;
+            }
+        }
+
+        /**
+         * Stores the values of an element that has already been read into a tree.
+         * @param element the element.
+         * @param values the values of the row of the child table.
+         */
+        void setElement(JsonNode element, JsonNode[] values) {
+            if (element.isObject()) {
+                root.setValues(element, values, null);
+            } else {
+                setScalar(element, values);
+            }
+        }
+    }
+
+    private final PathNode root = new PathNode();
+    private final int size;
+    //the position in a row of the key of each child table
+    private final int[] keyIndexes;
+
+    /**
+     * Creates a new {@code FieldProjection} for {@code fields}, each field being imported from the member of the same
+     * name. The value of a field is stored in a {@code JsonRow} at the same position as the field in {@code fields}.
+     * @param fields list of verified fields to import.
+     */
+    FieldProjection(List<Field> fields) {
+        this(fields, null);
+    }
+
+    /**
+     * Creates a new {@code FieldProjection} for {@code fields}, each field being imported from the path of its
+     * mapping. The value of a field is stored in a {@code JsonRow} at the same position as the field in
+     * {@code fields}.
+     * @param fields list of verified fields to import.
+     * @param mappings the mapping of each field, in the same order, or null to import the fields from the members of
+     *                 the same name.
+     */
+    FieldProjection(List<Field> fields, List<FieldMapping> mappings) {
+        this(fields, mappings, Collections.<ChildTable>emptyList());
+    }
+
+    /**
+     * Creates a new {@code FieldProjection} for {@code fields}, each field being imported from the path of its
+     * mapping, and the elements of the arrays of {@code childTables} being imported as rows of their child table.
+     * @param fields list of verified fields to import.
+     * @param mappings the mapping of each field, in the same order, or null to import the fields from the members of
+     *                 the same name.
+     * @param childTables the child tables. Their key must be one of {@code fields}.
+     * @throws IllegalArgumentException if the key of a child table is not one of {@code fields}.
+     */
+    FieldProjection(List<Field> fields, List<FieldMapping> mappings, List<ChildTable> childTables) {
+        int i = 0;
+        for (Field f: fields) {
+            List<String> path = (mappings == null) ? null : mappings.get(i).getPath();
+            if (path == null) {
+                path = Collections.singletonList(f.getFieldName());
+            }
+            root.addPath(path, i++);
+        }
+        this.size = fields.size();
+
+        this.keyIndexes = new int[childTables.size()];
+        for (int c = 0; c < keyIndexes.length; c++) {
+            ChildTable childTable = childTables.get(c);
+            keyIndexes[c] = -1;
+            for (int k = 0; k < fields.size(); k++) {
+                if (fields.get(k).getFieldName().equalsIgnoreCase(childTable.getKeyColumn())) {
+                    keyIndexes[c] = k;
+                }
+            }
+            if (keyIndexes[c] < 0) {
+                throw new IllegalArgumentException(String.format("The key %s of child table %s is not imported.",
+                        childTable.getKeyColumn(), childTable.getTableName()));
+            }
+            PathNode node = root;
+            for (String segment: childTable.getArrayPath()) {
+                node = node.add(segment);
+            }
+            node.arrays = Arrays.copyOf(node.arrays, node.arrays.length + 1);
+            node.arrays[node.arrays.length - 1] = new ChildArray(c, childTable.getElementMappings());
+        }
+    }
+
+    /**
+     * Returns the root of the trie of paths, i.e. the node of the objects in the array.
+     * @return the root of the trie of paths.
+     */
+    PathNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of fields in a row.
+     * @return the number of fields in a row.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns new lists for the values of the rows of each child table read from one object, or null if there are no
+     * child tables.
+     * @return one empty list per child table, or null.
+     */
+    List<List<JsonNode[]>> newChildValues() {
+        if (keyIndexes.length == 0) {
+            return null;
+        }
+        List<List<JsonNode[]>> result = new ArrayList<List<JsonNode[]>>(keyIndexes.length);
+        for (int i = 0; i < keyIndexes.length; i++) {
+            result.add(new ArrayList<JsonNode[]>(0));
+        }
+        return result;
+    }
+
+    /**
+     * Creates the row of an object once it has been read, setting the key of the rows of its child tables.
+     * @param values the values of the row.
+     * @param childValues the values of the rows of each child table, or null if there are no child tables.
+     * @return the row.
+     */
+    JsonRow newRow(JsonNode[] values, List<List<JsonNode[]>> childValues) {
+        if (childValues == null) {
+            return new JsonRow(values);
+        }
+        List<List<JsonRow>> children = new ArrayList<List<JsonRow>>(childValues.size());
+        for (int c = 0; c < childValues.size(); c++) {
+            List<JsonRow> rows = new ArrayList<JsonRow>(childValues.get(c).size());
+            for (JsonNode[] elementValues: childValues.get(c)) {
+                elementValues[0] = values[keyIndexes[c]];
+                rows.add(new JsonRow(elementValues));
+            }
+            children.add(rows);
+        }
+        return new JsonRow(values, children);
+    }
+
+    /**
+     * Creates a row from a node that has already been read into a tree. Non-object nodes are returned as rows that are
+     * not objects, the same as {@code JsonArrayReader.readRow}.
+     * @param n the node to take the field values from.
+     * @return the row containing the projected field values of {@code n}.
+     */
+    JsonRow project(JsonNode n) {
+        if (!n.isObject()) {
+            return JsonRow.nonObject(n);
+        }
+
+        JsonNode[] values = new JsonNode[size];
+        List<List<JsonNode[]>> childValues = newChildValues();
+        root.setValues(n, values, childValues);
+        return newRow(values, childValues);
+    }
+}
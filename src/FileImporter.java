@@ -0,0 +1,499 @@
+import com.fasterxml.jackson.core.JsonParseException;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Imports JSON files into the database. Several files can be imported at the same time by different threads, they
+ * share the import tasks executor, the connection pool and the limit of blocks in flight.
+ * <p>
+ * Each table is verified once, by the first file imported into it. With bulk-load files, the rows of all the files
+ * imported into a table are written to the same bulk-load files.
+ * <p>
+ * When the rows are inserted, a checkpoint records how far each file has been imported, see {@code Checkpoint}. An
+ * import that failed or was killed can then be resumed from the checkpoint.
+ * <p>
+ * With an {@code AdaptiveController}, the block size and the number of import tasks running at the same time are
+ * tuned while the rows are inserted.
+ * <p>
+ * In a dry run, the tables are not verified and no checkpoints are saved, the rows are only passed to the sink. No
+ * checkpoints are saved either when the sink only loads the rows into the tables at the end, e.g. a
+ * {@code ReloadSink}.
+ */
+class FileImporter {
+    /**
+     * The verified fields of a table, and the bulk-load files the rows are written to.
+     */
+    private static final class TableTarget {
+        final List<Field> fields;
+        final FieldProjection projection;
+        final BulkFileWriter writer;
+        final BulkLoader loader;
+
+        TableTarget(List<Field> fields, FieldProjection projection, BulkFileWriter writer, BulkLoader loader) {
+            this.fields = fields;
+            this.projection = projection;
+            this.writer = writer;
+            this.loader = loader;
+        }
+    }
+
+    private final ConnectionProperties p;
+    private final List<FieldMapping> mappings;
+    private final String table;
+    private final int blockSize;
+    private final int parseThreads;
+    private final ImportSink sink;
+    private final Executor blockExecutor;
+    private final Map<String, TableTarget> targets = new LinkedHashMap<String, TableTarget>();
+    private final Map<ImportSummary, Checkpoint> checkpoints = new LinkedHashMap<ImportSummary, Checkpoint>();
+
+    private List<ChildTable> childTables = Collections.emptyList();
+    private List<ArrayTable> arrayTables = Collections.emptyList();
+    private boolean lines;
+    private boolean resume;
+    private boolean dryRun;
+    private boolean checkpointing = true;
+    private AdaptiveController controller;
+    private ImportMetrics metrics = new ImportMetrics();
+    private File bulkDirectory;
+    private BulkFileFormat bulkFormat;
+    private int chunkRows;
+    private boolean bulkInsert;
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code FileImporter}.
+     * @param p connection properties to the database.
+     * @param mappings the fields to import, and the paths of their values.
+     * @param table the table to import to. If null or empty, each file is imported to the table named after its
+     *              array.
+     * @param blockSize number of rows per import task.
+     * @param parseThreads number of threads to parse each file with.
+     * @param sink the sink shared by all the import tasks, e.g. a {@code JsonArrayImporter}.
+     * @param blockExecutor runs the import tasks, and limits the number of blocks in flight.
+     */
+    FileImporter(ConnectionProperties p, List<FieldMapping> mappings, String table, int blockSize, int parseThreads,
+                 ImportSink sink, Executor blockExecutor) {
+        this.p = p;
+        this.mappings = mappings;
+        this.table = table;
+        this.blockSize = blockSize;
+        this.parseThreads = parseThreads;
+        this.sink = sink;
+        this.blockExecutor = blockExecutor;
+    }
+
+    /**
+     * Reads every file as newline delimited JSON. Otherwise only files named {@code .ndjson} or {@code .jsonl} are.
+     * Must be called before the first file is imported.
+     * @param lines if true, every file is read as newline delimited JSON.
+     */
+    void setLines(boolean lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Counts the blocks read and imported in {@code metrics} instead of in metrics of its own. Must be called before
+     * the first file is imported.
+     * @param metrics the metrics of the whole import.
+     */
+    void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Resumes the import of each file from its checkpoint, if one was saved. Must be called before the first file is
+     * imported.
+     * @param resume if true, the files are imported from their checkpoint.
+     */
+    void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Lets {@code controller} decide the size of the blocks inserted, and how many of them are imported at the same
+     * time. Bulk-load files are written in blocks of the fixed size. Must be called before the first file is
+     * imported.
+     * @param controller the controller shared by all the files, or null to use the fixed block size.
+     */
+    void setAdaptive(AdaptiveController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Imports without a database: the tables are not verified, every field is bound as {@code nvarchar}, and no
+     * checkpoints are saved. Used with a {@code DiscardingSink} to measure how fast the files can be read. Must be
+     * called before the first file is imported.
+     * @param dryRun if true, the database is not used.
+     */
+    void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Saves checkpoints while the rows are inserted. Turned off when the rows only reach the table once every file
+     * has been read, e.g. with a {@code ReloadSink}. Must be called before the first file is imported.
+     * @param checkpointing if false, no checkpoints are saved.
+     */
+    void setCheckpointing(boolean checkpointing) {
+        this.checkpointing = checkpointing;
+    }
+
+    /**
+     * Reads the elements of nested arrays into the rows of child tables, see {@code ChildTable}. The sink must import
+     * them, e.g. a {@code ChildTableSink}. Must be called before the first file is imported.
+     * @param childTables the child tables. Their key must be one of the imported fields.
+     */
+    void setChildTables(List<ChildTable> childTables) {
+        this.childTables = childTables;
+    }
+
+    /**
+     * Reads the arrays of {@code arrayTables} from each file, in one pass, instead of the first array found. Each
+     * array is imported into its own table, whatever the table of the import. The files are then read by one thread,
+     * and no checkpoints are saved. Must be called before the first file is imported.
+     * @param arrayTables the arrays and their tables, or an empty list to import the first array found.
+     */
+    void setArrayTables(List<ArrayTable> arrayTables) {
+        this.arrayTables = arrayTables;
+    }
+
+    /**
+     * Writes the rows to bulk-load files instead of inserting them. Must be called before the first file is
+     * imported.
+     * @param directory the directory to write the files to.
+     * @param format the format of the files.
+     * @param chunkRows number of rows per file.
+     * @param bulkInsert if true, each file is loaded with {@code BULK INSERT} once it is complete.
+     */
+    void setBulkLoad(File directory, BulkFileFormat format, int chunkRows, boolean bulkInsert) {
+        this.bulkDirectory = directory;
+        this.bulkFormat = format;
+        this.chunkRows = chunkRows;
+        this.bulkInsert = bulkInsert;
+    }
+
+    /**
+     * Reads {@code fileName}, and passes its rows to the import tasks or the bulk-load files. Returns once the file
+     * has been read, the rows can still be waiting to be imported. Errors are reported, and stop the import of this
+     * file only.
+     * @param fileName the JSON file.
+     * @return the summary of the file, which is complete once all the import tasks have finished.
+     */
+    ImportSummary importFile(String fileName) {
+        final ImportSummary summary = new ImportSummary(fileName, metrics);
+        try {
+            Checkpoint saved = null;
+            if (isCheckpointed()) {
+                if (resume) {
+                    saved = Checkpoint.load(fileName);
+                    if (saved != null) {
+                        log.info(String.format("Resuming %s after row %d, skipping %d blocks imported after it.",
+                                fileName, saved.getRowCount(), saved.getImportedRanges().size()));
+                        metrics.addBytesSkipped(saved.getOffset() + saved.getImportedBytes());
+                    }
+                } else if (Checkpoint.getFile(fileName).exists()) {
+                    log.warning("Replacing the checkpoint of " + fileName + ", use --resume to continue from it.");
+                }
+            }
+
+            if (!arrayTables.isEmpty()) {
+                importArrays(fileName, summary);
+                return summary;
+            }
+
+            BlockReader rd = createReader(fileName, saved);
+            try {
+                rd.moveToArray();
+                final Checkpoint checkpoint = (saved != null || !isCheckpointed() || rd.getStartOffset() < 0)
+                        ? saved : new Checkpoint(fileName, rd.getArrayName(), rd.getStartOffset(), 0);
+                if (checkpoint != null) {
+                    synchronized (this) {
+                        checkpoints.put(summary, checkpoint);
+                    }
+                }
+
+                final String tableName = (table == null || table.isEmpty()) ? rd.getArrayName() : table;
+                summary.setTableName(tableName);
+                final TableTarget target = getTarget(tableName, mappings);
+
+                if (target.writer != null) {
+                    rd.readBlocks(target.projection, blockSize, newWriterListener(summary, target.writer));
+                } else {
+                    BlockSizer sizer = (controller == null) ? BlockBuilder.fixedSize(blockSize) : controller;
+                    rd.readBlocks(target.projection, sizer, newImportListener(summary, tableName, target, checkpoint));
+                }
+            } finally {
+                rd.close();
+            }
+        } catch (SQLException e) {
+            //something went wrong when verifying table
+            System.err.println("An error occurred when importing to database: " + e.getMessage());
+            summary.setError(e.getMessage());
+        } catch (ClassNotFoundException e) {
+            System.err.println("An error occurred when connecting to database: " + e.getMessage());
+            summary.setError(e.getMessage());
+        } catch (JsonParseException e) {
+            System.err.println("An error occurred when parsing " + fileName + ": " + e.getMessage());
+            summary.setError(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("An error occurred when reading " + fileName + ": " + e.getMessage());
+            summary.setError(e.getMessage());
+        } finally {
+            summary.finishReading();
+        }
+        return summary;
+    }
+
+    /**
+     * Reads the arrays of {@code arrayTables} from {@code fileName} in one pass, each array into its own table.
+     */
+    private void importArrays(String fileName, ImportSummary summary)
+            throws SQLException, ClassNotFoundException, IOException {
+        List<List<String>> paths = new ArrayList<List<String>>();
+        List<FieldProjection> projections = new ArrayList<FieldProjection>();
+        List<BlockListener> listeners = new ArrayList<BlockListener>();
+        StringBuilder tableNames = new StringBuilder();
+        for (ArrayTable arrayTable: arrayTables) {
+            TableTarget target = getTarget(arrayTable.getTableName(), arrayTable.getMappings());
+            paths.add(arrayTable.getArrayPath());
+            projections.add(target.projection);
+            listeners.add(target.writer != null ? newWriterListener(summary, target.writer)
+                    : newImportListener(summary, arrayTable.getTableName(), target, null));
+            if (tableNames.length() != 0) {
+                tableNames.append(", ");
+            }
+            tableNames.append(arrayTable.getTableName());
+        }
+        summary.setTableName(tableNames.toString());
+
+        //the arrays are not split into ranges, so the file is read by one thread
+        boolean isLines = lines || InputFiles.isLines(fileName);
+        JsonArrayReader rd = isLines ? JsonArrayReader.forLines(CompressedInput.open(fileName),
+                InputFiles.getBaseName(fileName)) : new JsonArrayReader(fileName);
+        try {
+            BlockSizer sizer = (controller == null) ? BlockBuilder.fixedSize(blockSize) : controller;
+            int[] found = rd.readArrays(paths, projections, sizer, listeners);
+            for (int i = 0; i < found.length; i++) {
+                if (found[i] == 0) {
+                    log.warning(String.format("No array %s found in %s.", arrayTables.get(i).getArrayPath(),
+                            fileName));
+                }
+            }
+        } finally {
+            rd.close();
+        }
+    }
+
+    /**
+     * Returns a listener that writes the blocks to bulk-load files.
+     */
+    private BlockListener newWriterListener(final ImportSummary summary, final BulkFileWriter writer) {
+        return new BlockListener() {
+            @Override
+            public void blockRead(RowBlock block) {
+                metrics.blockRead(block);
+                summary.addRead(block.size());
+                summary.addSkipped(block.getSkippedCount());
+                //the rows written count as inserted in the progress line
+                metrics.addImported(writer.writeBlock(block), 0);
+            }
+        };
+    }
+
+    /**
+     * Returns a listener that passes the blocks to the import tasks, recording them in {@code checkpoint} if it is not
+     * null.
+     */
+    private BlockListener newImportListener(final ImportSummary summary, final String tableName,
+                                            final TableTarget target, final Checkpoint checkpoint) {
+        return new BlockListener() {
+            @Override
+            public void blockRead(final RowBlock block) {
+                metrics.blockRead(block);
+                summary.addSkipped(block.getSkippedCount());
+                if (block.isEmpty()) {
+                    //nothing to import, but the checkpoint can move past it
+                    if (checkpoint != null) {
+                        checkpoint.blockImported(block);
+                    }
+                    return;
+                }
+                summary.addRead(block.size());
+                final ImportTask task = new ImportTask(sink, tableName, target.fields, block, summary);
+                if (checkpoint != null) {
+                    checkpoint.blockStarted();
+                }
+                final long queueTime = System.nanoTime();
+                metrics.blockQueued();
+                //pass the block to Executor to process
+                blockExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        metrics.taskStarted();
+                        try {
+                            if (controller == null) {
+                                task.run();
+                            } else {
+                                controller.runTask(task, block.size());
+                            }
+                        } finally {
+                            metrics.taskFinished(queueTime);
+                        }
+                        if (task.isImported() && checkpoint != null) {
+                            checkpoint.blockImported(block);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Completes the bulk-load files, and waits for them to be loaded. Should be called in a finally block once all
+     * the files have been imported.
+     * @throws IOException if a bulk-load file could not be written.
+     */
+    synchronized void close() throws IOException {
+        IOException error = null;
+        for (Map.Entry<String, TableTarget> entry: targets.entrySet()) {
+            TableTarget target = entry.getValue();
+            if (target.writer == null) {
+                continue;
+            }
+            try {
+                target.writer.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            } finally {
+                if (target.loader != null) {
+                    target.loader.close();
+                }
+            }
+            log.info(String.format("Wrote %d rows to %d bulk-load files for %s.", target.writer.getRowCount(),
+                    target.writer.getChunkCount(), entry.getKey()));
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Saves the checkpoint of each file that has not been completely imported, and deletes the others. Should be
+     * called once all the import tasks have finished.
+     */
+    synchronized void saveCheckpoints() {
+        for (Map.Entry<ImportSummary, Checkpoint> entry: checkpoints.entrySet()) {
+            ImportSummary summary = entry.getKey();
+            Checkpoint checkpoint = entry.getValue();
+            if (summary.getError() == null && checkpoint.isComplete()) {
+                checkpoint.delete();
+                continue;
+            }
+            try {
+                checkpoint.save();
+                log.info(String.format("Saved the checkpoint of %s after row %d, use --resume to continue from it.",
+                        summary.getFileName(), checkpoint.getRowCount()));
+            } catch (IOException e) {
+                System.err.println("An error occurred when saving the checkpoint of " + summary.getFileName() + ": "
+                        + e.getMessage());
+            }
+        }
+        checkpoints.clear();
+    }
+
+    /**
+     * Returns true if the rows inserted are checkpointed, i.e. they are inserted into the table as they are read.
+     */
+    private boolean isCheckpointed() {
+        return bulkDirectory == null && !dryRun && checkpointing && arrayTables.isEmpty();
+    }
+
+    /**
+     * Creates the reader of {@code fileName}, positioned at {@code checkpoint} if it is not null.
+     */
+    private BlockReader createReader(String fileName, Checkpoint checkpoint) throws IOException {
+        boolean isLines = lines || InputFiles.isLines(fileName);
+        int threads = parseThreads;
+        if (threads > 1 && CompressedInput.isCompressed(fileName)) {
+            //the ranges are found in the file itself, a compressed file is decompressed on its own thread instead
+            log.warning(fileName + " is compressed, it will be parsed by 1 thread.");
+            threads = 1;
+        }
+
+        if (threads > 1) {
+            //the array, or the lines, are split into byte ranges that are parsed in parallel
+            ParallelJsonArrayReader rd = isLines ? ParallelJsonArrayReader.forLines(fileName, threads)
+                    : new ParallelJsonArrayReader(fileName, threads);
+            if (checkpoint != null) {
+                rd.resumeAt(checkpoint.getOffset(), checkpoint.getArrayName());
+                rd.setImportedRanges(checkpoint.getImportedRanges());
+            }
+            return rd;
+        }
+
+        if (checkpoint != null) {
+            //a compressed file is decompressed up to the checkpoint, but not parsed
+            JsonArrayReader rd = JsonArrayReader.resume(CompressedInput.open(fileName), checkpoint.getOffset(),
+                    checkpoint.getArrayName(), isLines);
+            //the blocks imported after the checkpoint are parsed, but their rows are not imported again
+            rd.setImportedRanges(checkpoint.getImportedRanges());
+            return rd;
+        }
+        return isLines ? JsonArrayReader.forLines(CompressedInput.open(fileName), InputFiles.getBaseName(fileName))
+                : new JsonArrayReader(fileName);
+    }
+
+    /**
+     * Returns the verified fields of {@code tableName}, verifying the table the first time it is imported into.
+     */
+    private synchronized TableTarget getTarget(String tableName, List<FieldMapping> mappings)
+            throws SQLException, ClassNotFoundException, IOException {
+        TableTarget target = targets.get(tableName);
+        if (target != null) {
+            return target;
+        }
+
+        List<Field> fields = new Vector<Field>();
+        if (dryRun) {
+            //there is no table to get the field types from, the values are bound as text
+            for (FieldMapping mapping: mappings) {
+                fields.add(new Field(mapping.getColumnName(), Types.NVARCHAR, "nvarchar"));
+            }
+            target = new TableTarget(fields, new FieldProjection(fields, mappings, childTables), null, null);
+            targets.put(tableName, target);
+            return target;
+        }
+
+        //test table exists, and all fields exist in the database before we continue much further
+        //if the fields exist, get the SQL field type so we can assign null values
+        DatabaseConnection.verifyTable(p, tableName, FieldMapping.getColumnNames(mappings), fields);
+        if (targets.isEmpty()) {
+            ConnectionPool pool = ConnectionPool.getPool(p);
+            pool.warmUp(pool.getMaxSize());
+        }
+
+        if (bulkDirectory != null) {
+            //write the rows to bulk-load files instead of inserting them
+            int[] columnOrdinals = DatabaseConnection.getColumnOrdinals(p, tableName, fields);
+            BulkLoader loader = bulkInsert ? new BulkLoader(p, tableName, bulkFormat) : null;
+            BulkFileWriter writer = new BulkFileWriter(bulkDirectory, tableName, fields, columnOrdinals, bulkFormat,
+                    chunkRows, loader);
+            target = new TableTarget(fields, new FieldProjection(fields, mappings, childTables), writer, loader);
+        } else {
+            target = new TableTarget(fields, new FieldProjection(fields, mappings, childTables), null, null);
+        }
+        targets.put(tableName, target);
+        return target;
+    }
+}
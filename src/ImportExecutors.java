@@ -0,0 +1,108 @@
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Creates the executor the import tasks run on. The tasks spend most of their time waiting for the database, so they
+ * can run on virtual threads, one per task, instead of a fixed pool of platform threads. The number of tasks talking
+ * to the database at the same time is then limited by the connection pool, which blocks once all its connections are
+ * borrowed, and the number of tasks in flight by {@code BoundedExecutor}.
+ * <p>
+ * Virtual threads need Java 21. The tool is built for older versions, so the executor is looked up by reflection,
+ * and a fixed pool is used when it is not there.
+ * <p>
+ * jTDS holds a monitor of the connection's socket while it sends a packet to the server and while it waits for the
+ * reply, see {@code SharedSocket.sendNetPacket} and {@code getNetPacket}. Up to Java 23, a virtual thread that blocks
+ * while it holds a monitor pins its carrier thread, so no more blocks talk to the database at the same time than
+ * there are carriers, one per core, however large -N is. The fixed pool is used on these versions too, with a
+ * warning. From Java 24 on, virtual threads release their carrier in a monitor as well.
+ */
+final class ImportExecutors {
+    private static final Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    private ImportExecutors() {
+    }
+
+    /**
+     * Returns true if the running JVM has virtual threads.
+     * @return true if virtual threads are supported.
+     */
+    static boolean isVirtualThreadsSupported() {
+        return getVirtualExecutorFactory() != null;
+    }
+
+    /**
+     * Returns true if a virtual thread blocked while it holds a monitor pins its carrier thread on the given version
+     * of the Java specification, i.e. on Java 21 to 23.
+     * @param specificationVersion the {@code java.specification.version}, e.g. 1.8 or 21.
+     * @return true if monitors pin virtual threads.
+     */
+    static boolean isPinnedByMonitors(String specificationVersion) {
+        String[] parts = specificationVersion.split("\\.");
+        int version;
+        try {
+            version = Integer.parseInt(parts[0].equals("1") && parts.length > 1 ? parts[1] : parts[0]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return version >= 21 && version < 24;
+    }
+
+    /**
+     * Creates the executor of the import tasks.
+     * @param threadCount number of threads of the fixed pool.
+     * @param virtualThreads if true, each task runs on a virtual thread of its own, if the JVM supports them and
+     * they are not pinned by the monitors of jTDS.
+     * @return the executor.
+     */
+    static ExecutorService newImportExecutor(int threadCount, boolean virtualThreads) {
+        if (virtualThreads) {
+            String version = System.getProperty("java.specification.version");
+            if (!isVirtualThreadsSupported()) {
+                log.warning("Virtual threads need Java 21 or later, using " + threadCount + " threads.");
+            } else if (isPinnedByMonitors(version)) {
+                log.warning(String.format("On Java %s, virtual threads pin their carrier threads while jTDS talks to "
+                        + "the server, using %d threads. Virtual threads need Java 24 or later.", version,
+                        threadCount));
+            } else {
+                ExecutorService executor = newVirtualThreadExecutor();
+                if (executor != null) {
+                    return executor;
+                }
+            }
+        }
+        return Executors.newFixedThreadPool(threadCount);
+    }
+
+    /**
+     * Creates an executor that runs each task on a virtual thread of its own, whether or not they are pinned.
+     * @return the executor, or null if the JVM has no virtual threads or they could not be created.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        Method factory = getVirtualExecutorFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (IllegalAccessException e) {
+                log.warning("Virtual threads could not be used: " + e);
+            } catch (InvocationTargetException e) {
+                log.warning("Virtual threads could not be used: " + e.getCause());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code Executors.newVirtualThreadPerTaskExecutor}, or null if the JVM does not have it.
+     */
+    private static Method getVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Counts what every stage of the import is doing, so that the slowest stage can be found while the import is
+ * running: the readers count the bytes, objects and skipped elements of each block, the import tasks count the
+ * inserted and failed rows, or the rows written to bulk-load files with -O, and the number of blocks waiting for an
+ * import thread and being imported is kept.
+ * <p>
+ * The latency of each stage is kept in a histogram:
+ * <ul>
+ * <li>parse: time to read the rows of a block from the file, per block</li>
+ * <li>bind: time to bind the values of the rows of a batch to the statement, per batch</li>
+ * <li>execute: time for the database to execute a batch, per batch</li>
+ * <li>block: time from a block being passed to the import executor to its import task finishing, including the time
+ * it waited for an import thread, per block</li>
+ * </ul>
+ * The metrics are registered as the MBean {@code JsonImport:type=ImportMetrics}, and summed up in a progress line
+ * that is logged at a fixed interval.
+ * <p>
+ * This class is thread safe.
+ */
+public class ImportMetrics implements ImportMetricsMBean {
+    static final String OBJECT_NAME = "JsonImport:type=ImportMetrics";
+
+    private final long startTime = System.nanoTime();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesSkipped = new AtomicLong();
+    private final AtomicLong objectsParsed = new AtomicLong();
+    private final AtomicLong rowsSkipped = new AtomicLong();
+    private final AtomicLong rowsInserted = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram bindLatency = new LatencyHistogram();
+    private final LatencyHistogram executeLatency = new LatencyHistogram();
+    private final LatencyHistogram blockLatency = new LatencyHistogram();
+    private volatile boolean sizeUnknown = false;
+
+    //rates of the progress line are measured since the line before
+    private long lastTime = startTime;
+    private long lastRows = 0;
+    private long lastBytes = 0;
+    private ScheduledExecutorService progressExecutor;
+    private ObjectName registeredName;
+    private Logger log = Logger.getLogger(ImportMetrics.class.getName());
+
+    /**
+     * Adds a file to import to the total number of bytes the progress is measured against. The size of a
+     * compressed file does not match the bytes read from it, so the progress and ETA are unknown if one is imported.
+     * @param size the size of the file.
+     * @param compressed true if the file is compressed.
+     */
+    void addInputFile(long size, boolean compressed) {
+        totalBytes.addAndGet(size);
+        if (compressed) {
+            sizeUnknown = true;
+        }
+    }
+
+    /**
+     * Counts bytes that are not read, i.e. the beginning of a file that is resumed from a checkpoint, as done.
+     * @param bytes number of bytes skipped.
+     */
+    void addBytesSkipped(long bytes) {
+        bytesSkipped.addAndGet(bytes);
+    }
+
+    /**
+     * Counts a block read from a file.
+     * @param block the block.
+     */
+    void blockRead(RowBlock block) {
+        if (block.getStartOffset() >= 0) {
+            bytesRead.addAndGet(block.getEndOffset() - block.getStartOffset());
+        }
+        objectsParsed.addAndGet(block.size());
+        rowsSkipped.addAndGet(block.getSkippedCount());
+        parseLatency.record(block.getParseTime());
+    }
+
+    /**
+     * Records that a block has been passed to the import executor.
+     */
+    void blockQueued() {
+        queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Records that an import thread has started importing a block.
+     */
+    void taskStarted() {
+        queueDepth.decrementAndGet();
+        activeWorkers.incrementAndGet();
+    }
+
+    /**
+     * Records that an import thread has finished importing a block.
+     * @param queueTime the value of {@code System.nanoTime} when the block was passed to the import executor.
+     */
+    void taskFinished(long queueTime) {
+        activeWorkers.decrementAndGet();
+        blockLatency.record(System.nanoTime() - queueTime);
+    }
+
+    /**
+     * Adds the result of one import task, or the rows of a block written to bulk-load files.
+     * @param imported number of rows inserted or written.
+     * @param failed number of rows that failed.
+     */
+    void addImported(int imported, int failed) {
+        rowsInserted.addAndGet(imported);
+        rowsFailed.addAndGet(failed);
+    }
+
+    void recordBind(long nanos) {
+        bindLatency.record(nanos);
+    }
+
+    void recordExecute(long nanos) {
+        executeLatency.record(nanos);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing metrics registered before. The import goes on
+     * if they cannot be registered.
+     */
+    synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            log.warning("Could not register the import metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs the progress line every {@code intervalMillis}, until {@code stop} is called.
+     * @param intervalMillis time between two progress lines.
+     */
+    synchronized void startProgress(long intervalMillis) {
+        if (progressExecutor != null || intervalMillis <= 0) {
+            return;
+        }
+        progressExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        progressExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                log.info(nextProgressLine());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops logging the progress line, and unregisters the MBean. Should be called in a finally block after
+     * {@code register} or {@code startProgress}.
+     */
+    synchronized void stop() {
+        if (progressExecutor != null) {
+            progressExecutor.shutdownNow();
+            progressExecutor = null;
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.warning("Could not unregister the import metrics: " + e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    @Override
+    public long getObjectsParsed() {
+        return objectsParsed.get();
+    }
+
+    @Override
+    public long getRowsSkipped() {
+        return rowsSkipped.get();
+    }
+
+    @Override
+    public long getRowsInserted() {
+        return rowsInserted.get();
+    }
+
+    @Override
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    /**
+     * Returns the percentage of the bytes of the files that have been read, or -1 if it is not known.
+     * @return the progress of the import.
+     */
+    @Override
+    public double getProgressPercent() {
+        long total = totalBytes.get();
+        if (sizeUnknown || total <= 0) {
+            return -1;
+        }
+        return Math.min(100, (bytesRead.get() + bytesSkipped.get()) * 100.0 / total);
+    }
+
+    /**
+     * Returns the estimated number of seconds until every file has been read, at the average rate since the import
+     * started, or -1 if it is not known.
+     * @return the estimated time left.
+     */
+    @Override
+    public long getEtaSeconds() {
+        long read = bytesRead.get();
+        long total = totalBytes.get();
+        if (sizeUnknown || total <= 0 || read <= 0) {
+            return -1;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long left = Math.max(0, total - read - bytesSkipped.get());
+        return (long) Math.ceil(left * seconds / read);
+    }
+
+    @Override
+    public String getParseLatency() {
+        return parseLatency.toString();
+    }
+
+    @Override
+    public String getBindLatency() {
+        return bindLatency.toString();
+    }
+
+    @Override
+    public String getExecuteLatency() {
+        return executeLatency.toString();
+    }
+
+    @Override
+    public String getBlockLatency() {
+        return blockLatency.toString();
+    }
+
+    /**
+     * Returns the progress line with the average rates since the import started.
+     * @return the progress line.
+     */
+    @Override
+    public String getProgressLine() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startTime) / 1e9);
+        return formatProgress((rowsInserted.get() + rowsFailed.get()) / seconds, bytesRead.get() / seconds);
+    }
+
+    /**
+     * Returns the progress line with the rates since the line before.
+     */
+    synchronized String nextProgressLine() {
+        long now = System.nanoTime();
+        long rows = rowsInserted.get() + rowsFailed.get();
+        long bytes = bytesRead.get();
+        double seconds = Math.max(1e-9, (now - lastTime) / 1e9);
+        String line = formatProgress((rows - lastRows) / seconds, (bytes - lastBytes) / seconds);
+        lastTime = now;
+        lastRows = rows;
+        lastBytes = bytes;
+        return line;
+    }
+
+    private String formatProgress(double rowsPerSecond, double bytesPerSecond) {
+        double percent = getProgressPercent();
+        long eta = getEtaSeconds();
+        String progress = (percent < 0 || eta < 0) ? "ETA unknown"
+                : String.format("%.1f%%, ETA %d:%02d:%02d", percent, eta / 3600, (eta / 60) % 60, eta % 60);
+        return String.format("%d rows inserted, %d failed, %d skipped, %.0f rows/s, %.1f MB/s, %s. %d blocks queued, "
+                + "%d active workers.", rowsInserted.get(), rowsFailed.get(), rowsSkipped.get(), rowsPerSecond,
+                bytesPerSecond / (1024 * 1024), progress, queueDepth.get(), activeWorkers.get());
+    }
+}
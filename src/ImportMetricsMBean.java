@@ -0,0 +1,39 @@
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * The attributes of {@code ImportMetrics} that can be watched with JConsole or any other JMX client while an import
+ * is running. The latencies are summaries of the form {@code count=.., mean=.. ms, p50=.. ms, p95=.. ms, p99=.. ms,
+ * max=.. ms}.
+ */
+public interface ImportMetricsMBean {
+    long getBytesRead();
+
+    long getTotalBytes();
+
+    long getObjectsParsed();
+
+    long getRowsSkipped();
+
+    long getRowsInserted();
+
+    long getRowsFailed();
+
+    int getQueueDepth();
+
+    int getActiveWorkers();
+
+    double getProgressPercent();
+
+    long getEtaSeconds();
+
+    String getParseLatency();
+
+    String getBindLatency();
+
+    String getExecuteLatency();
+
+    String getBlockLatency();
+
+    String getProgressLine();
+}
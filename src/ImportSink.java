@@ -0,0 +1,26 @@
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Receives the blocks of projected rows from the import tasks, e.g. {@code JsonArrayImporter}, which inserts them
+ * into the database, or {@code DiscardingSink}, which only binds them. Several import tasks pass their blocks to the
+ * same sink at the same time, so implementations must be thread safe.
+ */
+interface ImportSink {
+    /**
+     * Imports a block of rows to {@code tableName}. The values of each row are in the same order as {@code fields}.
+     * A row that fails does not stop the others from being imported.
+     * @param tableName the table to import to.
+     * @param fields the fields of each row.
+     * @param importRows the rows to import.
+     * @return the update count of each row, in the same order as {@code importRows}, with
+     *         {@code Statement.EXECUTE_FAILED} for the rows that failed.
+     * @throws SQLException if the block could not be imported.
+     * @throws ClassNotFoundException if the database driver could not be loaded.
+     */
+    int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException, ClassNotFoundException;
+}
@@ -0,0 +1,162 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Counts the rows of one imported file. The rows are counted by the thread reading the file and by the import tasks,
+ * so the counters can be updated from several threads. The imported rows are also added to the metrics of the whole
+ * import.
+ */
+class ImportSummary {
+    private final String fileName;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong importedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final ImportMetrics metrics;
+    private volatile String tableName;
+    private volatile long readTime = -1;
+    private volatile String error;
+
+    /**
+     * Creates a new {@code ImportSummary}, and starts timing the file.
+     * @param fileName the imported file.
+     */
+    ImportSummary(String fileName) {
+        this(fileName, null);
+    }
+
+    /**
+     * Creates a new {@code ImportSummary} that also adds the imported rows to {@code metrics}.
+     * @param fileName the imported file.
+     * @param metrics the metrics of the whole import. Can be null.
+     */
+    ImportSummary(String fileName, ImportMetrics metrics) {
+        this.fileName = fileName;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns a summary of all the files, e.g.
+     * {@code 3 files, 1500 rows read, 1490 imported, 2 failed, 4 skipped, 8 duplicates, 0 file errors.}
+     * @param summaries the summary of each file.
+     * @return the overall summary.
+     */
+    static String getTotal(List<ImportSummary> summaries) {
+        long read = 0;
+        long imported = 0;
+        long failed = 0;
+        long skipped = 0;
+        long duplicates = 0;
+        int errors = 0;
+        for (ImportSummary s: summaries) {
+            read += s.getReadCount();
+            imported += s.getImportedCount();
+            failed += s.getFailedCount();
+            skipped += s.getSkippedCount();
+            duplicates += s.getDuplicateCount();
+            if (s.getError() != null) {
+                errors++;
+            }
+        }
+        return String.format("%d files, %d rows read, %d imported, %d failed, %d skipped, %d duplicates, "
+                + "%d file errors.", summaries.size(), read, imported, failed, skipped, duplicates, errors);
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    void addRead(int rows) {
+        readCount.addAndGet(rows);
+    }
+
+    /**
+     * Adds the elements of the array that were skipped because they are not objects.
+     * @param skipped number of skipped elements.
+     */
+    void addSkipped(int skipped) {
+        skippedCount.addAndGet(skipped);
+    }
+
+    /**
+     * Adds the rows that were not imported because their key had already been imported.
+     * @param duplicates number of duplicate rows.
+     */
+    void addDuplicates(int duplicates) {
+        duplicateCount.addAndGet(duplicates);
+    }
+
+    /**
+     * Adds the result of one import task.
+     * @param imported number of rows inserted.
+     * @param failed number of rows that failed.
+     */
+    void addImported(int imported, int failed) {
+        importedCount.addAndGet(imported);
+        failedCount.addAndGet(failed);
+        if (metrics != null) {
+            metrics.addImported(imported, failed);
+        }
+    }
+
+    long getReadCount() {
+        return readCount.get();
+    }
+
+    long getImportedCount() {
+        return importedCount.get();
+    }
+
+    long getFailedCount() {
+        return failedCount.get();
+    }
+
+    long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Records that the whole file has been read. The rows can still be waiting to be imported.
+     */
+    void finishReading() {
+        readTime = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Records the error that stopped the import of the file.
+     * @param error the error message.
+     */
+    void setError(String error) {
+        this.error = error;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        String result = String.format(
+                "%s: %d rows read into %s in %f sec, %d imported, %d failed, %d skipped, %d duplicates.", fileName,
+                getReadCount(), tableName, readTime / 1000f, getImportedCount(), getFailedCount(), getSkippedCount(),
+                getDuplicateCount());
+        return error == null ? result : result + " Error: " + error;
+    }
+}
@@ -1,5 +1,3 @@
-import com.fasterxml.jackson.databind.JsonNode;
-
 import java.util.*;
 import java.sql.*;
 import java.util.logging.Logger;
@@ -8,31 +6,45 @@ import java.util.logging.Logger;
  * Created with IntelliJ IDEA.
  * User: Robo
  *
- * Imports a collection of {@code JsonNode} to a database table. Import tasks are intended to be run concurrently,
- * each task containing its own collection of {@code JsonNode} to import.
+ * Imports a collection of {@code JsonRow} to a database table. Import tasks are intended to be run concurrently,
+ * each task containing its own collection of {@code JsonRow} to import.
  */
 class ImportTask implements Runnable {
-    private ConnectionProperties p;
+    private ImportSink sink;
     private String tableName;
     private List<Field> fields;
-    private Collection<JsonNode> importNodes;
+    private Collection<JsonRow> importRows;
+    private ImportSummary summary;
+    private volatile boolean imported = false;
     private Logger log = Logger.getLogger(ImportTask.class.getName());
 
     /**
-     * Creates a new {@code ImportTask}. {@code fields} and {@code importNodes} do NOT get defensive copy. The lists
+     * Creates a new {@code ImportTask}. {@code fields} and {@code importRows} do NOT get defensive copy. The lists
      * and the objects inside should not be modified once they have been passed to {@code ImportTask}.
-     * @param p connection properties the task will use to connect to the database.
+     * @param sink the sink that imports the rows, e.g. a {@code JsonArrayImporter}. It can be shared by several
+     *             tasks.
      * @param tableName the table to import to.
      * @param fields list of fields to import. The field names must exist in the table.
-     * @param importNodes collection of {@code JsonNode} to import from. Field names are used to retrieve the values
-     *                    from each {@code JsonNode}. If a field name does not exist in a node, the field will be
-     *                    imported as null, therefore the database table should set optional fields to allow null.
+     * @param importRows collection of {@code JsonRow} to import from, projected with the same {@code fields}. If a
+     *                   field does not exist in an object, the field will be imported as null, therefore the database
+     *                   table should set optional fields to allow null.
+     */
+    ImportTask(ImportSink sink, String tableName, List<Field> fields, Collection<JsonRow> importRows) {
+        this(sink, tableName, fields, importRows, null);
+    }
+
+    /**
+     * Creates a new {@code ImportTask} that adds the number of imported and failed rows to {@code summary}.
+     * @param summary the summary of the file the rows were read from. Can be null.
+     * @see #ImportTask(ImportSink, String, List, Collection)
      */
-    ImportTask(ConnectionProperties p, String tableName, List<Field> fields, Collection<JsonNode> importNodes) {
-        this.p = p;
+    ImportTask(ImportSink sink, String tableName, List<Field> fields, Collection<JsonRow> importRows,
+               ImportSummary summary) {
+        this.sink = sink;
         this.tableName = tableName;
         this.fields = fields;
-        this.importNodes = importNodes;
+        this.importRows = importRows;
+        this.summary = summary;
     }
 
     @Override
@@ -40,18 +52,38 @@ class ImportTask implements Runnable {
         try {
             String threadName = Thread.currentThread().getName();
             long startTime = System.currentTimeMillis();
-            log.info(String.format("Started task in thread %s.", threadName));
+            log.fine(String.format("Started task in thread %s.", threadName));
 
-            JsonArrayImporter importer = new JsonArrayImporter(p);
-            importer.doImport(tableName, fields, importNodes);
+            int[] updateCounts = sink.importRows(tableName, fields, importRows);
+            //rows dropped as duplicates did not fail, but were not imported either
+            int duplicates = DedupingSink.countDuplicates(updateCounts);
+            int succeeded = JsonArrayImporter.countSucceeded(updateCounts) - duplicates;
+            int failed = updateCounts.length - succeeded - duplicates;
+            if (summary != null) {
+                summary.addImported(succeeded, failed);
+                summary.addDuplicates(duplicates);
+            }
+            imported = true;
 
-            log.info(String.format("Finished task in thread %s in %f sec.", threadName,
-                    (System.currentTimeMillis() - startTime) / 1000f));
+            log.fine(String.format("Finished task in thread %s in %f sec. Imported %d rows, %d failed, %d duplicates.",
+                    threadName, (System.currentTimeMillis() - startTime) / 1000f, succeeded, failed, duplicates));
 
         } catch (SQLException e) {
+            if (summary != null) {
+                summary.addImported(0, importRows.size());
+            }
             System.err.println("An error occurred when importing to database: "+e.getMessage());
         } catch (ClassNotFoundException e) {
             System.err.println("An error occurred when connecting to database: " + e.getMessage());
         }
     }
+
+    /**
+     * Returns true if the task has run, and every row has been sent to the database. Rows that were rejected by the
+     * database are counted as failed, and do not stop the task from being imported.
+     * @return true if the rows have been imported.
+     */
+    boolean isImported() {
+        return imported;
+    }
 }
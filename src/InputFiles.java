@@ -0,0 +1,144 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Finds the JSON files to import from the {@code -i} argument, which can be a file, a directory, or a file name
+ * pattern. In a directory, every file is imported, sub-directories are not. A pattern can only be used in the file
+ * name, e.g. {@code C:\snapshots\auctions-*.json.gz}, and supports {@code *}, {@code ?}, {@code [abc]} and
+ * {@code {a,b}}.
+ */
+final class InputFiles {
+    private InputFiles() {
+    }
+
+    /**
+     * Returns the files to import, sorted by name.
+     * @param path a file, a directory, or a file name pattern.
+     * @return the files to import. Empty if nothing was found.
+     */
+    static List<String> resolve(String path) {
+        File file = new File(path);
+        List<String> files = new ArrayList<String>();
+        if (file.isFile()) {
+            files.add(path);
+            return files;
+        }
+
+        File directory;
+        Pattern pattern = null;
+        if (file.isDirectory()) {
+            directory = file;
+        } else {
+            directory = file.getAbsoluteFile().getParentFile();
+            pattern = Pattern.compile(globToRegex(file.getName()));
+        }
+
+        File[] children = (directory == null) ? null : directory.listFiles();
+        if (children != null) {
+            for (File f: children) {
+                if (f.isFile() && !f.isHidden() && (pattern == null || pattern.matcher(f.getName()).matches())) {
+                    files.add(f.getPath());
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Returns true if {@code fileName} is named like a newline delimited JSON file, i.e. ends with {@code .ndjson} or
+     * {@code .jsonl}, optionally followed by {@code .gz}.
+     * @param fileName the JSON file.
+     * @return true if the file is newline delimited JSON.
+     */
+    static boolean isLines(String fileName) {
+        String name = stripExtension(new File(fileName).getName().toLowerCase(), ".gz");
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+
+    /**
+     * Returns the name of {@code fileName} without its directory and JSON extensions, e.g. {@code auctions} for
+     * {@code C:\feeds\auctions.ndjson.gz}. Used as the table name of files that have no array name.
+     * @param fileName the JSON file.
+     * @return the name of the file without extensions.
+     */
+    static String getBaseName(String fileName) {
+        String name = stripExtension(new File(fileName).getName(), ".gz");
+        for (String extension: new String[] {".ndjson", ".jsonl", ".json"}) {
+            if (name.toLowerCase().endsWith(extension)) {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+        return name;
+    }
+
+    private static String stripExtension(String name, String extension) {
+        return name.toLowerCase().endsWith(extension) ? name.substring(0, name.length() - extension.length()) : name;
+    }
+
+    /**
+     * Converts a file name pattern to a regular expression.
+     * @param glob the file name pattern.
+     * @return the regular expression matching the same names.
+     */
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        boolean inGroup = false;
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                //copied as is, except characters that have a meaning in a regular expression class
+                if (c == ']') {
+                    inClass = false;
+                } else if (c == '\\' || c == '[' || c == '&') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+                continue;
+            }
+
+            switch (c) {
+                case '*':
+                    sb.append(".*");
+                    break;
+                case '?':
+                    sb.append('.');
+                    break;
+                case '[':
+                    inClass = true;
+                    sb.append('[');
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        sb.append('^');
+                        i++;
+                    }
+                    break;
+                case '{':
+                    inGroup = true;
+                    sb.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        sb.append(')');
+                    } else {
+                        sb.append("\\}");
+                    }
+                    break;
+                case ',':
+                    sb.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.^$|+()".indexOf(c) >= 0) {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
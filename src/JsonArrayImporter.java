@@ -2,85 +2,395 @@ import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.*;
 import java.sql.*;
+import java.util.logging.Logger;
 
 /**
  * Created with IntelliJ IDEA.
  * User: Robo
  */
-class JsonArrayImporter {
+class JsonArrayImporter implements ImportSink {
+    //SQL Server allows at most 1000 rows in a table value constructor, and 2100 parameters per request. jTDS sends
+    //a prepared statement with sp_prepexec or sp_execute, which take up to 2 of those parameters themselves
+    static final int MAX_ROWS_PER_STATEMENT = 1000;
+    static final int MAX_PARAMETERS = 2098;
+    //prepared statements kept per connection, e.g. the full size and the last statements of a few tables
+    private static final int MAX_CACHED_STATEMENTS = 8;
+
     private ConnectionProperties p;
+    private int batchSize;
+    private boolean multiRowValues;
+    //binders of the last list of fields imported, usually the only one
+    private volatile BinderPlan plan;
+    //the statements prepared on each connection, by SQL, so they are reused by the next blocks
+    private final Map<Connection, Map<String, PreparedStatement>> statementCache =
+            Collections.synchronizedMap(new IdentityHashMap<Connection, Map<String, PreparedStatement>>());
+    private ImportMetrics metrics = new ImportMetrics();
+    private Logger log = Logger.getLogger(JsonArrayImporter.class.getName());
 
+    /**
+     * Creates a new {@code JsonArrayImporter} that executes one insert statement per node.
+     * @param p connection properties the importer will use to connect to the database.
+     */
     JsonArrayImporter(ConnectionProperties p) {
+        this(p, 1, false);
+    }
+
+    /**
+     * Creates a new {@code JsonArrayImporter} that sends its inserts to the database in JDBC batches.
+     * @param p connection properties the importer will use to connect to the database.
+     * @param batchSize number of nodes to send to the database per round trip. If less than 2, each node is executed
+     *                  on its own.
+     */
+    JsonArrayImporter(ConnectionProperties p, int batchSize) {
+        this(p, batchSize, false);
+    }
+
+    /**
+     * Creates a new {@code JsonArrayImporter}.
+     * @param p connection properties the importer will use to connect to the database.
+     * @param batchSize number of nodes to send to the database per round trip. If less than 2, each statement is
+     *                  executed on its own.
+     * @param multiRowValues if true, each insert statement contains as many rows as SQL Server allows for the number
+     *                       of fields, instead of one row per statement.
+     */
+    JsonArrayImporter(ConnectionProperties p, int batchSize, boolean multiRowValues) {
         this.p = p;
+        this.batchSize = batchSize;
+        this.multiRowValues = multiRowValues;
+    }
+
+    /**
+     * Records the bind and execute time of each batch in {@code metrics}. Must be called before the first import.
+     * @param metrics the metrics of the whole import.
+     */
+    void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
      * Imports the collection of {@code JsonNode} to the database table specified when creating the object. For each
      * node, it will insert the specified field values to the specified table. If a node does not contain a specified
      * field name, or the table field contains an unsupported field type, null will be inserted.
+     * <p>
+     * When the importer was created with a batch size, the inserts are sent in batches. A batch that fails does not
+     * stop the import, the update counts of the failed rows are set to {@code Statement.EXECUTE_FAILED} and the
+     * import continues with the next batch.
+     * @return the update count of each node, in the same order as {@code importNodes}.
      * @throws SQLException
      */
-    void doImport(String tableName, List<Field> fields, Collection<JsonNode> importNodes)
+    int[] doImport(String tableName, List<Field> fields, Collection<JsonNode> importNodes)
             throws SQLException, ClassNotFoundException {
-        Connection cn = DatabaseConnection.getConnection(p);
+        FieldProjection projection = new FieldProjection(fields);
+        List<JsonRow> rows = new ArrayList<JsonRow>(importNodes.size());
+        for (JsonNode n: importNodes) {
+            rows.add(projection.project(n));
+        }
+        return importRows(tableName, fields, rows);
+    }
+
+    /**
+     * Imports the collection of {@code JsonRow} to the database table specified when creating the object. The values
+     * of each row must be in the same order as {@code fields}, i.e. the rows were created with a
+     * {@code FieldProjection} of {@code fields}. If a row does not contain a value for a field, or the table field
+     * contains an unsupported field type, null will be inserted.
+     * <p>
+     * When the importer was created with a batch size, the inserts are sent in batches. A batch that fails does not
+     * stop the import, the update counts of the failed rows are set to {@code Statement.EXECUTE_FAILED} and the
+     * import continues with the next batch.
+     * <p>
+     * With multi-row values, a statement either inserts all of its rows or fails. The rows of a successful statement
+     * get an update count of 1, or {@code Statement.SUCCESS_NO_INFO} if the server did not report all of them.
+     * @return the update count of each row, in the same order as {@code importRows}.
+     * @throws SQLException
+     */
+    @Override
+    public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
         try {
-            StringBuilder fieldsClause = new StringBuilder();
-            StringBuilder valuesClause = new StringBuilder();
+            return importRows(cn, tableName, fields, importRows);
+        } finally {
+            pool.release(cn);
+        }
+    }
 
-            for (Field f: fields) {
-                if (fieldsClause.length() != 0) {
-                    fieldsClause.append(", ");
+    /**
+     * Imports the collection of {@code JsonRow} with {@code cn}, e.g. into a temporary table that only exists in the
+     * session of the connection. The statements are prepared once per connection, and reused by the next blocks
+     * imported with the same connection.
+     * @param cn the connection to insert with. It is not released.
+     * @return the update count of each row, in the same order as {@code importRows}.
+     * @throws SQLException
+     * @see #importRows(String, List, Collection)
+     */
+    int[] importRows(Connection cn, String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException {
+        //statements of this block by number of rows. Only the full size and the size of the last statement are needed
+        Map<Integer, PreparedStatement> statements = new HashMap<Integer, PreparedStatement>();
+        boolean completed = false;
+        try {
+            Field[] fieldArray = fields.toArray(new Field[fields.size()]);
+            BinderPlan binders = getPlan(fields);
+            int rowsPerStatement = multiRowValues ? getRowsPerStatement(fieldArray.length) : 1;
+            int[] updateCounts = new int[importRows.size()];
+            int rowCount = 0;
+            int statementStart = 0;
+            int statementSize = 0;
+            int batchStart = 0;
+            PreparedStatement st = null;
+            //the rows of a batch are bound between two executes
+            long batchTime = System.nanoTime();
+
+            for (JsonRow row: importRows) {
+                if (rowCount == statementStart) {
+                    statementSize = Math.min(rowsPerStatement, updateCounts.length - statementStart);
+                    st = getStatement(cn, statements, tableName, fieldArray, statementSize);
+                    st.clearParameters();
                 }
-                //wrap field names in [] in case a field name conflicts with SQL keywords
-                fieldsClause.append("[").append(f.getFieldName()).append("]");
 
-                if (valuesClause.length() != 0) {
-                    valuesClause.append(", ");
+                binders.bindRow(st, row, (rowCount - statementStart) * fieldArray.length);
+                rowCount++;
+                if (rowCount - statementStart < statementSize) {
+                    continue;
                 }
-                valuesClause.append("?");
+
+                if (batchSize > 1 && statementSize == rowsPerStatement) {
+                    st.addBatch();
+                    if (rowCount - batchStart >= batchSize) {
+                        long executeTime = System.nanoTime();
+                        executeBatch(st, updateCounts, batchStart, rowCount - batchStart, rowsPerStatement);
+                        batchTime = recordBatch(batchTime, executeTime);
+                        batchStart = rowCount;
+                    }
+                } else {
+                    long executeTime = System.nanoTime();
+                    if (statementStart > batchStart) {
+                        //the last, smaller statement is not batched with the full size statements
+                        executeBatch(statements.get(rowsPerStatement), updateCounts, batchStart,
+                                statementStart - batchStart, rowsPerStatement);
+                    }
+                    setUpdateCounts(updateCounts, statementStart, statementSize, st.executeUpdate());
+                    batchTime = recordBatch(batchTime, executeTime);
+                    batchStart = rowCount;
+                }
+                statementStart = rowCount;
             }
 
-            String sql = String.format("INSERT INTO %s (%s) VALUES (%s)", tableName, fieldsClause, valuesClause);
-            PreparedStatement st = cn.prepareStatement(sql);
-            for (JsonNode n: importNodes) {
-                int i = 1;
-                st.clearParameters();
-                for (Field f: fields) {
-                    JsonNode val = n.get(f.getFieldName());
+            if (rowCount > batchStart) {
+                long executeTime = System.nanoTime();
+                executeBatch(st, updateCounts, batchStart, rowCount - batchStart, rowsPerStatement);
+                recordBatch(batchTime, executeTime);
+            }
+            completed = true;
+            return updateCounts;
+        } finally {
+            if (!completed) {
+                //the statements may still hold parameters or a batch, so they are not reused
+                Map<String, PreparedStatement> cached = statementCache.get(cn);
+                for (PreparedStatement st: statements.values()) {
+                    if (cached != null) {
+                        cached.values().remove(st);
+                    }
+                    closeQuietly(st);
+                }
+            }
+        }
+    }
 
-                    if (val == null) {
-                        //the field does not exist in current node, try to set value to null
-                        st.setNull(i, f.getFieldType());
+    /**
+     * Returns the number of rows that fit in one multi-row insert statement, without going over the limits of
+     * SQL Server.
+     * @param fieldCount number of fields inserted per row.
+     * @return the number of rows per statement, at least 1.
+     */
+    static int getRowsPerStatement(int fieldCount) {
+        if (fieldCount == 0) {
+            return MAX_ROWS_PER_STATEMENT;
+        }
+        return Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_PARAMETERS / fieldCount));
+    }
 
-                    } else if (f.isTextual()) {
-                        st.setString(i, val.asText());
+    /**
+     * Builds an insert statement for {@code rowCount} rows, e.g.
+     * {@code INSERT INTO t ([a], [b]) VALUES (?, ?), (?, ?)}.
+     * @param tableName the table to insert into.
+     * @param fields the fields of each row.
+     * @param rowCount number of rows in the statement.
+     * @return the SQL of the insert statement.
+     */
+    static String buildInsert(String tableName, Field[] fields, int rowCount) {
+        StringBuilder fieldsClause = new StringBuilder();
+        StringBuilder rowClause = new StringBuilder();
 
-                    } else if (f.isInt()) {
-                        st.setLong(i, val.asInt());
+        for (Field f: fields) {
+            if (fieldsClause.length() != 0) {
+                fieldsClause.append(", ");
+            }
+            //wrap field names in [] in case a field name conflicts with SQL keywords
+            fieldsClause.append("[").append(f.getFieldName()).append("]");
 
-                    } else if (f.isBoolean()) {
-                        st.setBoolean(i, val.asBoolean());
+            if (rowClause.length() != 0) {
+                rowClause.append(", ");
+            }
+            rowClause.append("?");
+        }
 
-                    } else if (f.isDecimal()) {
-                        st.setBigDecimal(i, val.decimalValue());
+        StringBuilder valuesClause = new StringBuilder();
+        for (int i = 0; i < rowCount; i++) {
+            if (valuesClause.length() != 0) {
+                valuesClause.append(", ");
+            }
+            valuesClause.append("(").append(rowClause).append(")");
+        }
 
-                    } else if (f.isFloatingPoint()) {
-                        st.setDouble(i, val.doubleValue());
+        return String.format("INSERT INTO %s (%s) VALUES %s", tableName, fieldsClause, valuesClause);
+    }
 
-                    } else if (f.isLong()) {
-                        st.setLong(i, val.longValue());
+    /**
+     * Returns the statement of this block for {@code rowCount} rows, taking it from the statements of {@code cn} or
+     * preparing it the first time.
+     */
+    private PreparedStatement getStatement(Connection cn, Map<Integer, PreparedStatement> statements,
+                                           String tableName, Field[] fields, int rowCount) throws SQLException {
+        PreparedStatement st = statements.get(rowCount);
+        if (st == null) {
+            String sql = buildInsert(tableName, fields, rowCount);
+            Map<String, PreparedStatement> cached = getCachedStatements(cn);
+            st = cached.remove(sql);
+            if (st == null) {
+                st = cn.prepareStatement(sql);
+            }
+            //put back last, so the statements used least recently are closed first
+            cached.put(sql, st);
+            if (cached.size() > MAX_CACHED_STATEMENTS) {
+                Iterator<PreparedStatement> eldest = cached.values().iterator();
+                closeQuietly(eldest.next());
+                eldest.remove();
+            }
+            statements.put(rowCount, st);
+        }
+        return st;
+    }
 
-                    } else {
-                        //unrecognised field type val, try to set value to null
-                        st.setNull(i, f.getFieldType());
+    /**
+     * Returns the statements prepared on {@code cn}. The statements of connections that have been closed, e.g. by the
+     * pool because they broke, are dropped when a new connection is seen.
+     */
+    private Map<String, PreparedStatement> getCachedStatements(Connection cn) {
+        synchronized (statementCache) {
+            Map<String, PreparedStatement> cached = statementCache.get(cn);
+            if (cached == null) {
+                Iterator<Connection> it = statementCache.keySet().iterator();
+                while (it.hasNext()) {
+                    if (isClosed(it.next())) {
+                        it.remove();
                     }
-
-                    i++;
                 }
-                st.execute();
+                cached = new LinkedHashMap<String, PreparedStatement>();
+                statementCache.put(cn, cached);
+            }
+            return cached;
+        }
+    }
+
+    private static boolean isClosed(Connection cn) {
+        try {
+            return cn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement st) {
+        try {
+            st.close();
+        } catch (SQLException e) {
+            ;
+        }
+    }
+
+    /**
+     * Returns the binders of {@code fields}, compiling them if they are not the fields of the last import.
+     */
+    private BinderPlan getPlan(List<Field> fields) {
+        BinderPlan current = plan;
+        if (current == null || !current.isFor(fields)) {
+            current = new BinderPlan(fields);
+            plan = current;
+        }
+        return current;
+    }
+
+    /**
+     * Executes the statements added to {@code st} as one batch, and copies the update count of each row to
+     * {@code updateCounts} starting at {@code offset}. If the batch fails, the rows the driver did not report on are
+     * marked as {@code Statement.EXECUTE_FAILED}, so the caller can continue with the next batch.
+     * @param rows number of rows in the batch.
+     * @param rowsPerStatement number of rows inserted by each statement in the batch.
+     * @throws SQLException
+     */
+    private void executeBatch(PreparedStatement st, int[] updateCounts, int offset, int rows, int rowsPerStatement)
+            throws SQLException {
+        int[] counts;
+        try {
+            counts = st.executeBatch();
+        } catch (BatchUpdateException e) {
+            counts = e.getUpdateCounts();
+            st.clearBatch();
+            log.warning(String.format("Batch of %d rows failed: %s", rows, e.getMessage()));
+        }
+
+        int failed = 0;
+        int statementCount = rows / rowsPerStatement;
+        for (int i = 0; i < statementCount; i++) {
+            int count = (counts != null && i < counts.length) ? counts[i] : Statement.EXECUTE_FAILED;
+            if (count == Statement.EXECUTE_FAILED) {
+                failed += rowsPerStatement;
+            }
+            setUpdateCounts(updateCounts, offset + i * rowsPerStatement, rowsPerStatement, count);
+        }
+        log.fine(String.format("Executed batch of %d rows, %d failed.", rows, failed));
+    }
+
+    /**
+     * Records the bind time of a batch, from {@code batchTime} to {@code executeTime}, and its execute time, from
+     * {@code executeTime} to now. Returns the time the next batch starts.
+     */
+    private long recordBatch(long batchTime, long executeTime) {
+        long now = System.nanoTime();
+        metrics.recordBind(executeTime - batchTime);
+        metrics.recordExecute(now - executeTime);
+        return now;
+    }
+
+    /**
+     * Sets the update counts of the {@code rows} rows inserted by one statement.
+     */
+    private static void setUpdateCounts(int[] updateCounts, int offset, int rows, int count) {
+        if (rows == 1) {
+            updateCounts[offset] = count;
+            return;
+        }
+        int rowCount = (count == Statement.EXECUTE_FAILED) ? count
+                : (count == rows) ? 1 : Statement.SUCCESS_NO_INFO;
+        for (int i = 0; i < rows; i++) {
+            updateCounts[offset + i] = rowCount;
+        }
+    }
+
+    /**
+     * Returns the number of rows in {@code updateCounts} that did not fail.
+     * @param updateCounts update counts returned by {@code doImport}.
+     * @return the number of rows that did not fail.
+     */
+    static int countSucceeded(int[] updateCounts) {
+        int succeeded = 0;
+        for (int count: updateCounts) {
+            if (count != Statement.EXECUTE_FAILED) {
+                succeeded++;
             }
-        } finally {
-            cn.close();
         }
+        return succeeded;
     }
 }
@@ -1,28 +1,183 @@
 import java.io.*;
+import java.util.*;
 import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.*;
 
 /**
  * Created with IntelliJ IDEA.
  * User: Robo
  *
  * Reads a JSON file, searches for the first array then returns nodes in the array.
+ * <p>
+ * A reader created with {@code forLines} reads a sequence of JSON values instead, e.g. newline delimited JSON with
+ * one object per line, and returns them as if they were the elements of an array.
+ * <p>
+ * The blocks passed on by {@code readBlocks} record the byte offsets in the file they were read from. The offsets
+ * are only exact for UTF-8 files, where the parser counts bytes.
  */
-class JsonArrayReader {
+class JsonArrayReader implements BlockReader {
     private enum ParserState {BEFORE_ARRAY, IN_ARRAY, AFTER_ARRAY}
 
+    /**
+     * The arrays read by {@code readArrays}, and the prefixes of their paths.
+     */
+    private static final class ArrayTargets {
+        final Map<List<String>, Integer> indexes = new HashMap<List<String>, Integer>();
+        final Set<List<String>> prefixes = new HashSet<List<String>>();
+        final List<FieldProjection> projections;
+        final BlockSizer sizer;
+        final List<BlockListener> listeners;
+        final int[] found;
+
+        ArrayTargets(List<List<String>> paths, List<FieldProjection> projections, BlockSizer sizer,
+                     List<BlockListener> listeners) {
+            for (int i = 0; i < paths.size(); i++) {
+                indexes.put(paths.get(i), i);
+                for (int length = 0; length < paths.get(i).size(); length++) {
+                    prefixes.add(paths.get(i).subList(0, length));
+                }
+            }
+            this.projections = projections;
+            this.sizer = sizer;
+            this.listeners = listeners;
+            this.found = new int[paths.size()];
+        }
+    }
+
+    private static final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+
     private JsonParser jp;
     private ParserState state = ParserState.BEFORE_ARRAY;
     private String arrayName = "";
+    private long baseOffset = 0;
+    private long startOffset = -1;
+    private NavigableMap<Long, Long> importedRanges;
 
     /**
-     * Creates a new {@code JsonArrayReader} that reads the specified {@code fileName}.
+     * Creates a new {@code JsonArrayReader} that reads the specified {@code fileName}. A compressed file is
+     * decompressed while it is read, see {@code CompressedInput}.
      * @param fileName The JSON file containing array
      * @throws IOException
      */
     JsonArrayReader(String fileName) throws IOException {
         JsonFactory f = new MappingJsonFactory();
-        jp = f.createParser(new File(fileName));
+        jp = f.createParser(CompressedInput.open(fileName));
+    }
+
+    /**
+     * Creates a new {@code JsonArrayReader} that reads from {@code in}. The stream is closed when the reader is
+     * closed.
+     * @param in the JSON text containing array
+     * @throws IOException
+     */
+    JsonArrayReader(InputStream in) throws IOException {
+        this(in, 0);
+    }
+
+    /**
+     * Creates a new {@code JsonArrayReader} that reads from {@code in}, which is a part of a file starting at
+     * {@code baseOffset}. The offsets of the blocks are positions in the file. The stream is closed when the reader is
+     * closed.
+     * @param in the JSON text containing array
+     * @param baseOffset the position in the file of the first byte of {@code in}.
+     * @throws IOException
+     */
+    JsonArrayReader(InputStream in, long baseOffset) throws IOException {
+        JsonFactory f = new MappingJsonFactory();
+        jp = f.createParser(in);
+        this.baseOffset = baseOffset;
+    }
+
+    /**
+     * Creates a new {@code JsonArrayReader} that reads a sequence of JSON values from {@code in}, e.g. a newline
+     * delimited JSON file. The stream is closed when the reader is closed.
+     * @param in the JSON values
+     * @param name the name returned by {@code getArrayName}, e.g. the name of the file.
+     * @return the reader.
+     * @throws IOException
+     */
+    static JsonArrayReader forLines(InputStream in, String name) throws IOException {
+        return forLines(in, name, 0);
+    }
+
+    /**
+     * Creates a new {@code JsonArrayReader} that reads a sequence of JSON values from {@code in}, which is a part of a
+     * file starting at {@code baseOffset}.
+     * @param in the JSON values
+     * @param name the name returned by {@code getArrayName}, e.g. the name of the file.
+     * @param baseOffset the position in the file of the first byte of {@code in}.
+     * @return the reader.
+     * @throws IOException
+     */
+    static JsonArrayReader forLines(InputStream in, String name, long baseOffset) throws IOException {
+        JsonArrayReader rd = new JsonArrayReader(in, baseOffset);
+        rd.state = ParserState.IN_ARRAY;
+        rd.arrayName = name;
+        rd.startOffset = baseOffset;
+        return rd;
+    }
+
+    /**
+     * Creates a new {@code JsonArrayReader} that continues reading an array from {@code offset}, the end of a block
+     * recorded by a checkpoint. The beginning of the file is skipped without being parsed.
+     * @param in the whole JSON file. The stream is closed when the reader is closed.
+     * @param offset the position in the file between two elements of the array, or two lines.
+     * @param arrayName the name of the array, as found when the file was first read.
+     * @param lines if true, the file is read as a sequence of JSON values, see {@code forLines}.
+     * @return the reader, positioned before the first element after {@code offset}.
+     * @throws IOException if the file is shorter than {@code offset}.
+     */
+    static JsonArrayReader resume(InputStream in, long offset, String arrayName, boolean lines) throws IOException {
+        skipFully(in, offset);
+        if (lines) {
+            return forLines(in, arrayName, offset);
+        }
+
+        //the elements that are left are read as an array of their own, without the comma that separated them from
+        //the last element imported
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        long pos = offset;
+        int b = pin.read();
+        while (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+            pos++;
+            b = pin.read();
+        }
+        if (b == ',') {
+            pos++;
+        } else if (b >= 0) {
+            pin.unread(b);
+        }
+        InputStream rest = new SequenceInputStream(new ByteArrayInputStream(new byte[] {'['}), pin);
+        JsonArrayReader rd = new JsonArrayReader(rest, pos - 1);
+        rd.moveToArray();
+        rd.arrayName = arrayName;
+        rd.startOffset = offset;
+        return rd;
+    }
+
+    /**
+     * Skips the rows in the ranges of the file that have already been imported, e.g. the blocks a checkpoint recorded
+     * after the position it resumes from, see {@code BlockBuilder.setImportedRanges}. Must be called before
+     * {@code readBlocks}.
+     * @param ranges the end of each range, by the position it starts at.
+     */
+    void setImportedRanges(NavigableMap<Long, Long> ranges) {
+        this.importedRanges = ranges;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        long left = n;
+        while (left > 0) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("The file ends before offset " + n + ".");
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+        }
     }
 
     /**
@@ -40,7 +195,9 @@ class JsonArrayReader {
         }
 
         if (state == ParserState.IN_ARRAY) {
-            if (jp.nextToken() != JsonToken.END_ARRAY) {
+            //a sequence of values ends at the end of the input instead
+            JsonToken token = jp.nextToken();
+            if (token != null && token != JsonToken.END_ARRAY) {
                 return jp.readValueAsTree();
             } else {
                 state = ParserState.AFTER_ARRAY;
@@ -51,16 +208,256 @@ class JsonArrayReader {
     }
 
     /**
-     * Move parser cursor to beginning of the array.
+     * Returns the next element in a JSON array as a row, keeping only the values of the fields in
+     * {@code projection}. Unlike {@code read}, the object is not read into a tree. The values of the other fields,
+     * including nested objects and arrays, are skipped by the parser, and the objects and arrays a path goes through,
+     * e.g. {@code realm} for {@code realm.name}, are only read as far as the path needs.
+     * <p>
+     * Elements that are not objects are returned as rows where {@code isObject} is false. If it has reached the end
+     * of the array, or no array is found, it will return {@code null}.
+     *
+     * @param projection the fields to keep.
+     * @return the next element in the array.
      * @throws IOException
      */
-    private void moveToArray() throws IOException {
+    JsonRow readRow(FieldProjection projection) throws IOException {
+        if (state == ParserState.BEFORE_ARRAY) {
+            moveToArray();
+        }
+
+        if (state == ParserState.IN_ARRAY) {
+            JsonToken token = jp.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                JsonNode[] values = new JsonNode[projection.size()];
+                List<List<JsonNode[]>> childValues = projection.newChildValues();
+                readObject(projection.getRoot(), values, childValues);
+                return projection.newRow(values, childValues);
+            } else if (token != null && token != JsonToken.END_ARRAY) {
+                return JsonRow.nonObject(readValue(token));
+            } else {
+                state = ParserState.AFTER_ARRAY;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the members of the object started by the current token, up to its end, following the paths below
+     * {@code node}. The members no path goes through are skipped without being read.
+     */
+    private void readObject(FieldProjection.PathNode node, JsonNode[] values, List<List<JsonNode[]>> childValues)
+            throws IOException {
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            FieldProjection.PathNode child = node.getChild(jp.getCurrentName());
+            JsonToken token = jp.nextToken();
+            if (child == null) {
+                jp.skipChildren();
+            } else {
+                readPath(child, token, values, childValues);
+            }
+        }
+    }
+
+    /**
+     * Reads the elements of the array started by the current token, up to its end, following the paths below
+     * {@code node}. When the elements are imported into a single child table, and no path goes through them, they are
+     * read straight into the rows of the child table, otherwise each element is read into a tree.
+     */
+    private void readArray(FieldProjection.PathNode node, JsonNode[] values, List<List<JsonNode[]>> childValues)
+            throws IOException {
+        FieldProjection.ChildArray[] arrays = node.getArrays();
+        int index = 0;
+        JsonToken token;
+        while ((token = jp.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            FieldProjection.PathNode child = node.getElement(index++);
+            if (arrays.length == 1 && child == null) {
+                JsonNode[] elementValues = arrays[0].newValues();
+                if (token == JsonToken.START_OBJECT) {
+                    readObject(arrays[0].getRoot(), elementValues, null);
+                } else {
+                    arrays[0].setScalar(readValue(token), elementValues);
+                }
+                childValues.get(arrays[0].getChild()).add(elementValues);
+            } else if (arrays.length > 0) {
+                JsonNode element = readValue(token);
+                if (child != null) {
+                    child.setValues(element, values, childValues);
+                }
+                for (FieldProjection.ChildArray array: arrays) {
+                    JsonNode[] elementValues = array.newValues();
+                    array.setElement(element, elementValues);
+                    childValues.get(array.getChild()).add(elementValues);
+                }
+            } else if (child == null) {
+                jp.skipChildren();
+            } else {
+                readPath(child, token, values, childValues);
+            }
+        }
+    }
+
+    /**
+     * Reads the value at the current token, which is at {@code node} of the trie of paths. An imported value is read
+     * whole, otherwise only the paths below the node are followed.
+     */
+    private void readPath(FieldProjection.PathNode node, JsonToken token, JsonNode[] values,
+                          List<List<JsonNode[]>> childValues) throws IOException {
+        if (node.isValue()) {
+            node.setValues(readValue(token), values, childValues);
+        } else if (token == JsonToken.START_OBJECT) {
+            readObject(node, values, childValues);
+        } else if (token == JsonToken.START_ARRAY) {
+            readArray(node, values, childValues);
+        }
+    }
+
+    /**
+     * Returns the value at the current token. Scalar values are created directly from the token, the same way the
+     * tree model would create them, so only objects and arrays need to go through {@code readValueAsTree}.
+     */
+    private JsonNode readValue(JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return nodeFactory.textNode(jp.getText());
+            case VALUE_NUMBER_INT:
+                switch (jp.getNumberType()) {
+                    case INT:
+                        return nodeFactory.numberNode(jp.getIntValue());
+                    case LONG:
+                        return nodeFactory.numberNode(jp.getLongValue());
+                    default:
+                        return nodeFactory.numberNode(jp.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                if (jp.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) {
+                    return nodeFactory.numberNode(jp.getDecimalValue());
+                }
+                return nodeFactory.numberNode(jp.getDoubleValue());
+            case VALUE_TRUE:
+                return nodeFactory.booleanNode(true);
+            case VALUE_FALSE:
+                return nodeFactory.booleanNode(false);
+            case VALUE_NULL:
+                return nodeFactory.nullNode();
+            default:
+                return jp.readValueAsTree();
+        }
+    }
+
+    /**
+     * Reads the rest of the array with {@code readRow}, and passes the rows to {@code listener} in blocks of
+     * {@code blockSize} rows. The listener is called from the current thread.
+     * @param projection the fields to keep from each object.
+     * @param blockSize number of rows per block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     */
+    @Override
+    public void readBlocks(FieldProjection projection, int blockSize, BlockListener listener) throws IOException {
+        readBlocks(projection, BlockBuilder.fixedSize(blockSize), listener);
+    }
+
+    /**
+     * Reads the rest of the array with {@code readRow}, and passes the rows to {@code listener} in blocks of the size
+     * decided by {@code sizer}. The listener is called from the current thread.
+     * @param projection the fields to keep from each object.
+     * @param sizer decides the number of rows per block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     */
+    @Override
+    public void readBlocks(FieldProjection projection, BlockSizer sizer, BlockListener listener) throws IOException {
+        if (state == ParserState.BEFORE_ARRAY) {
+            moveToArray();
+        }
+        BlockBuilder builder = new BlockBuilder(sizer, listener, startOffset);
+        builder.setImportedRanges(importedRanges);
+        JsonRow row = readRow(projection);
+        while (row != null) {
+            builder.add(row, getOffset());
+            row = readRow(projection);
+        }
+        builder.flush(getOffset());
+    }
+
+    /**
+     * Reads every array at one of {@code paths} in one pass over the file, passing the rows of each array to its own
+     * listener in blocks of the size decided by {@code sizer}. The values that no path goes through are skipped
+     * without being read. The listeners are called from the current thread.
+     * <p>
+     * The paths start at the top of the document. After this, {@code getArrayName} returns the name of the last array
+     * read.
+     * @param paths the paths of the arrays.
+     * @param projections the fields to keep from the objects of each array, in the same order as {@code paths}.
+     * @param sizer decides the number of rows per block.
+     * @param listeners receive the blocks of rows of each array, in the same order as {@code paths}.
+     * @return the number of arrays found at each path, in the same order as {@code paths}.
+     * @throws IOException
+     */
+    int[] readArrays(List<List<String>> paths, List<FieldProjection> projections, BlockSizer sizer,
+                     List<BlockListener> listeners) throws IOException {
+        ArrayTargets targets = new ArrayTargets(paths, projections, sizer, listeners);
+        JsonToken token = jp.nextToken();
+        if (token != null) {
+            walk(token, new ArrayList<String>(), targets);
+        }
+        state = ParserState.AFTER_ARRAY;
+        return targets.found;
+    }
+
+    /**
+     * Follows the value at the current token, at {@code path} in the document, down to the arrays of
+     * {@code targets}.
+     */
+    private void walk(JsonToken token, List<String> path, ArrayTargets targets) throws IOException {
+        Integer target = targets.indexes.get(path);
+        if (target != null && token == JsonToken.START_ARRAY) {
+            //the rows are read with readRow, as if it was the only array of the file
+            arrayName = path.isEmpty() ? null : path.get(path.size() - 1);
+            startOffset = getOffset();
+            state = ParserState.IN_ARRAY;
+            targets.found[target]++;
+            FieldProjection projection = targets.projections.get(target);
+            BlockBuilder builder = new BlockBuilder(targets.sizer, targets.listeners.get(target), startOffset);
+            JsonRow row = readRow(projection);
+            while (row != null) {
+                builder.add(row, getOffset());
+                row = readRow(projection);
+            }
+            builder.flush(getOffset());
+        } else if (!targets.prefixes.contains(path)) {
+            jp.skipChildren();
+        } else if (token == JsonToken.START_OBJECT) {
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                path.add(jp.getCurrentName());
+                walk(jp.nextToken(), path, targets);
+                path.remove(path.size() - 1);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while ((token = jp.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                path.add(String.valueOf(index++));
+                walk(token, path, targets);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Move parser cursor to beginning of the array. This is done by the first call to {@code read}, but can be
+     * called beforehand to find out the name of the array.
+     * @throws IOException
+     */
+    @Override
+    public void moveToArray() throws IOException {
         if (state == ParserState.BEFORE_ARRAY) {
             JsonToken token = jp.nextToken();
             while (token != null) {
                 if (token == JsonToken.START_ARRAY) {
                     arrayName = jp.getCurrentName();
                     state = ParserState.IN_ARRAY;
+                    startOffset = getOffset();
                     break;
                 }
                 token = jp.nextToken();
@@ -68,11 +465,31 @@ class JsonArrayReader {
         }
     }
 
+    /**
+     * Returns the position in the file just after the last token read, e.g. just after an object returned by
+     * {@code readRow}.
+     * @return the position in the file.
+     */
+    long getOffset() {
+        //the parser reports the position of the last byte it has consumed
+        return baseOffset + jp.getCurrentLocation().getCharOffset() + 1;
+    }
+
+    /**
+     * Returns the position in the file where the elements of the array start, or -1 if no array has been found.
+     * @return the position in the file of the first block.
+     */
+    @Override
+    public long getStartOffset() {
+        return startOffset;
+    }
+
     /**
      * Close file handle. Should be called in a finally block after creating a {@code JsonArrayReader} object.
      * @throws IOException
      */
-    void close() throws IOException {
+    @Override
+    public void close() throws IOException {
         jp.close();
     }
 
@@ -80,7 +497,8 @@ class JsonArrayReader {
      * Returns the name of the array found.
      * @return the name of the array found.
      */
-    String getArrayName() {
+    @Override
+    public String getArrayName() {
         return arrayName;
     }
 }
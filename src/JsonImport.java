@@ -23,7 +23,33 @@ enum ImportArgument {
     PORT("P"),
     INSTANCE("I"),
     BLOCK_SIZE("B"),
-    THREAD_COUNT("N");
+    BATCH_SIZE("b"),
+    THREAD_COUNT("N"),
+    MAX_BLOCKS("M"),
+    PARSE_THREADS("R"),
+    MULTI_ROW_VALUES("V"),
+    BULK_DIRECTORY("O"),
+    BULK_FORMAT("F"),
+    CHUNK_ROWS("C"),
+    BULK_INSERT("L"),
+    FILE_THREADS("n"),
+    LINES("J"),
+    //long options only, i.e. --resume
+    RESUME("resume"),
+    PROGRESS("progress"),
+    DRY_RUN("dry-run"),
+    ADAPTIVE("adaptive"),
+    MAX_LATENCY("max-latency"),
+    VIRTUAL_THREADS("virtual-threads"),
+    DEDUPE_KEY("dedupe-key"),
+    DEDUPE_SEED("dedupe-seed"),
+    UPSERT("upsert"),
+    RELOAD("reload"),
+    SHARD_KEY("shard-key"),
+    SHARD_TABLES("shard-tables"),
+    SHARD_SERVERS("shard-servers"),
+    CHILD("child"),
+    ARRAY("array");
 
     private final String opt;
 
@@ -52,6 +78,94 @@ enum ImportArgument {
  * The tool will import the first array it finds in the JSON file, i.e. the array can be nested inside objects or come
  * after other fields in the file. It will skip any nodes in the array that is not an object.
  * <p>
+ * The values of nested fields are imported by following the column name with the path of the value, e.g. -f
+ * auc,Realm=realm.name,FirstItem=item[0], or with the same path as a JSON Pointer, e.g. FirstItem=/item/0. The paths
+ * start at the objects in the array. All the paths are matched in one pass over each object, and the members no path
+ * goes through are skipped without being read.
+ * <p>
+ * With --array, e.g. --array alliance.auctions=auctions_alliance --array horde.auctions=auctions_horde, every array at
+ * one of the paths is imported into its own table in one pass over the file, instead of the first array found. The
+ * paths start at the top of the document, and the values no path goes through are skipped without being read. Each
+ * table is verified with the columns of -f, or with the columns in brackets after it, e.g. --array
+ * horde.auctions=auctions_horde(auc,owner), and has its own blocks and import tasks. The file is then read by one
+ * thread, and no checkpoints are saved.
+ * <p>
+ * Newline delimited JSON files, i.e. files named .ndjson or .jsonl or read with -J, contain one object per line
+ * instead of an array. The table name then defaults to the name of the file.
+ * <p>
+ * Compressed files are detected from their first bytes and decompressed on a read-ahead thread while they are parsed.
+ * Only BGZF files, i.e. gzip files written by bgzip, are decompressed by several threads at the same time, because
+ * their blocks give their own sizes. Other gzip files, including files of several gzip members, are decompressed by
+ * that one thread. bzip2 and zstd files have to be decompressed before they are imported.
+ * <p>
+ * While the rows are inserted, the tool saves a checkpoint next to each file, e.g. auctions.json.checkpoint, recording
+ * the byte offset and row up to which every block has been imported, and the ranges of the blocks imported after it,
+ * e.g. after a block that failed. If the import fails or is killed, running it again with --resume continues from the
+ * checkpoint instead of reading the file from its beginning, and skips the rows in those ranges. The checkpoint is
+ * saved once per second, so when the import is killed, the blocks imported in its last second are imported again. The
+ * checkpoint is deleted once the whole file has been imported.
+ * <p>
+ * While the import runs, a progress line with the rows and MB read per second and the estimated time left is logged
+ * every 10 seconds. The counters and latencies of each stage, i.e. parse, bind, execute, and block from being queued to
+ * being imported, can be watched in JConsole as the MBean JsonImport:type=ImportMetrics, and are logged at the end of
+ * the import. Elements that are not objects are counted as skipped instead of being printed.
+ * <p>
+ * With --adaptive, the block size and the number of threads importing at the same time are tuned while the rows are
+ * inserted: every 5 seconds, the rows per second and the time taken by each block are compared with the previous 5
+ * seconds, then the block size or the number of threads is changed, and the decision is logged. Threads are added one
+ * at a time while the rows per second hold, and halved when they drop after one was added or when a block takes longer
+ * than --max-latency, so the import backs off when the server is busy. -B is the block size to start with, and -N the
+ * most threads used.
+ * <p>
+ * With --virtual-threads, each block is imported on a virtual thread of its own instead of one of -N threads. The
+ * connection pool still limits the blocks talking to the database at the same time to -N, and -M limits the blocks in
+ * flight, but raising -N to hide the latency of a slow link then costs a connection instead of a connection and a
+ * thread. Virtual threads need Java 24: jTDS holds a monitor while it waits for the server, and up to Java 23 a virtual
+ * thread waiting in a monitor pins its carrier thread, so only as many blocks as there are cores would be imported at
+ * the same time. On Java 21 to 23 a warning is logged, and on these and older versions -N threads are used as before.
+ * <p>
+ * With --dedupe-key, e.g. --dedupe-key ListingId, a row whose key has already been imported, from the same file or
+ * another one, is dropped before it is bound, instead of failing on the primary key or being inserted twice. With
+ * --dedupe-seed, the keys already in the table are read first with one SELECT. The keys are kept in a compressed
+ * bitmap, so ids take between 1 bit and 2 bytes each, and 100 million of them fit in a few hundred MB. The dropped rows
+ * are counted as duplicates in the summaries.
+ * <p>
+ * With --upsert, e.g. --upsert ListingId, a row whose key fields match a row of the table updates it instead of failing
+ * on the primary key, and the other rows are inserted. Each block is inserted into a temporary table created with the
+ * types of the fields, then merged into the table with one MERGE, which is far faster than one update per row. When a
+ * block holds several rows with the same key, as the server compares it, e.g. regardless of case with the default
+ * collation, the last one wins.
+ * <p>
+ * With --reload, e.g. for a nightly full reload into a truncated table, the non-unique nonclustered indexes of the
+ * table are disabled, each thread inserts its blocks into a staging table of its own with TABLOCK, and once every file
+ * has been read the staging tables are combined into the table with one INSERT ... SELECT WITH (TABLOCK), which is
+ * minimally logged under the simple or bulk-logged recovery model. The staging tables are then dropped and the indexes
+ * rebuilt. The table only receives rows in that one statement, so it either holds all of them or is left empty, e.g. if
+ * a file could not be read or a block could not be staged. The table must be empty, and no checkpoints are saved. The
+ * staging tables and disabled indexes left behind by a reload that was killed are cleaned up by the next one.
+ * <p>
+ * With --shard-key and --shard-tables or --shard-servers, e.g. --shard-key auc --shard-servers db1,db2,db3, each row is
+ * routed to one of the tables or servers by the hash of its key, or with --shard-key auc:1000,2000 by ranges of the
+ * key. The hash only depends on the text of the key, so a row goes to the same shard on every run. Each shard has a
+ * buffer and -N writers of its own, and only holds back the import once -M of its batches are waiting, so a slow shard
+ * does not slow down the others until then. The servers use the database, table, user and password of the import, and
+ * the tables the fields verified on -T. The rows are counted as imported in the summaries once they are passed to their
+ * shard, and the rows written, failed and written per second are logged per shard at the end. No checkpoints are saved.
+ * <p>
+ * With --child, e.g. --child auction_items(auc,item), each element of a nested array becomes a row of a child table,
+ * after the key of its object, so {"auc":1,"item":[7,8]} imports the rows (1, 7) and (1, 8). The array is the member
+ * named after the first column after the key, or the path after the brackets, e.g. --child
+ * auction_bids(auc,bidder,amount=bid.amount)=bids, and the columns of elements that are objects are mapped the same way
+ * as -f. The elements are read in the same pass as their objects, and once a block has been imported its child rows are
+ * passed to -N writers shared by the child tables, which insert them in batches of -B while the next blocks are
+ * imported, holding back the import only once -M of their batches are waiting. The child rows of a row that failed are
+ * dropped. The rows written, failed and written per second are logged per child table at the end. No checkpoints are
+ * saved.
+ * <p>
+ * With --dry-run, the rows are read, projected and bound as text to a statement that discards them, without
+ * connecting to the database. The rows and MB per second logged at the end are then the most the tool can reach
+ * without the database, e.g. to compare with a real import or to check a change for regressions.
+ * <p>
  * For example, if the import table's field type is correct, the tool will import the 'auctions' array in the
  * following text without errors:
  *
@@ -85,6 +199,9 @@ enum ImportArgument {
  * </pre>
  */
 public class JsonImport {
+    //milliseconds between two decisions of the adaptive controller
+    private static final long ADAPTIVE_WINDOW = 5000;
+
     /**
      * Accepts parameters of the JSON file location, connection details to the database,
      * and other options then concurrently imports the data to the SQL database.
@@ -92,22 +209,107 @@ public class JsonImport {
      * <pre>{@code
      * usage: java -jar JsonImport.jar -f <fieldNames> -s <server> -d <database>
      * -i <file> [OPTIONS]
+     *    --adaptive <minBlockSize-maxBlockSize>
+     *                    tune the block size within these bounds, and the
+     *                    number of threads importing up to -N, while the
+     *                    rows are inserted. If empty, the bounds default to
+     *                    100-10000.
+     *    --array <path=table[(columns)]>
+     *                    import the array at this path into this table, with
+     *                    the columns of -f or those in brackets, e.g.
+     *                    horde.auctions=auctions_horde. Can be repeated to
+     *                    import several arrays in one pass.
      * -B <blockSize>     number of JSON objects per thread. If empty, it
      *                    defaults to 500.
+     * -b <batchSize>     number of JSON objects to send to the database per
+     *                    round trip. If empty, it defaults to 1, i.e. each
+     *                    object is inserted on its own.
+     * -C <chunkRows>     number of rows per bulk-load file. If empty, it
+     *                    defaults to 1000000.
+     *    --child <table(key,columns)[=path]>
+     *                    import the elements of a nested array into a child
+     *                    table, one row each, after the key of their
+     *                    object, e.g. auction_items(auc,item). The key must
+     *                    be one of -f. Can be repeated.
      * -d <database>      name of the database to import to.
+     *    --dedupe-key <field>
+     *                    drop the rows whose whole number key in this field
+     *                    has already been imported. The field must be one
+     *                    of -f.
+     *    --dedupe-seed   with --dedupe-key, first read the keys already in
+     *                    the table, so they are not imported again.
+     *    --dry-run       read and bind the rows without importing them, and
+     *                    report the throughput. The database is not used.
+     * -F <format>        format of the bulk-load files, native or csv. If
+     *                    empty, it defaults to native.
      * -f <fieldNames>    comma separated list of column names to import. Values
-     *                    are imported from JSON objects' matching field names.
+     *                    are imported from JSON objects' matching field names,
+     *                    or from the path after the column name, e.g.
+     *                    Name=realm.name, Item=item[0] or Item=/item/0.
      * -I <instance>      instance name of the SQL server.
-     * -i <fileName>      file path of the JSON import file.
+     * -i <fileName>      file path of the JSON import file, a directory of JSON
+     *                    import files, or a file name pattern, e.g.
+     *                    auctions-*.json. Files can be compressed with gzip.
+     * -J                 read the JSON import files as newline delimited JSON,
+     *                    one object per line. Files named .ndjson or .jsonl
+     *                    are always read this way.
+     * -L                 load each bulk-load file with BULK INSERT while the
+     *                    next one is written. The directory must be readable
+     *                    by the SQL server.
+     * -M <maxBlocks>     maximum number of blocks read from the file that are
+     *                    waiting for or being imported. If empty, it defaults
+     *                    to twice the number of threads.
+     *    --max-latency <milliseconds>
+     *                    longest time a block should take to insert with
+     *                    --adaptive. If empty, it defaults to 5000.
      * -N <threadCount>   number of threads to use. If empty, it defaults to
      *                    number of processors available.
+     * -n <fileThreads>   number of files to read at the same time when
+     *                    importing several files. If empty, it defaults to
+     *                    number of processors available.
+     * -O <directory>     write the rows to bulk-load files in this directory
+     *                    instead of inserting them.
      * -P <port>          port of the SQL server. If empty, it defaults to 1433.
      * -p <password>      password to log in to database.
+     *    --progress <seconds>
+     *                    number of seconds between two progress lines, 0
+     *                    turns them off. If empty, it defaults to 10.
+     * -R <parseThreads>  number of threads to parse the JSON file with. If
+     *                    more than 1, the array is split into ranges that are
+     *                    parsed in parallel. The file must be UTF-8. If empty,
+     *                    it defaults to 1.
+     *    --reload        reload empty tables with minimal logging: disable
+     *                    their indexes, insert into a staging table per
+     *                    thread, combine them into the table at the end,
+     *                    then rebuild the indexes.
+     *    --resume        continue each file from the checkpoint saved by an
+     *                    import that failed or was killed, instead of from
+     *                    its beginning. The file must be UTF-8.
      * -s <server>        server name of the SQL server. Do not include instance
      *                    name.
+     *    --shard-key <field[:bounds]>
+     *                    route each row to a shard by the hash of this
+     *                    field, or by ranges if the upper bounds of all the
+     *                    shards but the last are given, e.g. auc:1000,2000.
+     *    --shard-servers <servers>
+     *                    comma separated list of servers, with an optional
+     *                    port, to shard the rows across, e.g. db1,db2:1434.
+     *    --shard-tables <tables>
+     *                    comma separated list of tables to shard the rows
+     *                    across.
      * -T <table>         name of the table to import to. If empty, it defaults
      *                    to name of JSON array.
      * -u <user>          username to log in to database.
+     *    --upsert <keyFields>
+     *                    update the rows whose comma separated key fields
+     *                    match a row of the table, and insert the others.
+     *                    The fields must be among -f.
+     * -V                 insert as many JSON objects per INSERT statement as
+     *                    SQL Server allows, up to 1000.
+     *    --virtual-threads
+     *                    run each block on a virtual thread of its own, -N
+     *                    then only limits the number of connections. Needs
+     *                    Java 24, otherwise -N threads are used.
      * }</pre>
      *
      * For example, to import auctions.json to table Listings on SQL server instance SERVER1\SQLEXPRESS,
@@ -138,83 +340,413 @@ public class JsonImport {
             String jsonFile = cmd.getOptionValue(ImportArgument.FILE_NAME.getOpt());
             int port = parseIntDef(cmd.getOptionValue(ImportArgument.PORT.getOpt()), 1433);
             String instance = cmd.getOptionValue(ImportArgument.INSTANCE.getOpt());
-            int blockSize = parseIntDef(cmd.getOptionValue(ImportArgument.BLOCK_SIZE.getOpt()), 500);
+            final int blockSize = parseIntDef(cmd.getOptionValue(ImportArgument.BLOCK_SIZE.getOpt()), 500);
+            int batchSize = parseIntDef(cmd.getOptionValue(ImportArgument.BATCH_SIZE.getOpt()), 1);
             int threadCount = parseIntDef(cmd.getOptionValue(ImportArgument.THREAD_COUNT.getOpt()),
                     Runtime.getRuntime().availableProcessors());
+            int maxBlocks = parseIntDef(cmd.getOptionValue(ImportArgument.MAX_BLOCKS.getOpt()), threadCount * 2);
+            int parseThreads = parseIntDef(cmd.getOptionValue(ImportArgument.PARSE_THREADS.getOpt()), 1);
+            boolean multiRowValues = cmd.hasOption(ImportArgument.MULTI_ROW_VALUES.getOpt());
+            String bulkDirectory = cmd.getOptionValue(ImportArgument.BULK_DIRECTORY.getOpt());
+            int chunkRows = parseIntDef(cmd.getOptionValue(ImportArgument.CHUNK_ROWS.getOpt()), 1000000);
+            boolean bulkInsert = cmd.hasOption(ImportArgument.BULK_INSERT.getOpt());
+            BulkFileFormat bulkFormat;
+            try {
+                bulkFormat = BulkFileFormat.valueOf(
+                        cmd.getOptionValue(ImportArgument.BULK_FORMAT.getOpt(), "native").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown bulk-load format: "
+                        + cmd.getOptionValue(ImportArgument.BULK_FORMAT.getOpt()));
+                return;
+            }
+            List<FieldMapping> mappings;
+            try {
+                mappings = FieldMapping.parseAll(fieldNames);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid field mapping: " + e.getMessage());
+                return;
+            }
+            //the keys of --upsert, --shard-key and --dedupe-key must be among these
+            List<String> imported = new ArrayList<String>();
+            for (String columnName: FieldMapping.getColumnNames(mappings)) {
+                imported.add(columnName.toLowerCase());
+            }
 
-            ConnectionProperties p = new ConnectionProperties(server, port, database, instance, user, password);
+            String[] arraySpecs = cmd.getOptionValues(ImportArgument.ARRAY.getOpt());
+            List<ArrayTable> arrayTables = new ArrayList<ArrayTable>();
+            if (arraySpecs != null) {
+                try {
+                    for (String spec: arraySpecs) {
+                        arrayTables.add(ArrayTable.parse(spec, mappings));
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid array: " + e.getMessage());
+                    return;
+                }
+                if (table != null || cmd.hasOption(ImportArgument.RESUME.getOpt())) {
+                    System.err.println("--array cannot be used with -T or --resume, each array has its own table.");
+                    return;
+                }
+            }
 
-            long startTime = System.currentTimeMillis();
-            Logger log = Logger.getLogger(ImportTask.class.getName());
-            log.info("Started import.");
+            List<String> jsonFiles = InputFiles.resolve(jsonFile);
+            if (jsonFiles.isEmpty()) {
+                System.err.println("No json import files found: " + jsonFile);
+                return;
+            }
+            int fileThreads = Math.min(jsonFiles.size(), parseIntDef(cmd.getOptionValue(
+                    ImportArgument.FILE_THREADS.getOpt()), Runtime.getRuntime().availableProcessors()));
 
-            JsonArrayReader rd = new JsonArrayReader(jsonFile);
-            Collection<JsonNode> list = new LinkedList<JsonNode>();
-            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-            try {
-                JsonNode node = rd.read();
+            ConnectionProperties p = new ConnectionProperties(server, port, database, instance, user, password);
+            //one connection per thread, shared by all the import tasks
+            ConnectionPool pool = ConnectionPool.getPool(p, threadCount);
+            final ImportMetrics metrics = new ImportMetrics();
+            boolean dryRun = cmd.hasOption(ImportArgument.DRY_RUN.getOpt());
+            ImportSink sink;
+            String upsertKeys = cmd.getOptionValue(ImportArgument.UPSERT.getOpt());
+            if (upsertKeys != null) {
+                for (String key: upsertKeys.split(",")) {
+                    if (!imported.contains(key.trim().toLowerCase())) {
+                        System.err.println("The upsert keys must be among the imported fields: " + key);
+                        return;
+                    }
+                }
+                if (bulkDirectory != null || dryRun) {
+                    System.err.println("Rows can only be upserted when they are inserted into the table.");
+                    return;
+                }
+            }
+            boolean reload = cmd.hasOption(ImportArgument.RELOAD.getOpt());
+            if (reload && (bulkDirectory != null || dryRun || upsertKeys != null
+                    || cmd.hasOption(ImportArgument.RESUME.getOpt()))) {
+                System.err.println("--reload cannot be used with -O, --dry-run, --upsert or --resume.");
+                return;
+            }
+            ReloadSink reloadSink = null;
+            if (dryRun) {
+                if (bulkDirectory != null) {
+                    System.err.println("Bulk-load files cannot be written in a dry run.");
+                    return;
+                }
+                DiscardingSink discardingSink = new DiscardingSink();
+                discardingSink.setMetrics(metrics);
+                sink = discardingSink;
+            } else {
+                JsonArrayImporter importer = new JsonArrayImporter(p, batchSize, multiRowValues);
+                importer.setMetrics(metrics);
+                sink = importer;
+                if (upsertKeys != null) {
+                    //the importer inserts each block into a staging table, which is then merged into the table
+                    UpsertSink upsertSink = new UpsertSink(p, importer, upsertKeys.split(","));
+                    upsertSink.setMetrics(metrics);
+                    sink = upsertSink;
+                } else if (reload) {
+                    //each thread inserts into a staging table of its own, combined into the table at the end
+                    reloadSink = new ReloadSink(p, importer, threadCount);
+                    sink = reloadSink;
+                }
+            }
+            String shardKey = cmd.getOptionValue(ImportArgument.SHARD_KEY.getOpt());
+            ShardedSink shardedSink = null;
+            if (shardKey != null) {
+                String shardTables = cmd.getOptionValue(ImportArgument.SHARD_TABLES.getOpt());
+                String shardServers = cmd.getOptionValue(ImportArgument.SHARD_SERVERS.getOpt());
+                if ((shardTables == null) == (shardServers == null)) {
+                    System.err.println("--shard-key needs either --shard-tables or --shard-servers.");
+                    return;
+                }
+                //the key, then the upper bounds of the ranges if the keys are not hashed, e.g. ListingId:1000,2000
+                String[] keyAndBounds = shardKey.split(":", 2);
+                if (!imported.contains(keyAndBounds[0].trim().toLowerCase())) {
+                    System.err.println("The shard key must be one of the imported fields: " + keyAndBounds[0]);
+                    return;
+                }
+                if (bulkDirectory != null || dryRun || reload) {
+                    System.err.println("--shard-key cannot be used with -O, --dry-run or --reload.");
+                    return;
+                }
 
-                if (table == null || table.isEmpty()) {
-                    table = rd.getArrayName();
+                String[] targets = (shardTables != null ? shardTables : shardServers).split(",");
+                ShardRouter router;
+                if (keyAndBounds.length > 1) {
+                    String[] values = keyAndBounds[1].split(",");
+                    long[] bounds = new long[values.length];
+                    try {
+                        for (int i = 0; i < values.length; i++) {
+                            bounds[i] = Long.parseLong(values[i].trim());
+                        }
+                        router = ShardRouter.ranges(bounds);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid shard bounds: " + keyAndBounds[1]);
+                        return;
+                    }
+                    if (router.getShardCount() != targets.length) {
+                        System.err.format("%d shards need %d bounds: %s%n", targets.length, targets.length - 1,
+                                keyAndBounds[1]);
+                        return;
+                    }
+                } else {
+                    router = ShardRouter.hash(targets.length);
                 }
 
-                String[] arrFields = fieldNames.split(",");
-                List<Field> fields = new Vector<Field>();
+                //each shard has -N writers, and waits once -M of its batches of -B rows are in flight
+                shardedSink = new ShardedSink(keyAndBounds[0], router, blockSize, threadCount, maxBlocks);
+                for (String target: targets) {
+                    target = target.trim();
+                    if (shardTables != null) {
+                        shardedSink.addShard(target, sink, target);
+                        continue;
+                    }
+                    String[] serverPort = target.split(":", 2);
+                    ConnectionProperties shardP = new ConnectionProperties(serverPort[0], serverPort.length > 1
+                            ? parseIntDef(serverPort[1], port) : port, database, instance, user, password);
+                    ConnectionPool.getPool(shardP, threadCount);
+                    JsonArrayImporter shardImporter = new JsonArrayImporter(shardP, batchSize, multiRowValues);
+                    shardImporter.setMetrics(metrics);
+                    ImportSink shardSink = shardImporter;
+                    if (upsertKeys != null) {
+                        UpsertSink upsertSink = new UpsertSink(shardP, shardImporter, upsertKeys.split(","));
+                        upsertSink.setMetrics(metrics);
+                        shardSink = upsertSink;
+                    }
+                    shardedSink.addShard(target, shardSink, null);
+                }
+                sink = shardedSink;
+            }
+            String[] childSpecs = cmd.getOptionValues(ImportArgument.CHILD.getOpt());
+            List<ChildTable> childTables = new ArrayList<ChildTable>();
+            ChildTableSink childTableSink = null;
+            if (childSpecs != null) {
                 try {
-                    //test table exists, and all fields exist in the database before we continue much further
-                    //if the fields exist, get the SQL field type so we can assign null values
-                    DatabaseConnection.verifyTable(p, table, arrFields, fields);
-
-                    while (node != null) {
-                        if (node.isObject()) {
-                            list.add(node);
-                        } else {
-                            System.out.printf("Skipping %s. Node is not an object.%n", node);
+                    for (String spec: childSpecs) {
+                        childTables.add(ChildTable.parse(spec));
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid child table: " + e.getMessage());
+                    return;
+                }
+                for (ChildTable childTable: childTables) {
+                    String key = childTable.getKeyColumn().toLowerCase();
+                    //with --array, the key must be imported into every array table
+                    boolean keyImported = arrayTables.isEmpty() ? imported.contains(key) : true;
+                    for (ArrayTable arrayTable: arrayTables) {
+                        boolean inArray = false;
+                        for (String columnName: FieldMapping.getColumnNames(arrayTable.getMappings())) {
+                            inArray |= columnName.equalsIgnoreCase(key);
                         }
+                        keyImported &= inArray;
+                    }
+                    if (!keyImported) {
+                        System.err.println("The key of a child table must be one of the imported fields: "
+                                + childTable.getKeyColumn());
+                        return;
+                    }
+                }
+                if (bulkDirectory != null || reload || shardedSink != null) {
+                    System.err.println("--child cannot be used with -O, --reload or --shard-key.");
+                    return;
+                }
 
-                        if (list.size() == blockSize) {
-                            //pass the list to Executor to process
-                            ImportTask task = new ImportTask(p, table, fields, list);
-                            executor.execute(task);
-                            list = new LinkedList<JsonNode>();
-                        }
-                        node = rd.read();
+                //the child rows are inserted as they are, even with --upsert
+                ImportSink childSink;
+                if (dryRun) {
+                    DiscardingSink discardingSink = new DiscardingSink();
+                    discardingSink.setMetrics(metrics);
+                    childSink = discardingSink;
+                } else {
+                    JsonArrayImporter childImporter = new JsonArrayImporter(p, batchSize, multiRowValues);
+                    childImporter.setMetrics(metrics);
+                    childSink = childImporter;
+                }
+                //the child tables share -N writers, and wait once -M of their batches of -B rows are in flight
+                childTableSink = new ChildTableSink(sink, childSink, childTables, blockSize, threadCount, maxBlocks);
+                if (!dryRun) {
+                    try {
+                        childTableSink.verify(p);
+                    } catch (SQLException e) {
+                        System.err.println("An error occurred when verifying the child tables: " + e.getMessage());
+                        return;
+                    } catch (ClassNotFoundException e) {
+                        System.err.println("An error occurred when connecting to database: " + e.getMessage());
+                        return;
                     }
+                }
+                sink = childTableSink;
+            }
+            String dedupeKey = cmd.getOptionValue(ImportArgument.DEDUPE_KEY.getOpt());
+            DedupingSink dedupingSink = null;
+            if (dedupeKey != null) {
+                if (!imported.contains(dedupeKey.trim().toLowerCase())) {
+                    System.err.println("The dedupe key must be one of the imported fields: " + dedupeKey);
+                    return;
+                }
+                if (bulkDirectory != null) {
+                    System.err.println("Duplicates cannot be dropped from bulk-load files.");
+                    return;
+                }
+                boolean seed = cmd.hasOption(ImportArgument.DEDUPE_SEED.getOpt());
+                if (seed && dryRun) {
+                    System.err.println("The keys cannot be read from the table in a dry run.");
+                    return;
+                }
+                dedupingSink = new DedupingSink(sink, dedupeKey, seed ? p : null);
+                sink = dedupingSink;
+            }
+            for (String f: jsonFiles) {
+                try {
+                    metrics.addInputFile(new File(f).length(), CompressedInput.isCompressed(f));
+                } catch (IOException e) {
+                    //the error is reported when the file is imported
+                    metrics.addInputFile(0, true);
+                }
+            }
 
-                    if (list.size() > 0) {
-                        //pass the list to Executor to process
-                        ImportTask task = new ImportTask(p, table, fields, list);
-                        executor.execute(task);
+            long startTime = System.currentTimeMillis();
+            Logger log = Logger.getLogger(ImportTask.class.getName());
+            log.info(String.format("Started import of %d files.", jsonFiles.size()));
+            metrics.register();
+            metrics.startProgress(1000L * parseIntDef(cmd.getOptionValue(ImportArgument.PROGRESS.getOpt()), 10));
+
+            //with virtual threads, the connection pool alone limits the blocks talking to the database
+            ExecutorService executor = ImportExecutors.newImportExecutor(threadCount,
+                    cmd.hasOption(ImportArgument.VIRTUAL_THREADS.getOpt()));
+            //the readers wait for a block to finish once maxBlocks are in flight, so memory use does not grow with
+            //the size or number of the files when the database is slower than the parsers
+            Executor blockExecutor = new BoundedExecutor(executor, maxBlocks);
+            final FileImporter fileImporter = new FileImporter(p, mappings, table, blockSize, parseThreads,
+                    sink, blockExecutor);
+            fileImporter.setDryRun(dryRun);
+            //the rows only reach the tables after the blocks have been imported
+            fileImporter.setCheckpointing(reloadSink == null && shardedSink == null && childTableSink == null);
+            fileImporter.setChildTables(childTables);
+            fileImporter.setArrayTables(arrayTables);
+            if (cmd.hasOption(ImportArgument.ADAPTIVE.getOpt())) {
+                String[] bounds = cmd.getOptionValue(ImportArgument.ADAPTIVE.getOpt(), "100-10000").split("-");
+                int minBlockSize = parseIntDef(bounds[0].trim(), 100);
+                int maxBlockSize = bounds.length > 1 ? parseIntDef(bounds[1].trim(), 10000) : 10000;
+                int maxLatency = parseIntDef(cmd.getOptionValue(ImportArgument.MAX_LATENCY.getOpt()), 5000);
+                fileImporter.setAdaptive(new AdaptiveController(blockSize, minBlockSize, maxBlockSize, threadCount,
+                        maxLatency, ADAPTIVE_WINDOW));
+            }
+            fileImporter.setLines(cmd.hasOption(ImportArgument.LINES.getOpt()));
+            fileImporter.setResume(cmd.hasOption(ImportArgument.RESUME.getOpt()));
+            fileImporter.setMetrics(metrics);
+            if (bulkDirectory != null) {
+                fileImporter.setBulkLoad(new File(bulkDirectory), bulkFormat, chunkRows, bulkInsert);
+            }
+
+            List<ImportSummary> summaries = new ArrayList<ImportSummary>();
+            try {
+                if (fileThreads <= 1) {
+                    for (String f: jsonFiles) {
+                        summaries.add(fileImporter.importFile(f));
+                    }
+                } else {
+                    //the files are read at the same time, their blocks share the import tasks executor
+                    ExecutorService fileExecutor = Executors.newFixedThreadPool(fileThreads);
+                    List<Future<ImportSummary>> futures = new ArrayList<Future<ImportSummary>>();
+                    try {
+                        for (final String f: jsonFiles) {
+                            futures.add(fileExecutor.submit(new Callable<ImportSummary>() {
+                                @Override
+                                public ImportSummary call() {
+                                    return fileImporter.importFile(f);
+                                }
+                            }));
+                        }
+                        for (Future<ImportSummary> future: futures) {
+                            summaries.add(future.get());
+                        }
+                    } finally {
+                        fileExecutor.shutdownNow();
                     }
-                } catch (SQLException e) {
-                    //something went wrong when verifying table
-                    System.err.println("An error occurred when importing to database: "+e.getMessage());
-                } catch (ClassNotFoundException e) {
-                    System.err.println("An error occurred when connecting to database: " + e.getMessage());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("An error occurred when importing the json import files: "
+                        + e.getCause().getMessage());
             } finally {
-                rd.close();
-                executor.shutdown();
+                try {
+                    fileImporter.close();
+                } finally {
+                    executor.shutdown();
+                }
             }
 
             try {
                 //wait for all the tasks to finish
                 while (true) {
                     if (executor.awaitTermination(10, TimeUnit.SECONDS)) {
-                        log.info(String.format("Finished import in %f sec.",
-                                (System.currentTimeMillis() - startTime) / 1000f));
+                        if (shardedSink != null) {
+                            shardedSink.finish();
+                        }
+                        if (childTableSink != null) {
+                            childTableSink.finish();
+                        }
+                        if (reloadSink != null) {
+                            //the tables are only loaded if every file could be read
+                            boolean filesRead = true;
+                            for (ImportSummary summary: summaries) {
+                                filesRead &= summary.getError() == null;
+                            }
+                            reloadSink.finish(filesRead);
+                        }
+                        fileImporter.saveCheckpoints();
+                        for (ImportSummary summary: summaries) {
+                            log.info(summary.toString());
+                        }
+                        log.info(String.format("Finished import in %f sec. %s",
+                                (System.currentTimeMillis() - startTime) / 1000f, ImportSummary.getTotal(summaries)));
+                        if (shardedSink != null) {
+                            for (String line: shardedSink.getShardSummaries()) {
+                                log.info(line);
+                            }
+                            if (shardedSink.getFailedCount() > 0) {
+                                log.warning(String.format("%d rows failed to be written to their shard.",
+                                        shardedSink.getFailedCount()));
+                            }
+                        }
+                        if (childTableSink != null) {
+                            for (String line: childTableSink.getChildSummaries()) {
+                                log.info(line);
+                            }
+                            if (childTableSink.getFailedCount() > 0) {
+                                log.warning(String.format("%d rows failed to be written to their child table.",
+                                        childTableSink.getFailedCount()));
+                            }
+                        }
+                        if (dedupingSink != null) {
+                            log.info(String.format("Dropped %d duplicates of %s, %s.",
+                                    dedupingSink.getDuplicateCount(), dedupeKey, dedupingSink));
+                        }
+                        if (dryRun) {
+                            float seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000f;
+                            log.info(String.format("Dry run: %.0f rows/s, %.1f MB/s.",
+                                    metrics.getObjectsParsed() / seconds,
+                                    metrics.getBytesRead() / seconds / (1024 * 1024)));
+                            log.info("Parse per block: " + metrics.getParseLatency());
+                            log.info("Bind per block: " + metrics.getBindLatency());
+                            break;
+                        }
+                        log.info(pool.toString());
+                        log.info("Parse per block: " + metrics.getParseLatency());
+                        log.info("Bind per batch: " + metrics.getBindLatency());
+                        log.info("Execute per batch: " + metrics.getExecuteLatency());
+                        log.info("Queued to imported per block: " + metrics.getBlockLatency());
                         break;
                     }
                 }
             } catch (InterruptedException e) {
                 ;
+            } finally {
+                metrics.stop();
+                ConnectionPool.closeAll();
             }
         } catch (ParseException e) {
             System.err.println(e.getMessage());
-        } catch (JsonParseException e) {
-            System.err.println("An error occurred when parsing the json import file: " + e.getMessage());
         } catch (IOException e) {
-            System.err.println("An error occurred when reading the json import file: " + e.getMessage());
+            System.err.println("An error occurred when writing the bulk-load files: " + e.getMessage());
         }
     }
 
@@ -243,7 +775,8 @@ public class JsonImport {
         o = OptionBuilder.withArgName("fieldNames")
                 .hasArg()
                 .withDescription("comma separated list of column names to import. "
-                + "Values are imported from json objects' matching field names.")
+                + "Values are imported from json objects' matching field names, "
+                + "or from the path after the column name, e.g. Name=realm.name, Item=item[0] or Item=/item/0.")
                 .isRequired()
                 .create(ImportArgument.FIELD_NAMES.getOpt());
         options.addOption(o);
@@ -282,7 +815,8 @@ public class JsonImport {
 
         o = OptionBuilder.withArgName("fileName")
                 .hasArg()
-                .withDescription("file path of the json import file.")
+                .withDescription("file path of the json import file, a directory of json import files, or a file name "
+                + "pattern, e.g. auctions-*.json. Files can be compressed with gzip.")
                 .isRequired()
                 .create(ImportArgument.FILE_NAME.getOpt());
         options.addOption(o);
@@ -305,12 +839,182 @@ public class JsonImport {
                 .create(ImportArgument.BLOCK_SIZE.getOpt());
         options.addOption(o);
 
+        o = OptionBuilder.withArgName("batchSize")
+                .hasArg()
+                .withDescription("number of json objects to send to the database per round trip. "
+                + "If empty, it defaults to 1, i.e. each object is inserted on its own.")
+                .create(ImportArgument.BATCH_SIZE.getOpt());
+        options.addOption(o);
+
         o = OptionBuilder.withArgName("threadCount")
                 .hasArg()
                 .withDescription("number of threads to use. If empty, it defaults to number of processors available.")
                 .create(ImportArgument.THREAD_COUNT.getOpt());
         options.addOption(o);
 
+        o = OptionBuilder.withArgName("fileThreads")
+                .hasArg()
+                .withDescription("number of files to read at the same time when importing several files. "
+                + "If empty, it defaults to number of processors available.")
+                .create(ImportArgument.FILE_THREADS.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withArgName("maxBlocks")
+                .hasArg()
+                .withDescription("maximum number of blocks read from the file that are waiting for or being imported. "
+                + "If empty, it defaults to twice the number of threads.")
+                .create(ImportArgument.MAX_BLOCKS.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withArgName("parseThreads")
+                .hasArg()
+                .withDescription("number of threads to parse the json file with. If more than 1, the array is split "
+                + "into ranges that are parsed in parallel. The file must be UTF-8. If empty, it defaults to 1.")
+                .create(ImportArgument.PARSE_THREADS.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withDescription("read the json import files as newline delimited json, one object per line. "
+                + "Files named .ndjson or .jsonl are always read this way.")
+                .create(ImportArgument.LINES.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.RESUME.getOpt())
+                .withDescription("continue each file from the checkpoint saved by an import that failed or was killed, "
+                + "instead of from its beginning. The file must be UTF-8.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.PROGRESS.getOpt())
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("number of seconds between two progress lines, 0 turns them off. If empty, it "
+                + "defaults to 10.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.ADAPTIVE.getOpt())
+                .withArgName("minBlockSize-maxBlockSize")
+                .hasOptionalArg()
+                .withDescription("tune the block size within these bounds, and the number of threads importing up to "
+                + "-N, while the rows are inserted. If empty, the bounds default to 100-10000.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.MAX_LATENCY.getOpt())
+                .withArgName("milliseconds")
+                .hasArg()
+                .withDescription("longest time a block should take to insert with --adaptive. If empty, it defaults "
+                + "to 5000.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.VIRTUAL_THREADS.getOpt())
+                .withDescription("run each block on a virtual thread of its own, -N then only limits the number of "
+                + "connections. Needs Java 24, otherwise -N threads are used.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.DEDUPE_KEY.getOpt())
+                .withArgName("field")
+                .hasArg()
+                .withDescription("drop the rows whose whole number key in this field has already been imported. The "
+                + "field must be one of -f.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.DEDUPE_SEED.getOpt())
+                .withDescription("with --dedupe-key, first read the keys already in the table, so they are not "
+                + "imported again.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.UPSERT.getOpt())
+                .withArgName("keyFields")
+                .hasArg()
+                .withDescription("update the rows whose comma separated key fields match a row of the table, and "
+                + "insert the others. The fields must be among -f.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.RELOAD.getOpt())
+                .withDescription("reload empty tables with minimal logging: disable their indexes, insert into a "
+                + "staging table per thread, combine them into the table at the end, then rebuild the indexes.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.SHARD_KEY.getOpt())
+                .withArgName("field[:bounds]")
+                .hasArg()
+                .withDescription("route each row to a shard by the hash of this field, or by ranges if the upper "
+                + "bounds of all the shards but the last are given, e.g. auc:1000,2000.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.SHARD_SERVERS.getOpt())
+                .withArgName("servers")
+                .hasArg()
+                .withDescription("comma separated list of servers, with an optional port, to shard the rows across, "
+                + "e.g. db1,db2:1434.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.SHARD_TABLES.getOpt())
+                .withArgName("tables")
+                .hasArg()
+                .withDescription("comma separated list of tables to shard the rows across.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.ARRAY.getOpt())
+                .withArgName("path=table[(columns)]")
+                .hasArg()
+                .withDescription("import the array at this path into this table, with the columns of -f or those in "
+                + "brackets, e.g. horde.auctions=auctions_horde. Can be repeated to import several arrays in one pass.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.CHILD.getOpt())
+                .withArgName("table(key,columns)[=path]")
+                .hasArg()
+                .withDescription("import the elements of a nested array into a child table, one row each, after the "
+                + "key of their object, e.g. auction_items(auc,item). The key must be one of -f. Can be repeated.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withLongOpt(ImportArgument.DRY_RUN.getOpt())
+                .withDescription("read and bind the rows without importing them, and report the throughput. The "
+                + "database is not used.")
+                .create();
+        options.addOption(o);
+
+        o = OptionBuilder.withDescription("insert as many json objects per INSERT statement as SQL Server allows, "
+                + "up to 1000.")
+                .create(ImportArgument.MULTI_ROW_VALUES.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withArgName("directory")
+                .hasArg()
+                .withDescription("write the rows to bulk-load files in this directory instead of inserting them.")
+                .create(ImportArgument.BULK_DIRECTORY.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withArgName("format")
+                .hasArg()
+                .withDescription("format of the bulk-load files, native or csv. If empty, it defaults to native.")
+                .create(ImportArgument.BULK_FORMAT.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withArgName("chunkRows")
+                .hasArg()
+                .withDescription("number of rows per bulk-load file. If empty, it defaults to 1000000.")
+                .create(ImportArgument.CHUNK_ROWS.getOpt());
+        options.addOption(o);
+
+        o = OptionBuilder.withDescription("load each bulk-load file with BULK INSERT while the next one is written. "
+                + "The directory must be readable by the SQL server.")
+                .create(ImportArgument.BULK_INSERT.getOpt());
+        options.addOption(o);
+
         return options;
     }
 }
\ No newline at end of file
@@ -0,0 +1,505 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * The projected field values of one JSON object in the import array. Values are stored by position, in the same
+ * order as the fields of the {@code FieldProjection} that created the row, so the importer does not need to look up
+ * field names.
+ * <p>
+ * The values are kept encoded in a single byte array rather than as one node per value, since rows are held in memory
+ * from the time they are read until their block has been imported. Numbers are stored as variable length integers or
+ * as the bits of the double, and text as UTF-8, each after a one byte tag. The array starts with the offset of each
+ * value, 1, 2 or 4 bytes wide depending on the length of the array, so any value can be read without reading the ones
+ * before it. Objects and arrays imported whole are kept as they were read.
+ * <p>
+ * {@code get} decodes the value into a new node, so the same node is not returned twice. The typed accessors, e.g.
+ * {@code getLong} and {@code asText}, read numbers and text straight from the array without creating a node, which is
+ * how the binders and the key lookups read them.
+ * <p>
+ * A row can also represent an element of the array that is not an object, which is skipped by the import.
+ * <p>
+ * When elements of nested arrays are imported into child tables, the row also holds the rows of its child tables, see
+ * {@code ChildTable}.
+ */
+final class JsonRow {
+    //the tags of the encoded values
+    private static final byte MISSING = 0;
+    private static final byte NULL = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte TEXT = 7;
+    private static final byte BIG_INTEGER = 8;
+    private static final byte BIG_DECIMAL = 9;
+    private static final byte TREE = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+
+    //the rows are encoded in a buffer of the reading thread, then copied to an array of the exact size
+    private static final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private final byte[] data;
+    //the objects and arrays of the row, null if there are none
+    private final JsonNode[] trees;
+    private final int size;
+    private final JsonNode nonObject;
+    private final List<List<JsonRow>> children;
+
+    /**
+     * Creates a row of projected values. The values are encoded, so the array can be reused once the row is created.
+     * @param values the field values. A null element means the field does not exist in the object.
+     */
+    JsonRow(JsonNode[] values) {
+        this(values, null);
+    }
+
+    /**
+     * Creates a row of projected values, with the rows of its child tables. The list does NOT get defensive copy.
+     * @param values the field values. A null element means the field does not exist in the object.
+     * @param children the rows of each child table, in the same order as the child tables of the projection.
+     */
+    JsonRow(JsonNode[] values, List<List<JsonRow>> children) {
+        Encoder encoder = encoders.get();
+        encoder.reset();
+        for (JsonNode n: values) {
+            encoder.writeValue(n);
+        }
+        this.data = encoder.toByteArray(values.length);
+        this.trees = encoder.getTrees();
+        this.size = values.length;
+        this.nonObject = null;
+        this.children = children;
+    }
+
+    private JsonRow(JsonNode nonObject) {
+        this.data = null;
+        this.trees = null;
+        this.size = 0;
+        this.nonObject = nonObject;
+        this.children = null;
+    }
+
+    /**
+     * Creates a row for an element of the array that is not an object.
+     * @param n the element that is not an object.
+     * @return a row where {@code isObject} is false.
+     */
+    static JsonRow nonObject(JsonNode n) {
+        return new JsonRow(n);
+    }
+
+    /**
+     * Returns true if the row was read from a JSON object. Rows that are not objects do not have any field values.
+     * @return true if the row was read from a JSON object.
+     */
+    boolean isObject() {
+        return data != null;
+    }
+
+    /**
+     * Returns the value of the field at {@code index}, or null if the object does not contain the field.
+     * @param index the position of the field in the {@code FieldProjection}.
+     * @return the value of the field, or null if the field does not exist.
+     */
+    JsonNode get(int index) {
+        return decoder(index).readValue();
+    }
+
+    /**
+     * Returns true if the object does not contain the field at {@code index}, or its value is a JSON null.
+     * @param index the position of the field in the {@code FieldProjection}.
+     * @return true if the value is missing or null.
+     */
+    boolean isNull(int index) {
+        byte tag = data[getOffset(index)];
+        return tag == MISSING || tag == NULL;
+    }
+
+    /**
+     * Returns true if the value of the field at {@code index} is a whole number that fits in a long.
+     * @param index the position of the field in the {@code FieldProjection}.
+     * @return true if {@code getLong} reads the value without creating a node.
+     */
+    boolean isIntegral(int index) {
+        byte tag = data[getOffset(index)];
+        return tag == INT || tag == LONG;
+    }
+
+    /**
+     * Returns true if the value of the field at {@code index} is a string.
+     * @param index the position of the field in the {@code FieldProjection}.
+     * @return true if the value is text.
+     */
+    boolean isTextual(int index) {
+        return data[getOffset(index)] == TEXT;
+    }
+
+    /**
+     * Returns the value of the field at {@code index} as a long, the same as {@code get(index).longValue()}.
+     * @param index the position of the field in the {@code FieldProjection}. The value must not be missing.
+     * @return the value as a long.
+     */
+    long getLong(int index) {
+        Decoder decoder = decoder(index);
+        byte tag = decoder.peekTag();
+        if (tag == INT || tag == LONG) {
+            decoder.position++;
+            return decoder.readSigned();
+        }
+        return decoder.readValue().longValue();
+    }
+
+    /**
+     * Returns the value of the field at {@code index} as a double, the same as {@code get(index).doubleValue()}.
+     * @param index the position of the field in the {@code FieldProjection}. The value must not be missing.
+     * @return the value as a double.
+     */
+    double getDouble(int index) {
+        Decoder decoder = decoder(index);
+        byte tag = decoder.peekTag();
+        if (tag == INT || tag == LONG) {
+            decoder.position++;
+            return decoder.readSigned();
+        } else if (tag == DOUBLE) {
+            decoder.position++;
+            return decoder.readDouble();
+        }
+        return decoder.readValue().doubleValue();
+    }
+
+    /**
+     * Returns the value of the field at {@code index} as text, the same as {@code get(index).asText()}.
+     * @param index the position of the field in the {@code FieldProjection}. The value must not be missing.
+     * @return the value as text.
+     */
+    String asText(int index) {
+        Decoder decoder = decoder(index);
+        byte tag = decoder.peekTag();
+        if (tag == TEXT) {
+            decoder.position++;
+            return decoder.readText();
+        } else if (tag == INT || tag == LONG) {
+            decoder.position++;
+            return String.valueOf(decoder.readSigned());
+        }
+        return decoder.readValue().asText();
+    }
+
+    /**
+     * Returns the rows of child table {@code child} read from this object.
+     * @param child the position of the child table in the projection.
+     * @return the rows of the child table, or null if the row has no child tables.
+     */
+    List<JsonRow> getChildren(int child) {
+        return (children == null) ? null : children.get(child);
+    }
+
+    /**
+     * Returns the number of fields in the row.
+     * @return the number of fields in the row, or 0 if the row is not an object.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the values of the row are encoded in, with their offsets, not counting the objects
+     * and arrays kept as they were read.
+     * @return the length of the encoded values, or 0 if the row is not an object.
+     */
+    int getEncodedSize() {
+        return (data == null) ? 0 : data.length;
+    }
+
+    /**
+     * Returns the JSON text of the element if the row is not an object.
+     */
+    @Override
+    public String toString() {
+        if (nonObject != null) {
+            return nonObject.toString();
+        }
+        JsonNode[] values = new JsonNode[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(i);
+        }
+        return Arrays.toString(values);
+    }
+
+    /**
+     * Returns the position of the value at {@code index} in the array.
+     */
+    private int getOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        int width = getOffsetWidth(data.length);
+        int offset = 0;
+        for (int i = index * width; i < (index + 1) * width; i++) {
+            offset = (offset << 8) | (data[i] & 0xFF);
+        }
+        return offset;
+    }
+
+    private Decoder decoder(int index) {
+        return new Decoder(data, trees, getOffset(index));
+    }
+
+    /**
+     * Returns the number of bytes of each offset in an array of {@code length} bytes, i.e. the fewest bytes that can
+     * hold any position in the array.
+     */
+    private static int getOffsetWidth(int length) {
+        return (length <= 0x100) ? 1 : (length <= 0x10000) ? 2 : 4;
+    }
+
+    /**
+     * Encodes the values of a row. Each thread reuses its own encoder, so the buffer only grows until it fits the
+     * largest rows.
+     */
+    private static final class Encoder {
+        //a buffer that grew for an unusually large row is not kept
+        private static final int MAX_KEPT_SIZE = 64 * 1024;
+
+        private byte[] buffer = new byte[1024];
+        private int length;
+        //where each value starts in the buffer
+        private int[] offsets = new int[16];
+        private int valueCount;
+        private JsonNode[] trees = new JsonNode[4];
+        private int treeCount;
+
+        void reset() {
+            if (buffer.length > MAX_KEPT_SIZE) {
+                buffer = new byte[1024];
+            }
+            length = 0;
+            valueCount = 0;
+            Arrays.fill(trees, 0, treeCount, null);
+            treeCount = 0;
+        }
+
+        void writeValue(JsonNode n) {
+            if (valueCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, valueCount * 2);
+            }
+            offsets[valueCount++] = length;
+            if (n == null) {
+                writeByte(MISSING);
+            } else if (n.isNull()) {
+                writeByte(NULL);
+            } else if (n.isBoolean()) {
+                writeByte(n.booleanValue() ? TRUE : FALSE);
+            } else if (n.isInt()) {
+                writeByte(INT);
+                writeSigned(n.intValue());
+            } else if (n.isLong()) {
+                writeByte(LONG);
+                writeSigned(n.longValue());
+            } else if (n.isDouble()) {
+                writeByte(DOUBLE);
+                long bits = Double.doubleToRawLongBits(n.doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    writeByte((int) (bits >>> shift));
+                }
+            } else if (n.isTextual()) {
+                writeByte(TEXT);
+                writeText(n.textValue());
+            } else if (n.isBigInteger()) {
+                writeByte(BIG_INTEGER);
+                writeBytes(n.bigIntegerValue().toByteArray());
+            } else if (n.isBigDecimal()) {
+                BigDecimal d = n.decimalValue();
+                writeByte(BIG_DECIMAL);
+                writeSigned(d.scale());
+                writeBytes(d.unscaledValue().toByteArray());
+            } else {
+                //objects, arrays and other nodes are not encoded
+                writeByte(TREE);
+                writeUnsigned(treeCount);
+                if (treeCount == trees.length) {
+                    trees = Arrays.copyOf(trees, treeCount * 2);
+                }
+                trees[treeCount++] = n;
+            }
+        }
+
+        /**
+         * Returns the offsets of the values, followed by the values, in an array of the exact size.
+         */
+        byte[] toByteArray(int size) {
+            //the offsets are as wide as the length of the whole array needs
+            int width = 1;
+            while (getOffsetWidth(size * width + length) > width) {
+                width *= 2;
+            }
+            int header = size * width;
+            byte[] data = new byte[header + length];
+            for (int i = 0; i < size; i++) {
+                int offset = header + offsets[i];
+                for (int b = 0; b < width; b++) {
+                    data[i * width + b] = (byte) (offset >>> (8 * (width - 1 - b)));
+                }
+            }
+            System.arraycopy(buffer, 0, data, header, length);
+            return data;
+        }
+
+        JsonNode[] getTrees() {
+            return (treeCount == 0) ? null : Arrays.copyOf(trees, treeCount);
+        }
+
+        private void writeText(String s) {
+            int n = s.length();
+            for (int i = 0; i < n; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    writeBytes(s.getBytes(UTF_8));
+                    return;
+                }
+            }
+            //ASCII is the same in UTF-8, one byte per char
+            writeUnsigned(n);
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                buffer[length++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeUnsigned(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeSigned(long value) {
+            //zigzag, so small negative numbers are short as well
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        private void writeUnsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) b;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads the encoded value of a row that starts at {@code position}.
+     */
+    private static final class Decoder {
+        private final byte[] data;
+        private final JsonNode[] trees;
+        int position;
+
+        Decoder(byte[] data, JsonNode[] trees, int position) {
+            this.data = data;
+            this.trees = trees;
+            this.position = position;
+        }
+
+        byte peekTag() {
+            return data[position];
+        }
+
+        JsonNode readValue() {
+            byte tag = data[position++];
+            switch (tag) {
+                case MISSING:
+                    return null;
+                case NULL:
+                    return nodeFactory.nullNode();
+                case TRUE:
+                    return nodeFactory.booleanNode(true);
+                case FALSE:
+                    return nodeFactory.booleanNode(false);
+                case INT:
+                    return IntNode.valueOf((int) readSigned());
+                case LONG:
+                    return LongNode.valueOf(readSigned());
+                case DOUBLE:
+                    return DoubleNode.valueOf(readDouble());
+                case TEXT:
+                    return nodeFactory.textNode(readText());
+                case BIG_INTEGER:
+                    return BigIntegerNode.valueOf(new BigInteger(readBytes()));
+                case BIG_DECIMAL:
+                    int scale = (int) readSigned();
+                    return DecimalNode.valueOf(new BigDecimal(new BigInteger(readBytes()), scale));
+                case TREE:
+                    return trees[(int) readUnsigned()];
+                default:
+                    throw new IllegalStateException("Unknown value tag " + tag + " at " + (position - 1));
+            }
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (data[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readText() {
+            int length = (int) readUnsigned();
+            String text = new String(data, position, length, UTF_8);
+            position += length;
+            return text;
+        }
+
+        private byte[] readBytes() {
+            int length = (int) readUnsigned();
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        long readSigned() {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readUnsigned() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Counts durations in buckets that grow exponentially, with 4 buckets per power of two microseconds, so percentiles
+ * are reported to within 25% of the real value whatever the range of the durations. Recording is lock-free and only
+ * takes a few atomic operations, so it can be done by every import thread for every batch.
+ * <p>
+ * This class is thread safe.
+ */
+final class LatencyHistogram {
+    //durations up to 2^40 microseconds, i.e. more than 12 days
+    private static final int BUCKET_COUNT = 4 * 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one duration.
+     * @param nanos the duration in nanoseconds.
+     */
+    void record(long nanos) {
+        long n = Math.max(0, nanos);
+        buckets.incrementAndGet(getBucket(n / 1000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(n);
+        long max = maxNanos.get();
+        while (n > max && !maxNanos.compareAndSet(max, n)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the bucket of a duration: durations under 4 microseconds have a bucket each, then each power of two is
+     * split into 4 buckets.
+     */
+    static int getBucket(long micros) {
+        if (micros < 4) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 2)) & 3;
+        return Math.min(BUCKET_COUNT - 1, (exponent - 1) * 4 + sub);
+    }
+
+    /**
+     * Returns the largest duration in microseconds that falls in {@code bucket}.
+     */
+    static long getBucketLimit(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exponent = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return ((4L + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean duration in milliseconds, or 0 if nothing has been recorded.
+     * @return the mean duration.
+     */
+    double getMeanMillis() {
+        long n = count.get();
+        return (n == 0) ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns the duration in milliseconds that {@code percentile} percent of the durations are shorter than, rounded
+     * up to the limit of its bucket.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the duration, or 0 if nothing has been recorded.
+     */
+    double getPercentileMillis(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= rank) {
+                return Math.min(getBucketLimit(i) / 1e3, getMaxMillis());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.3f ms, p50=%.3f ms, p95=%.3f ms, p99=%.3f ms, max=%.3f ms", getCount(),
+                getMeanMillis(), getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99),
+                getMaxMillis());
+    }
+}
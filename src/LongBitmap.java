@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A set of longs stored the way Roaring bitmaps store them. The keys are split by their high 48 bits into containers
+ * of up to 65536 keys, and each container keeps the low 16 bits of its keys either in a sorted array, 2 bytes per key,
+ * or once it holds more than 4096 keys, in a bitmap of 8 KB, 1 bit per possible key. Keys that are close to each
+ * other, e.g. the ids of a table, then take between 1 bit and 2 bytes each, so 100 million of them fit in a few
+ * hundred MB at most, where a {@code HashSet<Long>} would take several GB.
+ * <p>
+ * The high bits of the containers are kept sorted, and the last container used is looked up first, so adding keys
+ * in roughly increasing order does not search at all.
+ * <p>
+ * This class is NOT thread safe.
+ */
+final class LongBitmap {
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    /**
+     * The low 16 bits of the keys that share the same high 48 bits.
+     */
+    private static final class Container {
+        //sorted low bits while the container is small, null once it is a bitmap
+        char[] values = new char[4];
+        long[] bits;
+        int size;
+
+        boolean add(char low) {
+            if (bits != null) {
+                long word = bits[low >>> 6];
+                long mask = 1L << low;
+                if ((word & mask) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] = word | mask;
+                size++;
+                return true;
+            }
+
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i >= 0) {
+                return false;
+            }
+            if (size == ARRAY_MAX_SIZE) {
+                toBitmap();
+                return add(low);
+            }
+            i = -i - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, size * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = low;
+            size++;
+            return true;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < size; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        long getMemoryBytes() {
+            return 32 + (bits != null ? bits.length * 8L : values.length * 2L);
+        }
+    }
+
+    private long[] highs = new long[4];
+    private Container[] containers = new Container[4];
+    private int containerCount;
+    private int lastIndex = -1;
+    private long size;
+
+    /**
+     * Adds {@code key} to the set.
+     * @param key the key.
+     * @return true if the key was not in the set yet.
+     */
+    boolean add(long key) {
+        long high = key >>> 16;
+        int i = indexOf(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high);
+        }
+        lastIndex = i;
+        if (containers[i].add((char) key)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if {@code key} is in the set.
+     * @param key the key.
+     * @return true if the key has been added.
+     */
+    boolean contains(long key) {
+        int i = indexOf(key >>> 16);
+        return i >= 0 && containers[i].contains((char) key);
+    }
+
+    /**
+     * Returns the number of keys in the set.
+     * @return the number of keys.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the set.
+     * @return the size of the set in bytes.
+     */
+    long getMemoryBytes() {
+        long bytes = highs.length * 8L + containers.length * 8L;
+        for (int i = 0; i < containerCount; i++) {
+            bytes += containers[i].getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the index of the container of {@code high}, or {@code -(insertion point) - 1} if there is none.
+     */
+    private int indexOf(long high) {
+        if (lastIndex >= 0 && highs[lastIndex] == high) {
+            return lastIndex;
+        }
+        //keys added in increasing order go after the last container
+        if (containerCount > 0 && highs[containerCount - 1] < high) {
+            return -containerCount - 1;
+        }
+        return Arrays.binarySearch(highs, 0, containerCount, high);
+    }
+
+    private void insertContainer(int i, long high) {
+        if (containerCount == highs.length) {
+            highs = Arrays.copyOf(highs, containerCount * 2);
+            containers = Arrays.copyOf(containers, containerCount * 2);
+        }
+        System.arraycopy(highs, i, highs, i + 1, containerCount - i);
+        System.arraycopy(containers, i, containers, i + 1, containerCount - i);
+        highs[i] = high;
+        containers[i] = new Container();
+        containerCount++;
+    }
+}
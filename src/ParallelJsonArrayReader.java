@@ -0,0 +1,473 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Reads the first array of a JSON file using several threads. The file is memory mapped and split into byte ranges
+ * at the commas between the elements of the array, then each range is parsed by its own thread.
+ * <p>
+ * The ranges are found by a structural scan that only keeps track of strings, escapes and nesting, which is much
+ * faster than parsing. The elements are returned the same way as {@code JsonArrayReader}, i.e. only the first array
+ * in the file is read, and elements that are not objects are skipped. The order in which blocks are passed on is not
+ * defined.
+ * <p>
+ * A reader created with {@code forLines} reads a newline delimited JSON file instead, with one value per line. The
+ * ranges are then cut at the first line break after each {@code rangeSize} bytes, without scanning the rest of the
+ * file.
+ * <p>
+ * The ranges follow each other without gaps, and so do the blocks read from a range, see {@code RowBlock}. A reader
+ * can also resume from the end of a block recorded by a checkpoint, see {@code resumeAt}.
+ * <p>
+ * The file must be encoded in UTF-8, and not be compressed.
+ */
+class ParallelJsonArrayReader implements BlockReader {
+    //default number of bytes of the array parsed by one thread at a time
+    static final long DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+
+    //size of the windows the file is mapped in while scanning for ranges
+    private static final long SCAN_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    //number of bytes read at a time while looking for a line break
+    private static final int LINE_SEARCH_SIZE = 64 * 1024;
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    private final String fileName;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int threadCount;
+    private final long rangeSize;
+    private final boolean lines;
+
+    private boolean arrayFound = false;
+    private long arrayStart = -1;
+    private String arrayName = "";
+    private long resumeOffset = -1;
+    private NavigableMap<Long, Long> importedRanges;
+
+    /**
+     * Creates a new {@code ParallelJsonArrayReader} that reads the specified {@code fileName}.
+     * @param fileName The JSON file containing array
+     * @param threadCount number of threads used to parse the array.
+     * @throws IOException
+     */
+    ParallelJsonArrayReader(String fileName, int threadCount) throws IOException {
+        this(fileName, threadCount, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ParallelJsonArrayReader} that reads the specified {@code fileName}.
+     * @param fileName The JSON file containing array
+     * @param threadCount number of threads used to parse the array.
+     * @param rangeSize approximate number of bytes parsed by a thread at a time. A range always contains whole
+     *                  elements, so it can be bigger.
+     * @throws IOException
+     */
+    ParallelJsonArrayReader(String fileName, int threadCount, long rangeSize) throws IOException {
+        this(fileName, threadCount, rangeSize, false);
+    }
+
+    private ParallelJsonArrayReader(String fileName, int threadCount, long rangeSize, boolean lines)
+            throws IOException {
+        this.lines = lines;
+        this.fileName = fileName;
+        this.file = new RandomAccessFile(fileName, "r");
+        this.channel = file.getChannel();
+        this.threadCount = Math.max(1, threadCount);
+        this.rangeSize = Math.max(1, rangeSize);
+    }
+
+    /**
+     * Creates a new {@code ParallelJsonArrayReader} that reads a newline delimited JSON file, with one value per
+     * line. The elements are returned as if they were in an array named after the file.
+     * @param fileName The newline delimited JSON file
+     * @param threadCount number of threads used to parse the file.
+     * @return the reader.
+     * @throws IOException
+     */
+    static ParallelJsonArrayReader forLines(String fileName, int threadCount) throws IOException {
+        return forLines(fileName, threadCount, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ParallelJsonArrayReader} that reads a newline delimited JSON file, with one value per
+     * line. The elements are returned as if they were in an array named after the file.
+     * @param fileName The newline delimited JSON file
+     * @param threadCount number of threads used to parse the file.
+     * @param rangeSize approximate number of bytes parsed by a thread at a time. A range always contains whole
+     *                  lines, so it can be bigger.
+     * @return the reader.
+     * @throws IOException
+     */
+    static ParallelJsonArrayReader forLines(String fileName, int threadCount, long rangeSize) throws IOException {
+        return new ParallelJsonArrayReader(fileName, threadCount, rangeSize, true);
+    }
+
+    /**
+     * Reads the array from {@code offset} instead of from its beginning. The beginning of the file is not scanned.
+     * Must be called before {@code moveToArray}.
+     * @param offset the position in the file between two elements of the array, or two lines, e.g. the end of a
+     *               block recorded by a checkpoint.
+     * @param arrayName the name of the array, as found when the file was first read.
+     */
+    void resumeAt(long offset, String arrayName) {
+        this.resumeOffset = offset;
+        this.arrayName = arrayName;
+    }
+
+    /**
+     * Skips the rows in the ranges of the file that have already been imported, e.g. the blocks a checkpoint recorded
+     * after the position it resumes from, see {@code BlockBuilder.setImportedRanges}. Must be called before
+     * {@code readBlocks}.
+     * @param ranges the end of each range, by the position it starts at.
+     */
+    void setImportedRanges(NavigableMap<Long, Long> ranges) {
+        this.importedRanges = ranges;
+    }
+
+    /**
+     * Locates the beginning of the first array in the JSON file. This is done by the first call to
+     * {@code readBlocks}, but can be called beforehand to find out the name of the array.
+     * @throws IOException
+     */
+    @Override
+    public void moveToArray() throws IOException {
+        if (arrayFound) {
+            return;
+        }
+        arrayFound = true;
+
+        if (CompressedInput.isCompressed(fileName)) {
+            throw new IOException("Compressed files cannot be read in parallel.");
+        }
+
+        if (!lines && resumeOffset < 0) {
+            //the name of the array is taken from the parser, which unescapes it properly
+            JsonArrayReader rd = new JsonArrayReader(fileName);
+            try {
+                rd.moveToArray();
+                arrayName = rd.getArrayName();
+            } finally {
+                rd.close();
+            }
+        }
+
+        byte[] head = new byte[4];
+        int headLength = channel.read(ByteBuffer.wrap(head), 0);
+        for (int i = 0; i < headLength; i++) {
+            //UTF-16 and UTF-32 text contains zero bytes, or starts with a byte order mark
+            if (head[i] == 0 || (head[i] & 0xff) == 0xfe || (head[i] & 0xff) == 0xff) {
+                throw new IOException("The JSON file must be encoded in UTF-8 to be read in parallel.");
+            }
+        }
+
+        if (resumeOffset >= 0) {
+            arrayStart = resumeOffset;
+            return;
+        }
+        if (lines) {
+            arrayName = InputFiles.getBaseName(fileName);
+            arrayStart = 0;
+            return;
+        }
+
+        //the first bracket outside of a string is the first START_ARRAY token
+        long fileSize = channel.size();
+        long pos = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        while (pos < fileSize && arrayStart < 0) {
+            long windowSize = Math.min(SCAN_WINDOW_SIZE, fileSize - pos);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = buf.get(i);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '[') {
+                    arrayStart = pos + i + 1;
+                    break;
+                }
+            }
+            pos += windowSize;
+        }
+    }
+
+    /**
+     * Reads every element of the array, and passes them to {@code listener} in blocks of {@code blockSize} rows.
+     * Returns when the whole array has been read. {@code listener} is called from several threads at the same time.
+     * <p>
+     * If no array is found, the listener is not called.
+     * @param projection the fields to keep from each object.
+     * @param blockSize number of rows per block. Each range can end with a smaller block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     */
+    @Override
+    public void readBlocks(FieldProjection projection, int blockSize, BlockListener listener) throws IOException {
+        readBlocks(projection, BlockBuilder.fixedSize(blockSize), listener);
+    }
+
+    /**
+     * Reads every element of the array, and passes them to {@code listener} in blocks of the size decided by
+     * {@code sizer}. Returns when the whole array has been read. {@code listener} and {@code sizer} are called from
+     * several threads at the same time.
+     * @param projection the fields to keep from each object.
+     * @param sizer decides the number of rows per block. Each range can end with a smaller block.
+     * @param listener receives the blocks of rows.
+     * @throws IOException
+     */
+    @Override
+    public void readBlocks(final FieldProjection projection, final BlockSizer sizer, final BlockListener listener)
+            throws IOException {
+        moveToArray();
+        if (arrayStart < 0) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            if (lines) {
+                submitLineRanges(executor, futures, projection, sizer, listener);
+                for (Future<?> future: futures) {
+                    waitFor(future);
+                }
+                return;
+            }
+
+            long fileSize = channel.size();
+            long rangeStart = arrayStart;
+            long pos = arrayStart;
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            boolean arrayEnd = false;
+
+            while (pos < fileSize && !arrayEnd) {
+                long windowSize = Math.min(SCAN_WINDOW_SIZE, fileSize - pos);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, windowSize);
+                for (int i = 0; i < windowSize; i++) {
+                    byte b = buf.get(i);
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (depth > 0) {
+                        if (b == '}' || b == ']') {
+                            depth--;
+                        }
+                    } else if (b == ',') {
+                        //the comma is between two elements of the array, it starts the next range
+                        long commaPos = pos + i;
+                        if (commaPos - rangeStart >= rangeSize) {
+                            futures.add(submitRange(executor, rangeStart, commaPos, projection, sizer, listener));
+                            rangeStart = commaPos;
+                        }
+                    } else if (b == ']' || b == '}') {
+                        //end of the array, anything after it is ignored
+                        futures.add(submitRange(executor, rangeStart, pos + i, projection, sizer, listener));
+                        arrayEnd = true;
+                        break;
+                    }
+                }
+                pos += windowSize;
+            }
+
+            if (!arrayEnd) {
+                //the array is not closed, let the parser report the error
+                futures.add(submitRange(executor, rangeStart, fileSize, projection, sizer, listener));
+            }
+
+            for (Future<?> future: futures) {
+                waitFor(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the position in the file just after the bracket that opens the array, or where the reader resumed.
+     * @return the position in the file of the first block, or -1 if no array has been found.
+     */
+    @Override
+    public long getStartOffset() {
+        return arrayStart;
+    }
+
+    /**
+     * Close file handle. Should be called in a finally block after creating a {@code ParallelJsonArrayReader} object.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Returns the name of the array found.
+     * @return the name of the array found.
+     */
+    @Override
+    public String getArrayName() {
+        return arrayName;
+    }
+
+    /**
+     * Splits a newline delimited file into ranges of whole lines. A line break is never part of a value, so each
+     * range ends at the first line break after {@code rangeSize} bytes.
+     */
+    private void submitLineRanges(ExecutorService executor, List<Future<?>> futures, FieldProjection projection,
+                                  BlockSizer sizer, BlockListener listener) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(LINE_SEARCH_SIZE);
+        long rangeStart = arrayStart;
+        while (rangeStart < fileSize) {
+            long rangeEnd = Math.min(fileSize, rangeStart + rangeSize);
+            boolean lineEnd = false;
+            while (rangeEnd < fileSize && !lineEnd) {
+                buf.clear();
+                int n = Math.max(0, channel.read(buf, rangeEnd));
+                int i = 0;
+                while (i < n && buf.get(i) != '\n') {
+                    i++;
+                }
+                lineEnd = (i < n);
+                rangeEnd = lineEnd ? rangeEnd + i + 1 : (n > 0 ? rangeEnd + n : fileSize);
+            }
+            futures.add(submitRange(executor, rangeStart, rangeEnd, projection, sizer, listener));
+            rangeStart = rangeEnd;
+        }
+    }
+
+    private Future<?> submitRange(ExecutorService executor, final long start, final long end,
+                                  final FieldProjection projection, final BlockSizer sizer,
+                                  final BlockListener listener) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                readRange(start, end, projection, sizer, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Parses the elements between {@code start} and {@code end}. The range does not include the brackets of the
+     * array, so they are added around it to let {@code JsonArrayReader} read the elements, and it can start with the
+     * comma that separates it from the previous range. A range of lines is read as a sequence of values.
+     */
+    private void readRange(long start, long end, FieldProjection projection, BlockSizer sizer, BlockListener listener)
+            throws IOException {
+        ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        JsonArrayReader rd;
+        if (lines) {
+            rd = JsonArrayReader.forLines(new ByteBufferInputStream(buf), arrayName, start);
+        } else {
+            int skip = 0;
+            while (skip < buf.limit() && Character.isWhitespace(buf.get(skip))) {
+                skip++;
+            }
+            if (skip < buf.limit() && buf.get(skip) == ',') {
+                skip++;
+            }
+            buf.position(skip);
+            InputStream in = new SequenceInputStream(new ByteArrayInputStream(ARRAY_START),
+                    new SequenceInputStream(new ByteBufferInputStream(buf), new ByteArrayInputStream(ARRAY_END)));
+            //the parser counts the added bracket, which stands in for the byte before the elements
+            rd = new JsonArrayReader(in, start + skip - 1);
+        }
+        try {
+            //the last block of the range ends where the next range starts, so the ranges are covered without gaps
+            BlockBuilder builder = new BlockBuilder(sizer, listener, start);
+            builder.setImportedRanges(importedRanges);
+            JsonRow row = rd.readRow(projection);
+            while (row != null) {
+                builder.add(row, rd.getOffset());
+                row = rd.readRow(projection);
+            }
+            builder.flush(end);
+        } finally {
+            rd.close();
+        }
+    }
+
+    /**
+     * Waits for a range to be parsed, and rethrows the exception of the parsing thread.
+     */
+    private static void waitFor(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the json file.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a {@code ByteBuffer}.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
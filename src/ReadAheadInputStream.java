@@ -0,0 +1,195 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * An {@code InputStream} that reads its content ahead on a background thread, so reading, e.g. decompressing a file,
+ * overlaps with the work of the thread consuming the stream. The content is produced in chunks by a
+ * {@code ChunkSource}, and at most a fixed number of chunks are kept ahead of the consumer.
+ * <p>
+ * Chunks are returned as futures, so a source can produce several chunks at the same time on other threads. The
+ * chunks are always read in the order the source returned them.
+ */
+class ReadAheadInputStream extends InputStream {
+    /**
+     * Produces the content of the stream. Only called by the read-ahead thread.
+     */
+    interface ChunkSource {
+        /**
+         * Returns the next chunk of the content.
+         * @return the next chunk, or null at the end of the content.
+         * @throws IOException
+         */
+        Future<byte[]> next() throws IOException;
+
+        /**
+         * Releases the resources of the source. Called by the read-ahead thread when it stops.
+         * @throws IOException
+         */
+        void close() throws IOException;
+    }
+
+    //marks the end of the content in the queue
+    private static final Future<byte[]> END = completed(null);
+
+    private final BlockingQueue<Future<byte[]>> chunks;
+    private final Thread thread;
+    private byte[] chunk;
+    private int pos = 0;
+    private boolean ended = false;
+
+    /**
+     * Creates a new {@code ReadAheadInputStream}, and starts reading {@code source}.
+     * @param source produces the content of the stream.
+     * @param maxChunks maximum number of chunks read ahead of the consumer.
+     */
+    ReadAheadInputStream(final ChunkSource source, int maxChunks) {
+        chunks = new ArrayBlockingQueue<Future<byte[]>>(Math.max(1, maxChunks));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead(source);
+            }
+        }, "read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a future that is already done, with the value {@code b}.
+     * @param b the chunk.
+     * @return the completed future.
+     */
+    static Future<byte[]> completed(final byte[] b) {
+        FutureTask<byte[]> future = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return b;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Returns a future that is already done, and throws {@code e}.
+     */
+    private static Future<byte[]> failed(final Exception e) {
+        FutureTask<byte[]> future = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                throw e;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (chunk == null) ? 0 : chunk.length - pos;
+    }
+
+    /**
+     * Stops reading ahead. The source is closed by the read-ahead thread once it stops.
+     */
+    @Override
+    public void close() {
+        ended = true;
+        chunk = null;
+        thread.interrupt();
+    }
+
+    /**
+     * Makes sure the current chunk has bytes left to read, waiting for the next chunk if needed.
+     * @return false at the end of the content.
+     */
+    private boolean fill() throws IOException {
+        while (!ended && (chunk == null || pos == chunk.length)) {
+            Future<byte[]> next;
+            try {
+                next = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the file to be read.");
+            }
+            if (next == END) {
+                ended = true;
+            } else {
+                chunk = get(next);
+                pos = 0;
+            }
+        }
+        return !ended;
+    }
+
+    private void readAhead(ChunkSource source) {
+        try {
+            try {
+                Future<byte[]> next = source.next();
+                while (next != null) {
+                    chunks.put(next);
+                    next = source.next();
+                }
+                chunks.put(END);
+            } catch (IOException e) {
+                //passed on to the consumer, after the chunks read before the error
+                chunks.put(failed(e));
+            } catch (RuntimeException e) {
+                chunks.put(failed(e));
+            } finally {
+                source.close();
+            }
+        } catch (InterruptedException e) {
+            //the stream was closed
+        } catch (IOException e) {
+            //the content has been read, the error when closing the source does not matter
+        }
+    }
+
+    /**
+     * Waits for a chunk, and rethrows the exception of the thread that produced it.
+     */
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the file to be read.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * The statements that reload an empty table with as little logging as SQL Server allows. The load runs in four steps:
+ * <ol>
+ * <li>The non-unique nonclustered indexes of the table are disabled, so they are not maintained row by row.</li>
+ * <li>Each import thread inserts its blocks into a staging heap of its own with {@code TABLOCK}, so the threads do not
+ * wait for each other's table locks.</li>
+ * <li>The staging heaps are combined into the table with one {@code INSERT ... SELECT WITH (TABLOCK)}, which is
+ * minimally logged into an empty table under the simple or bulk-logged recovery model.</li>
+ * <li>The staging heaps are dropped, and the indexes are rebuilt.</li>
+ * </ol>
+ * The table only receives rows in the third step, in one statement, so it either holds every staged row or none.
+ * Unique indexes are left enabled, so a duplicate fails that statement instead of a rebuild. If the import is killed,
+ * the next reload of the table drops the staging heaps left behind, found by their names, and rebuilds the indexes
+ * left disabled.
+ * <p>
+ * This class only builds the statements, {@code ReloadSink} executes them.
+ */
+final class ReloadPlan {
+    private final String tableName;
+    private final Field[] fields;
+    private final List<String> indexes;
+    private final List<String> stagingTables = new ArrayList<String>();
+
+    /**
+     * Creates a new {@code ReloadPlan}.
+     * @param tableName the table to reload.
+     * @param fields the verified fields imported into the table.
+     * @param indexes the non-unique nonclustered indexes of the table, see
+     *                {@code DatabaseConnection.getNonclusteredIndexes}.
+     * @param stagingCount number of staging heaps, one per import thread.
+     */
+    ReloadPlan(String tableName, List<Field> fields, List<String> indexes, int stagingCount) {
+        this.tableName = tableName;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.indexes = new ArrayList<String>(indexes);
+        for (int i = 1; i <= Math.max(1, stagingCount); i++) {
+            stagingTables.add(getStagingName(tableName, i));
+        }
+    }
+
+    /**
+     * Creates the {@code ReloadPlan} of the staging heaps left by a reload that was killed, which may have used more
+     * staging heaps than this one.
+     * @param tableName the table to reload.
+     * @param fields the verified fields imported into the table.
+     * @param indexes the disabled indexes of the table, see {@code DatabaseConnection.getDisabledIndexes}.
+     * @param stagingNames the names of the staging heaps left behind without their schema, i.e. the tables matching
+     *                     {@code getStagingPattern}.
+     */
+    ReloadPlan(String tableName, List<Field> fields, List<String> indexes, Collection<String> stagingNames) {
+        this.tableName = tableName;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.indexes = new ArrayList<String>(indexes);
+        String name = unquote(tableName);
+        String schema = name.substring(0, name.lastIndexOf('.') + 1);
+        for (String staging: stagingNames) {
+            stagingTables.add(schema + staging);
+        }
+    }
+
+    /**
+     * Returns the {@code LIKE} pattern of the staging heap names of {@code tableName}, without their schema, escaped
+     * with a backslash, e.g. {@code Listings\_reload[0-9]%}.
+     * @param tableName the table to reload.
+     * @return the pattern to find the staging heaps of any reload of the table with.
+     */
+    static String getStagingPattern(String tableName) {
+        String name = unquote(tableName);
+        name = name.substring(name.lastIndexOf('.') + 1);
+        StringBuilder pattern = new StringBuilder();
+        for (char c: name.toCharArray()) {
+            if (c == '\\' || c == '%' || c == '_' || c == '[') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append("\\_reload[0-9]%").toString();
+    }
+
+    /**
+     * Returns the names of the staging heaps.
+     * @return the staging heaps, e.g. {@code Listings_reload1}.
+     */
+    List<String> getStagingTables() {
+        return Collections.unmodifiableList(stagingTables);
+    }
+
+    /**
+     * Returns the statements that disable the indexes and create empty staging heaps, dropping those of a reload
+     * that did not finish.
+     * @return the statements of the first step, in order.
+     */
+    List<String> getPrepareStatements() {
+        List<String> statements = new ArrayList<String>();
+        for (String index: indexes) {
+            statements.add(String.format("ALTER INDEX %s ON %s DISABLE", quote(index), tableName));
+        }
+        for (String staging: stagingTables) {
+            statements.add(buildDropStaging(staging));
+            statements.add(buildCreateStaging(staging));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the target of the inserts into {@code staging}, i.e. the table name with its {@code TABLOCK} hint, e.g.
+     * {@code INSERT INTO Listings_reload1 WITH (TABLOCK) ([a]) VALUES (?)}.
+     * @param staging one of the staging heaps.
+     * @return the table name to build the inserts with.
+     */
+    static String getInsertTarget(String staging) {
+        return staging + " WITH (TABLOCK)";
+    }
+
+    /**
+     * Returns the statement that combines the staging heaps into the table.
+     * @return the {@code INSERT ... SELECT} of the third step.
+     */
+    String getCombineStatement() {
+        StringBuilder columns = new StringBuilder();
+        for (Field f: fields) {
+            if (columns.length() != 0) {
+                columns.append(", ");
+            }
+            columns.append("[").append(f.getFieldName()).append("]");
+        }
+
+        StringBuilder select = new StringBuilder();
+        for (String staging: stagingTables) {
+            if (select.length() != 0) {
+                select.append(" UNION ALL ");
+            }
+            select.append(String.format("SELECT %s FROM %s", columns, staging));
+        }
+        return String.format("INSERT INTO %s WITH (TABLOCK) (%s) %s", tableName, columns, select);
+    }
+
+    /**
+     * Returns the statements that drop the staging heaps.
+     * @return the statements of the last step that always run, whether the load succeeded or not.
+     */
+    List<String> getDropStatements() {
+        List<String> statements = new ArrayList<String>();
+        for (String staging: stagingTables) {
+            statements.add(buildDropStaging(staging));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the statements that rebuild the disabled indexes, one per index, so an index that fails to rebuild does
+     * not keep the others disabled.
+     * @return the statements of the last step.
+     */
+    List<String> getRebuildStatements() {
+        List<String> statements = new ArrayList<String>();
+        for (String index: indexes) {
+            statements.add(String.format("ALTER INDEX %s ON %s REBUILD", quote(index), tableName));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the name of staging heap {@code number} of {@code tableName}, in the same schema.
+     */
+    private static String getStagingName(String tableName, int number) {
+        return unquote(tableName) + "_reload" + number;
+    }
+
+    private static String unquote(String tableName) {
+        return tableName.replace("[", "").replace("]", "");
+    }
+
+    private String buildCreateStaging(String staging) {
+        StringBuilder columns = new StringBuilder();
+        for (Field f: fields) {
+            if (columns.length() != 0) {
+                columns.append(", ");
+            }
+            columns.append("[").append(f.getFieldName()).append("] ").append(UpsertSink.getStagingType(f))
+                    .append(" NULL");
+        }
+        return String.format("CREATE TABLE %s (%s)", staging, columns);
+    }
+
+    private static String buildDropStaging(String staging) {
+        return String.format("IF OBJECT_ID('%s', 'U') IS NOT NULL DROP TABLE %s", staging.replace("'", "''"),
+                staging);
+    }
+
+    /**
+     * Returns {@code name} as a SQL identifier.
+     */
+    private static String quote(String name) {
+        return "[" + name.replace("]", "]]") + "]";
+    }
+}
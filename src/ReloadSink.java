@@ -0,0 +1,223 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Reloads empty tables following a {@code ReloadPlan}. The first block imported into a table checks the table is
+ * empty, disables its indexes and creates its staging heaps. Each block is then inserted by a
+ * {@code JsonArrayImporter} into a staging heap no other block is using, and {@code finish} combines the heaps into
+ * the tables once every file has been read.
+ * <p>
+ * The rows only reach the tables in {@code finish}, so they must not be checkpointed as imported before. A table is
+ * only loaded if every one of its blocks was staged whole: once a block fails, or some of its rows are rejected, the
+ * table is left empty.
+ * <p>
+ * This class is thread safe.
+ */
+class ReloadSink implements ImportSink {
+    /**
+     * The plan of a table, and the staging heaps not used by a block.
+     */
+    private static final class TableLoad {
+        final ReloadPlan plan;
+        final BlockingQueue<String> freeStaging;
+        final AtomicInteger failedBlocks = new AtomicInteger();
+        String error;
+
+        TableLoad(ReloadPlan plan) {
+            this.plan = plan;
+            this.freeStaging = new LinkedBlockingQueue<String>(plan.getStagingTables());
+        }
+    }
+
+    private final ConnectionProperties p;
+    private final JsonArrayImporter importer;
+    private final int stagingCount;
+    private final Map<String, TableLoad> loads = new LinkedHashMap<String, TableLoad>();
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code ReloadSink}.
+     * @param p connection properties to the database.
+     * @param importer inserts the rows of each block into a staging heap.
+     * @param stagingCount number of staging heaps per table, i.e. the number of blocks that can be inserted at the
+     *                     same time. Usually the number of import threads.
+     */
+    ReloadSink(ConnectionProperties p, JsonArrayImporter importer, int stagingCount) {
+        this.p = p;
+        this.importer = importer;
+        this.stagingCount = stagingCount;
+    }
+
+    /**
+     * Inserts the rows into a free staging heap of {@code tableName}, preparing the table the first time. Waits if all
+     * the staging heaps are in use. A block that throws, or has rows that failed, keeps the table from being loaded.
+     * @return the update counts of the staging inserts.
+     * @throws SQLException if the table is not empty, or could not be prepared.
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException, ClassNotFoundException {
+        TableLoad load = getLoad(tableName, fields);
+        boolean staged = false;
+        try {
+            String staging;
+            try {
+                staging = load.freeStaging.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a staging table of " + tableName + ".");
+            }
+
+            ConnectionPool pool = ConnectionPool.getPool(p);
+            try {
+                Connection cn = pool.getConnection();
+                try {
+                    int[] updateCounts = importer.importRows(cn, ReloadPlan.getInsertTarget(staging), fields,
+                            importRows);
+                    staged = JsonArrayImporter.countSucceeded(updateCounts) == updateCounts.length;
+                    return updateCounts;
+                } finally {
+                    pool.release(cn);
+                }
+            } finally {
+                load.freeStaging.add(staging);
+            }
+        } finally {
+            if (!staged) {
+                load.failedBlocks.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Combines the staging heaps into their tables, then drops them and rebuilds the indexes. Should be called once
+     * all the import tasks have finished. When {@code combine} is false, a table could not be prepared, or one of its
+     * blocks failed, its rows are dropped with the staging heaps and the table is left empty.
+     * @param combine if false, e.g. because a file could not be read, no rows are loaded.
+     * @return true if every table was loaded, and every index rebuilt.
+     */
+    synchronized boolean finish(boolean combine) {
+        boolean loaded = true;
+        for (Map.Entry<String, TableLoad> entry: loads.entrySet()) {
+            String tableName = entry.getKey();
+            TableLoad load = entry.getValue();
+            try {
+                int failedBlocks = load.failedBlocks.get();
+                if (combine && load.error == null && failedBlocks == 0) {
+                    long startTime = System.currentTimeMillis();
+                    int rows = executeUpdate(load.plan.getCombineStatement());
+                    log.info(String.format("Loaded %d rows into %s in %f sec.", rows, tableName,
+                            (System.currentTimeMillis() - startTime) / 1000f));
+                } else if (failedBlocks > 0) {
+                    log.warning(String.format("The rows of %s were not loaded, %d blocks could not be staged, it is "
+                            + "left empty.", tableName, failedBlocks));
+                    loaded = false;
+                } else {
+                    log.warning(String.format("The rows of %s were not loaded, it is left empty.", tableName));
+                    loaded = false;
+                }
+            } catch (SQLException e) {
+                System.err.println("An error occurred when loading " + tableName + ", it is left empty: "
+                        + e.getMessage());
+                loaded = false;
+            } catch (ClassNotFoundException e) {
+                System.err.println("An error occurred when connecting to database: " + e.getMessage());
+                loaded = false;
+            } finally {
+                loaded &= executeEach(load.plan.getDropStatements(), "dropping a staging table of " + tableName);
+                long startTime = System.currentTimeMillis();
+                if (executeEach(load.plan.getRebuildStatements(), "rebuilding an index of " + tableName
+                        + ", it is left disabled")) {
+                    log.info(String.format("Rebuilt the indexes of %s in %f sec.", tableName,
+                            (System.currentTimeMillis() - startTime) / 1000f));
+                } else {
+                    loaded = false;
+                }
+            }
+        }
+        loads.clear();
+        return loaded;
+    }
+
+    /**
+     * Returns the load of {@code tableName}, preparing the table the first time. The staging heaps of a reload that
+     * was killed are dropped first. If the table is not empty, e.g. because that reload was killed after the rows were
+     * combined, its disabled indexes are rebuilt before the table is rejected.
+     */
+    private synchronized TableLoad getLoad(String tableName, List<Field> fields)
+            throws SQLException, ClassNotFoundException {
+        TableLoad load = loads.get(tableName);
+        if (load != null) {
+            if (load.error != null) {
+                throw new SQLException(load.error);
+            }
+            return load;
+        }
+
+        //found by name, a killed reload may have had more threads than this one
+        ReloadPlan leftover = new ReloadPlan(tableName, fields, DatabaseConnection.getDisabledIndexes(p, tableName),
+                DatabaseConnection.getTables(p, tableName, ReloadPlan.getStagingPattern(tableName)));
+        executeEach(leftover.getDropStatements(), "dropping a staging table left by a reload of " + tableName);
+        if (!DatabaseConnection.isEmpty(p, tableName)) {
+            executeEach(leftover.getRebuildStatements(), "rebuilding a disabled index of " + tableName);
+            throw new SQLException(String.format("Table %s is not empty, it must be truncated before it is reloaded.",
+                    tableName));
+        }
+        List<String> indexes = DatabaseConnection.getNonclusteredIndexes(p, tableName);
+        load = new TableLoad(new ReloadPlan(tableName, fields, indexes, stagingCount));
+        //added before it is prepared, so finish rebuilds the indexes even if the preparation fails half way
+        loads.put(tableName, load);
+        try {
+            for (String sql: load.plan.getPrepareStatements()) {
+                executeUpdate(sql);
+            }
+        } catch (SQLException e) {
+            load.error = "Table " + tableName + " could not be prepared: " + e.getMessage();
+            throw new SQLException(load.error, e);
+        }
+        log.info(String.format("Disabled %d indexes of %s, and created %d staging tables.", indexes.size(),
+                tableName, load.plan.getStagingTables().size()));
+        return load;
+    }
+
+    private int executeUpdate(String sql) throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            Statement st = cn.createStatement();
+            try {
+                return st.executeUpdate(sql);
+            } finally {
+                st.close();
+            }
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Executes each statement, reporting the ones that fail. Returns true if none failed.
+     */
+    private boolean executeEach(List<String> statements, String action) {
+        boolean succeeded = true;
+        for (String sql: statements) {
+            try {
+                executeUpdate(sql);
+            } catch (SQLException e) {
+                System.err.println("An error occurred when " + action + ": " + e.getMessage());
+                succeeded = false;
+            } catch (ClassNotFoundException e) {
+                System.err.println("An error occurred when connecting to database: " + e.getMessage());
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * A block of rows read from the JSON file, together with the byte range of the file it was read from. The ranges of
+ * consecutive blocks follow each other without gaps, so a checkpoint can record how far the file has been imported
+ * whatever order the blocks are imported in, see {@code Checkpoint}.
+ * <p>
+ * The offsets are positions in the decompressed file. A block can be empty when the elements of its range are not
+ * objects. The elements that are not objects are counted as skipped.
+ */
+class RowBlock extends ArrayList<JsonRow> {
+    private static final long serialVersionUID = 1L;
+
+    private final long startOffset;
+    private long endOffset;
+    private int skippedCount = 0;
+    private long parseTime = 0;
+
+    /**
+     * Creates a new empty {@code RowBlock}.
+     * @param capacity the number of rows the block is expected to hold.
+     * @param startOffset the position in the file the block starts at.
+     */
+    RowBlock(int capacity, long startOffset) {
+        super(capacity);
+        this.startOffset = startOffset;
+        this.endOffset = startOffset;
+    }
+
+    /**
+     * Returns the position in the file the block starts at, i.e. where the previous block ended.
+     * @return the start of the block.
+     */
+    long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Returns the position in the file just after the block, which is where the next block starts.
+     * @return the end of the block.
+     */
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    void setEndOffset(long endOffset) {
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * Returns the number of elements in the range of the block that were skipped because they are not objects.
+     * @return the number of skipped elements.
+     */
+    int getSkippedCount() {
+        return skippedCount;
+    }
+
+    void addSkipped() {
+        skippedCount++;
+    }
+
+    /**
+     * Returns the time it took to read the rows of the block from the file, in nanoseconds.
+     * @return the time to read the block.
+     */
+    long getParseTime() {
+        return parseTime;
+    }
+
+    void setParseTime(long parseTime) {
+        this.parseTime = parseTime;
+    }
+}
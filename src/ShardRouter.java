@@ -0,0 +1,127 @@
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Decides which shard a row goes to from the value of its key. The key is either hashed, which spreads the rows
+ * evenly, or compared with the upper bounds of ranges of whole numbers, e.g. to keep the ids of each year together.
+ * <p>
+ * The hash only depends on the text of the key, so the same key goes to the same shard from one import to the next,
+ * on any JVM, and {@code 42} and {@code "42"} go to the same shard. Rows without a key go to the first shard, as do
+ * keys that are not whole numbers when the shards are ranges.
+ * <p>
+ * When this object is shared for concurrent use, no synchronization is necessary.
+ */
+final class ShardRouter {
+    private final int shardCount;
+    //upper bound, excluded, of each range but the last. null when the keys are hashed
+    private final long[] bounds;
+
+    private ShardRouter(int shardCount, long[] bounds) {
+        this.shardCount = shardCount;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Creates a router that hashes the keys.
+     * @param shardCount number of shards.
+     * @return the router.
+     */
+    static ShardRouter hash(int shardCount) {
+        return new ShardRouter(Math.max(1, shardCount), null);
+    }
+
+    /**
+     * Creates a router of ranges of whole numbers. Shard 0 gets the keys below {@code bounds[0]}, shard 1 those from
+     * {@code bounds[0]} up to {@code bounds[1]}, and so on, the last shard getting the keys from the last bound.
+     * @param bounds the upper bounds, in increasing order.
+     * @return the router of {@code bounds.length + 1} shards.
+     * @throws IllegalArgumentException if the bounds are not in increasing order.
+     */
+    static ShardRouter ranges(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("The shard bounds must be in increasing order: "
+                        + Arrays.toString(bounds));
+            }
+        }
+        return new ShardRouter(bounds.length + 1, bounds.clone());
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return the number of shards.
+     */
+    int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Returns the shard of a row.
+     * @param key the value of the key of the row, or null if it has none.
+     * @return the shard, from 0 to {@code getShardCount() - 1}.
+     */
+    int getShard(JsonNode key) {
+        if (key == null || key.isNull()) {
+            return 0;
+        }
+        if (bounds == null) {
+            return hash(key.asText());
+        }
+
+        if (key.isIntegralNumber() && key.canConvertToLong()) {
+            return getRange(key.longValue());
+        } else if (key.isTextual()) {
+            return getRange(key.textValue());
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the shard of a row, reading whole numbers and text keys without creating a node.
+     * @param row the row.
+     * @param keyIndex the position of the key in the row.
+     * @return the shard, from 0 to {@code getShardCount() - 1}.
+     */
+    int getShard(JsonRow row, int keyIndex) {
+        if (row.isNull(keyIndex)) {
+            return 0;
+        } else if (bounds == null) {
+            return hash(row.asText(keyIndex));
+        } else if (row.isIntegral(keyIndex)) {
+            return getRange(row.getLong(keyIndex));
+        } else if (row.isTextual(keyIndex)) {
+            return getRange(row.asText(keyIndex));
+        }
+        return getShard(row.get(keyIndex));
+    }
+
+    private int hash(String key) {
+        //String.hashCode is specified, so it is the same on every JVM. Mixed, as numbers in sequence hash to numbers
+        //in sequence
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % shardCount;
+    }
+
+    private int getRange(String key) {
+        try {
+            return getRange(Long.parseLong(key.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private int getRange(long key) {
+        int i = Arrays.binarySearch(bounds, key);
+        //a key equal to a bound starts the next range
+        return (i >= 0) ? i + 1 : -i - 1;
+    }
+}
@@ -0,0 +1,150 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Routes the rows to several shards, e.g. tables or servers, by the value of a key field. Each shard has a
+ * {@code BatchWriter}, i.e. a buffer per table and writers of its own: the rows of a block are added to the buffers of
+ * their shards, and a buffer is passed to the writers of its shard once it holds a batch of rows. A shard whose
+ * writers fall behind only holds back the blocks that add to it once it has too many batches waiting, while the other
+ * shards keep writing.
+ * <p>
+ * The rows are only written after {@code importRows} returns, so they are reported with
+ * {@code Statement.SUCCESS_NO_INFO}, and must not be checkpointed as imported. The rows written and failed are counted
+ * per shard, see {@code getShardSummaries}.
+ * <p>
+ * This class is thread safe.
+ */
+class ShardedSink implements ImportSink {
+    private final String keyField;
+    private final ShardRouter router;
+    private final int batchRows;
+    private final int writerThreads;
+    private final int maxPendingBatches;
+    private final List<BatchWriter> shards = new ArrayList<BatchWriter>();
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code ShardedSink}. The shards are added with {@code addShard}, as many as the router has.
+     * @param keyField the field the rows are routed by. It must be one of the imported fields.
+     * @param router decides the shard of each key.
+     * @param batchRows number of rows written to a shard at a time.
+     * @param writerThreads number of threads writing to each shard.
+     * @param maxPendingBatches most batches of a shard waiting for or being written, before the blocks that add to it
+     *                          wait.
+     */
+    ShardedSink(String keyField, ShardRouter router, int batchRows, int writerThreads, int maxPendingBatches) {
+        this.keyField = keyField.trim();
+        this.router = router;
+        this.batchRows = batchRows;
+        this.writerThreads = writerThreads;
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    /**
+     * Adds the next shard. Must be called before the first import.
+     * @param name the name of the shard in the summaries, e.g. the server or table name.
+     * @param sink writes the rows of the shard, e.g. a {@code JsonArrayImporter} of its server.
+     * @param tableName the table the rows of the shard are written to, or null for the table they are imported into.
+     */
+    void addShard(String name, ImportSink sink, String tableName) {
+        shards.add(new BatchWriter(name, sink, tableName, batchRows, writerThreads, maxPendingBatches));
+    }
+
+    /**
+     * Adds the rows to the buffers of their shards. Waits if a shard has too many batches waiting to be written.
+     * @return {@code Statement.SUCCESS_NO_INFO} for every row, as they are written later.
+     * @throws SQLException if the key is not one of {@code fields}, or the thread is interrupted while waiting.
+     */
+    @Override
+    public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException {
+        if (shards.size() != router.getShardCount()) {
+            throw new IllegalStateException(String.format("%d shards were added for a router of %d shards.",
+                    shards.size(), router.getShardCount()));
+        }
+        int keyIndex = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getFieldName().equalsIgnoreCase(keyField)) {
+                keyIndex = i;
+            }
+        }
+        if (keyIndex < 0) {
+            throw new SQLException(String.format("The shard key %s is not one of the fields imported into %s.",
+                    keyField, tableName));
+        }
+
+        List<List<JsonRow>> parts = new ArrayList<List<JsonRow>>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<JsonRow>());
+        }
+        for (JsonRow row: importRows) {
+            parts.get(router.getShard(row, keyIndex)).add(row);
+        }
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                if (!parts.get(i).isEmpty()) {
+                    shards.get(i).add(tableName, fields, parts.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a shard of " + tableName + ".");
+        }
+
+        int[] updateCounts = new int[importRows.size()];
+        Arrays.fill(updateCounts, Statement.SUCCESS_NO_INFO);
+        return updateCounts;
+    }
+
+    /**
+     * Writes the rows left in the buffers, and waits for the writers of every shard to finish. Should be called once
+     * all the import tasks have finished.
+     */
+    void finish() {
+        try {
+            for (BatchWriter shard: shards) {
+                shard.flush();
+            }
+            for (BatchWriter shard: shards) {
+                shard.shutdown();
+            }
+            for (BatchWriter shard: shards) {
+                while (!shard.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.info("Waiting for the writers of shard " + shard.getName() + ".");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the rows written and failed, and the rows per second, of each shard, e.g.
+     * {@code Shard Listings_1: 1000 rows written, 0 failed, 5000 rows/s.}
+     * @return one line per shard.
+     */
+    List<String> getShardSummaries() {
+        List<String> result = new ArrayList<String>();
+        for (BatchWriter shard: shards) {
+            result.add("Shard " + shard);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of rows that failed to be written, on all the shards.
+     * @return the number of failed rows.
+     */
+    long getFailedCount() {
+        long failed = 0;
+        for (BatchWriter shard: shards) {
+            failed += shard.getSummary().getFailedCount();
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,308 @@
+import java.sql.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Updates the rows whose key is already in the table, and inserts the others. Each block is first inserted by a
+ * {@code JsonArrayImporter} into a temporary staging table, then applied to the table with one {@code MERGE} on the
+ * key fields, so the server matches the whole block in one set-based statement instead of one update per row.
+ * <p>
+ * The staging table is created from the verified fields, once per connection and table, and emptied before each
+ * block. It is a {@code #temporary} table, so it only exists in the session of the connection, and each import
+ * thread stages its blocks in a table of its own. The {@code MERGE} holds its locks until it completes, so two blocks
+ * with the same new key cannot both insert it.
+ * <p>
+ * A key can only be matched once per {@code MERGE}, so when a block holds several rows with the same key, only the
+ * last one is merged. The server compares the keys with the collation and type of their column, e.g. "ABC" and "abc",
+ * "1 " and "1", or 1 and "1" can be the same key, so the rows are numbered in the staging table in the order they are
+ * staged, and the {@code MERGE} only uses the last row of each key. The rows whose key has the same text as a later
+ * row are not staged in the first place, and are reported with {@code Statement.SUCCESS_NO_INFO}. Rows with a null
+ * key never match, and are always inserted.
+ * <p>
+ * This class is thread safe.
+ */
+class UpsertSink implements ImportSink {
+    //SQL Server allows 116 characters in the name of a temporary table
+    private static final int MAX_STAGING_NAME = 100;
+    //numbers the rows of the staging table in the order they are staged
+    private static final String ROW_COLUMN = "[upsert_row]";
+    //the rank of a row among the rows with the same key, 1 for the last one
+    private static final String RANK_COLUMN = "[upsert_rank]";
+
+    private final ConnectionProperties p;
+    private final JsonArrayImporter importer;
+    private final String[] keyFields;
+    private ImportMetrics metrics = new ImportMetrics();
+    private Logger log = Logger.getLogger(ImportTask.class.getName());
+
+    /**
+     * Creates a new {@code UpsertSink}.
+     * @param p connection properties to the database.
+     * @param importer inserts the rows of each block into the staging table.
+     * @param keyFields the fields that identify a row of the table, e.g. its primary key. They must be imported
+     *                  fields.
+     */
+    UpsertSink(ConnectionProperties p, JsonArrayImporter importer, String[] keyFields) {
+        this.p = p;
+        this.importer = importer;
+        this.keyFields = new String[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            this.keyFields[i] = keyFields[i].trim();
+        }
+    }
+
+    /**
+     * Records the execute time of each {@code MERGE} in {@code metrics}. Must be called before the first import.
+     * @param metrics the metrics of the whole import.
+     */
+    void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stages the rows, then merges them into {@code tableName}.
+     * @return the update counts of the staging inserts, with {@code Statement.SUCCESS_NO_INFO} for the rows replaced
+     * by a later row with the same key.
+     * @throws SQLException if a key is not one of {@code fields}, or the rows could not be merged.
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = ConnectionPool.getPool(p);
+        Connection cn = pool.getConnection();
+        try {
+            return importRows(cn, tableName, fields, importRows);
+        } finally {
+            pool.release(cn);
+        }
+    }
+
+    /**
+     * Stages the rows and merges them with {@code cn}.
+     * @param cn the connection to import with. It is not released.
+     * @see #importRows(String, List, Collection)
+     */
+    int[] importRows(Connection cn, String tableName, List<Field> fields, Collection<JsonRow> importRows)
+            throws SQLException {
+        Field[] fieldArray = fields.toArray(new Field[fields.size()]);
+        int[] keyIndexes = getKeyIndexes(tableName, fieldArray);
+        boolean[] replaced = findReplacedRows(importRows, keyIndexes);
+        List<JsonRow> rows = new ArrayList<JsonRow>(importRows.size());
+        int i = 0;
+        for (JsonRow row: importRows) {
+            if (!replaced[i++]) {
+                rows.add(row);
+            }
+        }
+
+        String staging = getStagingName(tableName);
+        Statement st = cn.createStatement();
+        int[] counts;
+        int merged;
+        try {
+            st.execute(buildCreateStaging(staging, fieldArray));
+            counts = importer.importRows(cn, staging, fields, rows);
+            long executeTime = System.nanoTime();
+            merged = st.executeUpdate(buildMerge(tableName, staging, fieldArray, keyIndexes));
+            metrics.recordExecute(System.nanoTime() - executeTime);
+        } finally {
+            st.close();
+        }
+        log.fine(String.format("Merged %d rows into %s, %d replaced by a later row.", merged, tableName,
+                importRows.size() - rows.size()));
+
+        int[] updateCounts = new int[replaced.length];
+        int next = 0;
+        for (i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = replaced[i] ? Statement.SUCCESS_NO_INFO : counts[next++];
+        }
+        return updateCounts;
+    }
+
+    /**
+     * Returns the name of the staging table of {@code tableName}, e.g. {@code #upsert_dbo_Listings}.
+     * @param tableName the table the rows are merged into.
+     * @return the name of the temporary table.
+     */
+    static String getStagingName(String tableName) {
+        String name = "#upsert_" + tableName.replaceAll("[\\[\\]]", "").replaceAll("[^A-Za-z0-9_]", "_");
+        return name.length() > MAX_STAGING_NAME ? name.substring(0, MAX_STAGING_NAME) : name;
+    }
+
+    /**
+     * Builds the statement that creates the staging table if it does not exist yet in the session, and empties it
+     * otherwise, e.g. {@code IF OBJECT_ID('tempdb..#s') IS NULL CREATE TABLE #s ([a] int NULL,
+     * [upsert_row] int IDENTITY(1, 1) NOT NULL) ELSE TRUNCATE TABLE #s}. Truncating the table restarts the numbering
+     * of its rows.
+     * @param staging the name of the staging table.
+     * @param fields the fields of the staging table.
+     * @return the SQL of the statement.
+     */
+    static String buildCreateStaging(String staging, Field[] fields) {
+        StringBuilder columns = new StringBuilder();
+        for (Field f: fields) {
+            if (columns.length() != 0) {
+                columns.append(", ");
+            }
+            columns.append("[").append(f.getFieldName()).append("] ").append(getStagingType(f)).append(" NULL");
+        }
+        columns.append(", ").append(ROW_COLUMN).append(" int IDENTITY(1, 1) NOT NULL");
+        return String.format("IF OBJECT_ID('tempdb..%s') IS NULL CREATE TABLE %s (%s) ELSE TRUNCATE TABLE %s",
+                staging, staging, columns, staging);
+    }
+
+    /**
+     * Returns the type of {@code f} in the staging table. Text gets the collation of the database rather than the one
+     * of tempdb, so the keys can be compared with those of the table.
+     * @param f a verified field.
+     * @return the SQL type, e.g. {@code nvarchar(50) COLLATE DATABASE_DEFAULT} or {@code decimal(10, 2)}.
+     */
+    static String getStagingType(Field f) {
+        String type = f.getFieldTypeName().toLowerCase();
+        //jTDS reports identity columns as e.g. int identity, the staging table only needs the type
+        int space = type.indexOf(' ');
+        if (space > 0) {
+            type = type.substring(0, space);
+        }
+
+        if (f.isTextual()) {
+            boolean unicode = (f.getFieldType() == Types.NCHAR)
+                    || (f.getFieldType() == Types.NVARCHAR)
+                    || (f.getFieldType() == Types.LONGNVARCHAR);
+            return String.format("%s(%s) COLLATE DATABASE_DEFAULT", unicode ? "nvarchar" : "varchar",
+                    getLength(f.getPrecision(), unicode ? 4000 : 8000));
+        }
+        if (type.equals("binary") || type.equals("varbinary")) {
+            return String.format("varbinary(%s)", getLength(f.getPrecision(), 8000));
+        }
+        if ((type.equals("decimal") || type.equals("numeric")) && f.getPrecision() > 0) {
+            return String.format("%s(%d, %d)", type, f.getPrecision(), f.getScale());
+        }
+        return type;
+    }
+
+    /**
+     * Builds the {@code MERGE} of the last staged row of each key into the table, e.g.
+     * {@code MERGE INTO t WITH (HOLDLOCK) AS target USING (SELECT [a], [b] FROM (SELECT [a], [b],
+     * ROW_NUMBER() OVER (PARTITION BY [a] ORDER BY [upsert_row] DESC) AS [upsert_rank] FROM #s) AS staged
+     * WHERE [upsert_rank] = 1 OR [a] IS NULL) AS source ON target.[a] = source.[a]
+     * WHEN MATCHED THEN UPDATE SET target.[b] = source.[b]
+     * WHEN NOT MATCHED BY TARGET THEN INSERT ([a], [b]) VALUES (source.[a], source.[b]);}
+     * @param tableName the table to merge into.
+     * @param staging the name of the staging table.
+     * @param fields the fields of both tables.
+     * @param keyIndexes the index in {@code fields} of each key field.
+     * @return the SQL of the statement.
+     */
+    static String buildMerge(String tableName, String staging, Field[] fields, int[] keyIndexes) {
+        StringBuilder on = new StringBuilder();
+        StringBuilder partition = new StringBuilder();
+        StringBuilder nullKey = new StringBuilder();
+        StringBuilder set = new StringBuilder();
+        StringBuilder fieldsClause = new StringBuilder();
+        StringBuilder valuesClause = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            String name = "[" + fields[i].getFieldName() + "]";
+            if (isKey(i, keyIndexes)) {
+                append(on, " AND ", "target." + name + " = source." + name);
+                append(partition, ", ", name);
+                append(nullKey, " OR ", name + " IS NULL");
+            } else {
+                append(set, ", ", "target." + name + " = source." + name);
+            }
+            append(fieldsClause, ", ", name);
+            append(valuesClause, ", ", "source." + name);
+        }
+
+        StringBuilder sql = new StringBuilder();
+        //the rows with a null key never match, so they are all inserted
+        String source = String.format("SELECT %s FROM (SELECT %s, ROW_NUMBER() OVER (PARTITION BY %s ORDER BY %s DESC)"
+                + " AS %s FROM %s) AS staged WHERE %s = 1 OR %s", fieldsClause, fieldsClause, partition, ROW_COLUMN,
+                RANK_COLUMN, staging, RANK_COLUMN, nullKey);
+        sql.append(String.format("MERGE INTO %s WITH (HOLDLOCK) AS target USING (%s) AS source ON %s", tableName,
+                source, on));
+        if (set.length() != 0) {
+            //when every field is a key, there is nothing to update
+            sql.append(" WHEN MATCHED THEN UPDATE SET ").append(set);
+        }
+        sql.append(String.format(" WHEN NOT MATCHED BY TARGET THEN INSERT (%s) VALUES (%s);", fieldsClause,
+                valuesClause));
+        return sql.toString();
+    }
+
+    /**
+     * Returns the index in {@code fields} of each key field.
+     */
+    private int[] getKeyIndexes(String tableName, Field[] fields) throws SQLException {
+        int[] keyIndexes = new int[keyFields.length];
+        for (int k = 0; k < keyFields.length; k++) {
+            keyIndexes[k] = -1;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].getFieldName().equalsIgnoreCase(keyFields[k])) {
+                    keyIndexes[k] = i;
+                }
+            }
+            if (keyIndexes[k] < 0) {
+                throw new SQLException(String.format("The key %s is not one of the fields imported into %s.",
+                        keyFields[k], tableName));
+            }
+        }
+        return keyIndexes;
+    }
+
+    /**
+     * Returns true for each row that is followed by another row with the same key text in {@code rows}. This only
+     * saves staging them: the keys that the server finds equal but are written differently are left to the
+     * {@code MERGE}.
+     */
+    private static boolean[] findReplacedRows(Collection<JsonRow> rows, int[] keyIndexes) {
+        boolean[] replaced = new boolean[rows.size()];
+        Map<List<String>, Integer> lastRows = new HashMap<List<String>, Integer>();
+        int i = 0;
+        for (JsonRow row: rows) {
+            List<String> key = new ArrayList<String>(keyIndexes.length);
+            for (int index: keyIndexes) {
+                if (row.isNull(index)) {
+                    key = null;
+                    break;
+                }
+                key.add(row.asText(index));
+            }
+            if (key != null) {
+                Integer last = lastRows.put(key, i);
+                if (last != null) {
+                    replaced[last] = true;
+                }
+            }
+            i++;
+        }
+        return replaced;
+    }
+
+    /**
+     * Returns the length of a text or binary column, or {@code max} if it is unknown or longer than {@code maxLength}.
+     */
+    private static String getLength(int precision, int maxLength) {
+        return (precision > 0 && precision <= maxLength) ? String.valueOf(precision) : "max";
+    }
+
+    private static boolean isKey(int index, int[] keyIndexes) {
+        for (int keyIndex: keyIndexes) {
+            if (keyIndex == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void append(StringBuilder sb, String separator, String s) {
+        if (sb.length() != 0) {
+            sb.append(separator);
+        }
+        sb.append(s);
+    }
+}
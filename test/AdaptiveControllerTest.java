@@ -0,0 +1,135 @@
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the decisions of the adaptive controller. The blocks are fed with made up latencies and times, a window being
+ * one second of 4 blocks. The first window starts when its first block started.
+ */
+public class AdaptiveControllerTest {
+    private static final long MS = 1000000L;
+
+    private long now = 0;
+
+    /**
+     * Imports one window of 4 blocks of {@code rows} rows, each taking {@code latency} milliseconds, in one second.
+     */
+    private void window(AdaptiveController controller, int rows, long latency) {
+        for (int i = 0; i < 4; i++) {
+            now += 250 * MS;
+            controller.blockImported(rows, latency * MS, now);
+        }
+    }
+
+    @Test
+    public void testWorkersAdditiveIncrease() throws Exception {
+        AdaptiveController controller = new AdaptiveController(500, 100, 10000, 8, 5000, 1000);
+        assertEquals(8, controller.getWorkerLimit());
+
+        //overloaded, both halve
+        window(controller, 500, 6000);
+        assertEquals(4, controller.getWorkerLimit());
+        assertEquals(250, controller.getBlockSize());
+
+        //a worker is added while the rows per second hold, in turns with the block size
+        window(controller, 500, 100);
+        assertEquals(5, controller.getWorkerLimit());
+        window(controller, 500, 100);
+        assertEquals(5, controller.getWorkerLimit());
+        assertEquals(200, controller.getBlockSize());
+        window(controller, 500, 100);
+        assertEquals(6, controller.getWorkerLimit());
+    }
+
+    @Test
+    public void testWorkersMultiplicativeDecrease() throws Exception {
+        AdaptiveController controller = new AdaptiveController(500, 100, 10000, 8, 5000, 1000);
+        window(controller, 500, 6000);
+        window(controller, 500, 100);
+        assertEquals(5, controller.getWorkerLimit());
+
+        //fewer rows per second after adding a worker
+        window(controller, 250, 100);
+        assertEquals(2, controller.getWorkerLimit());
+        assertEquals(250, controller.getBlockSize());
+    }
+
+    @Test
+    public void testBlockSizeHillClimbing() throws Exception {
+        //the workers are already at the most, only the block size is tuned
+        AdaptiveController controller = new AdaptiveController(400, 100, 10000, 1, 5000, 1000);
+        window(controller, 400, 250);
+        assertEquals(1, controller.getWorkerLimit());
+        assertEquals(500, controller.getBlockSize());
+        window(controller, 500, 250);
+        assertEquals(625, controller.getBlockSize());
+
+        //fewer rows per second, turn back
+        window(controller, 300, 250);
+        assertEquals(500, controller.getBlockSize());
+        window(controller, 300, 250);
+        assertEquals(400, controller.getBlockSize());
+    }
+
+    @Test
+    public void testBlockSizeBounds() throws Exception {
+        AdaptiveController controller = new AdaptiveController(50000, 100, 1000, 1, 5000, 1000);
+        assertEquals(1000, controller.getBlockSize());
+        window(controller, 1000, 250);
+        assertEquals(1000, controller.getBlockSize());
+        window(controller, 1000, 250);
+        assertEquals(800, controller.getBlockSize());
+
+        for (int i = 0; i < 10; i++) {
+            window(controller, 1000, 6000);
+        }
+        assertEquals(100, controller.getBlockSize());
+        assertEquals(1, controller.getWorkerLimit());
+    }
+
+    @Test
+    public void testWorkerLimit() throws Exception {
+        final AdaptiveController controller = new AdaptiveController(500, 100, 10000, 2, 5000, 60000);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 4; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        controller.runTask(new Runnable() {
+                            @Override
+                            public void run() {
+                                int n = running.incrementAndGet();
+                                if (n > maxRunning.get()) {
+                                    maxRunning.set(n);
+                                }
+                                try {
+                                    release.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                running.decrementAndGet();
+                            }
+                        }, 500);
+                    }
+                });
+            }
+            Thread.sleep(200);
+            assertEquals(2, running.get());
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, maxRunning.get());
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ */
+public class BoundedExecutorTest {
+    /**
+     * test execute blocks once the maximum number of tasks are in flight, and continues when a task finishes
+     * @throws Exception
+     */
+    @Test
+    public void testExecuteBlocksWhenFull() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            final BoundedExecutor bounded = new BoundedExecutor(executor, 2);
+            final CountDownLatch release = new CountDownLatch(1);
+            Runnable blocked = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        ;
+                    }
+                }
+            };
+            bounded.execute(blocked);
+            bounded.execute(blocked);
+            assertEquals(2, bounded.getInFlight());
+
+            final CountDownLatch submitted = new CountDownLatch(1);
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    bounded.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                        }
+                    });
+                    submitted.countDown();
+                }
+            });
+            producer.start();
+            assertFalse("Expected the third task to wait", submitted.await(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertTrue("Expected the third task to be passed on", submitted.await(5, TimeUnit.SECONDS));
+            producer.join();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testInFlightReleasedWhenTaskFails() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            BoundedExecutor bounded = new BoundedExecutor(executor, 1);
+            bounded.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            });
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            assertEquals(0, bounded.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the bulk-load files are written correctly. These tests do not need a database.
+ */
+public class BulkFileWriterTest {
+    private File directory;
+    private List<Field> fields;
+    private int[] columnOrdinals = {1, 3, 4};
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("BulkFileWriterTest", "");
+        directory.delete();
+
+        fields = new ArrayList<Field>();
+        fields.add(new Field("ListingId", Types.INTEGER, "int"));
+        fields.add(new Field("Title", Types.NVARCHAR, "nvarchar"));
+        fields.add(new Field("StartPrice", Types.DECIMAL, "decimal"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private JsonRow createRow(Integer listingId, String title, BigDecimal startPrice) {
+        JsonNodeFactory f = JsonNodeFactory.instance;
+        return new JsonRow(new JsonNode[] {
+                listingId == null ? null : f.numberNode(listingId),
+                title == null ? null : f.textNode(title),
+                startPrice == null ? null : f.numberNode(startPrice)});
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testWriteCsv() throws Exception {
+        BulkFileWriter writer = new BulkFileWriter(directory, "Listings", fields, columnOrdinals,
+                BulkFileFormat.CSV, 100, null);
+        writer.writeRows(Arrays.asList(
+                createRow(1, "Product, \"Pro\"", BigDecimal.valueOf(20.64)),
+                createRow(2, "", null),
+                createRow(null, null, BigDecimal.valueOf(1, 10))));
+        writer.close();
+
+        assertEquals(1, writer.getChunkCount());
+        assertEquals(3, writer.getRowCount());
+        String csv = new String(readFile(new File(directory, "Listings-000001.csv")), "UTF-8");
+        assertEquals("1,\"Product, \"\"Pro\"\"\",20.64\r\n"
+                + "2,\"\",\r\n"
+                + ",,0.0000000001\r\n", csv);
+    }
+
+    @Test
+    public void testWriteNative() throws Exception {
+        BulkFileWriter writer = new BulkFileWriter(directory, "Listings", fields, columnOrdinals,
+                BulkFileFormat.NATIVE, 100, null);
+        writer.writeRows(Arrays.asList(
+                createRow(258, "ab", BigDecimal.valueOf(1.5)),
+                createRow(null, null, null)));
+        writer.close();
+
+        byte[] expected = {
+                //int with 1 byte prefix, little endian
+                4, 2, 1, 0, 0,
+                //nvarchar with 8 byte prefix, UTF-16LE
+                4, 0, 0, 0, 0, 0, 0, 0, 'a', 0, 'b', 0,
+                //decimal as text with 2 byte prefix
+                3, 0, '1', '.', '5',
+                //null values
+                -1,
+                -1, -1, -1, -1, -1, -1, -1, -1,
+                -1, -1};
+        assertArrayEquals(expected, readFile(new File(directory, "Listings-000001.dat")));
+    }
+
+    @Test
+    public void testWriteFormatFile() throws Exception {
+        BulkFileWriter writer = new BulkFileWriter(directory, "dbo.[Listings]", fields, columnOrdinals,
+                BulkFileFormat.NATIVE, 100, null);
+        writer.close();
+
+        assertEquals(new File(directory, "dbo._Listings_.fmt"), writer.getFormatFile());
+        String format = new String(readFile(writer.getFormatFile()), "US-ASCII");
+        assertEquals("10.0\r\n"
+                + "3\r\n"
+                + "1 SQLINT 1 4 \"\" 1 ListingId \"\"\r\n"
+                + "2 SQLNCHAR 8 0 \"\" 3 Title \"\"\r\n"
+                + "3 SQLCHAR 2 100 \"\" 4 StartPrice \"\"\r\n", format);
+    }
+
+    @Test
+    public void testWriteChunks() throws Exception {
+        final List<File> chunks = new ArrayList<File>();
+        BulkFileWriter writer = new BulkFileWriter(directory, "Listings", fields, columnOrdinals,
+                BulkFileFormat.CSV, 2, new BulkFileWriter.ChunkListener() {
+            @Override
+            public void chunkWritten(File chunkFile, File formatFile) {
+                chunks.add(chunkFile);
+            }
+        });
+        RowBlock rows = new RowBlock(5, 0);
+        for (int i = 1; i <= 5; i++) {
+            rows.add(createRow(i, "Product " + i, null));
+        }
+        assertEquals(5, writer.writeBlock(rows));
+        assertEquals(2, chunks.size());
+        writer.close();
+
+        assertEquals(3, chunks.size());
+        assertEquals(new File(directory, "Listings-000003.csv"), chunks.get(2));
+        assertEquals("5,Product 5,\r\n", new String(readFile(chunks.get(2)), "UTF-8"));
+    }
+
+    @Test
+    public void testBuildBulkInsert() throws Exception {
+        File chunk = new File(directory, "O'Brien-000001.csv");
+        File format = new File(directory, "Listings.fmt");
+        assertEquals("BULK INSERT Listings FROM '" + chunk.getAbsolutePath().replace("'", "''")
+                + "' WITH (FORMAT = 'CSV', CODEPAGE = '65001', FORMATFILE = '" + format.getAbsolutePath()
+                + "', KEEPNULLS, TABLOCK)",
+                BulkLoader.buildBulkInsert("Listings", chunk, BulkFileFormat.CSV, format));
+    }
+}
@@ -0,0 +1,180 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the checkpoint only moves forward over blocks that have all been imported, and is read back the same, with the
+ * blocks imported after it skipped when resuming.
+ */
+public class CheckpointTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("CheckpointTest", ".json");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[100]);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Checkpoint.getFile(file.getPath()).delete();
+        file.delete();
+    }
+
+    private static RowBlock block(long start, long end, int rows) {
+        RowBlock block = new RowBlock(rows, start);
+        for (int i = 0; i < rows; i++) {
+            block.add(new JsonRow(new JsonNode[0]));
+        }
+        block.setEndOffset(end);
+        return block;
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(file.getPath(), "auctions", 10, 0);
+        for (int i = 0; i < 3; i++) {
+            checkpoint.blockStarted();
+        }
+        checkpoint.blockImported(block(40, 60, 2));
+        checkpoint.blockImported(block(30, 40, 1));
+        assertEquals(10, checkpoint.getOffset());
+        assertEquals(0, checkpoint.getRowCount());
+        assertFalse(checkpoint.isComplete());
+
+        checkpoint.blockImported(block(10, 30, 2));
+        assertEquals(60, checkpoint.getOffset());
+        assertEquals(5, checkpoint.getRowCount());
+        assertTrue(checkpoint.isComplete());
+
+        //an empty block is recorded without being started
+        checkpoint.blockImported(block(60, 70, 0));
+        assertEquals(70, checkpoint.getOffset());
+        assertTrue(checkpoint.isComplete());
+    }
+
+    @Test
+    public void testMissingBlock() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(file.getPath(), "auctions", 10, 0);
+        checkpoint.blockStarted();
+        checkpoint.blockStarted();
+        //the first block failed, so the second one cannot be recorded
+        checkpoint.blockImported(block(30, 40, 1));
+        assertEquals(10, checkpoint.getOffset());
+        assertFalse(checkpoint.isComplete());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        assertNull(Checkpoint.load(file.getPath()));
+
+        Checkpoint checkpoint = new Checkpoint(file.getPath(), "auctions", 10, 0);
+        checkpoint.blockStarted();
+        checkpoint.blockImported(block(10, 30, 2));
+        checkpoint.save();
+
+        Checkpoint loaded = Checkpoint.load(file.getPath());
+        assertEquals("auctions", loaded.getArrayName());
+        assertEquals(30, loaded.getOffset());
+        assertEquals(2, loaded.getRowCount());
+
+        checkpoint.delete();
+        assertNull(Checkpoint.load(file.getPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testChangedFile() throws Exception {
+        new Checkpoint(file.getPath(), "auctions", 10, 0).save();
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write('x');
+        } finally {
+            out.close();
+        }
+        Checkpoint.load(file.getPath());
+    }
+
+    /**
+     * Reads the rest of the array with {@code rd} in blocks of 2 rows.
+     */
+    private static List<RowBlock> readBlocks(BlockReader rd) throws IOException {
+        final List<RowBlock> blocks = new ArrayList<RowBlock>();
+        try {
+            rd.readBlocks(new FieldProjection(Arrays.asList(new Field("a", Types.INTEGER, "int"))), 2,
+                    new BlockListener() {
+                        @Override
+                        public void blockRead(RowBlock block) {
+                            blocks.add(block);
+                        }
+                    });
+        } finally {
+            rd.close();
+        }
+        return blocks;
+    }
+
+    @Test
+    public void testGapResumed() throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"auctions\":[{\"a\":1},{\"a\":2},{\"a\":3},{\"a\":4},{\"a\":5},{\"a\":6},{\"a\":7}]}");
+        } finally {
+            writer.close();
+        }
+        JsonArrayReader rd = new JsonArrayReader(file.getPath());
+        rd.moveToArray();
+        Checkpoint checkpoint = new Checkpoint(file.getPath(), "auctions", rd.getStartOffset(), 0);
+        List<RowBlock> blocks = readBlocks(rd);
+        assertEquals(Arrays.asList(2, 2, 2, 1), Arrays.asList(blocks.get(0).size(), blocks.get(1).size(),
+                blocks.get(2).size(), blocks.get(3).size()));
+        for (int i = 0; i < 4; i++) {
+            checkpoint.blockStarted();
+        }
+        //the second block failed, the ones after it were imported
+        checkpoint.blockImported(blocks.get(0));
+        checkpoint.blockImported(blocks.get(2));
+        checkpoint.blockImported(blocks.get(3));
+        checkpoint.save();
+
+        Checkpoint loaded = Checkpoint.load(file.getPath());
+        assertEquals(blocks.get(1).getStartOffset(), loaded.getOffset());
+        assertEquals(2, loaded.getRowCount());
+        assertEquals(2, loaded.getImportedRanges().size());
+        assertEquals(Long.valueOf(blocks.get(2).getEndOffset()),
+                loaded.getImportedRanges().get(blocks.get(2).getStartOffset()));
+
+        //only the rows of the block that failed are read again
+        rd = JsonArrayReader.resume(new FileInputStream(file), loaded.getOffset(), "auctions", false);
+        rd.setImportedRanges(loaded.getImportedRanges());
+        List<String> rows = new ArrayList<String>();
+        for (RowBlock block: readBlocks(rd)) {
+            for (JsonRow row: block) {
+                rows.add(row.toString());
+            }
+            if (!block.isEmpty()) {
+                loaded.blockStarted();
+            }
+            loaded.blockImported(block);
+        }
+        assertEquals(Arrays.asList("[3]", "[4]"), rows);
+        assertEquals(7, loaded.getRowCount());
+        assertTrue(loaded.getOffset() >= blocks.get(3).getEndOffset());
+        assertTrue(loaded.getImportedRanges().isEmpty());
+        assertTrue(loaded.isComplete());
+    }
+}
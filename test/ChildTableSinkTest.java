@@ -0,0 +1,120 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the child tables are parsed, and their rows written after their parent rows, using stub sinks that record the
+ * rows they get.
+ */
+public class ChildTableSinkTest {
+    private List<Field> fields = Arrays.asList(new Field("auc", Types.BIGINT, "bigint"));
+
+    /**
+     * A sink that records the rows it gets, and fails the objects whose first value is negative.
+     */
+    private static class RecordingSink implements ImportSink {
+        final List<String> rows = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> tables = Collections.synchronizedList(new ArrayList<String>());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        @Override
+        public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows) {
+            int[] updateCounts = new int[importRows.size()];
+            int i = 0;
+            threads.add(Thread.currentThread());
+            for (JsonRow row: importRows) {
+                rows.add(row.toString());
+                tables.add(tableName);
+                updateCounts[i++] = (row.isObject() && row.get(0).asLong() < 0) ? Statement.EXECUTE_FAILED : 1;
+            }
+            return updateCounts;
+        }
+    }
+
+    private List<JsonRow> rows(FieldProjection projection, String... objects) throws Exception {
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String s: objects) {
+            rows.add(projection.project(mapper.readTree(s)));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        ChildTable items = ChildTable.parse(" auction_items ( auc, item ) ");
+        assertEquals("auction_items", items.getTableName());
+        assertEquals("auc", items.getKeyColumn());
+        assertEquals(Collections.singletonList("item"), items.getArrayPath());
+        assertArrayEquals(new String[] {"auc", "item"}, items.getColumnNames());
+
+        ChildTable bids = ChildTable.parse("auction_bids(auc,bidder,amount=bid.amount)=/history/bids");
+        assertEquals(Arrays.asList("history", "bids"), bids.getArrayPath());
+        assertEquals(Arrays.asList("bid", "amount"), bids.getElementMappings().get(1).getPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseWithoutColumns() throws Exception {
+        ChildTable.parse("auction_items(auc)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyNotImported() throws Exception {
+        new FieldProjection(fields, null, Collections.singletonList(ChildTable.parse("auction_items(id,item)")));
+    }
+
+    @Test
+    public void testChildRows() throws Exception {
+        List<ChildTable> childTables = Collections.singletonList(ChildTable.parse("auction_items(auc,item)"));
+        FieldProjection projection = new FieldProjection(fields, null, childTables);
+        RecordingSink parent = new RecordingSink();
+        RecordingSink child = new RecordingSink();
+        ChildTableSink sink = new ChildTableSink(parent, child, childTables, 2, 1, 2);
+
+        int[] updateCounts = sink.importRows("auctions", fields, rows(projection,
+                "{\"auc\":1, \"item\":[10, 11, 12]}", "{\"auc\":-2, \"item\":[20]}", "\"random string\"",
+                "{\"auc\":3, \"item\":30}"));
+        assertEquals(4, updateCounts.length);
+        sink.importRows("auctions", fields, rows(projection, "{\"item\":[40], \"auc\":4}"));
+        sink.finish();
+
+        assertEquals(Arrays.asList("[1]", "[-2]", "\"random string\"", "[3]", "[4]"), parent.rows);
+        //the items of the row that failed are dropped
+        List<String> items = new ArrayList<String>(child.rows);
+        Collections.sort(items);
+        assertEquals(Arrays.asList("[1, 10]", "[1, 11]", "[1, 12]", "[4, 40]"), items);
+        assertEquals(Collections.nCopies(4, "auction_items"), child.tables);
+        assertTrue(sink.getChildSummaries().get(0).startsWith("Child table auction_items: 4 rows written, 0 failed, "));
+        assertEquals(0, sink.getFailedCount());
+    }
+
+    @Test
+    public void testChildTablesShareWriters() throws Exception {
+        List<ChildTable> childTables = Arrays.asList(ChildTable.parse("auction_items(auc,item)"),
+                ChildTable.parse("auction_bids(auc,bid)"));
+        FieldProjection projection = new FieldProjection(fields, null, childTables);
+        RecordingSink child = new RecordingSink();
+        ChildTableSink sink = new ChildTableSink(new RecordingSink(), child, childTables, 1, 1, 1);
+
+        for (int auc = 1; auc <= 5; auc++) {
+            sink.importRows("auctions", fields, rows(projection,
+                    "{\"auc\":" + auc + ", \"item\":[10, 11], \"bid\":[20]}"));
+        }
+        sink.finish();
+
+        assertEquals(15, child.rows.size());
+        assertEquals(10, Collections.frequency(child.tables, "auction_items"));
+        assertEquals(5, Collections.frequency(child.tables, "auction_bids"));
+        //one writer thread for both child tables
+        assertEquals(1, child.threads.size());
+        assertTrue(sink.getChildSummaries().get(0).startsWith("Child table auction_items: 10 rows written, "));
+        assertTrue(sink.getChildSummaries().get(1).startsWith("Child table auction_bids: 5 rows written, "));
+    }
+}
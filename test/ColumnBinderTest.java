@@ -0,0 +1,146 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the values are bound with the setter of their field type. These tests do not need a database, the
+ * parameters are recorded by a proxy {@code PreparedStatement}.
+ */
+public class ColumnBinderTest {
+    private JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    @Test
+    public void testBindTypes() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        PreparedStatement st = recordingStatement(calls);
+
+        ColumnBinder.forField(new Field("Title", Types.NVARCHAR, "nvarchar")).bind(st, 1, factory.textNode("Boots"));
+        ColumnBinder.forField(new Field("ListingId", Types.INTEGER, "int")).bind(st, 2, factory.numberNode(42));
+        ColumnBinder.forField(new Field("Id", Types.BIGINT, "bigint")).bind(st, 3, factory.numberNode(1L << 40));
+        ColumnBinder.forField(new Field("IsNew", Types.BIT, "bit")).bind(st, 4, factory.booleanNode(true));
+        ColumnBinder.forField(new Field("Price", Types.DECIMAL, "decimal"))
+                .bind(st, 5, factory.numberNode(new BigDecimal("12.5")));
+        ColumnBinder.forField(new Field("Ratio", Types.DOUBLE, "float")).bind(st, 6, factory.numberNode(0.5));
+
+        assertEquals(Arrays.asList("setString 1 Boots", "setLong 2 42", "setLong 3 1099511627776",
+                "setBoolean 4 true", "setBigDecimal 5 12.5", "setDouble 6 0.5"), calls);
+    }
+
+    @Test
+    public void testBindNull() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        PreparedStatement st = recordingStatement(calls);
+        ColumnBinder binder = ColumnBinder.forField(new Field("ListingId", Types.INTEGER, "int"));
+
+        binder.bind(st, 1, null);
+        binder.bind(st, 2, factory.nullNode());
+        ColumnBinder.forField(new Field("Picture", Types.VARBINARY, "varbinary")).bind(st, 3, factory.textNode("x"));
+
+        assertEquals(Arrays.asList("setNull 1 " + Types.INTEGER, "setNull 2 " + Types.INTEGER,
+                "setNull 3 " + Types.VARBINARY), calls);
+    }
+
+    @Test
+    public void testBindDateTime() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        PreparedStatement st = recordingStatement(calls);
+        ColumnBinder binder = ColumnBinder.forField(new Field("StartDate", Types.TIMESTAMP, "datetime"));
+
+        binder.bind(st, 1, factory.textNode("/Date(1376517722977)/"));
+        binder.bind(st, 2, factory.textNode("/Date(1376517722977+1200)/"));
+        binder.bind(st, 3, factory.numberNode(1376517722977L));
+        binder.bind(st, 4, factory.textNode("2013-08-14"));
+
+        assertEquals(Arrays.asList("setTimestamp 1 1376517722977 UTC", "setTimestamp 2 1376517722977 UTC",
+                "setTimestamp 3 1376517722977 UTC", "setString 4 2013-08-14"), calls);
+    }
+
+    @Test
+    public void testDateTimeReportedAsText() throws Exception {
+        //older drivers report the newer date types as nvarchar
+        Field f = new Field("EndDate", Types.NVARCHAR, "datetime2");
+        assertTrue(f.isDateTime());
+
+        List<String> calls = new ArrayList<String>();
+        ColumnBinder.forField(f).bind(recordingStatement(calls), 1, factory.textNode("/Date(0)/"));
+        assertEquals(Arrays.asList("setTimestamp 1 0 UTC"), calls);
+    }
+
+    @Test
+    public void testFormatDate() throws Exception {
+        JsonNode val = factory.textNode("/Date(1376517722977)/");
+        assertEquals("2013-08-14 22:02:02.977", ColumnBinder.formatDate(ColumnBinder.parseDateMillis(val)));
+        assertNull(ColumnBinder.parseDateMillis(factory.textNode("Date(1376517722977)")));
+    }
+
+    @Test
+    public void testBindFromRow() throws Exception {
+        //each binder reads the encoded value the same as it reads the node
+        JsonNode[] values = new JsonNode[] {factory.textNode("Boots"), factory.numberNode(42),
+                factory.numberNode(1L << 40), factory.numberNode(12.5), factory.numberNode(new BigDecimal("1.25")),
+                factory.textNode("17"), factory.booleanNode(true), factory.textNode("/Date(0)/"), factory.nullNode(),
+                null};
+        JsonRow row = new JsonRow(values);
+        String[] types = {"nvarchar", "int", "bigint", "float", "bit", "datetime"};
+        int[] sqlTypes = {Types.NVARCHAR, Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.BIT, Types.TIMESTAMP};
+        for (int t = 0; t < types.length; t++) {
+            ColumnBinder binder = ColumnBinder.forField(new Field("f", sqlTypes[t], types[t]));
+            for (int i = 0; i < values.length; i++) {
+                List<String> fromNode = new ArrayList<String>();
+                List<String> fromRow = new ArrayList<String>();
+                binder.bind(recordingStatement(fromNode), 1, values[i]);
+                binder.bind(recordingStatement(fromRow), 1, row, i);
+                assertEquals(types[t] + " " + values[i], fromNode, fromRow);
+            }
+        }
+    }
+
+    @Test
+    public void testBinderPlan() throws Exception {
+        List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ListingId", Types.INTEGER, "int"));
+        fields.add(new Field("Title", Types.NVARCHAR, "nvarchar"));
+        BinderPlan plan = new BinderPlan(fields);
+        assertTrue(plan.isFor(fields));
+        assertFalse(plan.isFor(new ArrayList<Field>(fields)));
+
+        List<String> calls = new ArrayList<String>();
+        JsonRow row = new JsonRow(new JsonNode[] {factory.numberNode(7), null});
+        plan.bindRow(recordingStatement(calls), row, 2);
+        assertEquals(Arrays.asList("setLong 3 7", "setNull 4 " + Types.NVARCHAR), calls);
+    }
+
+    /**
+     * Returns a statement that adds each setter call to {@code calls}, as the name, index and value of the call.
+     */
+    private static PreparedStatement recordingStatement(final List<String> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(ColumnBinderTest.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                StringBuilder sb = new StringBuilder(method.getName());
+                for (Object arg: args) {
+                    if (arg instanceof Timestamp) {
+                        sb.append(' ').append(((Timestamp) arg).getTime());
+                    } else if (arg instanceof Calendar) {
+                        sb.append(' ').append(((Calendar) arg).getTimeZone().getID());
+                    } else {
+                        sb.append(' ').append(arg);
+                    }
+                }
+                calls.add(sb.toString());
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,202 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests compressed files are detected and decompressed while they are read.
+ */
+public class CompressedInputTest {
+    private static final String JSON = "{\"auctions\":[{\"auc\":1,\"owner\":\"Keely\"},{\"auc\":2,\"owner\":\"Tephelie\"}]}";
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("CompressedInputTest", ".json");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private void saveToFile(byte[]... parts) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] part: parts) {
+                out.write(part);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] b) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(b);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns {@code b} compressed as one BGZF block, i.e. a gzip member with a BC extra subfield holding the size of
+     * the block.
+     */
+    private static byte[] bgzfBlock(byte[] b) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(b);
+        deflater.finish();
+        byte[] data = new byte[b.length + 1024];
+        int dataLength = deflater.deflate(data);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(b);
+
+        int blockSize = 18 + dataLength + 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0});
+        writeLittleEndian(out, blockSize - 1, 2);
+        out.write(data, 0, dataLength);
+        writeLittleEndian(out, crc.getValue(), 4);
+        writeLittleEndian(out, b.length, 4);
+        return out.toByteArray();
+    }
+
+    private static void writeLittleEndian(OutputStream out, long value, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xff);
+        }
+    }
+
+    private String readAll() throws IOException {
+        InputStream in = CompressedInput.open(file.getPath());
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] b = new byte[7];
+            int n;
+            while ((n = in.read(b)) > 0) {
+                out.write(b, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        saveToFile(JSON.getBytes("UTF-8"));
+        assertFalse(CompressedInput.isCompressed(file.getPath()));
+        assertEquals(JSON, readAll());
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        saveToFile(gzip(JSON.getBytes("UTF-8")));
+        assertTrue(CompressedInput.isCompressed(file.getPath()));
+        assertEquals(JSON, readAll());
+    }
+
+    @Test
+    public void testGzipMembers() throws Exception {
+        byte[] b = JSON.getBytes("UTF-8");
+        byte[] first = new byte[10];
+        byte[] second = new byte[b.length - first.length];
+        System.arraycopy(b, 0, first, 0, first.length);
+        System.arraycopy(b, first.length, second, 0, second.length);
+
+        saveToFile(gzip(first), gzip(second));
+        assertEquals(JSON, readAll());
+    }
+
+    @Test
+    public void testGzipLarge() throws Exception {
+        //several read-ahead chunks
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 100000; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"auc\":").append(i).append("}");
+        }
+        sb.append("]");
+        saveToFile(gzip(sb.toString().getBytes("UTF-8")));
+        assertEquals(sb.toString(), readAll());
+    }
+
+    @Test
+    public void testBgzf() throws Exception {
+        byte[] b = JSON.getBytes("UTF-8");
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        for (int i = 0; i < b.length; i += 5) {
+            byte[] part = new byte[Math.min(5, b.length - i)];
+            System.arraycopy(b, i, part, 0, part.length);
+            blocks.write(bgzfBlock(part));
+        }
+        //bgzip ends the file with an empty block
+        blocks.write(bgzfBlock(new byte[0]));
+
+        saveToFile(blocks.toByteArray());
+        assertTrue(CompressedInput.isCompressed(file.getPath()));
+        assertEquals(JSON, readAll());
+    }
+
+    @Test
+    public void testBgzfCorrupt() throws Exception {
+        byte[] block = bgzfBlock(JSON.getBytes("UTF-8"));
+        //change the CRC
+        block[block.length - 8] ^= 1;
+        saveToFile(block);
+        try {
+            readAll();
+            fail("The CRC error should be reported.");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage().contains("CRC"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBzip2() throws Exception {
+        saveToFile("BZh91AY&SY".getBytes("US-ASCII"));
+        CompressedInput.open(file.getPath());
+    }
+
+    @Test(expected = IOException.class)
+    public void testZstd() throws Exception {
+        saveToFile(new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0});
+        CompressedInput.open(file.getPath());
+    }
+
+    @Test
+    public void testJsonArrayReader() throws Exception {
+        saveToFile(gzip(JSON.getBytes("UTF-8")));
+        JsonArrayReader rd = new JsonArrayReader(file.getPath());
+        try {
+            JsonNode n = rd.read();
+            assertEquals("auctions", rd.getArrayName());
+            assertEquals(1, n.get("auc").asInt());
+            assertEquals("Tephelie", rd.read().get("owner").asText());
+            assertNull(rd.read());
+        } finally {
+            rd.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testParallelReaderRejectsCompressed() throws Exception {
+        saveToFile(gzip(JSON.getBytes("UTF-8")));
+        ParallelJsonArrayReader rd = new ParallelJsonArrayReader(file.getPath(), 2);
+        try {
+            rd.moveToArray();
+        } finally {
+            rd.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the rows whose key has already been imported are dropped before they reach the sink. The rows that are not
+ * dropped go to a {@code DiscardingSink}, so no database is needed.
+ */
+public class DedupingSinkTest {
+    private List<Field> fields = Arrays.asList(new Field("ListingId", Types.BIGINT, "bigint"),
+            new Field("Title", Types.NVARCHAR, "nvarchar"));
+
+    private List<JsonRow> rows(String json) throws Exception {
+        FieldProjection projection = new FieldProjection(fields);
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        for (JsonNode n: new ObjectMapper().readTree(json)) {
+            rows.add(projection.project(n));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        DedupingSink sink = new DedupingSink(new DiscardingSink(), "listingid", null);
+        int[] updateCounts = sink.importRows("Listings", fields, rows("[{\"ListingId\":1},{\"ListingId\":2},"
+                + "{\"ListingId\":1},{\"ListingId\":\"2\"},{\"Title\":\"no key\"},{\"Title\":\"no key\"}]"));
+        assertArrayEquals(new int[] {1, 1, DedupingSink.DUPLICATE, DedupingSink.DUPLICATE, 1, 1}, updateCounts);
+        assertEquals(2, DedupingSink.countDuplicates(updateCounts));
+
+        //across blocks, but not across tables
+        updateCounts = sink.importRows("Listings", fields, rows("[{\"ListingId\":2},{\"ListingId\":3}]"));
+        assertArrayEquals(new int[] {DedupingSink.DUPLICATE, 1}, updateCounts);
+        updateCounts = sink.importRows("Archive", fields, rows("[{\"ListingId\":2}]"));
+        assertArrayEquals(new int[] {1}, updateCounts);
+        assertEquals(3, sink.getDuplicateCount());
+    }
+
+    @Test
+    public void testAllDuplicates() throws Exception {
+        DedupingSink sink = new DedupingSink(new DiscardingSink(), "ListingId", null);
+        sink.importRows("Listings", fields, rows("[{\"ListingId\":1}]"));
+        assertArrayEquals(new int[] {DedupingSink.DUPLICATE, DedupingSink.DUPLICATE},
+                sink.importRows("Listings", fields, rows("[{\"ListingId\":1},{\"ListingId\":1}]")));
+    }
+
+    @Test
+    public void testImportTask() throws Exception {
+        ImportSummary summary = new ImportSummary("listings.json");
+        DedupingSink sink = new DedupingSink(new DiscardingSink(), "ListingId", null);
+        new ImportTask(sink, "Listings", fields, rows("[{\"ListingId\":1},{\"ListingId\":1},{\"ListingId\":2}]"),
+                summary).run();
+        assertEquals(2, summary.getImportedCount());
+        assertEquals(0, summary.getFailedCount());
+        assertEquals(1, summary.getDuplicateCount());
+    }
+
+    @Test(expected = SQLException.class)
+    public void testKeyNotImported() throws Exception {
+        new DedupingSink(new DiscardingSink(), "SellerId", null).importRows("Listings", fields,
+                rows("[{\"ListingId\":1}]"));
+    }
+}
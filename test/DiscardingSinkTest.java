@@ -0,0 +1,67 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the discarding sink binds every row and reports it as imported, without a database.
+ */
+public class DiscardingSinkTest {
+    private List<Field> fields = Arrays.asList(new Field("auc", Types.INTEGER, "int"),
+            new Field("owner", Types.NVARCHAR, "nvarchar"), new Field("buyout", Types.DECIMAL, "decimal"));
+
+    private List<JsonRow> rows(String json) throws Exception {
+        FieldProjection projection = new FieldProjection(fields);
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        for (JsonNode n: new ObjectMapper().readTree(json)) {
+            rows.add(projection.project(n));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testImportRows() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        DiscardingSink sink = new DiscardingSink();
+        sink.setMetrics(metrics);
+
+        int[] updateCounts = sink.importRows("auctions", fields, rows("[{\"auc\":1,\"owner\":\"Keely\",\"buyout\":2.5},"
+                + "{\"auc\":2,\"owner\":null},{\"auc\":\"not a number\",\"buyout\":true}]"));
+        assertArrayEquals(new int[] {1, 1, 1}, updateCounts);
+        assertEquals(3, JsonArrayImporter.countSucceeded(updateCounts));
+
+        sink.importRows("auctions", fields, rows("[{\"auc\":3}]"));
+        assertTrue(metrics.getBindLatency().startsWith("count=2,"));
+    }
+
+    @Test
+    public void testImportTask() throws Exception {
+        ImportSummary summary = new ImportSummary("auctions.json");
+        ImportTask task = new ImportTask(new DiscardingSink(), "auctions", fields,
+                rows("[{\"auc\":1},{\"auc\":2}]"), summary);
+        task.run();
+        assertTrue(task.isImported());
+        assertEquals(2, summary.getImportedCount());
+        assertEquals(0, summary.getFailedCount());
+    }
+
+    @Test
+    public void testValuesConsumed() throws Exception {
+        DiscardingStatement first = new DiscardingStatement();
+        DiscardingStatement second = new DiscardingStatement();
+        List<JsonRow> rows = rows("[{\"auc\":1,\"owner\":\"Keely\",\"buyout\":2.5}]");
+        new BinderPlan(fields).bindRow(first, rows.get(0), 0);
+        new BinderPlan(fields).bindRow(second, rows.get(0), 0);
+        assertEquals(first.getHash(), second.getHash());
+
+        second.setLong(1, 2);
+        assertTrue(first.getHash() != second.getHash());
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the column names and paths parsed from -f.
+ */
+public class FieldMappingTest {
+    @Test
+    public void testColumnOnly() throws Exception {
+        FieldMapping mapping = FieldMapping.parse(" ListingId ");
+        assertEquals("ListingId", mapping.getColumnName());
+        assertEquals(null, mapping.getPath());
+    }
+
+    @Test
+    public void testDottedPath() throws Exception {
+        assertEquals(Arrays.asList("realm", "name"), FieldMapping.parse("Realm = realm.name").getPath());
+        assertEquals(Arrays.asList("item", "0"), FieldMapping.parse("Item=item[0]").getPath());
+        assertEquals(Arrays.asList("a", "1", "b"), FieldMapping.parse("B=a[1].b").getPath());
+    }
+
+    @Test
+    public void testPointer() throws Exception {
+        assertEquals(Arrays.asList("item", "0"), FieldMapping.parse("Item=/item/0").getPath());
+        assertEquals(Arrays.asList("a/b", "c~d", ""), FieldMapping.parse("A=/a~1b/c~0d/").getPath());
+    }
+
+    @Test
+    public void testParseAll() throws Exception {
+        List<FieldMapping> mappings = FieldMapping.parseAll("auc, Realm=realm.name,Item=/item/0");
+        assertArrayEquals(new String[] {"auc", "Realm", "Item"}, FieldMapping.getColumnNames(mappings));
+        assertEquals(Arrays.asList("realm", "name"), mappings.get(1).getPath());
+    }
+
+    @Test
+    public void testArrayTable() throws Exception {
+        List<FieldMapping> defaults = FieldMapping.parseAll("auc,owner");
+        ArrayTable horde = ArrayTable.parse("horde.auctions = auctions_horde", defaults);
+        assertEquals(Arrays.asList("horde", "auctions"), horde.getArrayPath());
+        assertEquals("auctions_horde", horde.getTableName());
+        assertSame(defaults, horde.getMappings());
+
+        ArrayTable alliance = ArrayTable.parse("/alliance/auctions=auctions_alliance(auc, Realm=realm.name)", defaults);
+        assertEquals("auctions_alliance", alliance.getTableName());
+        assertArrayEquals(new String[] {"auc", "Realm"}, FieldMapping.getColumnNames(alliance.getMappings()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArrayTableWithoutTable() throws Exception {
+        ArrayTable.parse("horde.auctions", FieldMapping.parseAll("auc"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyColumn() throws Exception {
+        FieldMapping.parse("=realm.name");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptySegment() throws Exception {
+        FieldMapping.parse("Realm=realm..name");
+    }
+}
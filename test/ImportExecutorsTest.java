@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the import executor runs the tasks on virtual threads when the JVM has them and jTDS does not pin them, and on
+ * a fixed pool otherwise.
+ */
+public class ImportExecutorsTest {
+    /**
+     * Returns true if the task ran on a virtual thread.
+     */
+    private static boolean runsVirtual(ExecutorService executor) throws Exception {
+        try {
+            return executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        Method isVirtual = Thread.class.getMethod("isVirtual");
+                        return (Boolean) isVirtual.invoke(Thread.currentThread());
+                    } catch (NoSuchMethodException e) {
+                        return false;
+                    }
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFixedPool() throws Exception {
+        assertFalse(runsVirtual(ImportExecutors.newImportExecutor(2, false)));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        boolean pinned = ImportExecutors.isPinnedByMonitors(System.getProperty("java.specification.version"));
+        assertEquals(ImportExecutors.isVirtualThreadsSupported() && !pinned,
+                runsVirtual(ImportExecutors.newImportExecutor(2, true)));
+    }
+
+    @Test
+    public void testPinnedVirtualThreads() throws Exception {
+        ExecutorService executor = ImportExecutors.newVirtualThreadExecutor();
+        assertEquals(ImportExecutors.isVirtualThreadsSupported(), executor != null);
+        if (executor != null) {
+            assertTrue(runsVirtual(executor));
+        }
+    }
+
+    @Test
+    public void testPinnedByMonitors() throws Exception {
+        assertFalse(ImportExecutors.isPinnedByMonitors("1.6"));
+        assertFalse(ImportExecutors.isPinnedByMonitors("17"));
+        assertTrue(ImportExecutors.isPinnedByMonitors("21"));
+        assertTrue(ImportExecutors.isPinnedByMonitors("23"));
+        assertFalse(ImportExecutors.isPinnedByMonitors("24"));
+        assertFalse(ImportExecutors.isPinnedByMonitors("25"));
+    }
+}
@@ -0,0 +1,102 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the import metrics count the blocks and rows, and the latency histograms report percentiles close to the
+ * recorded durations.
+ */
+public class ImportMetricsTest {
+    private static RowBlock block(long start, long end, int rows, int skipped) {
+        RowBlock block = new RowBlock(rows, start);
+        for (int i = 0; i < rows; i++) {
+            block.add(new JsonRow(new JsonNode[0]));
+        }
+        for (int i = 0; i < skipped; i++) {
+            block.addSkipped();
+        }
+        block.setEndOffset(end);
+        return block;
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyHistogram.getBucket(micros);
+            assertTrue(micros <= LatencyHistogram.getBucketLimit(bucket));
+            assertTrue(bucket == 0 || micros > LatencyHistogram.getBucketLimit(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(50), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 1e-9);
+        assertEquals(100, histogram.getMaxMillis(), 1e-9);
+        assertEquals(50, histogram.getPercentileMillis(50), 50 * 0.25);
+        assertEquals(95, histogram.getPercentileMillis(95), 95 * 0.25);
+        assertEquals(100, histogram.getPercentileMillis(100), 1e-9);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.addInputFile(1000, false);
+        metrics.blockRead(block(10, 260, 5, 1));
+        metrics.blockRead(block(260, 510, 5, 0));
+        metrics.blockQueued();
+        metrics.blockQueued();
+        metrics.taskStarted();
+        metrics.addImported(4, 1);
+
+        assertEquals(500, metrics.getBytesRead());
+        assertEquals(10, metrics.getObjectsParsed());
+        assertEquals(1, metrics.getRowsSkipped());
+        assertEquals(4, metrics.getRowsInserted());
+        assertEquals(1, metrics.getRowsFailed());
+        assertEquals(1, metrics.getQueueDepth());
+        assertEquals(1, metrics.getActiveWorkers());
+        assertEquals(50, metrics.getProgressPercent(), 1e-9);
+        assertTrue(metrics.getEtaSeconds() >= 0);
+
+        metrics.taskFinished(System.nanoTime());
+        assertEquals(0, metrics.getActiveWorkers());
+        assertTrue(metrics.getProgressLine().startsWith("4 rows inserted, 1 failed, 1 skipped,"));
+    }
+
+    @Test
+    public void testUnknownSize() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.addInputFile(1000, true);
+        metrics.blockRead(block(0, 5000, 5, 0));
+        assertEquals(-1, metrics.getProgressPercent(), 0);
+        assertEquals(-1, metrics.getEtaSeconds());
+        assertTrue(metrics.getProgressLine().contains("ETA unknown"));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        ObjectName name = new ObjectName(ImportMetrics.OBJECT_NAME);
+        metrics.register();
+        try {
+            metrics.addImported(7, 0);
+            assertEquals(7L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RowsInserted"));
+        } finally {
+            metrics.stop();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
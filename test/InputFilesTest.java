@@ -0,0 +1,95 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the files to import are found from a file, a directory or a file name pattern.
+ */
+public class InputFilesTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("InputFilesTest", "");
+        directory.delete();
+        directory.mkdirs();
+        for (String name: new String[] {"auctions-2.json", "auctions-1.json.gz", "bids.json", "auctions-10.json"}) {
+            new FileOutputStream(new File(directory, name)).close();
+        }
+        new File(directory, "auctions-sub").mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new File(directory, "auctions-sub").delete();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private List<String> names(List<String> files) {
+        List<String> names = new ArrayList<String>();
+        for (String f: files) {
+            names.add(new File(f).getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        String path = new File(directory, "bids.json").getPath();
+        assertEquals(Arrays.asList(path), InputFiles.resolve(path));
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        assertEquals(Arrays.asList("auctions-1.json.gz", "auctions-10.json", "auctions-2.json", "bids.json"),
+                names(InputFiles.resolve(directory.getPath())));
+    }
+
+    @Test
+    public void testPattern() throws Exception {
+        assertEquals(Arrays.asList("auctions-1.json.gz", "auctions-10.json", "auctions-2.json"),
+                names(InputFiles.resolve(new File(directory, "auctions-*").getPath())));
+        assertEquals(Arrays.asList("auctions-10.json", "auctions-2.json"),
+                names(InputFiles.resolve(new File(directory, "auctions-*.json").getPath())));
+        assertEquals(Arrays.asList("auctions-2.json"),
+                names(InputFiles.resolve(new File(directory, "auctions-?.json").getPath())));
+        assertEquals(Arrays.asList("auctions-1.json.gz", "auctions-2.json"),
+                names(InputFiles.resolve(new File(directory, "auctions-[12].json{,.gz}").getPath())));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        assertTrue(InputFiles.resolve(new File(directory, "listings-*.json").getPath()).isEmpty());
+        assertTrue(InputFiles.resolve(new File(directory, "missing/auctions.json").getPath()).isEmpty());
+    }
+
+    @Test
+    public void testLinesNames() throws Exception {
+        assertTrue(InputFiles.isLines("feeds/auctions.ndjson"));
+        assertTrue(InputFiles.isLines("feeds/auctions.JSONL.gz"));
+        assertFalse(InputFiles.isLines("feeds/auctions.json"));
+        assertEquals("auctions", InputFiles.getBaseName("feeds/auctions.ndjson.gz"));
+        assertEquals("auctions", InputFiles.getBaseName("auctions.json"));
+        assertEquals("auctions.txt", InputFiles.getBaseName("auctions.txt"));
+    }
+
+    @Test
+    public void testGlobToRegex() throws Exception {
+        assertEquals("auctions-.*\\.json", InputFiles.globToRegex("auctions-*.json"));
+        assertEquals("a[^b]c(?:x|y)", InputFiles.globToRegex("a[!b]c{x,y}"));
+    }
+}
@@ -150,6 +150,86 @@ public class JsonArrayImporterTest {
         }
     }
 
+    /**
+     * Test importing in batches inserts every node, including the last partial batch.
+     * @throws Exception
+     */
+    @Test
+    public void testImportBatch() throws Exception {
+        ConnectionProperties p = getConnectionProperties();
+        Connection cn = DatabaseConnection.getConnection(p);
+        try {
+            List<Field> verifiedFields = new Vector<Field>();
+            String[] fields = "ListingId, Title".split(",");
+            String tableName = "Listings";
+            DatabaseConnection.verifyTable(p, tableName, fields, verifiedFields);
+
+            Collection<JsonNode> importNodes = new LinkedList<JsonNode>();
+            JsonNodeFactory f = JsonNodeFactory.instance;
+
+            ObjectNode n;
+            for (int listingId = 1; listingId <= 5; listingId++) {
+                n = new ObjectNode(f);
+                n.put("ListingId", listingId);
+                n.put("Title", "Product " + listingId);
+                importNodes.add(n);
+            }
+
+            JsonArrayImporter importer = new JsonArrayImporter(p, 2);
+            int[] updateCounts = importer.doImport(tableName, verifiedFields, importNodes);
+            assertEquals(5, updateCounts.length);
+            assertEquals(5, JsonArrayImporter.countSucceeded(updateCounts));
+
+            Statement st = cn.createStatement();
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM Listings");
+            assertTrue("Expected result set to contain a record", rs.next());
+            assertEquals(5, rs.getInt(1));
+        } finally {
+            cn.close();
+        }
+    }
+
+    /**
+     * Test importing with multi-row insert statements inserts every node, including the rows of the last, smaller
+     * statement.
+     * @throws Exception
+     */
+    @Test
+    public void testImportMultiRowValues() throws Exception {
+        ConnectionProperties p = getConnectionProperties();
+        Connection cn = DatabaseConnection.getConnection(p);
+        try {
+            List<Field> verifiedFields = new Vector<Field>();
+            String[] fields = "ListingId, Title".split(",");
+            String tableName = "Listings";
+            DatabaseConnection.verifyTable(p, tableName, fields, verifiedFields);
+
+            Collection<JsonNode> importNodes = new LinkedList<JsonNode>();
+            JsonNodeFactory f = JsonNodeFactory.instance;
+
+            //2 fields allow 1000 rows per statement, so this needs a full and a smaller statement
+            ObjectNode n;
+            for (int listingId = 1; listingId <= 1500; listingId++) {
+                n = new ObjectNode(f);
+                n.put("ListingId", listingId);
+                n.put("Title", "Product " + listingId);
+                importNodes.add(n);
+            }
+
+            JsonArrayImporter importer = new JsonArrayImporter(p, 1, true);
+            int[] updateCounts = importer.doImport(tableName, verifiedFields, importNodes);
+            assertEquals(1500, JsonArrayImporter.countSucceeded(updateCounts));
+
+            Statement st = cn.createStatement();
+            ResultSet rs = st.executeQuery("SELECT COUNT(*), MAX(ListingId) FROM Listings");
+            assertTrue("Expected result set to contain a record", rs.next());
+            assertEquals(1500, rs.getInt(1));
+            assertEquals(1500, rs.getInt(2));
+        } finally {
+            cn.close();
+        }
+    }
+
     public ConnectionProperties getConnectionProperties() {
         return new ConnectionProperties("DJANGO", 1434, "auctions", "SQLEXPRESS", "abm", "abm");
     }
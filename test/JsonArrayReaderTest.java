@@ -4,6 +4,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.sql.Types;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -175,6 +177,261 @@ public class JsonArrayReaderTest {
         assertEquals(null, n);
     }
 
+    private FieldProjection getProjection(String... fieldNames) {
+        List<Field> fields = new ArrayList<Field>();
+        for (String s: fieldNames) {
+            fields.add(new Field(s, Types.NVARCHAR, "nvarchar"));
+        }
+        return new FieldProjection(fields);
+    }
+
+    @Test
+    public void testReadRowProjectedFields() throws Exception {
+        String json = "{\"arr\":[{\"a\":1, \"b\":\"x\", \"c\":true}, {\"c\":false, \"a\":2}]}";
+        saveToFile(json);
+
+        JsonArrayReader rd = new JsonArrayReader(getDefaultFileName());
+        FieldProjection projection = getProjection("c", "a");
+        JsonRow row;
+
+        row = rd.readRow(projection);
+        assertTrue(row.isObject());
+        assertEquals(2, row.size());
+        assertEquals(true, row.get(0).asBoolean());
+        assertEquals(1, row.get(1).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(false, row.get(0).asBoolean());
+        assertEquals(2, row.get(1).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row);
+    }
+
+    /**
+     * test nested objects and arrays of fields that are not imported are skipped
+     * @throws Exception
+     */
+    @Test
+    public void testReadRowSkipNested() throws Exception {
+        String json = "{\"arr\":[{\"item\":[1, [2], {\"a\":3}], \"x\":{\"a\":4}, \"a\":5}, {\"a\":6}]}";
+        saveToFile(json);
+
+        JsonArrayReader rd = new JsonArrayReader(getDefaultFileName());
+        FieldProjection projection = getProjection("a");
+        JsonRow row;
+
+        row = rd.readRow(projection);
+        assertEquals(5, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(6, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row);
+    }
+
+    @Test
+    public void testReadRowMissingField() throws Exception {
+        String json = "[{\"a\":1}, {\"b\":2}]";
+        saveToFile(json);
+
+        JsonArrayReader rd = new JsonArrayReader(getDefaultFileName());
+        FieldProjection projection = getProjection("a", "b");
+        JsonRow row;
+
+        row = rd.readRow(projection);
+        assertEquals(1, row.get(0).asInt());
+        assertEquals(null, row.get(1));
+
+        row = rd.readRow(projection);
+        assertEquals(null, row.get(0));
+        assertEquals(2, row.get(1).asInt());
+    }
+
+    @Test
+    public void testReadRowNonObjects() throws Exception {
+        String json = "{\"arr\":[{\"a\":1}, \"random string\", [1, 2], {\"a\":2}]}";
+        saveToFile(json);
+
+        JsonArrayReader rd = new JsonArrayReader(getDefaultFileName());
+        FieldProjection projection = getProjection("a");
+        JsonRow row;
+
+        row = rd.readRow(projection);
+        assertEquals(1, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertFalse(row.isObject());
+        assertEquals("\"random string\"", row.toString());
+
+        row = rd.readRow(projection);
+        assertFalse(row.isObject());
+
+        row = rd.readRow(projection);
+        assertEquals(2, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row);
+    }
+
+    @Test
+    public void testReadLines() throws Exception {
+        String json = "{\"a\":1, \"b\":{\"c\":3}}\n\"random string\"\n{\"a\":2}\n";
+        JsonArrayReader rd = JsonArrayReader.forLines(new ByteArrayInputStream(json.getBytes("UTF-8")), "lines");
+        FieldProjection projection = getProjection("a");
+        JsonRow row;
+
+        assertEquals("lines", rd.getArrayName());
+        row = rd.readRow(projection);
+        assertEquals(1, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertFalse(row.isObject());
+
+        row = rd.readRow(projection);
+        assertEquals(2, row.get(0).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row);
+    }
+
+    private FieldProjection getMappedProjection(String... mappings) {
+        List<FieldMapping> parsed = new ArrayList<FieldMapping>();
+        List<Field> fields = new ArrayList<Field>();
+        for (String s: mappings) {
+            FieldMapping mapping = FieldMapping.parse(s);
+            parsed.add(mapping);
+            fields.add(new Field(mapping.getColumnName(), Types.NVARCHAR, "nvarchar"));
+        }
+        return new FieldProjection(fields, parsed);
+    }
+
+    /**
+     * test nested values are read by path, and the same path can be imported whole and into
+     * @throws Exception
+     */
+    @Test
+    public void testReadRowPaths() throws Exception {
+        String json = "[{\"auc\":1, \"realm\":{\"name\":\"Aegwynn\", \"slug\":\"aegwynn\"}, "
+                + "\"item\":[7, [8], {\"a\":9}], \"x\":{\"y\":1}}, "
+                + "{\"item\":5, \"realm\":null}]";
+        JsonArrayReader rd = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        FieldProjection projection = getMappedProjection("auc", "Realm=realm.name", "First=item[0]",
+                "Inner=/item/1/0", "Item=item", "A=item.2.a");
+        JsonRow row;
+
+        row = rd.readRow(projection);
+        assertEquals(1, row.get(0).asInt());
+        assertEquals("Aegwynn", row.get(1).asText());
+        assertEquals(7, row.get(2).asInt());
+        assertEquals(8, row.get(3).asInt());
+        assertEquals("[7,[8],{\"a\":9}]", row.get(4).toString());
+        assertEquals(9, row.get(5).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row.get(0));
+        assertEquals(null, row.get(1));
+        assertEquals(null, row.get(2));
+        assertEquals(5, row.get(4).asInt());
+
+        row = rd.readRow(projection);
+        assertEquals(null, row);
+    }
+
+    /**
+     * test a row projected from a tree has the same values as a row read from the parser
+     * @throws Exception
+     */
+    @Test
+    public void testProjectPaths() throws Exception {
+        String json = "[{\"a\":{\"b\":[1, {\"c\":2}]}, \"d~/e\":3}, {\"a\":[4]}]";
+        FieldProjection projection = getMappedProjection("C=a.b[1].c", "B=/a/b/0", "E=/d~0~1e", "A=a");
+        JsonArrayReader rowReader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        JsonArrayReader treeReader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(rowReader.readRow(projection).toString(), projection.project(treeReader.read()).toString());
+        }
+        assertEquals(null, rowReader.readRow(projection));
+    }
+
+    /**
+     * test the elements of nested arrays are read into the rows of child tables, with the key of their object, whether
+     * the key comes before or after the array
+     * @throws Exception
+     */
+    @Test
+    public void testReadRowChildTables() throws Exception {
+        String json = "[{\"item\":[1, 2], \"auc\":10, \"bids\":[{\"bidder\":\"a\", \"bid\":{\"amount\":5}}]}, "
+                + "{\"auc\":11, \"item\":[3], \"bids\":[]}, {\"auc\":12}]";
+        List<Field> fields = Arrays.asList(new Field("auc", Types.BIGINT, "bigint"),
+                new Field("FirstItem", Types.BIGINT, "bigint"));
+        List<FieldMapping> mappings = Arrays.asList(FieldMapping.parse("auc"), FieldMapping.parse("FirstItem=item[0]"));
+        FieldProjection projection = new FieldProjection(fields, mappings, Arrays.asList(
+                ChildTable.parse("auction_items(auc,item)"),
+                ChildTable.parse("auction_bids(auc,bidder,amount=bid.amount)=bids")));
+        JsonArrayReader rowReader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        JsonArrayReader treeReader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        JsonRow row;
+
+        row = rowReader.readRow(projection);
+        assertEquals(1, row.get(1).asInt());
+        assertEquals("[[10, 1], [10, 2]]", row.getChildren(0).toString());
+        assertEquals("[[10, \"a\", 5]]", row.getChildren(1).toString());
+        assertEquals(row.getChildren(0).toString(), projection.project(treeReader.read()).getChildren(0).toString());
+
+        row = rowReader.readRow(projection);
+        assertEquals("[[11, 3]]", row.getChildren(0).toString());
+        assertTrue(row.getChildren(1).isEmpty());
+        assertEquals(row.getChildren(0).toString(), projection.project(treeReader.read()).getChildren(0).toString());
+
+        row = rowReader.readRow(projection);
+        assertTrue(row.getChildren(0).isEmpty());
+        assertEquals(null, rowReader.readRow(projection));
+    }
+
+    /**
+     * A listener that records the rows of the blocks it gets.
+     */
+    private static class RecordingListener implements BlockListener {
+        final List<String> rows = new ArrayList<String>();
+
+        @Override
+        public void blockRead(RowBlock block) {
+            for (JsonRow row: block) {
+                rows.add(row.toString());
+            }
+        }
+    }
+
+    /**
+     * test every array at one of the paths is read in one pass, each with its own projection and listener
+     * @throws Exception
+     */
+    @Test
+    public void testReadArrays() throws Exception {
+        String json = "{\"realm\":{\"name\":\"Aegwynn\"}, "
+                + "\"alliance\":{\"auctions\":[{\"auc\":1, \"owner\":\"Keely\"}, {\"auc\":2}]}, "
+                + "\"skipped\":[{\"auctions\":[{\"auc\":0}]}], "
+                + "\"horde\":{\"count\":1, \"auctions\":[\"random string\", {\"auc\":3, \"owner\":\"Tephelie\"}]}, "
+                + "\"neutral\":{\"auctions\":[]}}";
+        JsonArrayReader rd = new JsonArrayReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        RecordingListener alliance = new RecordingListener();
+        RecordingListener horde = new RecordingListener();
+        int[] found = rd.readArrays(
+                Arrays.asList(FieldMapping.parsePath("alliance.auctions"), FieldMapping.parsePath("/horde/auctions"),
+                        FieldMapping.parsePath("goblin.auctions")),
+                Arrays.asList(getProjection("auc"), getProjection("owner", "auc"), getProjection("auc")),
+                BlockBuilder.fixedSize(1), Arrays.<BlockListener>asList(alliance, horde, new RecordingListener()));
+
+        assertArrayEquals(new int[] {1, 1, 0}, found);
+        assertEquals(Arrays.asList("[1]", "[2]"), alliance.rows);
+        assertEquals(Arrays.asList("[\"Tephelie\", 3]"), horde.rows);
+        assertEquals("auctions", rd.getArrayName());
+        assertEquals(null, rd.readRow(getProjection("auc")));
+    }
+
     @Test(expected = FileNotFoundException.class)
     public void testInvalidFileName() throws Exception {
         JsonArrayReader rd = new JsonArrayReader("no such file");
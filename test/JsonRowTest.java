@@ -0,0 +1,114 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the values of a row are decoded into the same nodes they were created from.
+ */
+public class JsonRowTest {
+    private JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    @Test
+    public void testValues() throws Exception {
+        JsonNode tree = new ObjectMapper().readTree("{\"item\":[1, 2], \"name\":\"Keely\"}");
+        JsonNode[] values = new JsonNode[] {
+                factory.numberNode(42), factory.numberNode(-7), factory.numberNode(1L << 40),
+                factory.numberNode(Long.MIN_VALUE), factory.numberNode(-0.25), factory.textNode("Boots"),
+                factory.textNode("Bottes \u00e0 \u20ac \ud83d\ude00"), factory.textNode(""),
+                factory.numberNode(new BigInteger("123456789012345678901234567890")),
+                factory.numberNode(new BigDecimal("-1234.5600")), factory.booleanNode(true),
+                factory.booleanNode(false), factory.nullNode(), null, tree};
+        JsonRow row = new JsonRow(values.clone());
+
+        assertTrue(row.isObject());
+        assertEquals(values.length, row.size());
+        for (int i = 0; i < values.length; i++) {
+            JsonNode n = row.get(i);
+            assertEquals("value " + i, values[i], n);
+            if (n != null) {
+                assertEquals("value " + i, values[i].getClass(), n.getClass());
+            }
+        }
+        assertEquals(Arrays.toString(values), row.toString());
+        //objects and arrays are not copied
+        assertSame(tree, row.get(values.length - 1));
+    }
+
+    @Test
+    public void testEncodedSize() throws Exception {
+        JsonRow row = new JsonRow(new JsonNode[] {factory.numberNode(3), factory.textNode("Keely"), null});
+        //one byte per offset, then the values
+        assertEquals(3 + 2 + 7 + 1, row.getEncodedSize());
+        assertEquals(null, row.get(2));
+    }
+
+    @Test
+    public void testOffsetWidths() throws Exception {
+        //offsets of 1, 2 and 4 bytes, the last value is after the longest text
+        for (int length: new int[] {200, 252, 253, 300, 65000, 65529, 65530, 100000}) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'a');
+            String text = new String(chars);
+            JsonRow row = new JsonRow(new JsonNode[] {factory.numberNode(1), factory.textNode(text),
+                    factory.numberNode(2)});
+            assertEquals(text, row.asText(1));
+            assertEquals(1, row.getLong(0));
+            assertEquals("length " + length, 2, row.getLong(2));
+        }
+    }
+
+    @Test
+    public void testTypedValues() throws Exception {
+        JsonNode[] values = new JsonNode[] {factory.numberNode(-42), factory.numberNode(1L << 40),
+                factory.numberNode(2.5), factory.textNode("Keely"), factory.textNode("12"), factory.booleanNode(true),
+                factory.numberNode(new BigDecimal("7.5")), factory.nullNode(), null};
+        JsonRow row = new JsonRow(values);
+        for (int i = 0; i < values.length; i++) {
+            JsonNode n = values[i];
+            assertEquals("value " + i, n == null || n.isNull(), row.isNull(i));
+            assertEquals("value " + i, n != null && (n.isInt() || n.isLong()), row.isIntegral(i));
+            assertEquals("value " + i, n != null && n.isTextual(), row.isTextual(i));
+            if (n != null) {
+                assertEquals("value " + i, n.longValue(), row.getLong(i));
+                assertEquals("value " + i, n.doubleValue(), row.getDouble(i), 0);
+                assertEquals("value " + i, n.asText(), row.asText(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeRow() throws Exception {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'a');
+        String text = new String(chars);
+        JsonRow large = new JsonRow(new JsonNode[] {factory.textNode(text), factory.numberNode(1)});
+        JsonRow small = new JsonRow(new JsonNode[] {factory.numberNode(2)});
+
+        assertEquals(text, large.get(0).textValue());
+        assertEquals(1, large.get(1).intValue());
+        assertEquals(2, small.get(0).intValue());
+    }
+
+    @Test
+    public void testNonObject() throws Exception {
+        JsonRow row = JsonRow.nonObject(factory.textNode("random string"));
+        assertFalse(row.isObject());
+        assertEquals(0, row.size());
+        assertEquals("\"random string\"", row.toString());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() throws Exception {
+        new JsonRow(new JsonNode[] {factory.numberNode(1)}).get(1);
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the keys are found in the bitmap whichever container they are in, and that ids take little memory.
+ */
+public class LongBitmapTest {
+    @Test
+    public void testAdd() throws Exception {
+        LongBitmap keys = new LongBitmap();
+        assertTrue(keys.add(2073382230L));
+        assertFalse(keys.add(2073382230L));
+        assertTrue(keys.add(0));
+        assertTrue(keys.add(-1));
+        assertTrue(keys.add(Long.MIN_VALUE));
+        assertTrue(keys.add(Long.MAX_VALUE));
+        assertFalse(keys.add(-1));
+        assertEquals(5, keys.size());
+
+        assertTrue(keys.contains(2073382230L));
+        assertTrue(keys.contains(Long.MIN_VALUE));
+        assertFalse(keys.contains(2073382231L));
+        assertFalse(keys.contains(1));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        //keys spread over a few containers, some of which become bitmaps
+        Random random = new Random(42);
+        Set<Long> expected = new HashSet<Long>();
+        LongBitmap keys = new LongBitmap();
+        for (int i = 0; i < 50000; i++) {
+            long key = (random.nextInt(8) << 16) + random.nextInt(1 << 16) - (3 << 16);
+            assertEquals(expected.add(key), keys.add(key));
+        }
+        assertEquals(expected.size(), keys.size());
+        for (long key = -(3 << 16); key < (5 << 16); key++) {
+            assertEquals(expected.contains(key), keys.contains(key));
+        }
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        LongBitmap keys = new LongBitmap();
+        //consecutive ids take about 1 bit each
+        for (long key = 1000000; key < 2000000; key++) {
+            keys.add(key);
+        }
+        assertEquals(1000000, keys.size());
+        assertTrue(keys.getMemoryBytes() < 200000);
+
+        //ids 20 apart take 2 bytes each, plus the room left in the arrays
+        LongBitmap sparse = new LongBitmap();
+        for (long key = 0; key < 20000000; key += 20) {
+            sparse.add(key);
+        }
+        assertTrue(sparse.getMemoryBytes() < 3000000);
+    }
+}
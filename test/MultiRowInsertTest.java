@@ -0,0 +1,129 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the size of multi-row inserts, and that their statements are prepared once per connection. The rows are
+ * imported with a stand-in connection that records each statement it prepares, so no database is needed.
+ */
+public class MultiRowInsertTest {
+    private List<String> prepared = new ArrayList<String>();
+    private List<String> closed = new ArrayList<String>();
+
+    private List<Field> fields(int count) {
+        List<Field> fields = new ArrayList<Field>();
+        for (int i = 0; i < count; i++) {
+            fields.add(new Field("f" + i, Types.INTEGER, "int"));
+        }
+        return fields;
+    }
+
+    private List<JsonRow> rows(int count, int fieldCount) {
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        for (int i = 0; i < count; i++) {
+            JsonNode[] values = new JsonNode[fieldCount];
+            Arrays.fill(values, JsonNodeFactory.instance.numberNode(i));
+            rows.add(new JsonRow(values));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns a connection that adds the SQL of each prepared statement to {@code prepared}, and reports every
+     * statement as inserting all of its rows.
+     */
+    private Connection recordingConnection() {
+        return (Connection) proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                    final String sql = (String) args[0];
+                    final int rows = sql.split("\\(\\?").length - 1;
+                    prepared.add(sql);
+                    return proxy(PreparedStatement.class, new InvocationHandler() {
+                        int batch = 0;
+
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("addBatch")) {
+                                batch++;
+                            } else if (name.equals("executeBatch")) {
+                                int[] counts = new int[batch];
+                                Arrays.fill(counts, rows);
+                                batch = 0;
+                                return counts;
+                            } else if (name.equals("executeUpdate")) {
+                                return rows;
+                            } else if (name.equals("close")) {
+                                closed.add(sql);
+                            }
+                            return null;
+                        }
+                    });
+                } else if (method.getName().equals("isClosed")) {
+                    return false;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(MultiRowInsertTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    @Test
+    public void testRowsPerStatement() throws Exception {
+        //jTDS adds its own parameters to the 2100 SQL Server allows
+        assertEquals(699, JsonArrayImporter.getRowsPerStatement(3));
+        assertEquals(524, JsonArrayImporter.getRowsPerStatement(4));
+        assertEquals(419, JsonArrayImporter.getRowsPerStatement(5));
+        for (int fieldCount = 3; fieldCount <= 5; fieldCount++) {
+            assertTrue(JsonArrayImporter.getRowsPerStatement(fieldCount) * fieldCount <= 2098);
+        }
+        assertEquals(1000, JsonArrayImporter.getRowsPerStatement(2));
+        assertEquals(1, JsonArrayImporter.getRowsPerStatement(3000));
+    }
+
+    @Test
+    public void testStatementsReused() throws Exception {
+        JsonArrayImporter importer = new JsonArrayImporter(null, 2, true);
+        Connection cn = recordingConnection();
+        List<Field> fields = fields(5);
+        Field[] fieldArray = fields.toArray(new Field[fields.size()]);
+
+        for (int block = 0; block < 3; block++) {
+            int[] updateCounts = importer.importRows(cn, "Listings", fields, rows(1000, 5));
+            assertEquals(1000, JsonArrayImporter.countSucceeded(updateCounts));
+        }
+        //419 + 419 + 162 rows per block, prepared by the first block only
+        assertEquals(Arrays.asList(JsonArrayImporter.buildInsert("Listings", fieldArray, 419),
+                JsonArrayImporter.buildInsert("Listings", fieldArray, 162)), prepared);
+
+        //another connection prepares its own
+        importer.importRows(recordingConnection(), "Listings", fields, rows(419, 5));
+        assertEquals(3, prepared.size());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClosed() throws Exception {
+        JsonArrayImporter importer = new JsonArrayImporter(null, 1, true);
+        Connection cn = recordingConnection();
+        for (int fieldCount = 1; fieldCount <= 9; fieldCount++) {
+            importer.importRows(cn, "Listings", fields(fieldCount), rows(1, fieldCount));
+        }
+        assertEquals(9, prepared.size());
+        assertEquals(Collections.singletonList(prepared.get(0)), closed);
+    }
+}
@@ -0,0 +1,313 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the parallel reader returns the same rows as {@code JsonArrayReader}. A tiny range size is used so the array
+ * gets split between most elements.
+ */
+public class ParallelJsonArrayReaderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("ParallelJsonArrayReaderTest", ".json");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private void saveToFile(String json) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private FieldProjection getProjection(String... fieldNames) {
+        List<Field> fields = new ArrayList<Field>();
+        for (String s: fieldNames) {
+            fields.add(new Field(s, Types.NVARCHAR, "nvarchar"));
+        }
+        return new FieldProjection(fields);
+    }
+
+    /**
+     * Reads the whole array with {@code rd}, and returns the values of field "a" sorted.
+     */
+    private List<String> readAll(BlockReader rd) throws IOException {
+        return readAll(rd, "a");
+    }
+
+    /**
+     * Reads the whole array with {@code rd}, and returns the values of {@code fieldName} sorted.
+     */
+    private List<String> readAll(BlockReader rd, String fieldName) throws IOException {
+        final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+        try {
+            rd.readBlocks(getProjection(fieldName), 2, new BlockListener() {
+                @Override
+                public void blockRead(RowBlock block) {
+                    for (JsonRow row: block) {
+                        values.add(row.get(0) == null ? "" : row.get(0).asText());
+                    }
+                }
+            });
+        } finally {
+            rd.close();
+        }
+        List<String> sorted = new ArrayList<String>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private void assertSameAsSequential(String json) throws IOException {
+        saveToFile(json);
+        List<String> expected = readAll(new JsonArrayReader(file.getPath()));
+        List<String> actual = readAll(new ParallelJsonArrayReader(file.getPath(), 4, 1));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testGetArrayName() throws Exception {
+        saveToFile("{\"x\":{\"y\":1}, \"arr\":[1, 2, 3]}");
+
+        ParallelJsonArrayReader rd = new ParallelJsonArrayReader(file.getPath(), 2);
+        try {
+            rd.moveToArray();
+            assertEquals("arr", rd.getArrayName());
+        } finally {
+            rd.close();
+        }
+    }
+
+    @Test
+    public void testReadSimpleObjects() throws Exception {
+        String json = "{\"arr\":[{\"a\":1}, {\"a\":2}, {\"a\":3}, {\"a\":4}, {\"a\":5}]}";
+        saveToFile(json);
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"),
+                readAll(new ParallelJsonArrayReader(file.getPath(), 4, 1)));
+    }
+
+    /**
+     * test commas, brackets and escaped quotes inside strings and nested values do not split an element
+     * @throws Exception
+     */
+    @Test
+    public void testReadStringsAndNesting() throws Exception {
+        assertSameAsSequential("{\"arr\":[{\"a\":\"x, ] } [ {\", \"b\":[1, {\"c\":[2, 3]}]}, "
+                + "{\"a\":\"y \\\", ]\"}, {\"a\":\"z\\\\\", \"b\":\"]\"}, {\"b\":{\"a\":\"nested\"}, \"a\":\"w\"}]}");
+    }
+
+    @Test
+    public void testReadNonObjects() throws Exception {
+        assertSameAsSequential("[{\"a\":1}, \"random string\", [1, 2], 3, null, {\"a\":2}]");
+    }
+
+    @Test
+    public void testReadSkipSecondArray() throws Exception {
+        assertSameAsSequential("{\"arr\":[{\"a\":1}, {\"a\":2}], \"arr2\":[{\"a\":3}, {\"a\":4}]}");
+    }
+
+    @Test
+    public void testReadEmptyArray() throws Exception {
+        assertSameAsSequential("{\"arr\":[ ]}");
+    }
+
+    @Test
+    public void testReadNoArray() throws Exception {
+        assertSameAsSequential("{\"a\":1, \"b\":2}");
+    }
+
+    @Test
+    public void testReadSample() throws Exception {
+        File sample = new File("samples/auctions-small.json");
+        List<String> expected = readAll(new JsonArrayReader(sample.getPath()), "ListingId");
+        List<String> actual = readAll(new ParallelJsonArrayReader(sample.getPath(), 4, 4096), "ListingId");
+        assertEquals(250, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    private void assertLinesSameAsSequential(String json) throws IOException {
+        saveToFile(json);
+        List<String> expected = readAll(JsonArrayReader.forLines(new FileInputStream(file), "lines"));
+        List<String> actual = readAll(ParallelJsonArrayReader.forLines(file.getPath(), 4, 1));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadLines() throws Exception {
+        saveToFile("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n{\"a\":4}\n{\"a\":5}\n");
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"),
+                readAll(ParallelJsonArrayReader.forLines(file.getPath(), 4, 1)));
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"),
+                readAll(ParallelJsonArrayReader.forLines(file.getPath(), 4, 12)));
+    }
+
+    @Test
+    public void testReadLinesNonObjects() throws Exception {
+        assertLinesSameAsSequential("{\"a\":1}\r\n\"random string\"\r\n\r\n[1, 2]\n3\nnull\n{\"a\":\"x\\ny\"}");
+    }
+
+    @Test
+    public void testReadLinesEmpty() throws Exception {
+        assertLinesSameAsSequential("");
+        assertLinesSameAsSequential("\n\n");
+    }
+
+    @Test
+    public void testGetLinesName() throws Exception {
+        saveToFile("{\"a\":1}\n");
+        ParallelJsonArrayReader rd = ParallelJsonArrayReader.forLines(file.getPath(), 2);
+        try {
+            rd.moveToArray();
+            assertEquals(InputFiles.getBaseName(file.getPath()), rd.getArrayName());
+        } finally {
+            rd.close();
+        }
+    }
+
+    /**
+     * Reads the whole array with {@code rd}, and returns the blocks sorted by their position in the file.
+     */
+    private List<RowBlock> readBlocks(BlockReader rd) throws IOException {
+        final List<RowBlock> blocks = Collections.synchronizedList(new ArrayList<RowBlock>());
+        try {
+            rd.readBlocks(getProjection("a"), 2, new BlockListener() {
+                @Override
+                public void blockRead(RowBlock block) {
+                    blocks.add(block);
+                }
+            });
+        } finally {
+            rd.close();
+        }
+        List<RowBlock> sorted = new ArrayList<RowBlock>(blocks);
+        Collections.sort(sorted, new Comparator<RowBlock>() {
+            @Override
+            public int compare(RowBlock o1, RowBlock o2) {
+                return Long.valueOf(o1.getStartOffset()).compareTo(o2.getStartOffset());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Asserts the blocks follow each other without gaps from {@code start}, and returns the values of field "a".
+     */
+    private List<String> assertContiguous(List<RowBlock> blocks, long start) {
+        List<String> values = new ArrayList<String>();
+        long offset = start;
+        for (RowBlock block: blocks) {
+            assertEquals(offset, block.getStartOffset());
+            assertTrue(block.getEndOffset() > block.getStartOffset());
+            offset = block.getEndOffset();
+            for (JsonRow row: block) {
+                values.add(row.get(0).asText());
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testBlockOffsets() throws Exception {
+        String json = "{\"realm\":\"D\u00fcn\", \"auctions\":[{\"a\":\"\u00e9\"} , {\"a\":2},\"x\",{\"a\":3},\n"
+                + "{\"a\":\"\u00fc\"},{\"a\":5}, 6 ]}";
+        saveToFile(json);
+        long start = json.getBytes("UTF-8").length - json.substring(json.indexOf('[') + 1).getBytes("UTF-8").length;
+        List<String> expected = Arrays.asList("\u00e9", "2", "3", "\u00fc", "5");
+
+        assertEquals(expected, assertContiguous(readBlocks(new JsonArrayReader(file.getPath())), start));
+        assertEquals(expected, assertContiguous(readBlocks(new ParallelJsonArrayReader(file.getPath(), 4, 1)), start));
+        assertEquals(expected, assertContiguous(readBlocks(new ParallelJsonArrayReader(file.getPath(), 4, 20)), start));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        saveToFile("{\"auctions\":[{\"a\":\"\u00e9\"}, {\"a\":2}\n, {\"a\":3},{\"a\":\"\u00fc\"},{\"a\":5}]}");
+        //resume after the first block of 2 rows, as a checkpoint would
+        long offset = readBlocks(new JsonArrayReader(file.getPath())).get(0).getEndOffset();
+        List<String> expected = Arrays.asList("3", "\u00fc", "5");
+
+        JsonArrayReader rd = JsonArrayReader.resume(new FileInputStream(file), offset, "auctions", false);
+        assertEquals(expected, assertContiguous(readBlocks(rd), offset));
+        assertEquals("auctions", rd.getArrayName());
+
+        ParallelJsonArrayReader parallel = new ParallelJsonArrayReader(file.getPath(), 4, 1);
+        parallel.resumeAt(offset, "auctions");
+        assertEquals(expected, assertContiguous(readBlocks(parallel), offset));
+    }
+
+    @Test
+    public void testResumeSkipsImported() throws Exception {
+        saveToFile("{\"auctions\":[{\"a\":1}, {\"a\":2}\n, {\"a\":3},{\"a\":4},{\"a\":5},\n{\"a\":6},{\"a\":7}]}");
+        List<RowBlock> blocks = readBlocks(new JsonArrayReader(file.getPath()));
+        //the first block was imported, the second one failed, and the third one was imported after it
+        long offset = blocks.get(0).getEndOffset();
+        RowBlock imported = blocks.get(2);
+        assertEquals("[[5], [6]]", imported.toString());
+        NavigableMap<Long, Long> ranges = new TreeMap<Long, Long>();
+        ranges.put(imported.getStartOffset(), imported.getEndOffset());
+        List<String> expected = Arrays.asList("3", "4", "7");
+
+        JsonArrayReader rd = JsonArrayReader.resume(new FileInputStream(file), offset, "auctions", false);
+        rd.setImportedRanges(ranges);
+        assertEquals(expected, assertContiguous(withRange(readBlocks(rd), imported), offset));
+
+        for (int rangeSize: new int[] {1, 20}) {
+            ParallelJsonArrayReader parallel = new ParallelJsonArrayReader(file.getPath(), 4, rangeSize);
+            parallel.resumeAt(offset, "auctions");
+            parallel.setImportedRanges(ranges);
+            assertEquals(expected, assertContiguous(withRange(readBlocks(parallel), imported), offset));
+        }
+    }
+
+    /**
+     * Adds an empty block in place of {@code imported} to {@code blocks}, sorted by position.
+     */
+    private static List<RowBlock> withRange(List<RowBlock> blocks, RowBlock imported) {
+        RowBlock range = new RowBlock(0, imported.getStartOffset());
+        range.setEndOffset(imported.getEndOffset());
+        List<RowBlock> result = new ArrayList<RowBlock>(blocks);
+        int i = 0;
+        while (i < result.size() && result.get(i).getStartOffset() < range.getStartOffset()) {
+            i++;
+        }
+        result.add(i, range);
+        return result;
+    }
+
+    @Test
+    public void testResumeLines() throws Exception {
+        saveToFile("{\"a\":\"\u00e9\"}\n{\"a\":2}\r\n\n{\"a\":3}\n{\"a\":\"\u00fc\"}\n{\"a\":5}\n");
+        List<RowBlock> blocks = readBlocks(ParallelJsonArrayReader.forLines(file.getPath(), 4, 1));
+        assertEquals(Arrays.asList("\u00e9", "2", "3", "\u00fc", "5"), assertContiguous(blocks, 0));
+        long offset = readBlocks(JsonArrayReader.forLines(new FileInputStream(file), "lines")).get(0).getEndOffset();
+        List<String> expected = Arrays.asList("3", "\u00fc", "5");
+
+        JsonArrayReader rd = JsonArrayReader.resume(new FileInputStream(file), offset, "lines", true);
+        assertEquals(expected, assertContiguous(readBlocks(rd), offset));
+
+        ParallelJsonArrayReader parallel = ParallelJsonArrayReader.forLines(file.getPath(), 4, 1);
+        parallel.resumeAt(offset, "lines");
+        assertEquals(expected, assertContiguous(readBlocks(parallel), offset));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testInvalidFileName() throws Exception {
+        new ParallelJsonArrayReader("no such file", 2);
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the statements of a minimally logged reload, in the order they are executed.
+ */
+public class ReloadPlanTest {
+    private List<Field> fields = Arrays.asList(new Field("ListingId", Types.BIGINT, "bigint"),
+            new Field("Title", Types.NVARCHAR, "nvarchar", 80, 0));
+
+    @Test
+    public void testPrepare() throws Exception {
+        ReloadPlan plan = new ReloadPlan("[dbo].[Listings]", fields, Arrays.asList("IX_Title", "IX_Odd]Name"), 2);
+        assertEquals(Arrays.asList("dbo.Listings_reload1", "dbo.Listings_reload2"), plan.getStagingTables());
+        assertEquals(Arrays.asList(
+                "ALTER INDEX [IX_Title] ON [dbo].[Listings] DISABLE",
+                "ALTER INDEX [IX_Odd]]Name] ON [dbo].[Listings] DISABLE",
+                "IF OBJECT_ID('dbo.Listings_reload1', 'U') IS NOT NULL DROP TABLE dbo.Listings_reload1",
+                "CREATE TABLE dbo.Listings_reload1 ([ListingId] bigint NULL, "
+                        + "[Title] nvarchar(80) COLLATE DATABASE_DEFAULT NULL)",
+                "IF OBJECT_ID('dbo.Listings_reload2', 'U') IS NOT NULL DROP TABLE dbo.Listings_reload2",
+                "CREATE TABLE dbo.Listings_reload2 ([ListingId] bigint NULL, "
+                        + "[Title] nvarchar(80) COLLATE DATABASE_DEFAULT NULL)"),
+                plan.getPrepareStatements());
+        assertEquals("INSERT INTO dbo.Listings_reload1 WITH (TABLOCK) ([ListingId], [Title]) VALUES (?, ?)",
+                JsonArrayImporter.buildInsert(ReloadPlan.getInsertTarget("dbo.Listings_reload1"),
+                        fields.toArray(new Field[fields.size()]), 1));
+    }
+
+    @Test
+    public void testCombine() throws Exception {
+        ReloadPlan plan = new ReloadPlan("Listings", fields, Collections.<String>emptyList(), 2);
+        assertEquals("INSERT INTO Listings WITH (TABLOCK) ([ListingId], [Title]) "
+                + "SELECT [ListingId], [Title] FROM Listings_reload1 "
+                + "UNION ALL SELECT [ListingId], [Title] FROM Listings_reload2", plan.getCombineStatement());
+        assertTrue(plan.getRebuildStatements().isEmpty());
+    }
+
+    @Test
+    public void testFinish() throws Exception {
+        ReloadPlan plan = new ReloadPlan("Listings", fields, Arrays.asList("IX_Title", "IX_Price"), 1);
+        assertEquals(Collections.singletonList(
+                "IF OBJECT_ID('Listings_reload1', 'U') IS NOT NULL DROP TABLE Listings_reload1"),
+                plan.getDropStatements());
+        assertEquals(Arrays.asList("ALTER INDEX [IX_Title] ON Listings REBUILD",
+                "ALTER INDEX [IX_Price] ON Listings REBUILD"), plan.getRebuildStatements());
+    }
+
+    @Test
+    public void testLeftover() throws Exception {
+        assertEquals("Listings\\_reload[0-9]%", ReloadPlan.getStagingPattern("[dbo].[Listings]"));
+        assertEquals("Odd\\_\\%Name\\_reload[0-9]%", ReloadPlan.getStagingPattern("Odd_%Name"));
+
+        //a killed reload with more threads left more staging heaps than this one creates
+        ReloadPlan plan = new ReloadPlan("[dbo].[Listings]", fields, Collections.singletonList("IX_Title"),
+                Arrays.asList("Listings_reload1", "Listings_reload2", "Listings_reload3"));
+        assertEquals(Arrays.asList(
+                "IF OBJECT_ID('dbo.Listings_reload1', 'U') IS NOT NULL DROP TABLE dbo.Listings_reload1",
+                "IF OBJECT_ID('dbo.Listings_reload2', 'U') IS NOT NULL DROP TABLE dbo.Listings_reload2",
+                "IF OBJECT_ID('dbo.Listings_reload3', 'U') IS NOT NULL DROP TABLE dbo.Listings_reload3"),
+                plan.getDropStatements());
+        assertEquals(Collections.singletonList("ALTER INDEX [IX_Title] ON [dbo].[Listings] REBUILD"),
+                plan.getRebuildStatements());
+    }
+}
@@ -0,0 +1,67 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the rows are routed to the same shard from one import to the next, and spread evenly by the hash.
+ */
+public class ShardRouterTest {
+    private JsonNodeFactory f = JsonNodeFactory.instance;
+
+    @Test
+    public void testHash() throws Exception {
+        ShardRouter router = ShardRouter.hash(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 40000; i++) {
+            int shard = router.getShard(f.numberNode(i));
+            assertEquals(shard, router.getShard(f.textNode(String.valueOf(i))));
+            counts[shard]++;
+        }
+        for (int count: counts) {
+            assertTrue("Uneven shards: " + count, count > 9000 && count < 11000);
+        }
+
+        //stable across runs, the hash only depends on the text of the key
+        assertEquals(router.getShard(f.numberNode(2073382230)), ShardRouter.hash(4).getShard(
+                f.numberNode(2073382230L)));
+        assertEquals(0, router.getShard(null));
+        assertEquals(0, router.getShard(f.nullNode()));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        ShardRouter router = ShardRouter.ranges(new long[] {100, 200});
+        assertEquals(3, router.getShardCount());
+        assertEquals(0, router.getShard(f.numberNode(-5)));
+        assertEquals(0, router.getShard(f.numberNode(99)));
+        assertEquals(1, router.getShard(f.numberNode(100)));
+        assertEquals(1, router.getShard(f.textNode("199")));
+        assertEquals(2, router.getShard(f.numberNode(200L)));
+        assertEquals(2, router.getShard(f.numberNode(Long.MAX_VALUE)));
+        assertEquals(0, router.getShard(f.textNode("abc")));
+    }
+
+    @Test
+    public void testRowKeys() throws Exception {
+        //the keys read from a row go to the same shard as their nodes
+        JsonNode[] keys = new JsonNode[] {f.numberNode(42), f.numberNode(1L << 40), f.textNode("150"),
+                f.textNode(" 250 "), f.textNode("abc"), f.numberNode(150.5), f.nullNode(), null};
+        JsonRow row = new JsonRow(keys);
+        ShardRouter[] routers = {ShardRouter.hash(7), ShardRouter.ranges(new long[] {100, 200})};
+        for (ShardRouter router: routers) {
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(String.valueOf(keys[i]), router.getShard(keys[i]), router.getShard(row, i));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangesOutOfOrder() throws Exception {
+        ShardRouter.ranges(new long[] {200, 100});
+    }
+}
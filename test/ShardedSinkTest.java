@@ -0,0 +1,128 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the rows are routed to their shards and written in batches, using stub sinks that record the rows they get.
+ */
+public class ShardedSinkTest {
+    private List<Field> fields = Arrays.asList(new Field("ListingId", Types.BIGINT, "bigint"),
+            new Field("Title", Types.NVARCHAR, "nvarchar"));
+
+    /**
+     * A sink that records the listing ids it gets by table, and can be made to wait before each write.
+     */
+    private static class RecordingSink implements ImportSink {
+        final Map<String, List<Long>> ids = new ConcurrentHashMap<String, List<Long>>();
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public int[] importRows(String tableName, List<Field> fields, Collection<JsonRow> importRows) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Long> tableIds = ids.get(tableName);
+            if (tableIds == null) {
+                ids.put(tableName, tableIds = Collections.synchronizedList(new ArrayList<Long>()));
+            }
+            for (JsonRow row: importRows) {
+                tableIds.add(row.get(0).longValue());
+            }
+            batchSizes.add(importRows.size());
+            int[] updateCounts = new int[importRows.size()];
+            Arrays.fill(updateCounts, 1);
+            return updateCounts;
+        }
+    }
+
+    private List<JsonRow> rows(int from, int to) throws Exception {
+        FieldProjection projection = new FieldProjection(fields);
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = from; i < to; i++) {
+            JsonNode n = mapper.readTree("{\"ListingId\":" + i + "}");
+            rows.add(projection.project(n));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        RecordingSink low = new RecordingSink();
+        RecordingSink high = new RecordingSink();
+        ShardedSink sink = new ShardedSink("listingid", ShardRouter.ranges(new long[] {50}), 20, 2, 4);
+        sink.addShard("low", low, "Listings_low");
+        sink.addShard("high", high, null);
+
+        int[] updateCounts = sink.importRows("Listings", fields, rows(0, 70));
+        assertEquals(70, updateCounts.length);
+        assertEquals(70, JsonArrayImporter.countSucceeded(updateCounts));
+        sink.importRows("Listings", fields, rows(70, 100));
+        sink.finish();
+
+        assertEquals(Collections.singleton("Listings_low"), low.ids.keySet());
+        List<Long> lowIds = new ArrayList<Long>(low.ids.get("Listings_low"));
+        Collections.sort(lowIds);
+        assertEquals(50, lowIds.size());
+        assertEquals(Long.valueOf(49), lowIds.get(49));
+        assertEquals(50, high.ids.get("Listings").size());
+
+        //full batches of 20 while the rows are imported, the rest when finished
+        List<Integer> lowBatches = new ArrayList<Integer>(low.batchSizes);
+        Collections.sort(lowBatches);
+        assertEquals(Arrays.asList(10, 20, 20), lowBatches);
+        assertTrue(sink.getShardSummaries().get(0).startsWith("Shard low: 50 rows written, 0 failed, "));
+        assertTrue(sink.getShardSummaries().get(1).startsWith("Shard high: 50 rows written, 0 failed, "));
+        assertEquals(0, sink.getFailedCount());
+    }
+
+    @Test
+    public void testSlowShard() throws Exception {
+        RecordingSink slow = new RecordingSink();
+        RecordingSink fast = new RecordingSink();
+        slow.release = new CountDownLatch(1);
+        ShardedSink sink = new ShardedSink("ListingId", ShardRouter.ranges(new long[] {10}), 10, 1, 2);
+        sink.addShard("slow", slow, null);
+        sink.addShard("fast", fast, null);
+
+        //the slow shard has room for 2 batches, the fast one keeps writing
+        sink.importRows("Listings", fields, rows(0, 10));
+        sink.importRows("Listings", fields, rows(0, 10));
+        for (int i = 0; i < 10; i++) {
+            sink.importRows("Listings", fields, rows(10 + i * 10, 20 + i * 10));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast.batchSizes.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, fast.batchSizes.size());
+        assertTrue(slow.batchSizes.isEmpty());
+
+        slow.release.countDown();
+        sink.finish();
+        assertEquals(20, slow.ids.get("Listings").size());
+    }
+
+    @Test(expected = SQLException.class)
+    public void testKeyNotImported() throws Exception {
+        ShardedSink sink = new ShardedSink("SellerId", ShardRouter.hash(1), 10, 1, 1);
+        sink.addShard("only", new RecordingSink(), null);
+        try {
+            sink.importRows("Listings", fields, rows(0, 1));
+        } finally {
+            sink.finish();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Robo
+ *
+ * Tests the SQL the upsert sends. The rows are imported with a stand-in connection that records each statement and
+ * reports every row as inserted, so no database is needed.
+ */
+public class UpsertSinkTest {
+    private List<Field> fields = Arrays.asList(new Field("ListingId", Types.BIGINT, "bigint"),
+            new Field("Title", Types.NVARCHAR, "nvarchar", 80, 0),
+            new Field("StartPrice", Types.DECIMAL, "decimal", 10, 2));
+    private List<String> statements = new ArrayList<String>();
+
+    private List<JsonRow> rows(String json) throws Exception {
+        FieldProjection projection = new FieldProjection(fields);
+        List<JsonRow> rows = new ArrayList<JsonRow>();
+        for (JsonNode n: new ObjectMapper().readTree(json)) {
+            rows.add(projection.project(n));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns a connection that adds the SQL of each execute to {@code statements}.
+     */
+    private Connection recordingConnection() {
+        return (Connection) proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createStatement")) {
+                    return proxy(Statement.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().startsWith("execute")) {
+                                statements.add((String) args[0]);
+                            }
+                            return method.getName().equals("execute") ? (Object) false : (Object) 0;
+                        }
+                    });
+                } else if (method.getName().equals("prepareStatement")) {
+                    final String sql = (String) args[0];
+                    return proxy(PreparedStatement.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().equals("executeUpdate")) {
+                                statements.add(sql);
+                                return 1;
+                            }
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(UpsertSinkTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    @Test
+    public void testStagingTypes() throws Exception {
+        assertEquals("nvarchar(80) COLLATE DATABASE_DEFAULT", UpsertSink.getStagingType(fields.get(1)));
+        assertEquals("decimal(10, 2)", UpsertSink.getStagingType(fields.get(2)));
+        assertEquals("int", UpsertSink.getStagingType(new Field("Id", Types.INTEGER, "int identity")));
+        assertEquals("varchar(max) COLLATE DATABASE_DEFAULT",
+                UpsertSink.getStagingType(new Field("Notes", Types.LONGVARCHAR, "text", 2147483647, 0)));
+        assertEquals("#upsert_dbo_Listings", UpsertSink.getStagingName("[dbo].Listings"));
+    }
+
+    @Test
+    public void testBuildCreateStaging() throws Exception {
+        assertEquals("IF OBJECT_ID('tempdb..#s') IS NULL CREATE TABLE #s ([ListingId] bigint NULL, "
+                + "[Title] nvarchar(80) COLLATE DATABASE_DEFAULT NULL, [StartPrice] decimal(10, 2) NULL, "
+                + "[upsert_row] int IDENTITY(1, 1) NOT NULL) ELSE TRUNCATE TABLE #s",
+                UpsertSink.buildCreateStaging("#s", fields.toArray(new Field[fields.size()])));
+    }
+
+    @Test
+    public void testBuildMerge() throws Exception {
+        Field[] fieldArray = fields.toArray(new Field[fields.size()]);
+        assertEquals("MERGE INTO Listings WITH (HOLDLOCK) AS target USING (SELECT [ListingId], [Title], [StartPrice] "
+                + "FROM (SELECT [ListingId], [Title], [StartPrice], ROW_NUMBER() OVER (PARTITION BY [ListingId] "
+                + "ORDER BY [upsert_row] DESC) AS [upsert_rank] FROM #s) AS staged "
+                + "WHERE [upsert_rank] = 1 OR [ListingId] IS NULL) AS source "
+                + "ON target.[ListingId] = source.[ListingId] "
+                + "WHEN MATCHED THEN UPDATE SET target.[Title] = source.[Title], "
+                + "target.[StartPrice] = source.[StartPrice] "
+                + "WHEN NOT MATCHED BY TARGET THEN INSERT ([ListingId], [Title], [StartPrice]) "
+                + "VALUES (source.[ListingId], source.[Title], source.[StartPrice]);",
+                UpsertSink.buildMerge("Listings", "#s", fieldArray, new int[] {0}));
+
+        //every field is a key, nothing to update
+        assertEquals("MERGE INTO Listings WITH (HOLDLOCK) AS target USING (SELECT [ListingId], [Title] "
+                + "FROM (SELECT [ListingId], [Title], ROW_NUMBER() OVER (PARTITION BY [ListingId], [Title] "
+                + "ORDER BY [upsert_row] DESC) AS [upsert_rank] FROM #s) AS staged "
+                + "WHERE [upsert_rank] = 1 OR [ListingId] IS NULL OR [Title] IS NULL) AS source "
+                + "ON target.[ListingId] = source.[ListingId] AND target.[Title] = source.[Title] "
+                + "WHEN NOT MATCHED BY TARGET THEN INSERT ([ListingId], [Title]) "
+                + "VALUES (source.[ListingId], source.[Title]);",
+                UpsertSink.buildMerge("Listings", "#s", new Field[] {fieldArray[0], fieldArray[1]}, new int[] {0, 1}));
+    }
+
+    @Test
+    public void testImportRows() throws Exception {
+        UpsertSink sink = new UpsertSink(null, new JsonArrayImporter(null), new String[] {" listingid"});
+        int[] updateCounts = sink.importRows(recordingConnection(), "Listings", fields, rows("[{\"ListingId\":1},"
+                + "{\"ListingId\":2},{\"ListingId\":\"1\",\"Title\":\"last\"},{\"Title\":\"no key\"}]"));
+        //the first row is replaced by the third
+        assertArrayEquals(new int[] {Statement.SUCCESS_NO_INFO, 1, 1, 1}, updateCounts);
+
+        Field[] fieldArray = fields.toArray(new Field[fields.size()]);
+        List<String> expected = new ArrayList<String>();
+        expected.add(UpsertSink.buildCreateStaging("#upsert_Listings", fieldArray));
+        for (int i = 0; i < 3; i++) {
+            expected.add(JsonArrayImporter.buildInsert("#upsert_Listings", fieldArray, 1));
+        }
+        expected.add(UpsertSink.buildMerge("Listings", "#upsert_Listings", fieldArray, new int[] {0}));
+        assertEquals(expected, statements);
+    }
+
+    @Test
+    public void testKeysEqualOnServer() throws Exception {
+        //the text differs, so both rows are staged, and the MERGE only uses the last one of the key
+        UpsertSink sink = new UpsertSink(null, new JsonArrayImporter(null), new String[] {"Title"});
+        int[] updateCounts = sink.importRows(recordingConnection(), "Listings", fields,
+                rows("[{\"ListingId\":1,\"Title\":\"ABC\"},{\"ListingId\":2,\"Title\":\"abc \"}]"));
+        assertArrayEquals(new int[] {1, 1}, updateCounts);
+
+        String merge = statements.get(statements.size() - 1);
+        assertEquals(UpsertSink.buildMerge("Listings", "#upsert_Listings", fields.toArray(new Field[fields.size()]),
+                new int[] {1}), merge);
+        assertTrue(merge.contains("ROW_NUMBER() OVER (PARTITION BY [Title] ORDER BY [upsert_row] DESC)"));
+        assertTrue(merge.contains("WHERE [upsert_rank] = 1 OR [Title] IS NULL"));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testKeyNotImported() throws Exception {
+        new UpsertSink(null, new JsonArrayImporter(null), new String[] {"SellerId"}).importRows(
+                recordingConnection(), "Listings", fields, rows("[{\"ListingId\":1}]"));
+    }
+}